@@ -22,6 +22,7 @@ package org.matsim.drtBlockings;
 
 import org.apache.log4j.Logger;
 import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
 import org.matsim.api.core.v01.network.Network;
 import org.matsim.contrib.drt.optimizer.DefaultDrtOptimizer;
 import org.matsim.contrib.drt.schedule.DrtDriveTask;
@@ -34,6 +35,7 @@ import org.matsim.contrib.dvrp.path.VrpPathWithTravelData;
 import org.matsim.contrib.dvrp.path.VrpPaths;
 import org.matsim.contrib.dvrp.router.TimeAsTravelDisutility;
 import org.matsim.contrib.dvrp.schedule.Schedule;
+import org.matsim.contrib.dvrp.schedule.Schedules;
 import org.matsim.contrib.dvrp.schedule.Task;
 import org.matsim.contrib.dvrp.schedule.Tasks;
 import org.matsim.contrib.freight.carrier.CarrierVehicle;
@@ -51,14 +53,31 @@ import org.matsim.drtBlockings.events.DrtBlockingRequestRejectedEvent;
 import org.matsim.drtBlockings.events.DrtBlockingRequestScheduledEvent;
 import org.matsim.drtBlockings.events.DrtBlockingRequestSubmittedEvent;
 import org.matsim.drtBlockings.tasks.FreightRetoolTask;
+import org.matsim.util.MinCostAssignment;
 
 import java.util.*;
-import java.util.stream.Collectors;
-
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * assigns the pending blocking requests to idle vehicles, as long as the share of idle vehicles in the fleet stays above a minimum.
+ * the pending requests are ordered by the start time of the blocking, which is also the deadline for the assignment. requests that are not
+ * assigned until then are rejected. by default, the requests are handled one after another (most urgent first) in every time step and each one
+ * gets the vehicle chosen by the {@link DrtBlockingRequestDispatcher}. with a positive batch matching interval, all pending requests are
+ * matched at once every interval (and whenever the most urgent request is about to expire), by a minimum cost assignment on the candidate vehicles
+ * that the dispatcher finds for each request.
+ */
 class AdaptiveBlockingOptimizer implements BlockingOptimizer {
 
     private static final Logger log = Logger.getLogger(BlockingOptimizer.class);
 
+    //number of candidate vehicles that the dispatcher is asked for per request in the batch matching
+    private static final int CANDIDATES_PER_REQUEST = 10;
+
+    //the start time of the blocking is the deadline for the assignment. requests with the same deadline are ordered by id, so the order is defined
+    static final Comparator<DrtBlockingRequest> DEADLINE_ORDER = Comparator.comparingDouble(DrtBlockingRequest::getStartTime)
+            .thenComparing(DrtBlockingRequest::getId);
+
 
     private final DefaultDrtOptimizer optimizer;
     private final Fleet fleet;
@@ -75,13 +94,19 @@ class AdaptiveBlockingOptimizer implements BlockingOptimizer {
     private final TravelTime travelTime;
     Random rnd;
 
-    private PriorityQueue<DrtBlockingRequest> blockingRequests;
+    //pending requests, ordered by the start time of the blocking, which is the deadline for the assignment
+    private final NavigableSet<DrtBlockingRequest> blockingRequests;
+    //maintained in nextTask(), instead of filtering the whole fleet in every time step
+    private final IdleVehicleIndex idleVehicles = new IdleVehicleIndex();
 
     private double minIdleVehicleRatio;
     private final Config config;
+    //0 means that the requests are dispatched one after another
+    private final int batchMatchingInterval;
 
     AdaptiveBlockingOptimizer(DefaultDrtOptimizer optimizer, Fleet fleet, DrtScheduleInquiry scheduleInquiry, DrtBlockingManager blockingManager,
-                              DrtBlockingRequestDispatcher dispatcher, TravelTime travelTime, EventsManager eventsManager, Network modalNetwork, MobsimTimer timer, Config config) {
+                              DrtBlockingRequestDispatcher dispatcher, TravelTime travelTime, EventsManager eventsManager, Network modalNetwork, MobsimTimer timer, Config config,
+                              int batchMatchingInterval) {
         this.optimizer = optimizer;
         this.fleet = fleet;
         this.scheduleInquiry = scheduleInquiry;
@@ -95,9 +120,10 @@ class AdaptiveBlockingOptimizer implements BlockingOptimizer {
         this.router = new FastAStarEuclideanFactory().createPathCalculator(modalNetwork, new TimeAsTravelDisutility(travelTime),
                 travelTime);
 
-        this.blockingRequests = new PriorityQueue<>(Comparator.comparing((DrtBlockingRequest::getSubmissionTime)).reversed());
+        this.blockingRequests = new TreeSet<>(DEADLINE_ORDER);
         this.minIdleVehicleRatio = 0.50;
         this.config = config;
+        this.batchMatchingInterval = batchMatchingInterval;
     }
 
 
@@ -128,6 +154,15 @@ class AdaptiveBlockingOptimizer implements BlockingOptimizer {
             updateBlocking(vehicle);
         }
 
+        if(scheduleInquiry.isIdle(vehicle)){
+            if(this.idleVehicles.add(vehicle)) this.dispatcher.vehicleBecameIdle(vehicle);
+        } else {
+            removeIdleVehicle(vehicle);
+        }
+    }
+
+    private void removeIdleVehicle(DvrpVehicle vehicle) {
+        if(this.idleVehicles.remove(vehicle)) this.dispatcher.vehicleNoLongerIdle(vehicle);
     }
 
     private void updateBlocking(DvrpVehicle vehicle) {
@@ -147,72 +182,162 @@ class AdaptiveBlockingOptimizer implements BlockingOptimizer {
     public void notifyMobsimBeforeSimStep(MobsimBeforeSimStepEvent e) {
         optimizer.notifyMobsimBeforeSimStep(e);
 
-        List<? extends DvrpVehicle> idleVehicles = fleet.getVehicles()
-                .values()
-                .stream()
-                .filter(scheduleInquiry::isIdle)
-                .collect(Collectors.toList());
-        Iterator<DrtBlockingRequest> blockingRequestsIterator = this.blockingRequests.iterator();
-
-        while(blockingRequestsIterator.hasNext()) {
-            DrtBlockingRequest drtBlockingRequest = blockingRequestsIterator.next();
-
-            //there should be a more elegant way to determine the latest time to schedule, for now it will be the closing time of our depots
-
-            //some buffer to avoid breaks through tour delays
-            double schedulingBuffer = 15 * 60.;
-
-            //This would be a rather hard deadline to just set the latest time to schedule to a fix value
-//            double latestBlockingSchedulingTime = 22 * 3600.;
-            //It seems more elegant to do it this way, so the latest time to schedule always depends on the blockingDuration
-            double latestBlockingSchedulingTime = config.qsim().getEndTime().seconds() - (drtBlockingRequest.getPlannedBlockingDuration() + schedulingBuffer);
-
-            //TODO what if the 1st tour of the queue is very long and can never be assigned?
-            // => replanning of tours (incorporate org.matsim.drtBlockings.ReplanningBlockingRequestEngine). tschlenther, dec '20
-            // the way that works now, we would actually NEED to reject those requests.
-//            if(timer.getTimeOfDay() >= latestBlockingSchedulingTime){
-            if(timer.getTimeOfDay() > drtBlockingRequest.getStartTime()){
-                //Do we still need the latestBlockingSchedulingTIme?? Because with our vehicles for each time window, its not
-                //possible to exceed the global service time
-                //instead of using this we should use timer.getTimeOfDay() > drtBlockingRequest.getBlockingStart.
-                rejectBlockingRequest(drtBlockingRequest);
-                blockingRequestsIterator.remove();
-            } else {
-                double idleVehiclesNo = idleVehicles.size();
-                double allVehiclesNo = fleet.getVehicles().size();
-                double currentIdleVehicleRatio = idleVehiclesNo / allVehiclesNo;
-
-                if (currentIdleVehicleRatio > this.minIdleVehicleRatio) {
-                    //TODO does current blocking request fit (based on historic fleet occupancy data?)
-
-                    if (!idleVehicles.isEmpty()) {
-                        DvrpVehicle vehicle;
-
-                        List<DvrpVehicle> availableVehicles = idleVehicles.stream()
-                                .filter(v -> v.getServiceEndTime() > timer.getTimeOfDay() + drtBlockingRequest.getPlannedBlockingDuration()) //blocking should be expected to fit into vehicle service time
-                                .filter(v -> !this.blockingManager.isVehicleBlocked(v))  //if the idle vehicle is blocked (in the future), do not assign it
-                                .collect(Collectors.toList());
-                        vehicle = this.dispatcher.findDispatchForBlockingRequest(Collections.unmodifiableList(availableVehicles), drtBlockingRequest);
-
-                        if (vehicle == null) {
-                            continue;
-                        }
-
-                        log.info("blocking vehicle " + vehicle.getId() + " for time period start=" + timer.getTimeOfDay()
-                                + " end=" + (timer.getTimeOfDay() + drtBlockingRequest.getPlannedBlockingDuration()));
-                        idleVehicles.remove(vehicle);
-                        scheduleTasksForBlockedVehicle(drtBlockingRequest, vehicle);
-                        if(! this.blockingManager.blockVehicle(vehicle,drtBlockingRequest)) throw new RuntimeException("could not block vehicle=" + vehicle + ". should not happen... ");
-                        blockingRequestsIterator.remove();
-                        eventsManager.processEvent(new DrtBlockingRequestScheduledEvent(timer.getTimeOfDay(),
-                                drtBlockingRequest.getId(), drtBlockingRequest.getCarrierId(),
-                                Id.create(drtBlockingRequest.getCarrierId(), CarrierVehicle.class), vehicle.getId()));
-                        }
-                } else {
-                    return;
-                }
+        //vehicles that got a drt request or reached their service end in the mean time
+        this.idleVehicles.retainIdle(scheduleInquiry::isIdle).forEach(this.dispatcher::vehicleNoLongerIdle);
+
+        //TODO what if the 1st tour of the queue is very long and can never be assigned?
+        // => replanning of tours (incorporate org.matsim.drtBlockings.ReplanningBlockingRequestEngine). tschlenther, dec '20
+        // the way that works now, we would actually NEED to reject those requests.
+        rejectExpiredBlockingRequests();
+
+        if (batchMatchingInterval > 0) {
+            if (isBatchMatchingDue(timer.getTimeOfDay(), config.qsim().getTimeStepSize(), batchMatchingInterval, blockingRequests)) {
+                matchBlockingRequestsInBatch();
+            }
+            return;
+        }
+
+        //TODO does current blocking request fit (based on historic fleet occupancy data?)
+        //blocking should be expected to fit into vehicle service time
+        //if the idle vehicle is blocked (in the future), do not assign it
+        dispatchOneAfterAnother(blockingRequests, getNumberOfAssignableRequests(idleVehicles.size(), fleet.getVehicles().size(), minIdleVehicleRatio),
+                request -> idleVehicles.getVehiclesWithServiceEndAfter(timer.getTimeOfDay() + request.getPlannedBlockingDuration(),
+                        v -> !this.blockingManager.isVehicleBlocked(v)),
+                dispatcher, this::blockVehicleForRequest);
+    }
+
+    /**
+     * hands the pending requests to the dispatcher, most urgent first, until {@code maxAssignments} requests got a vehicle. the remaining requests are
+     * not looked at. requests that got a vehicle are removed from the queue, the others stay.
+     *
+     * @return the number of requests that got a vehicle
+     */
+    static int dispatchOneAfterAnother(NavigableSet<DrtBlockingRequest> pendingRequests, int maxAssignments,
+                                       Function<DrtBlockingRequest, Collection<DvrpVehicle>> availableVehicles, DrtBlockingRequestDispatcher dispatcher,
+                                       BiConsumer<DrtBlockingRequest, DvrpVehicle> assignment) {
+        int assigned = 0;
+        Iterator<DrtBlockingRequest> requestIterator = pendingRequests.iterator();
+        //no need to look at the remaining requests if no vehicle may be blocked anymore
+        while (assigned < maxAssignments && requestIterator.hasNext()) {
+            DrtBlockingRequest request = requestIterator.next();
+            DvrpVehicle vehicle = dispatcher.findDispatchForBlockingRequest(Collections.unmodifiableCollection(availableVehicles.apply(request)), request);
+            if (vehicle != null) {
+                assignment.accept(request, vehicle);
+                requestIterator.remove();
+                assigned++;
+            }
+        }
+        return assigned;
+    }
+
+    /**
+     * a vehicle may be blocked as long as the share of idle vehicles in the fleet stays above the minimum, i.e. as long as
+     * (idle - assigned) / fleet size > minIdleVehicleRatio.
+     *
+     * @return the number of idle vehicles that may be blocked
+     */
+    static int getNumberOfAssignableRequests(int numberOfIdleVehicles, int fleetSize, double minIdleVehicleRatio) {
+        return Math.min(numberOfIdleVehicles, Math.max(0, (int) Math.ceil(numberOfIdleVehicles - minIdleVehicleRatio * fleetSize)));
+    }
+
+    private void blockVehicleForRequest(DrtBlockingRequest drtBlockingRequest, DvrpVehicle vehicle) {
+        log.info("blocking vehicle " + vehicle.getId() + " for time period start=" + timer.getTimeOfDay()
+                + " end=" + (timer.getTimeOfDay() + drtBlockingRequest.getPlannedBlockingDuration()));
+        removeIdleVehicle(vehicle);
+        scheduleTasksForBlockedVehicle(drtBlockingRequest, vehicle);
+        if(! this.blockingManager.blockVehicle(vehicle,drtBlockingRequest)) throw new RuntimeException("could not block vehicle=" + vehicle + ". should not happen... ");
+        eventsManager.processEvent(new DrtBlockingRequestScheduledEvent(timer.getTimeOfDay(),
+                drtBlockingRequest.getId(), drtBlockingRequest.getCarrierId(),
+                Id.create(drtBlockingRequest.getCarrierId(), CarrierVehicle.class), vehicle.getId()));
+    }
+
+    private void rejectExpiredBlockingRequests() {
+        pollExpiredRequests(blockingRequests, timer.getTimeOfDay()).forEach(this::rejectBlockingRequest);
+    }
+
+    /**
+     * the requests are ordered by their start time, so the expired ones are at the head of the queue. only the head is looked at.
+     *
+     * @return the expired requests in the order of their deadline. they are removed from the queue
+     */
+    static List<DrtBlockingRequest> pollExpiredRequests(NavigableSet<DrtBlockingRequest> pendingRequests, double now) {
+        //the latest time to schedule could also depend on the end of the qsim minus the planned blocking duration (and some buffer for tour delays).
+        //but with our vehicles for each time window, it is not possible to exceed the global service time, so the start of the blocking is the deadline
+        List<DrtBlockingRequest> expired = new ArrayList<>();
+        while (!pendingRequests.isEmpty() && now > pendingRequests.first().getStartTime()) {
+            expired.add(pendingRequests.pollFirst());
+        }
+        return expired;
+    }
+
+    /**
+     * the batch matching runs every {@code batchMatchingInterval} seconds. in between, it also runs if the most urgent request would be rejected in
+     * the next time step. otherwise, a request whose start time falls between two matchings would be rejected without ever being offered a vehicle.
+     */
+    static boolean isBatchMatchingDue(double now, double timeStepSize, int batchMatchingInterval, NavigableSet<DrtBlockingRequest> pendingRequests) {
+        if (((long) now) % batchMatchingInterval == 0) return true;
+        //see rejectExpiredBlockingRequests()
+        return !pendingRequests.isEmpty() && now + timeStepSize > pendingRequests.first().getStartTime();
+    }
+
+    /**
+     * matches the pending requests (the most urgent ones, as many as the min idle vehicle ratio allows) to the idle vehicles. a request that is not
+     * matched stays in the queue.
+     */
+    private void matchBlockingRequestsInBatch() {
+        //as many as the greedy dispatch would assign
+        int numberOfAssignableRequests = getNumberOfAssignableRequests(idleVehicles.size(), fleet.getVehicles().size(), minIdleVehicleRatio);
+        if (numberOfAssignableRequests == 0 || blockingRequests.isEmpty()) return;
+
+        List<DrtBlockingRequest> requests = new ArrayList<>(blockingRequests);
+        if (requests.size() > numberOfAssignableRequests) requests = requests.subList(0, numberOfAssignableRequests);
+
+        List<DvrpVehicle> vehicles = matchRequests(requests, request -> idleVehicles.getVehiclesWithServiceEndAfter(
+                timer.getTimeOfDay() + request.getPlannedBlockingDuration(), v -> !this.blockingManager.isVehicleBlocked(v)), dispatcher);
+        int matched = 0;
+        for (int r = 0; r < requests.size(); r++) {
+            if (vehicles.get(r) == null) continue;
+            DrtBlockingRequest request = requests.get(r);
+            blockVehicleForRequest(request, vehicles.get(r));
+            blockingRequests.remove(request);
+            matched++;
+        }
+        log.info("batch matching: " + matched + " out of " + requests.size() + " blocking requests got a vehicle");
+    }
+
+    /**
+     * asks the dispatcher for up to {@link #CANDIDATES_PER_REQUEST} candidate vehicles per request and assigns them such that first the number of
+     * matched requests is maximal and then the sum of the candidate costs is minimal, see {@link MinCostAssignment}. only the candidates are looked at,
+     * not all pairs of requests and vehicles.
+     *
+     * @return the vehicle for each request, null if the request is not matched
+     */
+    static List<DvrpVehicle> matchRequests(List<DrtBlockingRequest> requests, Function<DrtBlockingRequest, Collection<DvrpVehicle>> availableVehicles,
+                                           DrtBlockingRequestDispatcher dispatcher) {
+        Map<DvrpVehicle, Integer> vehicleToColumn = new LinkedHashMap<>();
+        List<List<DrtBlockingRequestDispatcher.Candidate>> candidatesPerRequest = new ArrayList<>();
+        for (DrtBlockingRequest request : requests) {
+            List<DrtBlockingRequestDispatcher.Candidate> candidates = dispatcher.findCandidatesForBlockingRequest(
+                    Collections.unmodifiableCollection(availableVehicles.apply(request)), request, CANDIDATES_PER_REQUEST);
+            for (DrtBlockingRequestDispatcher.Candidate candidate : candidates) {
+                vehicleToColumn.putIfAbsent(candidate.getVehicle(), vehicleToColumn.size());
             }
+            candidatesPerRequest.add(candidates);
         }
+
+        MinCostAssignment assignment = new MinCostAssignment(requests.size(), vehicleToColumn.size());
+        for (int r = 0; r < requests.size(); r++) {
+            for (DrtBlockingRequestDispatcher.Candidate candidate : candidatesPerRequest.get(r)) {
+                assignment.addCandidate(r, vehicleToColumn.get(candidate.getVehicle()), candidate.getCost());
+            }
+        }
+
+        List<DvrpVehicle> columnToVehicle = new ArrayList<>(vehicleToColumn.keySet());
+        List<DvrpVehicle> vehicles = new ArrayList<>(requests.size());
+        for (int column : assignment.solve()) {
+            vehicles.add(column < 0 ? null : columnToVehicle.get(column));
+        }
+        return vehicles;
     }
 
     private void rejectBlockingRequest(DrtBlockingRequest drtBlockingRequest) {
@@ -230,8 +355,14 @@ class AdaptiveBlockingOptimizer implements BlockingOptimizer {
             }
             stayTask.setEndTime(timer.getTimeOfDay()); // finish STAY
 
-            VrpPathWithTravelData pathToReservationStart = VrpPaths.calcAndCreatePath(stayTask.getLink(), Tasks.getBeginLink(drtBlockingRequest.getTasks().get(0)), stayTask.getEndTime(), router,
-                    travelTime);
+            Link reservationStart = Tasks.getBeginLink(drtBlockingRequest.getTasks().get(0));
+            //the dispatcher might have routed the access drive already
+            VrpPathWithTravelData pathToReservationStart = this.dispatcher.getAccessPathOfLastDispatch();
+            if (pathToReservationStart == null || pathToReservationStart.getFromLink() != stayTask.getLink()
+                    || pathToReservationStart.getToLink() != reservationStart || pathToReservationStart.getDepartureTime() != stayTask.getEndTime()) {
+                pathToReservationStart = VrpPaths.calcAndCreatePath(stayTask.getLink(), reservationStart, stayTask.getEndTime(), router,
+                        travelTime);
+            }
 
             Task previousTask = new DrtDriveTask(pathToReservationStart, DrtDriveTask.TYPE);
             schedule.addTask(previousTask);
@@ -30,17 +30,55 @@ import org.matsim.drtBlockings.analysis.PassengerRequestRejectionListener;
 
 public class DrtBlockingModule extends AbstractModule {
 
+    /**
+     * how the vehicle for a blocking request is chosen
+     */
+    public enum BlockingDispatcherType {
+        /**
+         * the available vehicle that is located nearest to the start link by beeline, see {@link SpatialGridBlockingDispatcher}
+         */
+        BEELINE,
+        /**
+         * same vehicles as {@link #BEELINE}, but all available vehicles are scanned for every request, see {@link StraightLineKnnBlockingDispatcher}
+         */
+        BEELINE_SCAN,
+        /**
+         * the available vehicle with the shortest travel time on the network to the start link, see {@link NetworkTravelTimeBlockingDispatcher}
+         */
+        NETWORK_TRAVEL_TIME
+    }
+
     DrtConfigGroup drtConfigGroup;
+    private final int batchMatchingInterval;
+    private final BlockingDispatcherType dispatcherType;
 
     public DrtBlockingModule(DrtConfigGroup drtConfigGroup) {
+        this(drtConfigGroup, 0);
+    }
+
+    /**
+     * @param batchMatchingInterval if positive, the pending blocking requests are matched to the idle vehicles all at once every
+     *                              {@code batchMatchingInterval} seconds, instead of one after another in every time step.
+     *                              see {@link AdaptiveBlockingOptimizer}. the vehicles are chosen by beeline, see {@link BlockingDispatcherType#BEELINE}
+     */
+    public DrtBlockingModule(DrtConfigGroup drtConfigGroup, int batchMatchingInterval) {
+        this(drtConfigGroup, batchMatchingInterval, BlockingDispatcherType.BEELINE);
+    }
+
+    /**
+     * @param dispatcherType how the vehicle for a blocking request is chosen
+     */
+    public DrtBlockingModule(DrtConfigGroup drtConfigGroup, int batchMatchingInterval, BlockingDispatcherType dispatcherType) {
         this.drtConfigGroup = drtConfigGroup;
+        this.batchMatchingInterval = batchMatchingInterval;
+        this.dispatcherType = dispatcherType;
     }
 
     @Override
     public void install() {
         install( new DrtModeModule(drtConfigGroup)) ;
         install(new DrtModeAnalysisModule(drtConfigGroup));
-        installQSimModule( new DrtModeQSimModule(drtConfigGroup, new DrtBlockingOptimizerQSimModule(drtConfigGroup)));
+        installQSimModule( new DrtModeQSimModule(drtConfigGroup, new DrtBlockingOptimizerQSimModule(drtConfigGroup, batchMatchingInterval, dispatcherType)));
 
         install(new AbstractModule() {
             @Override
@@ -70,10 +70,14 @@ import com.google.inject.name.Named;
 class DrtBlockingOptimizerQSimModule extends AbstractDvrpModeQSimModule {
 
 	private final DrtConfigGroup drtCfg;
+	private final int batchMatchingInterval;
+	private final DrtBlockingModule.BlockingDispatcherType dispatcherType;
 
-	DrtBlockingOptimizerQSimModule(DrtConfigGroup drtConfigGroup) {
+	DrtBlockingOptimizerQSimModule(DrtConfigGroup drtConfigGroup, int batchMatchingInterval, DrtBlockingModule.BlockingDispatcherType dispatcherType) {
 		super(drtConfigGroup.getMode());
         this.drtCfg = drtConfigGroup;
+        this.batchMatchingInterval = batchMatchingInterval;
+        this.dispatcherType = dispatcherType;
     }
 
     @Override
@@ -88,7 +92,8 @@ class DrtBlockingOptimizerQSimModule extends AbstractDvrpModeQSimModule {
                         getter.get(EventsManager.class),
                         getter.getModal(Network.class),
                         getter.get(MobsimTimer.class),
-                        getter.get(Config.class)) {
+                        getter.get(Config.class),
+                        batchMatchingInterval) {
         }));
 
 		bindModal(DrtOptimizer.class).to(modalKey(BlockingOptimizer.class));
@@ -127,7 +132,22 @@ class DrtBlockingOptimizerQSimModule extends AbstractDvrpModeQSimModule {
             }
         });
 
-        bindModal(DrtBlockingRequestDispatcher.class).to(StraightLineKnnBlockingDispatcher.class).in(Singleton.class);
+        switch (dispatcherType) {
+            case BEELINE:
+                bindModal(DrtBlockingRequestDispatcher.class).toProvider(modalProvider(getter -> new SpatialGridBlockingDispatcher())).in(Singleton.class);
+                break;
+            case BEELINE_SCAN:
+                bindModal(DrtBlockingRequestDispatcher.class).toProvider(modalProvider(getter -> new StraightLineKnnBlockingDispatcher())).in(Singleton.class);
+                break;
+            case NETWORK_TRAVEL_TIME:
+                bindModal(DrtBlockingRequestDispatcher.class).toProvider(modalProvider(
+                        getter -> new NetworkTravelTimeBlockingDispatcher(getter.getNamed(TravelTime.class, DvrpTravelTimeModule.DVRP_ESTIMATED),
+                                getter.get(MobsimTimer.class), NetworkTravelTimeBlockingDispatcher.DEFAULT_MAX_ACCESS_TRAVEL_TIME)))
+                        .in(Singleton.class);
+                break;
+            default:
+                throw new IllegalArgumentException("unknown blocking dispatcher type " + dispatcherType);
+        }
 
         bindModal(ScheduleTimingUpdater.class).toProvider(modalProvider(
                 getter -> new ScheduleTimingUpdater(getter.get(MobsimTimer.class), new FreightTaskEndTimeCalculator(drtCfg, getter.get(FreightConfigGroup.class)))))
@@ -21,8 +21,13 @@
 package org.matsim.drtBlockings;
 
 import org.matsim.contrib.dvrp.fleet.DvrpVehicle;
+import org.matsim.contrib.dvrp.path.VrpPathWithTravelData;
+import org.matsim.contrib.dvrp.schedule.Schedules;
+import org.matsim.core.utils.geometry.CoordUtils;
 
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 
 interface DrtBlockingRequestDispatcher {
 
@@ -35,4 +40,66 @@ interface DrtBlockingRequestDispatcher {
      * @return
      */
     DvrpVehicle findDispatchForBlockingRequest(Collection<DvrpVehicle> availableVehicles, DrtBlockingRequest blockingRequest);
+
+    /**
+     * the vehicles among {@code availableVehicles} that the dispatcher would consider for the request, the best one first. used for the batch
+     * matching in the {@link AdaptiveBlockingOptimizer}, which assigns the requests such that the sum of the costs is minimal. the costs of one
+     * dispatcher need to be comparable between requests.
+     * <p>
+     * the default is the vehicle of {@link #findDispatchForBlockingRequest(Collection, DrtBlockingRequest)} only, with the beeline distance to
+     * the start link of the request as cost.
+     *
+     * @return at most {@code maxCandidates} candidates, empty if there is none
+     */
+    default List<Candidate> findCandidatesForBlockingRequest(Collection<DvrpVehicle> availableVehicles, DrtBlockingRequest blockingRequest,
+                                                             int maxCandidates) {
+        if (maxCandidates <= 0) return Collections.emptyList();
+        DvrpVehicle vehicle = findDispatchForBlockingRequest(availableVehicles, blockingRequest);
+        if (vehicle == null) return Collections.emptyList();
+        double distance = CoordUtils.calcEuclideanDistance(Schedules.getLastLinkInSchedule(vehicle).getCoord(),
+                blockingRequest.getStartLink().getCoord());
+        return Collections.singletonList(new Candidate(vehicle, distance));
+    }
+
+    /**
+     * the vehicle is idle from now on, so it might be contained in the {@code availableVehicles} of the next calls.
+     * dispatchers that keep their own index of the vehicles need to override this.
+     */
+    default void vehicleBecameIdle(DvrpVehicle vehicle) {
+    }
+
+    /**
+     * the vehicle is not idle anymore, e.g. because it got blocked or a drt request was inserted into it's schedule.
+     */
+    default void vehicleNoLongerIdle(DvrpVehicle vehicle) {
+    }
+
+    /**
+     * @return the path from the vehicle that was returned by the last call of {@link #findDispatchForBlockingRequest(Collection, DrtBlockingRequest)}
+     * to the start link of the request, departing now. null if the dispatcher did not compute it.
+     */
+    default VrpPathWithTravelData getAccessPathOfLastDispatch() {
+        return null;
+    }
+
+    /**
+     * a vehicle that could be dispatched to a blocking request, see {@link #findCandidatesForBlockingRequest(Collection, DrtBlockingRequest, int)}
+     */
+    final class Candidate {
+        private final DvrpVehicle vehicle;
+        private final double cost;
+
+        Candidate(DvrpVehicle vehicle, double cost) {
+            this.vehicle = vehicle;
+            this.cost = cost;
+        }
+
+        DvrpVehicle getVehicle() {
+            return vehicle;
+        }
+
+        double getCost() {
+            return cost;
+        }
+    }
 }
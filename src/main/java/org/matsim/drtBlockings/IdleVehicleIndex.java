@@ -0,0 +1,136 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ * Controler.java
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2007 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+package org.matsim.drtBlockings;
+
+import org.matsim.contrib.dvrp.fleet.DvrpVehicle;
+
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * the idle vehicles of the fleet, bucketed by their service end time. replaces streaming the whole fleet through
+ * {@link org.matsim.contrib.drt.scheduler.DrtScheduleInquiry#isIdle(DvrpVehicle)} in every time step.
+ * <p>
+ * a vehicle can only become idle when it starts a new task, so the {@link AdaptiveBlockingOptimizer} adds vehicles in it's nextTask().
+ * a vehicle can however stop being idle without starting a new task, e.g. when the drt optimizer appends a pickup to it's stay task or when it's
+ * service ends. thus, the index holds candidates only and needs to be cleaned with {@link #retainIdle(Predicate)} before it is queried.
+ * that costs a check per idle vehicle, instead of one per vehicle of the fleet.
+ * <p>
+ * within a bucket, the vehicles are kept in the order in which they became idle.
+ *
+ * @author tschlenther
+ */
+final class IdleVehicleIndex {
+
+    private final NavigableMap<Double, Set<DvrpVehicle>> vehiclesByServiceEndTime = new TreeMap<>();
+    private final Set<DvrpVehicle> vehicles = new HashSet<>();
+
+    /**
+     * @return false if the vehicle was already contained
+     */
+    boolean add(DvrpVehicle vehicle) {
+        if (!vehicles.add(vehicle)) return false;
+        vehiclesByServiceEndTime.computeIfAbsent(vehicle.getServiceEndTime(), t -> new LinkedHashSet<>()).add(vehicle);
+        return true;
+    }
+
+    /**
+     * @return false if the vehicle was not contained
+     */
+    boolean remove(DvrpVehicle vehicle) {
+        if (!vehicles.remove(vehicle)) return false;
+        Set<DvrpVehicle> bucket = vehiclesByServiceEndTime.get(vehicle.getServiceEndTime());
+        bucket.remove(vehicle);
+        if (bucket.isEmpty()) vehiclesByServiceEndTime.remove(vehicle.getServiceEndTime());
+        return true;
+    }
+
+    /**
+     * removes all vehicles that are not idle anymore
+     *
+     * @return the removed vehicles
+     */
+    List<DvrpVehicle> retainIdle(Predicate<DvrpVehicle> isIdle) {
+        List<DvrpVehicle> removed = new ArrayList<>();
+        Iterator<Set<DvrpVehicle>> buckets = vehiclesByServiceEndTime.values().iterator();
+        while (buckets.hasNext()) {
+            Set<DvrpVehicle> bucket = buckets.next();
+            Iterator<DvrpVehicle> bucketVehicles = bucket.iterator();
+            while (bucketVehicles.hasNext()) {
+                DvrpVehicle vehicle = bucketVehicles.next();
+                if (!isIdle.test(vehicle)) {
+                    bucketVehicles.remove();
+                    vehicles.remove(vehicle);
+                    removed.add(vehicle);
+                }
+            }
+            if (bucket.isEmpty()) buckets.remove();
+        }
+        return removed;
+    }
+
+    int size() {
+        return vehicles.size();
+    }
+
+    boolean isEmpty() {
+        return vehicles.isEmpty();
+    }
+
+    /**
+     * @return a view on the vehicles with a service end time after {@code time} that pass the filter, in the order of their service end time.
+     * nothing is copied, {@link Collection#contains(Object)} and {@link Collection#isEmpty()} do not iterate over all vehicles. the view
+     * must not be used after the index was modified.
+     */
+    Collection<DvrpVehicle> getVehiclesWithServiceEndAfter(double time, Predicate<DvrpVehicle> filter) {
+        Collection<Set<DvrpVehicle>> buckets = vehiclesByServiceEndTime.tailMap(time, false).values();
+        return new AbstractCollection<>() {
+            @Override
+            public Iterator<DvrpVehicle> iterator() {
+                return buckets.stream().flatMap(Set::stream).filter(filter).iterator();
+            }
+
+            @Override
+            public int size() {
+                int size = 0;
+                for (Iterator<DvrpVehicle> it = iterator(); it.hasNext(); it.next()) size++;
+                return size;
+            }
+
+            @Override
+            public boolean isEmpty() {
+                return !iterator().hasNext();
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                if (!(o instanceof DvrpVehicle) || !vehicles.contains(o)) return false;
+                DvrpVehicle vehicle = (DvrpVehicle) o;
+                return vehicle.getServiceEndTime() > time && filter.test(vehicle);
+            }
+        };
+    }
+
+    void clear() {
+        vehiclesByServiceEndTime.clear();
+        vehicles.clear();
+    }
+}
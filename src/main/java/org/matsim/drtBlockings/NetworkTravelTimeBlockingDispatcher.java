@@ -0,0 +1,252 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ * Controler.java
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2007 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+package org.matsim.drtBlockings;
+
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.contrib.dvrp.fleet.DvrpVehicle;
+import org.matsim.contrib.dvrp.path.VrpPathWithTravelData;
+import org.matsim.contrib.dvrp.path.VrpPaths;
+import org.matsim.contrib.dvrp.schedule.Schedules;
+import org.matsim.core.mobsim.framework.MobsimTimer;
+import org.matsim.core.router.util.LeastCostPathCalculator;
+import org.matsim.core.router.util.TravelTime;
+
+import java.util.*;
+
+/**
+ * dispatches the available vehicle with the shortest travel time (on the network) to the start link of the blocking request, instead of the
+ * nearest one by beeline.
+ * <p>
+ * for every request, one backward dijkstra search is run from the start link of the request. the links are weighted with their travel time at
+ * the current time of day. the search stops as soon as a node is settled at which an available vehicle starts it's access drive, so it only
+ * visits the part of the network that is closer to the start link than the best vehicle. the access path of that vehicle is handed to the
+ * optimizer (see {@link #getAccessPathOfLastDispatch()}), which thus does not need to route it again.
+ * <p>
+ * the search is bounded by a maximum access travel time. if no available vehicle is reached within that time, the request is handed to the
+ * beeline based {@link SpatialGridBlockingDispatcher}.
+ * <p>
+ * the candidates for the batch matching are the first k available vehicles that the search reaches, with their travel time to the start link as
+ * cost. if none is reached, the candidates of the fallback dispatcher are taken. their beeline distance is added to the max access travel time,
+ * so that they are more expensive than any vehicle that was reached on the network.
+ *
+ * @author tschlenther
+ */
+final class NetworkTravelTimeBlockingDispatcher implements DrtBlockingRequestDispatcher {
+
+    static final double DEFAULT_MAX_ACCESS_TRAVEL_TIME = 30 * 60.;
+
+    private final TravelTime travelTime;
+    private final MobsimTimer timer;
+    private final double maxAccessTravelTime;
+    private final SpatialGridBlockingDispatcher fallbackDispatcher = new SpatialGridBlockingDispatcher();
+
+    //idle vehicles by the to node of the link they are located at, i.e. the node their access drive starts from
+    private final Map<Node, Set<DvrpVehicle>> vehiclesByNode = new HashMap<>();
+    private final Map<DvrpVehicle, Link> vehicleLinks = new HashMap<>();
+
+    //search state, indexed by node index. only the entries of the nodes in touchedNodes are valid
+    private final double[] travelTimes;
+    private final Link[] nextLinks;
+    private final boolean[] settled;
+    private final List<Node> touchedNodes = new ArrayList<>();
+
+    private VrpPathWithTravelData accessPathOfLastDispatch;
+
+    NetworkTravelTimeBlockingDispatcher(TravelTime travelTime, MobsimTimer timer, double maxAccessTravelTime) {
+        this.travelTime = travelTime;
+        this.timer = timer;
+        this.maxAccessTravelTime = maxAccessTravelTime;
+        int numberOfNodes = Id.getNumberOfIds(Node.class);
+        this.travelTimes = new double[numberOfNodes];
+        this.nextLinks = new Link[numberOfNodes];
+        this.settled = new boolean[numberOfNodes];
+        Arrays.fill(this.travelTimes, Double.POSITIVE_INFINITY);
+    }
+
+    @Override
+    public void vehicleBecameIdle(DvrpVehicle vehicle) {
+        Link link = Schedules.getLastLinkInSchedule(vehicle);
+        vehicleLinks.put(vehicle, link);
+        vehiclesByNode.computeIfAbsent(link.getToNode(), n -> new LinkedHashSet<>()).add(vehicle);
+        fallbackDispatcher.vehicleBecameIdle(vehicle);
+    }
+
+    @Override
+    public void vehicleNoLongerIdle(DvrpVehicle vehicle) {
+        Link link = vehicleLinks.remove(vehicle);
+        if (link != null) {
+            Set<DvrpVehicle> vehicles = vehiclesByNode.get(link.getToNode());
+            vehicles.remove(vehicle);
+            if (vehicles.isEmpty()) vehiclesByNode.remove(link.getToNode());
+        }
+        fallbackDispatcher.vehicleNoLongerIdle(vehicle);
+    }
+
+    @Override
+    public DvrpVehicle findDispatchForBlockingRequest(Collection<DvrpVehicle> availableVehicles, DrtBlockingRequest blockingRequest) {
+        accessPathOfLastDispatch = null;
+        if (availableVehicles.isEmpty()) return null;
+        Link startLink = blockingRequest.getStartLink();
+        double now = timer.getTimeOfDay();
+
+        //a vehicle that already stands on the start link does not need to drive at all
+        List<Candidate> candidates = new ArrayList<>();
+        addVehiclesOnStartLink(availableVehicles, startLink, 1, candidates);
+        if (!candidates.isEmpty()) {
+            accessPathOfLastDispatch = VrpPaths.createZeroLengthPath(startLink, now);
+            return candidates.get(0).getVehicle();
+        }
+
+        try {
+            searchBackwards(availableVehicles, startLink, now, 1, candidates);
+            if (candidates.isEmpty()) return fallbackDispatcher.findDispatchForBlockingRequest(availableVehicles, blockingRequest);
+            DvrpVehicle vehicle = candidates.get(0).getVehicle();
+            accessPathOfLastDispatch = createAccessPath(vehicleLinks.get(vehicle), startLink, now);
+            return vehicle;
+        } finally {
+            resetSearch();
+        }
+    }
+
+    @Override
+    public List<Candidate> findCandidatesForBlockingRequest(Collection<DvrpVehicle> availableVehicles, DrtBlockingRequest blockingRequest, int maxCandidates) {
+        accessPathOfLastDispatch = null;
+        List<Candidate> candidates = new ArrayList<>();
+        if (availableVehicles.isEmpty() || maxCandidates <= 0) return candidates;
+        Link startLink = blockingRequest.getStartLink();
+
+        addVehiclesOnStartLink(availableVehicles, startLink, maxCandidates, candidates);
+        try {
+            searchBackwards(availableVehicles, startLink, timer.getTimeOfDay(), maxCandidates, candidates);
+        } finally {
+            resetSearch();
+        }
+        if (candidates.isEmpty()) {
+            for (Candidate candidate : fallbackDispatcher.findCandidatesForBlockingRequest(availableVehicles, blockingRequest, maxCandidates)) {
+                candidates.add(new Candidate(candidate.getVehicle(), maxAccessTravelTime + candidate.getCost()));
+            }
+        }
+        return candidates;
+    }
+
+    @Override
+    public VrpPathWithTravelData getAccessPathOfLastDispatch() {
+        return accessPathOfLastDispatch;
+    }
+
+    /**
+     * adds the available vehicles that are located on the start link, with a cost of 0
+     */
+    private void addVehiclesOnStartLink(Collection<DvrpVehicle> availableVehicles, Link startLink, int maxCandidates, List<Candidate> candidates) {
+        for (DvrpVehicle vehicle : vehiclesByNode.getOrDefault(startLink.getToNode(), Collections.emptySet())) {
+            if (candidates.size() >= maxCandidates) return;
+            if (vehicleLinks.get(vehicle) == startLink && availableVehicles.contains(vehicle)) candidates.add(new Candidate(vehicle, 0));
+        }
+    }
+
+    /**
+     * adds the available vehicles in the order of their travel time to the start link, until there are {@code maxCandidates} candidates or
+     * the max access travel time is exceeded. vehicles on the start link itself are skipped, see
+     * {@link #addVehiclesOnStartLink(Collection, Link, int, List)}.
+     */
+    private void searchBackwards(Collection<DvrpVehicle> availableVehicles, Link startLink, double now, int maxCandidates, List<Candidate> candidates) {
+        if (candidates.size() >= maxCandidates) return;
+        PriorityQueue<NodeEntry> queue = new PriorityQueue<>();
+        Node startNode = startLink.getFromNode();
+        visit(startNode, 0, null, queue);
+
+        while (!queue.isEmpty()) {
+            NodeEntry entry = queue.poll();
+            int nodeIndex = entry.node.getId().index();
+            if (settled[nodeIndex]) continue;
+            settled[nodeIndex] = true;
+            if (entry.travelTime > maxAccessTravelTime) return;
+
+            for (DvrpVehicle vehicle : vehiclesByNode.getOrDefault(entry.node, Collections.emptySet())) {
+                if (vehicleLinks.get(vehicle) == startLink || !availableVehicles.contains(vehicle)) continue;
+                candidates.add(new Candidate(vehicle, entry.travelTime));
+                if (candidates.size() >= maxCandidates) return;
+            }
+
+            for (Link inLink : entry.node.getInLinks().values()) {
+                Node fromNode = inLink.getFromNode();
+                if (settled[fromNode.getId().index()]) continue;
+                double linkTravelTime = travelTime.getLinkTravelTime(inLink, now, null, null);
+                visit(fromNode, entry.travelTime + linkTravelTime, inLink, queue);
+            }
+        }
+    }
+
+    private void visit(Node node, double nodeTravelTime, Link nextLink, PriorityQueue<NodeEntry> queue) {
+        int nodeIndex = node.getId().index();
+        if (nodeTravelTime >= travelTimes[nodeIndex]) return;
+        if (travelTimes[nodeIndex] == Double.POSITIVE_INFINITY) touchedNodes.add(node);
+        travelTimes[nodeIndex] = nodeTravelTime;
+        nextLinks[nodeIndex] = nextLink;
+        queue.add(new NodeEntry(node, nodeTravelTime));
+    }
+
+    /**
+     * follows the links of the search tree from the vehicle's link to the start link. the travel times of the path are computed for the actual
+     * departure time, just like for a path of the router.
+     */
+    private VrpPathWithTravelData createAccessPath(Link vehicleLink, Link startLink, double departureTime) {
+        List<Node> nodes = new ArrayList<>();
+        List<Link> links = new ArrayList<>();
+        Node node = vehicleLink.getToNode();
+        nodes.add(node);
+        for (Link link = nextLinks[node.getId().index()]; link != null; link = nextLinks[node.getId().index()]) {
+            links.add(link);
+            node = link.getToNode();
+            nodes.add(node);
+        }
+        double searchTravelTime = travelTimes[vehicleLink.getToNode().getId().index()];
+        LeastCostPathCalculator.Path path = new LeastCostPathCalculator.Path(nodes, links, searchTravelTime, searchTravelTime);
+        return VrpPaths.createPath(vehicleLink, startLink, departureTime, path, travelTime);
+    }
+
+    private void resetSearch() {
+        for (Node node : touchedNodes) {
+            int nodeIndex = node.getId().index();
+            travelTimes[nodeIndex] = Double.POSITIVE_INFINITY;
+            nextLinks[nodeIndex] = null;
+            settled[nodeIndex] = false;
+        }
+        touchedNodes.clear();
+    }
+
+    private static final class NodeEntry implements Comparable<NodeEntry> {
+        private final Node node;
+        private final double travelTime;
+
+        private NodeEntry(Node node, double travelTime) {
+            this.node = node;
+            this.travelTime = travelTime;
+        }
+
+        @Override
+        public int compareTo(NodeEntry other) {
+            return Double.compare(this.travelTime, other.travelTime);
+        }
+    }
+}
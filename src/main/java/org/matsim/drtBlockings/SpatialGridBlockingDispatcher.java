@@ -0,0 +1,152 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ * Controler.java
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2007 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+package org.matsim.drtBlockings;
+
+import org.matsim.api.core.v01.Coord;
+import org.matsim.contrib.dvrp.fleet.DvrpVehicle;
+import org.matsim.contrib.dvrp.schedule.Schedules;
+import org.matsim.core.utils.geometry.CoordUtils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * same result as the {@link StraightLineKnnBlockingDispatcher}, i.e. the available vehicle that is located nearest (beeline) to the start link of the
+ * blocking request. instead of scanning all available vehicles for every request, the idle vehicles are kept in a grid of square cells, which is
+ * updated via {@link #vehicleBecameIdle(DvrpVehicle)} and {@link #vehicleNoLongerIdle(DvrpVehicle)}. the cells are searched ring by ring around
+ * the start link, until no cell further out can contain a nearer vehicle. the position of an idle vehicle is the link of it's stay task, which does
+ * not change as long as the vehicle is idle.
+ * <p>
+ * the candidates for the batch matching are searched in the same way, but the search only stops once the k-th nearest vehicle is certain.
+ * <p>
+ * only vehicles that are contained in the grid can be dispatched, so {@code availableVehicles} needs to be a subset of the idle vehicles that
+ * were reported. it should support a fast {@link Collection#contains(Object)}, as that is called for every vehicle in the searched cells.
+ *
+ * @author tschlenther
+ */
+final class SpatialGridBlockingDispatcher implements DrtBlockingRequestDispatcher {
+
+    static final double DEFAULT_CELL_SIZE = 1000.;
+
+    private final double cellSize;
+    private final Map<Long, Set<DvrpVehicle>> cells = new HashMap<>();
+    private final Map<DvrpVehicle, Coord> vehicleCoords = new HashMap<>();
+
+    //bounding box (in cells) of all cells that ever contained a vehicle. limits the ring search if no vehicle is available
+    private int minCellX = Integer.MAX_VALUE;
+    private int maxCellX = Integer.MIN_VALUE;
+    private int minCellY = Integer.MAX_VALUE;
+    private int maxCellY = Integer.MIN_VALUE;
+
+    SpatialGridBlockingDispatcher() {
+        this(DEFAULT_CELL_SIZE);
+    }
+
+    SpatialGridBlockingDispatcher(double cellSize) {
+        if (cellSize <= 0) throw new IllegalArgumentException("cell size must be positive");
+        this.cellSize = cellSize;
+    }
+
+    @Override
+    public void vehicleBecameIdle(DvrpVehicle vehicle) {
+        Coord coord = Schedules.getLastLinkInSchedule(vehicle).getCoord();
+        if (vehicleCoords.put(vehicle, coord) != null) throw new IllegalStateException("vehicle " + vehicle.getId() + " is already idle");
+        int cellX = toCell(coord.getX());
+        int cellY = toCell(coord.getY());
+        cells.computeIfAbsent(cellKey(cellX, cellY), k -> new LinkedHashSet<>()).add(vehicle);
+        minCellX = Math.min(minCellX, cellX);
+        maxCellX = Math.max(maxCellX, cellX);
+        minCellY = Math.min(minCellY, cellY);
+        maxCellY = Math.max(maxCellY, cellY);
+    }
+
+    @Override
+    public void vehicleNoLongerIdle(DvrpVehicle vehicle) {
+        Coord coord = vehicleCoords.remove(vehicle);
+        if (coord == null) return;
+        long key = cellKey(toCell(coord.getX()), toCell(coord.getY()));
+        Set<DvrpVehicle> cell = cells.get(key);
+        cell.remove(vehicle);
+        if (cell.isEmpty()) cells.remove(key);
+    }
+
+    @Override
+    public DvrpVehicle findDispatchForBlockingRequest(Collection<DvrpVehicle> availableVehicles, DrtBlockingRequest blockingRequest) {
+        List<Candidate> nearest = findNearest(availableVehicles, blockingRequest, 1);
+        return nearest.isEmpty() ? null : nearest.get(0).getVehicle();
+    }
+
+    /**
+     * the {@code maxCandidates} nearest available vehicles, with the beeline distance to the start link as cost
+     */
+    @Override
+    public List<Candidate> findCandidatesForBlockingRequest(Collection<DvrpVehicle> availableVehicles, DrtBlockingRequest blockingRequest, int maxCandidates) {
+        return findNearest(availableVehicles, blockingRequest, maxCandidates);
+    }
+
+    /**
+     * @return the nearest available vehicles, sorted by distance. among vehicles with the same distance, the one that was found first comes first
+     */
+    private List<Candidate> findNearest(Collection<DvrpVehicle> availableVehicles, DrtBlockingRequest blockingRequest, int maxCandidates) {
+        List<Candidate> nearest = new ArrayList<>();
+        if (availableVehicles.isEmpty() || vehicleCoords.isEmpty() || maxCandidates <= 0) return nearest;
+        Coord start = blockingRequest.getStartLink().getCoord();
+        int centerX = toCell(start.getX());
+        int centerY = toCell(start.getY());
+        int maxRing = Math.max(Math.max(centerX - minCellX, maxCellX - centerX), Math.max(centerY - minCellY, maxCellY - centerY));
+
+        for (int ring = 0; ring <= maxRing; ring++) {
+            for (int x = centerX - ring; x <= centerX + ring; x++) {
+                //on the upper and lower row of the ring, all cells are visited. in between only the first and the last one
+                int stepY = (x == centerX - ring || x == centerX + ring) ? 1 : Math.max(1, 2 * ring);
+                for (int y = centerY - ring; y <= centerY + ring; y += stepY) {
+                    Set<DvrpVehicle> cell = cells.get(cellKey(x, y));
+                    if (cell == null) continue;
+                    for (DvrpVehicle vehicle : cell) {
+                        if (!availableVehicles.contains(vehicle)) continue;
+                        double distance = CoordUtils.calcEuclideanDistance(start, vehicleCoords.get(vehicle));
+                        if (nearest.size() == maxCandidates && distance >= nearest.get(maxCandidates - 1).getCost()) continue;
+                        int idx = nearest.size();
+                        while (idx > 0 && nearest.get(idx - 1).getCost() > distance) idx--;
+                        nearest.add(idx, new Candidate(vehicle, distance));
+                        if (nearest.size() > maxCandidates) nearest.remove(maxCandidates);
+                    }
+                }
+            }
+            //all cells outside of the rings searched so far are at least ring * cellSize away from the start
+            if (nearest.size() == maxCandidates && nearest.get(maxCandidates - 1).getCost() <= ring * cellSize) break;
+        }
+        return nearest;
+    }
+
+    private int toCell(double coordinate) {
+        return (int) Math.floor(coordinate / cellSize);
+    }
+
+    private static long cellKey(int cellX, int cellY) {
+        return ((long) cellX << 32) | (cellY & 0xffffffffL);
+    }
+}
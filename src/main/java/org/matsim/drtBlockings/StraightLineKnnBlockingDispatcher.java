@@ -21,11 +21,15 @@
 package org.matsim.drtBlockings;
 
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
 
 import org.matsim.api.core.v01.network.Link;
 import org.matsim.contrib.dvrp.fleet.DvrpVehicle;
 import org.matsim.contrib.dvrp.schedule.Schedules;
 import org.matsim.contrib.util.StraightLineKnnFinder;
+import org.matsim.core.utils.geometry.CoordUtils;
 
 class StraightLineKnnBlockingDispatcher implements DrtBlockingRequestDispatcher {
 
@@ -45,4 +49,18 @@ class StraightLineKnnBlockingDispatcher implements DrtBlockingRequestDispatcher
         return finder.findNearest(blockingRequest.getStartLink(), availableVehicles.stream()).get(0);
     }
 
+    /**
+     * the {@code maxCandidates} nearest vehicles, with the beeline distance to the start link as cost
+     */
+    @Override
+    public List<Candidate> findCandidatesForBlockingRequest(Collection<DvrpVehicle> availableVehicles, DrtBlockingRequest blockingRequest, int maxCandidates) {
+        if(availableVehicles.isEmpty() || maxCandidates <= 0) return Collections.emptyList();
+        Link startLink = blockingRequest.getStartLink();
+        StraightLineKnnFinder<Link, DvrpVehicle> finder = new StraightLineKnnFinder<>(maxCandidates, Link::getCoord,
+                vehicle -> Schedules.getLastLinkInSchedule(vehicle).getCoord());
+        return finder.findNearest(startLink, availableVehicles.stream()).stream()
+                .map(vehicle -> new Candidate(vehicle, CoordUtils.calcEuclideanDistance(Schedules.getLastLinkInSchedule(vehicle).getCoord(), startLink.getCoord())))
+                .collect(Collectors.toList());
+    }
+
 }
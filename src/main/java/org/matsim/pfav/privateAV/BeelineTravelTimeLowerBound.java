@@ -0,0 +1,49 @@
+/* *********************************************************************** *
+ * project: org.matsim.*												   *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2008 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package org.matsim.pfav.privateAV;
+
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.contrib.util.distance.DistanceUtils;
+
+/**
+ * admissible lower bound for the travel time of a {@link org.matsim.contrib.dvrp.path.VrpPath} between two links:
+ * the beeline distance divided by the maximum free speed in the network.
+ * <p>
+ * a vrp path starts at the end of the from link and contains the entire to link. hence, we measure the distance from the to node of the from link
+ * to the from node of the to link. this is a lower bound for the path length as long as no link is shorter than the beeline distance between it's nodes.
+ *
+ * @author tschlenther
+ */
+final class BeelineTravelTimeLowerBound {
+
+    private final double maxFreespeed;
+
+    BeelineTravelTimeLowerBound(Network network) {
+        this.maxFreespeed = network.getLinks().values().stream()
+                .mapToDouble(Link::getFreespeed)
+                .max()
+                .orElseThrow(() -> new IllegalArgumentException("network does not contain any link"));
+    }
+
+    double getTravelTimeLowerBound(Link fromLink, Link toLink) {
+        if (fromLink == toLink) return 0;
+        return DistanceUtils.calculateDistance(fromLink.getToNode().getCoord(), toLink.getFromNode().getCoord()) / maxFreespeed;
+    }
+}
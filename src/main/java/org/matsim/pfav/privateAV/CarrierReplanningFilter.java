@@ -0,0 +1,139 @@
+/* *********************************************************************** *
+ * project: org.matsim.*												   *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2008 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package org.matsim.pfav.privateAV;
+
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.contrib.freight.carrier.Carrier;
+import org.matsim.contrib.freight.carrier.Carriers;
+import org.matsim.contrib.freight.carrier.ScheduledTour;
+import org.matsim.contrib.freight.carrier.Tour;
+import org.matsim.core.population.routes.NetworkRoute;
+import org.matsim.core.router.util.TravelTime;
+
+/**
+ * decides which carriers need to be re-planned when the tour planning is triggered.
+ * <p>
+ * for every carrier, a fingerprint of the travel times is computed: the sum of the travel times on all links that are used by the carrier's
+ * selected plan, per time slice. this fingerprint is stored whenever the carrier is planned. the next time, the carrier is only re-planned
+ * if the fingerprint changed by more than the configured threshold in any time slice. otherwise it keeps it's previous plan, since the
+ * tour planning would not come up with much different tours.
+ * <p>
+ * the fingerprint is compared against the one of the last planning (and not the one of the last check), so that small changes can not add up unnoticed.
+ *
+ * @author tschlenther
+ */
+final class CarrierReplanningFilter {
+
+    private static final Logger log = Logger.getLogger(CarrierReplanningFilter.class);
+
+    //the time period covered by the fingerprints
+    private static final double MAX_TIME = 30 * 3600;
+
+    private final double threshold;
+    private final int timeSlice;
+    private final int numberOfTimeSlices;
+
+    private final Map<Id<Carrier>, double[]> fingerprints = new HashMap<>();
+    //wall clock time in seconds that the last planning of each carrier took
+    private final Map<Id<Carrier>, Double> solveTimes = new HashMap<>();
+
+    CarrierReplanningFilter(double threshold, int timeSlice) {
+        this.threshold = threshold;
+        this.timeSlice = timeSlice;
+        this.numberOfTimeSlices = (int) Math.ceil(MAX_TIME / timeSlice);
+    }
+
+    /**
+     * @return the carriers whose fingerprint changed by more than the threshold, or that have not been planned before
+     */
+    Carriers selectCarriersToReplan(Carriers carriers, Network network, TravelTime travelTime) {
+        Carriers carriersToReplan = new Carriers();
+        int skipped = 0;
+        double savedTime = 0;
+        for (Carrier carrier : carriers.getCarriers().values()) {
+            double[] fingerprintOfLastPlanning = fingerprints.get(carrier.getId());
+            if (fingerprintOfLastPlanning != null
+                    && calcMaxRelativeChange(fingerprintOfLastPlanning, calcFingerprint(carrier, network, travelTime)) <= threshold) {
+                skipped++;
+                savedTime += solveTimes.getOrDefault(carrier.getId(), 0.);
+            } else {
+                carriersToReplan.addCarrier(carrier);
+            }
+        }
+        log.info("skipping the tour planning for " + skipped + " out of " + carriers.getCarriers().size()
+                + " carriers, as the travel times on their links changed by no more than " + threshold
+                + ". this saves approximately " + savedTime + " seconds of tour planning");
+        return carriersToReplan;
+    }
+
+    /**
+     * stores the fingerprints of the new plans of the given carriers, using the travel times they were planned with
+     *
+     * @param solveTimes wall clock time in seconds that the planning took per carrier
+     */
+    void carriersReplanned(Carriers replannedCarriers, Map<Id<Carrier>, Double> solveTimes, Network network, TravelTime travelTime) {
+        for (Carrier carrier : replannedCarriers.getCarriers().values()) {
+            fingerprints.put(carrier.getId(), calcFingerprint(carrier, network, travelTime));
+            this.solveTimes.put(carrier.getId(), solveTimes.get(carrier.getId()));
+        }
+    }
+
+    double[] calcFingerprint(Carrier carrier, Network network, TravelTime travelTime) {
+        Set<Link> links = new LinkedHashSet<>();
+        if (carrier.getSelectedPlan() != null) {
+            for (ScheduledTour scheduledTour : carrier.getSelectedPlan().getScheduledTours()) {
+                for (Tour.TourElement element : scheduledTour.getTour().getTourElements()) {
+                    if (element instanceof Tour.Leg && ((Tour.Leg) element).getRoute() instanceof NetworkRoute) {
+                        NetworkRoute route = (NetworkRoute) ((Tour.Leg) element).getRoute();
+                        route.getLinkIds().forEach(linkId -> links.add(network.getLinks().get(linkId)));
+                        links.add(network.getLinks().get(route.getEndLinkId()));
+                    }
+                }
+            }
+        }
+        double[] fingerprint = new double[numberOfTimeSlices];
+        for (int slice = 0; slice < numberOfTimeSlices; slice++) {
+            double time = slice * timeSlice + timeSlice / 2.;
+            for (Link link : links) {
+                fingerprint[slice] += travelTime.getLinkTravelTime(link, time, null, null);
+            }
+        }
+        return fingerprint;
+    }
+
+    static double calcMaxRelativeChange(double[] previous, double[] current) {
+        double maxChange = 0;
+        for (int slice = 0; slice < previous.length; slice++) {
+            if (previous[slice] == 0) {
+                if (current[slice] != 0) return Double.POSITIVE_INFINITY;
+                continue;
+            }
+            maxChange = Math.max(maxChange, Math.abs(current[slice] - previous[slice]) / previous[slice]);
+        }
+        return maxChange;
+    }
+}
@@ -0,0 +1,105 @@
+/* *********************************************************************** *
+ * project: org.matsim.*												   *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2008 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package org.matsim.pfav.privateAV;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.contrib.util.distance.DistanceUtils;
+import org.matsim.core.network.NetworkUtils;
+import org.matsim.core.utils.collections.QuadTree;
+
+/**
+ * spatial index over the depot links that still are on the manager's to do list. replaces the linear scan with a
+ * {@link org.matsim.contrib.util.StraightLineKnnFinder} over all depots that was done for every freight tour request.
+ * <p>
+ * the index is filled at iteration start and depots are removed as soon as the manager drops them (i.e. when they run empty).
+ * the k nearest depots are found by querying disks of growing radius on a {@link QuadTree}, so the cost of a request only
+ * depends on the number of depots around the request location.
+ *
+ * @author tschlenther
+ */
+final class DepotSpatialIndex {
+
+    private final QuadTree<Link> quadTree;
+    private final double maxSearchRadius;
+
+    DepotSpatialIndex(Network network) {
+        double[] bounds = NetworkUtils.getBoundingBox(network.getNodes().values());
+        this.quadTree = new QuadTree<>(bounds[0], bounds[1], bounds[2], bounds[3]);
+        this.maxSearchRadius = DistanceUtils.calculateDistance(new Coord(bounds[0], bounds[1]), new Coord(bounds[2], bounds[3]));
+    }
+
+    void add(Link depot) {
+        Coord coord = depot.getCoord();
+        if (!this.quadTree.put(coord.getX(), coord.getY(), depot)) {
+            throw new IllegalStateException("could not add depot link " + depot.getId() + " to the spatial index. Is it part of the network?");
+        }
+    }
+
+    void remove(Link depot) {
+        Coord coord = depot.getCoord();
+        this.quadTree.remove(coord.getX(), coord.getY(), depot);
+    }
+
+    void clear() {
+        this.quadTree.clear();
+    }
+
+    int size() {
+        return this.quadTree.size();
+    }
+
+    /**
+     * returns the (at most) {@code k} depots that are closest to {@code requestLink} (beeline distance), sorted by ascending distance.
+     *
+     * @param requestLink   the link the request is located at
+     * @param k             number of depots to return
+     * @param excludedDepot depot that shall not be part of the result, may be null
+     */
+    List<Link> findNearest(Link requestLink, int k, Link excludedDepot) {
+        if (k <= 0 || this.quadTree.size() == 0) return Collections.emptyList();
+        Coord requestCoord = requestLink.getCoord();
+
+        int expectedNumberOfCandidates = Math.min(k, this.quadTree.size());
+        Link closest = this.quadTree.getClosest(requestCoord.getX(), requestCoord.getY());
+        double radius = Math.max(DistanceUtils.calculateDistance(requestCoord, closest.getCoord()), 1.);
+
+        List<Link> candidates = new ArrayList<>();
+        while (true) {
+            candidates.clear();
+            Collection<Link> disk = this.quadTree.getDisk(requestCoord.getX(), requestCoord.getY(), radius);
+            for (Link depot : disk) {
+                if (!depot.equals(excludedDepot)) candidates.add(depot);
+            }
+            //the disk contains all depots within the radius, so as soon as it contains k candidates, those contain the k nearest
+            if (candidates.size() >= expectedNumberOfCandidates || radius > this.maxSearchRadius) break;
+            radius *= 2;
+        }
+
+        candidates.sort(Comparator.comparingDouble(depot -> DistanceUtils.calculateSquaredDistance(requestCoord, depot.getCoord())));
+        return candidates.size() > k ? new ArrayList<>(candidates.subList(0, k)) : candidates;
+    }
+}
@@ -0,0 +1,239 @@
+/* *********************************************************************** *
+ * project: org.matsim.*												   *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2008 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package org.matsim.pfav.privateAV;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * the to do list of freight tours of one depot. replaces the plain LinkedList that was scanned front to back for every request.
+ * <p>
+ * the tours are kept in the order of {@link FreightTourDataPlanned#getLatestArrivalAtLastService()}, which is the order in which
+ * the manager offers them to the vehicles. on top of that, the pool maintains a min-tree over the planned tour durations, so that
+ * the next tour (in that order) that fits into a given time budget is found in O(log n). tours that are obviously too long
+ * for a vehicle thus never get routed against.
+ * <p>
+ * the set of tours is fixed when the pool is created (at iteration start), afterwards tours can only be removed.
+ * <p>
+ * optionally, the tours can be linked to chains with {@link #linkTourChains(boolean)}, so that a vehicle that finishes a tour at the depot can be
+ * offered the next tour of the chain without another search, see {@link FreightAVConfigGroup#USE_TOUR_CHAINS}.
+ *
+ * @author tschlenther
+ */
+final class DepotTourPool {
+
+    private static final double REMOVED = Double.POSITIVE_INFINITY;
+    //number of unclaimed tours that are checked for every tour when the chains are linked
+    private static final int MAX_SUCCESSOR_CANDIDATES = 16;
+
+    private final FreightTourDataPlanned[] tours;
+    private final double[] latestArrivals;
+
+    //min-tree over the planned tour durations. leaf i is located at index leafOffset + i, removed tours have value REMOVED
+    private final double[] minDurationTree;
+    private final int leafOffset;
+
+    private int size;
+
+    //index of the tour that follows the tour at the same index in it's chain, -1 at the end of a chain. null if the chains are not linked
+    private int[] chainSuccessors;
+
+    DepotTourPool(Collection<FreightTourDataPlanned> tours) {
+        this.tours = tours.toArray(new FreightTourDataPlanned[0]);
+        //the sort is stable, so tours with the same latest arrival keep their initial order
+        Arrays.sort(this.tours, Comparator.comparingDouble(FreightTourDataPlanned::getLatestArrivalAtLastService));
+        this.size = this.tours.length;
+
+        this.latestArrivals = new double[this.size];
+        int leafs = 1;
+        while (leafs < this.size) leafs *= 2;
+        this.leafOffset = leafs;
+        this.minDurationTree = new double[2 * leafs];
+        Arrays.fill(this.minDurationTree, REMOVED);
+
+        for (int i = 0; i < this.size; i++) {
+            this.latestArrivals[i] = this.tours[i].getLatestArrivalAtLastService();
+            this.minDurationTree[leafOffset + i] = this.tours[i].getPlannedTourDuration();
+        }
+        for (int node = leafOffset - 1; node >= 1; node--) {
+            this.minDurationTree[node] = Math.min(this.minDurationTree[2 * node], this.minDurationTree[2 * node + 1]);
+        }
+    }
+
+    boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    int size() {
+        return this.size;
+    }
+
+    /**
+     * @return the minimum planned duration of all tours that have not been removed yet, or {@link Double#POSITIVE_INFINITY} if the pool is empty
+     */
+    double getMinPlannedTourDuration() {
+        return this.minDurationTree[1];
+    }
+
+    /**
+     * @return the index of the first tour whose latest arrival at the last service is not before {@code time}.
+     * all tours before that index can not be served in time by a vehicle that arrives at the depot at {@code time}.
+     */
+    int getFirstIndexWithLatestArrivalNotBefore(double time) {
+        int low = 0;
+        int high = this.latestArrivals.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (this.latestArrivals[mid] < time) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return the index of the first tour at or after {@code fromIndex} that has not been removed yet and has a planned duration
+     * of at most {@code maxTourDuration}. returns -1 if there is no such tour.
+     */
+    int getNextCandidate(int fromIndex, double maxTourDuration) {
+        if (fromIndex >= this.tours.length) return -1;
+        return findFirst(1, 0, leafOffset - 1, fromIndex, maxTourDuration);
+    }
+
+    private int findFirst(int node, int nodeFrom, int nodeTo, int fromIndex, double maxTourDuration) {
+        double minDuration = this.minDurationTree[node];
+        if (nodeTo < fromIndex || minDuration == REMOVED || minDuration > maxTourDuration) return -1;
+        if (nodeFrom == nodeTo) return nodeFrom;
+        int mid = (nodeFrom + nodeTo) >>> 1;
+        int result = findFirst(2 * node, nodeFrom, mid, fromIndex, maxTourDuration);
+        return result != -1 ? result : findFirst(2 * node + 1, mid + 1, nodeTo, fromIndex, maxTourDuration);
+    }
+
+    FreightTourDataPlanned get(int index) {
+        return this.tours[index];
+    }
+
+    FreightTourDataPlanned remove(int index) {
+        FreightTourDataPlanned tour = this.tours[index];
+        if (tour == null) throw new IllegalStateException("tour at index " + index + " has already been removed");
+        this.tours[index] = null;
+        this.size--;
+
+        int node = leafOffset + index;
+        this.minDurationTree[node] = REMOVED;
+        for (node /= 2; node >= 1; node /= 2) {
+            this.minDurationTree[node] = Math.min(this.minDurationTree[2 * node], this.minDurationTree[2 * node + 1]);
+        }
+        return tour;
+    }
+
+    /**
+     * links the tours to disjoint chains. every tour gets at most one successor and is the successor of at most one tour. the tours are processed
+     * in the order of their planned end time, each one claims the first unclaimed tour (in dispatch order) that can still be served in time if it
+     * is started at the planned end of the tour. like that, the chains follow the order in which the tours would be offered anyway.
+     *
+     * @param considerServiceTimeWindows whether the latest arrival at the last service restricts the successors,
+     *                                   see {@link FreightAVConfigGroup#CONSIDER_SERVICE_TIME_WINDOWS_FOR_DISPATCH}
+     * @return the number of chains with more than one tour
+     */
+    int linkTourChains(boolean considerServiceTimeWindows) {
+        int n = this.tours.length;
+        this.chainSuccessors = new int[n];
+        Arrays.fill(this.chainSuccessors, -1);
+        boolean[] claimed = new boolean[n];
+        //nextUnclaimed[i] points to the next index at or after i that might still be unclaimed. n is the sentinel
+        int[] nextUnclaimed = new int[n + 1];
+        for (int i = 0; i <= n; i++) nextUnclaimed[i] = i;
+        //head of the chain that ends with the tour at the index and tail of the chain that starts with the tour at the index
+        int[] headOfTail = new int[n];
+        int[] tailOfHead = new int[n];
+        for (int i = 0; i < n; i++) {
+            headOfTail[i] = i;
+            tailOfHead[i] = i;
+        }
+
+        Integer[] byPlannedEnd = new Integer[n];
+        for (int i = 0; i < n; i++) byPlannedEnd[i] = i;
+        Arrays.sort(byPlannedEnd, Comparator.comparingDouble(i -> this.tours[i].getPlannedEndTime()));
+
+        for (int predecessor : byPlannedEnd) {
+            double plannedEnd = this.tours[predecessor].getPlannedEndTime();
+            int candidate = findUnclaimed(nextUnclaimed, considerServiceTimeWindows ? getFirstIndexWithLatestArrivalNotBefore(plannedEnd) : 0);
+            for (int checked = 0; candidate < n && checked < MAX_SUCCESSOR_CANDIDATES; checked++) {
+                FreightTourDataPlanned tour = this.tours[candidate];
+                //the predecessor is the tail of it's chain and the candidate is the head of it's chain. linking them must not close a cycle
+                if (candidate != headOfTail[predecessor]
+                        && (!considerServiceTimeWindows || tour.getLatestArrivalAtLastService() >= plannedEnd + tour.getTravelTimeToLastService())) {
+                    this.chainSuccessors[predecessor] = candidate;
+                    claimed[candidate] = true;
+                    nextUnclaimed[candidate] = candidate + 1;
+                    int head = headOfTail[predecessor];
+                    int tail = tailOfHead[candidate];
+                    tailOfHead[head] = tail;
+                    headOfTail[tail] = head;
+                    break;
+                }
+                candidate = findUnclaimed(nextUnclaimed, candidate + 1);
+            }
+        }
+
+        int numberOfChains = 0;
+        for (int i = 0; i < n; i++) {
+            if (!claimed[i] && this.chainSuccessors[i] >= 0) numberOfChains++;
+        }
+        return numberOfChains;
+    }
+
+    private static int findUnclaimed(int[] nextUnclaimed, int index) {
+        int root = index;
+        while (nextUnclaimed[root] != root) root = nextUnclaimed[root];
+        while (nextUnclaimed[index] != root) {
+            int next = nextUnclaimed[index];
+            nextUnclaimed[index] = root;
+            index = next;
+        }
+        return root;
+    }
+
+    /**
+     * @return the index of the tour that follows the tour at {@code index} in it's chain, or -1 if the chains are not linked,
+     * the tour is the last one of it's chain or the successor has already been removed
+     */
+    int getChainSuccessor(int index) {
+        if (this.chainSuccessors == null) return -1;
+        int successor = this.chainSuccessors[index];
+        return successor >= 0 && this.tours[successor] != null ? successor : -1;
+    }
+
+    /**
+     * @return all tours that have not been removed yet, in dispatch order
+     */
+    List<FreightTourDataPlanned> getRemainingTours() {
+        List<FreightTourDataPlanned> remaining = new ArrayList<>(this.size);
+        for (FreightTourDataPlanned tour : this.tours) {
+            if (tour != null) remaining.add(tour);
+        }
+        return remaining;
+    }
+}
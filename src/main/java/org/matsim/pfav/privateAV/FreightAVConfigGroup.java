@@ -7,6 +7,7 @@ import javax.validation.constraints.DecimalMax;
 import javax.validation.constraints.DecimalMin;
 import javax.validation.constraints.NotBlank;
 import javax.validation.constraints.Positive;
+import javax.validation.constraints.PositiveOrZero;
 import java.util.Map;
 
 public final class FreightAVConfigGroup extends ReflectiveConfigGroup {
@@ -86,6 +87,83 @@ public final class FreightAVConfigGroup extends ReflectiveConfigGroup {
 	static final String ALLOW_MULTIPLE_TOURS_IN_A_ROW_EXP = "when true, the vehicle will immediately return to it's owner's activity location and wait there. "
 			+ "if false, it might perform another freight tour after having performed the last PFAVServiceTask.";
 
+	public static final String RETURN_PATH_CACHE_TIME_BIN_SIZE = "returnPathCacheTimeBinSize";
+	static final String RETURN_PATH_CACHE_TIME_BIN_SIZE_EXP = "width of the departure time bins (in seconds) of the cache for the travel times from depot back "
+			+ "to the owner that are computed in the dispatch. 0 (default) means that the exact travel time is computed for every candidate tour. with a positive "
+			+ "value, the travel time is routed only once per iteration for each combination of depot, owner location and time bin, for a departure at the "
+			+ "beginning of the bin. with rising congestion this underestimates the travel time, so tours might be accepted that make the owner wait.";
+
+	public static final String BATCHED_DISPATCH = "batchedDispatch";
+	static final String BATCHED_DISPATCH_EXP = "if true, the freight tour requests that vehicles make after a passenger dropoff are collected and dispatched "
+			+ "together, by solving an assignment problem between the requesting vehicles and the feasible tours at their nearest depots. "
+			+ "if false, each request is served immediately (first come first served).";
+
+	public static final String BATCHED_DISPATCH_INTERVAL = "batchedDispatchInterval";
+	static final String BATCHED_DISPATCH_INTERVAL_EXP = "only relevant if " + BATCHED_DISPATCH + " is true. interval (in seconds) in which the collected "
+			+ "freight tour requests are dispatched. in the meantime, the requesting vehicles wait at their owner's location. 1 means every mobsim step.";
+
+	public static final String NUMBER_OF_DISPATCH_THREADS = "numberOfDispatchThreads";
+	static final String NUMBER_OF_DISPATCH_THREADS_EXP = "number of threads that evaluate the " + NUMBER_OF_DEPOTS_TO_CONSIDER + " nearest depots "
+			+ "of a freight tour request in parallel. every thread uses it's own router. the dispatched tour is the same as with 1 thread (sequential evaluation).";
+
+	public static final String WARM_START_TOUR_PLANNING = "warmStartTourPlanning";
+	static final String WARM_START_TOUR_PLANNING_EXP = "if true, the tour planning of a carrier starts with the carrier's best solution of the last tour planning (as initial solution for "
+			+ "jsprit) instead of starting from scratch.";
+
+	public static final String WARM_START_MAX_RELATIVE_COST_CHANGE = "warmStartMaxRelativeCostChange";
+	static final String WARM_START_MAX_RELATIVE_COST_CHANGE_EXP = "only relevant if warmStartTourPlanning is true. if the transport costs of a carrier's last best solution changed by no more than "
+			+ "this share due to the new travel times, the tour planning of the carrier only runs a reduced number of jsprit iterations, see "
+			+ "warmStartIterationShare.";
+
+	public static final String WARM_START_ITERATION_SHARE = "warmStartIterationShare";
+	static final String WARM_START_ITERATION_SHARE_EXP = "only relevant if warmStartTourPlanning is true. share of maxNrOfJspritIterations that is run for carriers whose transport costs "
+			+ "hardly changed, see warmStartMaxRelativeCostChange.";
+
+	public static final String SKIP_TOUR_PLANNING_FOR_UNAFFECTED_CARRIERS = "skipTourPlanningForUnaffectedCarriers";
+	static final String SKIP_TOUR_PLANNING_FOR_UNAFFECTED_CARRIERS_EXP = "if true, a carrier is only re-planned if the travel times on the links used by it's selected plan changed by more than "
+			+ "carrierTravelTimeChangeThreshold (in any time slice) since it was planned the last time. otherwise it keeps it's previous plan.";
+
+	public static final String CARRIER_TRAVEL_TIME_CHANGE_THRESHOLD = "carrierTravelTimeChangeThreshold";
+	static final String CARRIER_TRAVEL_TIME_CHANGE_THRESHOLD_EXP = "only relevant if skipTourPlanningForUnaffectedCarriers is true. maximum relative change of the summed travel times on a carrier's "
+			+ "links (per time slice) that does not trigger a re-planning of the carrier.";
+
+	public static final String TRANSPORT_COSTS_CACHE_DIRECTORY = "transportCostsCacheDirectory";
+	static final String TRANSPORT_COSTS_CACHE_DIRECTORY_EXP = "Directory in which the travel times, costs, distances and paths that the tour planning computes between the carrier locations are "
+			+ "cached on disk. The cache file is specific to the network and the vehicle types, so repeated runs with the same input skip most of the "
+			+ "routing. Only used if the tour planning runs on free speed travel times, as the travel time estimates of the mobsim change from "
+			+ "iteration to iteration. Not set (default) means no cache.";
+
+	public static final String NUMBER_OF_TOUR_PLANNING_THREADS = "numberOfTourPlanningThreads";
+	static final String NUMBER_OF_TOUR_PLANNING_THREADS_EXP = "Number of threads that run the tour planning (jsprit) of the carriers. The carriers are planned largest first. 0 (default) means "
+			+ "the number of available processors.";
+
+	public static final String INCREMENTAL_FLEET_SPECIFICATION_UPDATE = "incrementalFleetSpecificationUpdate";
+	static final String INCREMENTAL_FLEET_SPECIFICATION_UPDATE_EXP = "If true (default), the PFAV specifications are only recomputed for persons whose selected plan changed since the last iteration. "
+			+ "The comparison is based on a hash of all plan attributes that the must return times depend on. The population is scanned in "
+			+ "parallel.";
+
+	public static final String PRECOMPUTE_LINK_COSTS = "precomputeLinkCosts";
+	static final String PRECOMPUTE_LINK_COSTS_EXP = "If true, the link costs of the PFAV vehicle type are computed once per iteration for every link and travel time bin of the "
+			+ "travelTimeCalculator config group, and the routers of the dispatch look them up instead of asking the travel time for every link. "
+			+ "This needs 8 bytes per link and time bin, e.g. roughly 100 MB for the berlin network. Default is false.";
+
+	public static final String USE_TOUR_CHAINS = "useTourChains";
+	static final String USE_TOUR_CHAINS_EXP = "Only used if allowMultipleToursInaRow is true. If true, the tours of each depot are linked to chains at iteration start, so that a "
+			+ "vehicle that ends a tour at the depot is first offered the next tour of the chain, without searching through the depot's tours "
+			+ "again. The next tour is only dispatched if it fits into the remaining free time of the owner, otherwise the usual search is "
+			+ "performed. default is false.";
+
+	public static final String RE_ROUTE_TOURS_TOLERANCE = "reRouteToursTolerance";
+	static final String RE_ROUTE_TOURS_TOLERANCE_EXP = "Only used if reRouteTours is true. Tolerance in seconds for the travel time of a drive within a dispatched tour. The stored route "
+			+ "of the drive is first evaluated with the current travel times and is kept if its travel time differs from the planned one by at "
+			+ "most the tolerance. Otherwise, a new route is searched. A negative value means that every drive is re-routed. default is -1.";
+
+	public static final String STEP_PATH_CACHE_TIME_BIN_SIZE = "stepPathCacheTimeBinSize";
+	static final String STEP_PATH_CACHE_TIME_BIN_SIZE_EXP = "Width of the departure time bins (in seconds) in which the dispatch and the scheduler share routes within one mobsim step. 0 "
+			+ "(default) means that a route is only shared for exactly the same departure time, so the schedules are routed exactly as without "
+			+ "the sharing. With a positive value, the route is computed for a departure at the beginning of the bin and re-timed for the actual "
+			+ "departure, so more routes are shared but they may differ from the least cost path at the actual departure time.";
+
 	@NotBlank
 	private String mode = "taxi";
 
@@ -133,6 +211,47 @@ public final class FreightAVConfigGroup extends ReflectiveConfigGroup {
 
 	private boolean allowMultipleToursInaRow = true;
 
+	@PositiveOrZero
+	private int returnPathCacheTimeBinSize = 0;
+
+	private boolean batchedDispatch = false;
+
+	@Positive
+	private int batchedDispatchInterval = 1;
+
+	@Positive
+	private int numberOfDispatchThreads = 1;
+
+	private boolean warmStartTourPlanning = false;
+
+	@PositiveOrZero
+	private double warmStartMaxRelativeCostChange = 0.05;
+
+	@DecimalMax("1.0")
+	@DecimalMin("0.0")
+	private double warmStartIterationShare = 0.2;
+
+	private boolean skipTourPlanningForUnaffectedCarriers = false;
+
+	@PositiveOrZero
+	private double carrierTravelTimeChangeThreshold = 0.02;
+
+	private String transportCostsCacheDirectory = null;
+
+	@PositiveOrZero
+	private int numberOfTourPlanningThreads = 0;
+
+	private boolean incrementalFleetSpecificationUpdate = true;
+
+	private boolean precomputeLinkCosts = false;
+
+	private boolean useTourChains = false;
+
+	private double reRouteToursTolerance = -1.;
+
+	@PositiveOrZero
+	private int stepPathCacheTimeBinSize = 0;
+
 	/**
 	 * @return the mode
 	 */
@@ -417,6 +536,278 @@ public final class FreightAVConfigGroup extends ReflectiveConfigGroup {
 		this.allowMultipleToursInaRow = allowMultipleToursInaRow;
 	}
 
+	/**
+	 * @return the returnPathCacheTimeBinSize
+	 */
+	@StringGetter(RETURN_PATH_CACHE_TIME_BIN_SIZE)
+	public int getReturnPathCacheTimeBinSize() {
+		return returnPathCacheTimeBinSize;
+	}
+
+	/**
+	 * @param returnPathCacheTimeBinSize
+	 *            the returnPathCacheTimeBinSize to set
+	 */
+	@StringSetter(RETURN_PATH_CACHE_TIME_BIN_SIZE)
+	public void setReturnPathCacheTimeBinSize(int returnPathCacheTimeBinSize) {
+		this.returnPathCacheTimeBinSize = returnPathCacheTimeBinSize;
+	}
+
+	/**
+	 * @return the batchedDispatch
+	 */
+	@StringGetter(BATCHED_DISPATCH)
+	public boolean isBatchedDispatch() {
+		return batchedDispatch;
+	}
+
+	/**
+	 * @param batchedDispatch
+	 *            the batchedDispatch to set
+	 */
+	@StringSetter(BATCHED_DISPATCH)
+	public void setBatchedDispatch(boolean batchedDispatch) {
+		this.batchedDispatch = batchedDispatch;
+	}
+
+	/**
+	 * @return the batchedDispatchInterval
+	 */
+	@StringGetter(BATCHED_DISPATCH_INTERVAL)
+	public int getBatchedDispatchInterval() {
+		return batchedDispatchInterval;
+	}
+
+	/**
+	 * @param batchedDispatchInterval
+	 *            the batchedDispatchInterval to set
+	 */
+	@StringSetter(BATCHED_DISPATCH_INTERVAL)
+	public void setBatchedDispatchInterval(int batchedDispatchInterval) {
+		this.batchedDispatchInterval = batchedDispatchInterval;
+	}
+
+	/**
+	 * @return the numberOfDispatchThreads
+	 */
+	@StringGetter(NUMBER_OF_DISPATCH_THREADS)
+	public int getNumberOfDispatchThreads() {
+		return numberOfDispatchThreads;
+	}
+
+	/**
+	 * @param numberOfDispatchThreads
+	 *            the numberOfDispatchThreads to set
+	 */
+	@StringSetter(NUMBER_OF_DISPATCH_THREADS)
+	public void setNumberOfDispatchThreads(int numberOfDispatchThreads) {
+		this.numberOfDispatchThreads = numberOfDispatchThreads;
+	}
+
+	/**
+	 * @return the warmStartTourPlanning
+	 */
+	@StringGetter(WARM_START_TOUR_PLANNING)
+	public boolean isWarmStartTourPlanning() {
+		return warmStartTourPlanning;
+	}
+
+	/**
+	 * @param warmStartTourPlanning
+	 *            the warmStartTourPlanning to set
+	 */
+	@StringSetter(WARM_START_TOUR_PLANNING)
+	public void setWarmStartTourPlanning(boolean warmStartTourPlanning) {
+		this.warmStartTourPlanning = warmStartTourPlanning;
+	}
+
+	/**
+	 * @return the warmStartMaxRelativeCostChange
+	 */
+	@StringGetter(WARM_START_MAX_RELATIVE_COST_CHANGE)
+	public double getWarmStartMaxRelativeCostChange() {
+		return warmStartMaxRelativeCostChange;
+	}
+
+	/**
+	 * @param warmStartMaxRelativeCostChange
+	 *            the warmStartMaxRelativeCostChange to set
+	 */
+	@StringSetter(WARM_START_MAX_RELATIVE_COST_CHANGE)
+	public void setWarmStartMaxRelativeCostChange(double warmStartMaxRelativeCostChange) {
+		this.warmStartMaxRelativeCostChange = warmStartMaxRelativeCostChange;
+	}
+
+	/**
+	 * @return the warmStartIterationShare
+	 */
+	@StringGetter(WARM_START_ITERATION_SHARE)
+	public double getWarmStartIterationShare() {
+		return warmStartIterationShare;
+	}
+
+	/**
+	 * @param warmStartIterationShare
+	 *            the warmStartIterationShare to set
+	 */
+	@StringSetter(WARM_START_ITERATION_SHARE)
+	public void setWarmStartIterationShare(double warmStartIterationShare) {
+		this.warmStartIterationShare = warmStartIterationShare;
+	}
+
+	/**
+	 * @return the skipTourPlanningForUnaffectedCarriers
+	 */
+	@StringGetter(SKIP_TOUR_PLANNING_FOR_UNAFFECTED_CARRIERS)
+	public boolean isSkipTourPlanningForUnaffectedCarriers() {
+		return skipTourPlanningForUnaffectedCarriers;
+	}
+
+	/**
+	 * @param skipTourPlanningForUnaffectedCarriers
+	 *            the skipTourPlanningForUnaffectedCarriers to set
+	 */
+	@StringSetter(SKIP_TOUR_PLANNING_FOR_UNAFFECTED_CARRIERS)
+	public void setSkipTourPlanningForUnaffectedCarriers(boolean skipTourPlanningForUnaffectedCarriers) {
+		this.skipTourPlanningForUnaffectedCarriers = skipTourPlanningForUnaffectedCarriers;
+	}
+
+	/**
+	 * @return the carrierTravelTimeChangeThreshold
+	 */
+	@StringGetter(CARRIER_TRAVEL_TIME_CHANGE_THRESHOLD)
+	public double getCarrierTravelTimeChangeThreshold() {
+		return carrierTravelTimeChangeThreshold;
+	}
+
+	/**
+	 * @param carrierTravelTimeChangeThreshold
+	 *            the carrierTravelTimeChangeThreshold to set
+	 */
+	@StringSetter(CARRIER_TRAVEL_TIME_CHANGE_THRESHOLD)
+	public void setCarrierTravelTimeChangeThreshold(double carrierTravelTimeChangeThreshold) {
+		this.carrierTravelTimeChangeThreshold = carrierTravelTimeChangeThreshold;
+	}
+
+	/**
+	 * @return the transportCostsCacheDirectory
+	 */
+	@StringGetter(TRANSPORT_COSTS_CACHE_DIRECTORY)
+	public String getTransportCostsCacheDirectory() {
+		return transportCostsCacheDirectory;
+	}
+
+	/**
+	 * @param transportCostsCacheDirectory
+	 *            the transportCostsCacheDirectory to set
+	 */
+	@StringSetter(TRANSPORT_COSTS_CACHE_DIRECTORY)
+	public void setTransportCostsCacheDirectory(String transportCostsCacheDirectory) {
+		this.transportCostsCacheDirectory = transportCostsCacheDirectory;
+	}
+
+	/**
+	 * @return the numberOfTourPlanningThreads
+	 */
+	@StringGetter(NUMBER_OF_TOUR_PLANNING_THREADS)
+	public int getNumberOfTourPlanningThreads() {
+		return numberOfTourPlanningThreads;
+	}
+
+	/**
+	 * @param numberOfTourPlanningThreads
+	 *            the numberOfTourPlanningThreads to set
+	 */
+	@StringSetter(NUMBER_OF_TOUR_PLANNING_THREADS)
+	public void setNumberOfTourPlanningThreads(int numberOfTourPlanningThreads) {
+		this.numberOfTourPlanningThreads = numberOfTourPlanningThreads;
+	}
+
+	/**
+	 * @return the incrementalFleetSpecificationUpdate
+	 */
+	@StringGetter(INCREMENTAL_FLEET_SPECIFICATION_UPDATE)
+	public boolean isIncrementalFleetSpecificationUpdate() {
+		return incrementalFleetSpecificationUpdate;
+	}
+
+	/**
+	 * @param incrementalFleetSpecificationUpdate
+	 *            the incrementalFleetSpecificationUpdate to set
+	 */
+	@StringSetter(INCREMENTAL_FLEET_SPECIFICATION_UPDATE)
+	public void setIncrementalFleetSpecificationUpdate(boolean incrementalFleetSpecificationUpdate) {
+		this.incrementalFleetSpecificationUpdate = incrementalFleetSpecificationUpdate;
+	}
+
+	/**
+	 * @return the precomputeLinkCosts
+	 */
+	@StringGetter(PRECOMPUTE_LINK_COSTS)
+	public boolean isPrecomputeLinkCosts() {
+		return precomputeLinkCosts;
+	}
+
+	/**
+	 * @param precomputeLinkCosts
+	 *            the precomputeLinkCosts to set
+	 */
+	@StringSetter(PRECOMPUTE_LINK_COSTS)
+	public void setPrecomputeLinkCosts(boolean precomputeLinkCosts) {
+		this.precomputeLinkCosts = precomputeLinkCosts;
+	}
+
+	/**
+	 * @return the useTourChains
+	 */
+	@StringGetter(USE_TOUR_CHAINS)
+	public boolean isUseTourChains() {
+		return useTourChains;
+	}
+
+	/**
+	 * @param useTourChains
+	 *            the useTourChains to set
+	 */
+	@StringSetter(USE_TOUR_CHAINS)
+	public void setUseTourChains(boolean useTourChains) {
+		this.useTourChains = useTourChains;
+	}
+
+	/**
+	 * @return the reRouteToursTolerance
+	 */
+	@StringGetter(RE_ROUTE_TOURS_TOLERANCE)
+	public double getReRouteToursTolerance() {
+		return reRouteToursTolerance;
+	}
+
+	/**
+	 * @param reRouteToursTolerance
+	 *            the reRouteToursTolerance to set
+	 */
+	@StringSetter(RE_ROUTE_TOURS_TOLERANCE)
+	public void setReRouteToursTolerance(double reRouteToursTolerance) {
+		this.reRouteToursTolerance = reRouteToursTolerance;
+	}
+
+	/**
+	 * @return the stepPathCacheTimeBinSize
+	 */
+	@StringGetter(STEP_PATH_CACHE_TIME_BIN_SIZE)
+	public int getStepPathCacheTimeBinSize() {
+		return stepPathCacheTimeBinSize;
+	}
+
+	/**
+	 * @param stepPathCacheTimeBinSize
+	 *            the stepPathCacheTimeBinSize to set
+	 */
+	@StringSetter(STEP_PATH_CACHE_TIME_BIN_SIZE)
+	public void setStepPathCacheTimeBinSize(int stepPathCacheTimeBinSize) {
+		this.stepPathCacheTimeBinSize = stepPathCacheTimeBinSize;
+	}
+
     /**
      * @param pfavType the pfavType to set
      */
@@ -444,6 +835,22 @@ public final class FreightAVConfigGroup extends ReflectiveConfigGroup {
         map.put(CONSIDER_SERVICE_TIMEWINDOWS_FOR_DISPATCH, CONSIDER_SERVICE_TIMEWINDOWS_FOR_DISPATCH_EXP);
         map.put(RE_ROUTE_TOURS, RE_ROUTE_TOURS_EXP);
         map.put(ALLOW_MULTIPLE_TOURS_IN_A_ROW, ALLOW_MULTIPLE_TOURS_IN_A_ROW_EXP);
+        map.put(RETURN_PATH_CACHE_TIME_BIN_SIZE, RETURN_PATH_CACHE_TIME_BIN_SIZE_EXP);
+        map.put(BATCHED_DISPATCH, BATCHED_DISPATCH_EXP);
+        map.put(BATCHED_DISPATCH_INTERVAL, BATCHED_DISPATCH_INTERVAL_EXP);
+        map.put(NUMBER_OF_DISPATCH_THREADS, NUMBER_OF_DISPATCH_THREADS_EXP);
+        map.put(WARM_START_TOUR_PLANNING, WARM_START_TOUR_PLANNING_EXP);
+        map.put(WARM_START_MAX_RELATIVE_COST_CHANGE, WARM_START_MAX_RELATIVE_COST_CHANGE_EXP);
+        map.put(WARM_START_ITERATION_SHARE, WARM_START_ITERATION_SHARE_EXP);
+        map.put(SKIP_TOUR_PLANNING_FOR_UNAFFECTED_CARRIERS, SKIP_TOUR_PLANNING_FOR_UNAFFECTED_CARRIERS_EXP);
+        map.put(CARRIER_TRAVEL_TIME_CHANGE_THRESHOLD, CARRIER_TRAVEL_TIME_CHANGE_THRESHOLD_EXP);
+        map.put(TRANSPORT_COSTS_CACHE_DIRECTORY, TRANSPORT_COSTS_CACHE_DIRECTORY_EXP);
+        map.put(NUMBER_OF_TOUR_PLANNING_THREADS, NUMBER_OF_TOUR_PLANNING_THREADS_EXP);
+        map.put(INCREMENTAL_FLEET_SPECIFICATION_UPDATE, INCREMENTAL_FLEET_SPECIFICATION_UPDATE_EXP);
+        map.put(PRECOMPUTE_LINK_COSTS, PRECOMPUTE_LINK_COSTS_EXP);
+        map.put(USE_TOUR_CHAINS, USE_TOUR_CHAINS_EXP);
+        map.put(RE_ROUTE_TOURS_TOLERANCE, RE_ROUTE_TOURS_TOLERANCE_EXP);
+        map.put(STEP_PATH_CACHE_TIME_BIN_SIZE, STEP_PATH_CACHE_TIME_BIN_SIZE_EXP);
         return map;
     }
 
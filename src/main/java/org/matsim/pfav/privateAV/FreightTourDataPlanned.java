@@ -26,26 +26,37 @@ import org.matsim.contrib.dvrp.schedule.Task;
 
 import java.util.List;
 import java.util.Objects;
+import java.util.function.Supplier;
 
+/**
+ * a freight tour as it is offered for dispatch. the task list is only built on the first call of {@link #getTourTasks()}, i.e. when the tour
+ * is dispatched, as most tours are never dispatched. everything the dispatch needs before that is computed up front.
+ */
 final class FreightTourDataPlanned {
 
     private List<Task> tourTasks;
+    private Supplier<List<Task>> tourTasksFactory;
     private DriveTask accessDriveTask = null;
 
     private final Link depotLink;
     private final int plannedTotalCapacityDemand;
     private final double travelTimeToLastService;
+    private final double latestArrivalAtLastService;
+    private final double plannedEndTime;
 
     private Double plannedTourDuration;
     private int amountOfRejections = 0;
 
 
-    FreightTourDataPlanned(List<Task> tourTasks, Link depotLinkId, double plannedTourDuration, double travelTimeToLastService, int plannedTotalCapacityDemand) {
-        this.tourTasks = Objects.requireNonNull(tourTasks);
+    FreightTourDataPlanned(Supplier<List<Task>> tourTasksFactory, Link depotLinkId, double plannedTourDuration, double travelTimeToLastService,
+                           int plannedTotalCapacityDemand, double latestArrivalAtLastService, double plannedEndTime) {
+        this.tourTasksFactory = Objects.requireNonNull(tourTasksFactory);
         this.depotLink = Objects.requireNonNull(depotLinkId);
         this.plannedTourDuration = plannedTourDuration;
         this.travelTimeToLastService = travelTimeToLastService;
         this.plannedTotalCapacityDemand = plannedTotalCapacityDemand;
+        this.latestArrivalAtLastService = latestArrivalAtLastService;
+        this.plannedEndTime = plannedEndTime;
     }
 
     double getPlannedTourDuration() {
@@ -57,9 +68,20 @@ final class FreightTourDataPlanned {
     }
 
     List<Task> getTourTasks() {
+        if (tourTasks == null) {
+            tourTasks = tourTasksFactory.get();
+            tourTasksFactory = null;
+        }
         return tourTasks;
     }
 
+    /**
+     * @return the planned end time of the last retool task, i.e. the time the vehicle is free again if the tour is performed as planned
+     */
+    double getPlannedEndTime() {
+        return plannedEndTime;
+    }
+
     int getPlannedTotalCapacityDemand() {
         return plannedTotalCapacityDemand;
     }
@@ -85,10 +107,7 @@ final class FreightTourDataPlanned {
     }
 
     double getLatestArrivalAtLastService() {
-        if (!(tourTasks.get(tourTasks.size() - 3) instanceof PFAVServiceTask) || !(tourTasks.get(tourTasks.size() - 1) instanceof PFAVRetoolTask)) {
-            throw new IllegalStateException();
-        }
-        return ((PFAVServiceTask) tourTasks.get(tourTasks.size() - 3)).getCarrierService().getServiceStartTimeWindow().getEnd();
+        return latestArrivalAtLastService;
     }
 
     double getTravelTimeToLastService() {
@@ -25,6 +25,9 @@ import org.matsim.core.controler.listener.IterationStartsListener;
 import org.matsim.core.router.util.LeastCostPathCalculator;
 
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Supplier;
 
 /**
  * @author tschlenther
@@ -40,6 +43,25 @@ interface FreightTourManagerListBased extends IterationStartsListener, Iteration
 
     FreightTourDataPlanned vehicleRequestedFreightTourExcludingDepot(PFAVehicle vehicle, Link depotLink, LeastCostPathCalculator router);
 
+    /**
+     * dispatches freight tours to several vehicles that requested a tour at the same time (batched dispatch, see {@link FreightAVConfigGroup#BATCHED_DISPATCH}).
+     * the current task of each vehicle needs to end at the time of the request.
+     *
+     * @return the tours assigned to the vehicles. vehicles that did not get a tour are not contained.
+     */
+    Map<PFAVehicle, FreightTourDataPlanned> vehiclesRequestedFreightTours(List<PFAVehicle> vehicles, LeastCostPathCalculator router);
+
+    /**
+     * lets the manager evaluate the depots that are considered for a request in parallel, using the given pool. as the routers are not thread safe,
+     * every worker thread creates it's own router with the given factory. the parallel evaluation is switched off again at the end of the iteration.
+     */
+    void enableParallelDispatch(ForkJoinPool pool, Supplier<LeastCostPathCalculator> routerFactory);
+
+    /**
+     * lets the manager share the routes of the current mobsim step with the scheduler. the cache is dropped again at the end of the iteration.
+     */
+    void setStepPathCache(StepPathCache stepPathCache);
+
     boolean isEnoughTimeLeftToPerformFreightTour(PFAVehicle vehicle, VrpPathWithTravelData pathFromCurrTaskToDepot,
                                                  double waitTimeAtDepot, FreightTourDataPlanned freightTour, LeastCostPathCalculator router);
 }
@@ -0,0 +1,153 @@
+/* *********************************************************************** *
+ * project: org.matsim.*												   *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2008 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package org.matsim.pfav.privateAV;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.contrib.dvrp.path.VrpPathWithTravelData;
+import org.matsim.contrib.dvrp.schedule.StayTask;
+import org.matsim.contrib.dvrp.schedule.Tasks;
+import org.matsim.core.config.Config;
+import org.matsim.core.router.util.LeastCostPathCalculator;
+import org.matsim.util.MinCostAssignment;
+
+import com.google.inject.Inject;
+
+/**
+ * dispatches the freight tour requests that were collected over one batch (see {@link FreightAVConfigGroup#BATCHED_DISPATCH}) all at once,
+ * instead of first come first served.
+ * <p>
+ * for every vehicle, the nearest depots are looked at in the same way as in {@link FreightTourManagerListBasedImpl}, but instead of taking the first
+ * feasible tour, up to one feasible tour per vehicle in the batch (but at most {@link #MAX_CANDIDATES_PER_DEPOT}) is collected per depot. the
+ * vehicles are then matched to those candidate tours by the {@link MinCostAssignment}, which first maximizes the number of dispatched tours and then
+ * minimizes the sum of travel times to the depots. thus, a vehicle does no longer take away the only tour that another vehicle of the same batch
+ * could perform.
+ * <p>
+ * only the candidate pairs are handed to the assignment, so the effort grows with the number of candidates and not with the number of vehicles
+ * times the number of tours.
+ * <p>
+ * requests that are not made after a passenger dropoff (multiple tours in a row) are still served one by one.
+ *
+ * @author tschlenther
+ */
+final class FreightTourManagerListBasedBatchedImpl extends FreightTourManagerListBasedImpl {
+
+    private final static Logger log = Logger.getLogger(FreightTourManagerListBasedBatchedImpl.class);
+
+    //among tours with (almost) the same travel time to the depot, prefer the one that would have been dispatched first
+    private static final double RANK_PENALTY = 1e-3;
+    //limits the number of feasibility checks per vehicle and depot for large batches
+    static final int MAX_CANDIDATES_PER_DEPOT = 10;
+
+    @Inject
+    FreightTourManagerListBasedBatchedImpl(Config config, PFAVDispatchMetrics metrics) {
+        super(config, metrics);
+    }
+
+    @Override
+    public Map<PFAVehicle, FreightTourDataPlanned> vehiclesRequestedFreightTours(List<PFAVehicle> vehicles, LeastCostPathCalculator router) {
+        if (vehicles.size() <= 1) return super.vehiclesRequestedFreightTours(vehicles, router);
+
+        List<Candidate> candidates = new ArrayList<>();
+        for (int v = 0; v < vehicles.size(); v++) {
+            collectCandidates(v, vehicles.get(v), Math.min(vehicles.size(), MAX_CANDIDATES_PER_DEPOT), router, candidates);
+        }
+        Map<PFAVehicle, FreightTourDataPlanned> vehicleToTour = new LinkedHashMap<>();
+        if (candidates.isEmpty()) return vehicleToTour;
+
+        //columns are the distinct candidate tours. a tour belongs to exactly one depot, so there is at most one candidate per vehicle and tour
+        Map<FreightTourDataPlanned, Integer> tourToColumn = new IdentityHashMap<>();
+        for (Candidate candidate : candidates) {
+            tourToColumn.putIfAbsent(candidate.tour, tourToColumn.size());
+        }
+        MinCostAssignment assignment = new MinCostAssignment(vehicles.size(), tourToColumn.size());
+        for (Candidate candidate : candidates) {
+            assignment.addCandidate(candidate.vehicleIdx, tourToColumn.get(candidate.tour), candidate.cost);
+        }
+
+        int[] columnOfVehicle = assignment.solve();
+        for (Candidate candidate : candidates) {
+            if (columnOfVehicle[candidate.vehicleIdx] != tourToColumn.get(candidate.tour)) continue;
+            PFAVehicle vehicle = vehicles.get(candidate.vehicleIdx);
+            getDepotTours(candidate.depot).remove(candidate.tourIdx);
+            rememberDispatchedTour(vehicle, candidate.depot, candidate.tourIdx);
+            accountForWaitTaskAndAccessDrive(vehicle, candidate.pathToDepot, candidate.waitTimeAtDepot, candidate.tour,
+                    (StayTask) candidate.tour.getTourTasks().get(0));
+            vehicleToTour.put(vehicle, candidate.tour);
+        }
+        for (Candidate candidate : candidates) {
+            if (getDepotTours(candidate.depot) != null) removeDepotIfEmpty(candidate.depot);
+        }
+        log.info("batched dispatch: " + vehicleToTour.size() + " out of " + vehicles.size() + " vehicles got a freight tour. number of candidate tours = " + tourToColumn.size()
+                + ", number of candidates = " + candidates.size());
+        return vehicleToTour;
+    }
+
+    private void collectCandidates(int vehicleIdx, PFAVehicle vehicle, int maxCandidatesPerDepot, LeastCostPathCalculator router, List<Candidate> candidates) {
+        Link requestLink = Tasks.getEndLink(vehicle.getSchedule().getCurrentTask());
+        for (Link depot : findNearestDepots(requestLink)) {
+            DepotTourPool depotTours = getDepotTours(depot);
+            VrpPathWithTravelData pathFromCurrTaskToDepot = calcPathToDepotIfReachable(depot, requestLink, vehicle, depotTours, router);
+            if (pathFromCurrTaskToDepot == null) continue;
+
+            double waitTimeAtDepot = computeWaitTimeAtDepot(pathFromCurrTaskToDepot);
+            double maxTourDuration = computeMaxTourDuration(vehicle, pathFromCurrTaskToDepot, waitTimeAtDepot);
+            int candidateIdx = getFirstCandidateIndex(depotTours, pathFromCurrTaskToDepot);
+            int rank = 0;
+            while (rank < maxCandidatesPerDepot && (candidateIdx = depotTours.getNextCandidate(candidateIdx, maxTourDuration)) >= 0) {
+                FreightTourDataPlanned tourData = depotTours.get(candidateIdx);
+                if (isFreightTourFeasible(vehicle, pathFromCurrTaskToDepot, waitTimeAtDepot, tourData, router)) {
+                    double cost = pathFromCurrTaskToDepot.getTravelTime() + rank * RANK_PENALTY;
+                    candidates.add(new Candidate(vehicleIdx, depot, candidateIdx, tourData, pathFromCurrTaskToDepot, waitTimeAtDepot, cost));
+                    rank++;
+                } else {
+                    tourData.incrementAmountOfRejections();
+                }
+                candidateIdx++;
+            }
+        }
+    }
+
+    private static final class Candidate {
+        private final int vehicleIdx;
+        private final Link depot;
+        private final int tourIdx;
+        private final FreightTourDataPlanned tour;
+        private final VrpPathWithTravelData pathToDepot;
+        private final double waitTimeAtDepot;
+        private final double cost;
+
+        private Candidate(int vehicleIdx, Link depot, int tourIdx, FreightTourDataPlanned tour, VrpPathWithTravelData pathToDepot,
+                          double waitTimeAtDepot, double cost) {
+            this.vehicleIdx = vehicleIdx;
+            this.depot = depot;
+            this.tourIdx = tourIdx;
+            this.tour = tour;
+            this.pathToDepot = pathToDepot;
+            this.waitTimeAtDepot = waitTimeAtDepot;
+            this.cost = cost;
+        }
+    }
+}
@@ -18,20 +18,22 @@
  * *********************************************************************** */
 package org.matsim.pfav.privateAV;
 
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
-import java.util.stream.Stream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
 import org.apache.log4j.Logger;
+import org.matsim.api.core.v01.Id;
 import org.matsim.api.core.v01.network.Link;
 import org.matsim.api.core.v01.network.Network;
 import org.matsim.contrib.dvrp.path.VrpPathWithTravelData;
@@ -51,7 +53,6 @@ import org.matsim.contrib.freight.carrier.Carriers;
 import org.matsim.contrib.freight.carrier.ScheduledTour;
 import org.matsim.contrib.taxi.schedule.TaxiEmptyDriveTask;
 import org.matsim.contrib.taxi.schedule.TaxiStayTask;
-import org.matsim.contrib.util.StraightLineKnnFinder;
 import org.matsim.contrib.util.distance.DistanceUtils;
 import org.matsim.core.config.Config;
 import org.matsim.core.controler.events.IterationEndsEvent;
@@ -72,9 +73,31 @@ class FreightTourManagerListBasedImpl implements FreightTourManagerListBased {
 
     private final FreightAVConfigGroup pfavConfigGroup;
 
-    private Map<Link, LinkedList<FreightTourDataPlanned>> depotToFreightTour = new HashMap<>();
+    private Map<Link, DepotTourPool> depotToFreightTour = new HashMap<>();
 
     private List<FreightTourDataPlanned> freightTours = new ArrayList<>();
+
+    //contains exactly the key set of depotToFreightTour
+    private DepotSpatialIndex depotIndex;
+
+    private final ReturnTravelTimeCache returnTravelTimeCache;
+
+    //null if the tour planning always starts from scratch
+    private final TourPlanningWarmStart tourPlanningWarmStart;
+    //null if all carriers are re-planned every time
+    private final CarrierReplanningFilter carrierReplanningFilter;
+
+    private BeelineTravelTimeLowerBound travelTimeLowerBound;
+    private final PFAVDispatchMetrics metrics;
+
+    //only set if the depots are evaluated in parallel, see FreightAVConfigGroup.NUMBER_OF_DISPATCH_THREADS
+    private ForkJoinPool dispatchPool;
+    private ThreadLocal<LeastCostPathCalculator> dispatchRouters;
+    //routes of the current mobsim step, shared with the scheduler. set by the qsim, see setStepPathCache
+    private StepPathCache stepPathCache;
+    //depot and index (in the depot's pool) of the last tour that was dispatched to the vehicle. only filled if tour chains are used, see FreightAVConfigGroup.USE_TOUR_CHAINS
+    private final Map<PFAVehicle, DispatchedTour> lastTourOfVehicle = new HashMap<>();
+
     @Inject
     @Named(DvrpGlobalRoutingNetworkProvider.DVRP_ROUTING)
     private Network network;
@@ -93,8 +116,13 @@ class FreightTourManagerListBasedImpl implements FreightTourManagerListBased {
     private CarrierVehicleTypes vehicleTypes;
 
     @Inject
-    FreightTourManagerListBasedImpl(Config config) {
+    FreightTourManagerListBasedImpl(Config config, PFAVDispatchMetrics metrics) {
         this.pfavConfigGroup = FreightAVConfigGroup.get(config);
+        this.metrics = metrics;
+        this.returnTravelTimeCache = new ReturnTravelTimeCache(pfavConfigGroup.getReturnPathCacheTimeBinSize());
+        this.tourPlanningWarmStart = pfavConfigGroup.isWarmStartTourPlanning() ? new TourPlanningWarmStart(pfavConfigGroup) : null;
+        this.carrierReplanningFilter = pfavConfigGroup.isSkipTourPlanningForUnaffectedCarriers() ?
+                new CarrierReplanningFilter(pfavConfigGroup.getCarrierTravelTimeChangeThreshold(), PFAVUtils.timeSlice()) : null;
     }
 
     private List<FreightTourDataPlanned> convertCarrierPlansToTaskList(Carriers carriers) {
@@ -145,7 +173,8 @@ class FreightTourManagerListBasedImpl implements FreightTourManagerListBased {
         Link depot = this.depotToFreightTour.keySet().toArray(new Link[depotToFreightTour.size()])[MatsimRandom.getRandom().nextInt(this.depotToFreightTour.size())];
 
 
-        FreightTourDataPlanned tour = (FreightTourDataPlanned) this.depotToFreightTour.get(depot).toArray()[MatsimRandom.getRandom().nextInt(this.depotToFreightTour.get(depot).size())];
+        List<FreightTourDataPlanned> depotTours = this.depotToFreightTour.get(depot).getRemainingTours();
+        FreightTourDataPlanned tour = depotTours.get(MatsimRandom.getRandom().nextInt(depotTours.size()));
 
         if (pfavConfigGroup.isAllowEmptyTourListsForDepots()) {
             if (tour == null) {
@@ -154,7 +183,7 @@ class FreightTourManagerListBasedImpl implements FreightTourManagerListBased {
         } else {
             //if no tour at the depot is left, delete depot
             if (this.depotToFreightTour.get(depot).isEmpty()) {
-                this.depotToFreightTour.remove(depot);
+                removeDepot(depot);
             }
         }
         return tour;
@@ -171,36 +200,93 @@ class FreightTourManagerListBasedImpl implements FreightTourManagerListBased {
     @Override
     public FreightTourDataPlanned vehicleRequestedFreightTour(PFAVehicle vehicle, LeastCostPathCalculator router) {
         Link requestLink = Tasks.getEndLink(vehicle.getSchedule().getCurrentTask());
-        List<Link> nearestDepots = findNearestDepots(requestLink, depotToFreightTour.keySet().stream());
+        List<Link> nearestDepots = depotIndex.findNearest(requestLink, pfavConfigGroup.getNumberOfDepotsToConsider(), null);
         return searchForTourAtSeveralDepots(vehicle, router, requestLink, nearestDepots);
     }
 
     @Override
     public FreightTourDataPlanned vehicleRequestedFreightTourAtDepot(PFAVehicle vehicle, Link depotLink, LeastCostPathCalculator router) {
         Link requestLink = Tasks.getEndLink(vehicle.getSchedule().getCurrentTask());
+        if (pfavConfigGroup.isUseTourChains()) {
+            FreightTourDataPlanned chainedTour = takeNextTourOfChain(depotLink, requestLink, vehicle, router);
+            if (chainedTour != null) return chainedTour;
+        }
         return searchForTourAtDepot(depotLink, requestLink, vehicle, router);
     }
 
+    /**
+     * offers the tour that follows the vehicle's last tour in the depot's chain, see {@link DepotTourPool#linkTourChains(boolean)}.
+     *
+     * @return the tour or null if the chain ends, the next tour has already been dispatched to another vehicle or does not fit
+     */
+    private FreightTourDataPlanned takeNextTourOfChain(Link depot, Link requestLink, PFAVehicle vehicle, LeastCostPathCalculator router) {
+        DispatchedTour lastTour = lastTourOfVehicle.get(vehicle);
+        //the index is only valid in the pool of the depot the last tour came from
+        if (lastTour == null || lastTour.depot != depot) return null;
+        DepotTourPool depotTours = this.depotToFreightTour.get(depot);
+        if (depotTours == null) return null;
+        int successorIdx = depotTours.getChainSuccessor(lastTour.tourIdx);
+        if (successorIdx < 0) return null;
+
+        VrpPathWithTravelData pathFromCurrTaskToDepot = calcPathToDepotIfReachable(depot, requestLink, vehicle, depotTours, router);
+        if (pathFromCurrTaskToDepot == null) return null;
+        double waitTimeAtDepot = computeWaitTimeAtDepot(pathFromCurrTaskToDepot);
+        if (!isFreightTourFeasible(vehicle, pathFromCurrTaskToDepot, waitTimeAtDepot, depotTours.get(successorIdx), router)) return null;
+
+        DepotSearchResult result = new DepotSearchResult(depot);
+        result.vehicle = vehicle;
+        result.pathToDepot = pathFromCurrTaskToDepot;
+        result.waitTimeAtDepot = waitTimeAtDepot;
+        result.tourIdx = successorIdx;
+        metrics.chainedTourDispatched();
+        return takeTour(result);
+    }
+
     @Override
     public FreightTourDataPlanned vehicleRequestedFreightTourExcludingDepot(PFAVehicle vehicle, Link depotLink, LeastCostPathCalculator router) {
         Link requestLink = Tasks.getEndLink(vehicle.getSchedule().getCurrentTask());
-        Set<Link> depots = new HashSet<>(depotToFreightTour.keySet());
-        depots.remove(depotLink);
-        List<Link> nearestDepots = findNearestDepots(requestLink, depots.stream());
+        List<Link> nearestDepots = depotIndex.findNearest(requestLink, pfavConfigGroup.getNumberOfDepotsToConsider(), depotLink);
         return searchForTourAtSeveralDepots(vehicle, router, requestLink, nearestDepots);
     }
 
-    private List<Link> findNearestDepots(Link requestLink, Stream<Link> depotLinks) {
-        StraightLineKnnFinder<Link, Link> finder = new StraightLineKnnFinder<>(
-                pfavConfigGroup.getNumberOfDepotsToConsider(), Link::getCoord, Link::getCoord);
-        return finder.findNearest(requestLink, depotLinks);
+    /**
+     * serves the requests one after another, in the order of the given list.
+     */
+    @Override
+    public Map<PFAVehicle, FreightTourDataPlanned> vehiclesRequestedFreightTours(List<PFAVehicle> vehicles, LeastCostPathCalculator router) {
+        Map<PFAVehicle, FreightTourDataPlanned> vehicleToTour = new HashMap<>();
+        for (PFAVehicle vehicle : vehicles) {
+            FreightTourDataPlanned tour = vehicleRequestedFreightTour(vehicle, router);
+            if (tour != null) vehicleToTour.put(vehicle, tour);
+        }
+        return vehicleToTour;
+    }
+
+    @Override
+    public void enableParallelDispatch(ForkJoinPool pool, Supplier<LeastCostPathCalculator> routerFactory) {
+        this.dispatchPool = pool;
+        //the routers are not thread safe, so every worker thread gets it's own one
+        this.dispatchRouters = ThreadLocal.withInitial(routerFactory);
+    }
+
+    @Override
+    public void setStepPathCache(StepPathCache stepPathCache) {
+        this.stepPathCache = stepPathCache;
     }
 
     private FreightTourDataPlanned searchForTourAtSeveralDepots(PFAVehicle vehicle, LeastCostPathCalculator router, Link requestLink, List<Link> nearestDepots) {
         FreightTourDataPlanned matchingFreightTour = null;
-        for (Link depot : nearestDepots) {
-            matchingFreightTour = searchForTourAtDepot(depot, requestLink, vehicle, router);
-            if (matchingFreightTour != null) break;
+        if (dispatchPool != null && nearestDepots.size() > 1) {
+            //evaluate all depots at once, but take the results in the order of the depots. this yields the same tour as the sequential search
+            for (DepotSearchResult result : evaluateDepotsInParallel(vehicle, requestLink, nearestDepots)) {
+                matchingFreightTour = takeTour(result);
+                if (matchingFreightTour != null) break;
+            }
+        } else {
+            for (Link depot : nearestDepots) {
+                matchingFreightTour = searchForTourAtDepot(depot, requestLink, vehicle, router);
+                if (matchingFreightTour != null) break;
+            }
         }
         if (matchingFreightTour == null) {
 //            log.info("request will be rejected. must return log of vehicle:" + vehicle.getMustReturnToOwnerLinkTimePairs().peek());
@@ -213,46 +299,149 @@ class FreightTourManagerListBasedImpl implements FreightTourManagerListBased {
         return matchingFreightTour;
     }
 
-    private FreightTourDataPlanned searchForTourAtDepot(Link depot, Link requestLink, PFAVehicle vehicle, LeastCostPathCalculator router) {
-        FreightTourDataPlanned matchingFreightTour = null;
+    private List<DepotSearchResult> evaluateDepotsInParallel(PFAVehicle vehicle, Link requestLink, List<Link> nearestDepots) {
+        List<Callable<DepotSearchResult>> tasks = nearestDepots.stream()
+                .map(depot -> (Callable<DepotSearchResult>) () -> evaluateDepot(depot, requestLink, vehicle, dispatchRouters.get()))
+                .collect(Collectors.toList());
+        List<DepotSearchResult> results = new ArrayList<>(tasks.size());
+        try {
+            for (Future<DepotSearchResult> future : dispatchPool.invokeAll(tasks)) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            throw new RuntimeException("parallel evaluation of the depots failed for vehicle " + vehicle.getId(), e);
+        }
+        return results;
+    }
 
+    private FreightTourDataPlanned searchForTourAtDepot(Link depot, Link requestLink, PFAVehicle vehicle, LeastCostPathCalculator router) {
         //log.info("size of depot todo list: " + this.depotToFreightTour.get(depot).size());
+        return takeTour(evaluateDepot(depot, requestLink, vehicle, router));
+    }
 
-        if (this.depotToFreightTour.get(depot).isEmpty())
-            return null;//only go on if there is a tour left at depot
-        Iterator<FreightTourDataPlanned> freightTourIterator = this.depotToFreightTour.get(depot).iterator();
-        VrpPathWithTravelData pathFromCurrTaskToDepot = calcPathToDepot(vehicle, depot, router);
-        if (DistanceUtils.calculateDistance(depot.getCoord(), requestLink.getCoord()) <= pfavConfigGroup.getMaxBeelineDistanceToDepot()    // MAX BEELINE DISTANCE TO DEPOT
-                && pathFromCurrTaskToDepot.getTravelTime() <= pfavConfigGroup.getMaxTravelTimeToDepot()                                    // MAX TRAVEL TIME TO DEPOT
-                && pathFromCurrTaskToDepot.getArrivalTime() < pfavConfigGroup.getFreightTourLatestStart()) {                               // ARRIVAL BEFORE LATEST START
+    /**
+     * looks for the first tour at the depot that the vehicle can perform. does not modify the depot's tours, so depots can be evaluated in parallel.
+     */
+    private DepotSearchResult evaluateDepot(Link depot, Link requestLink, PFAVehicle vehicle, LeastCostPathCalculator router) {
+        DepotSearchResult result = new DepotSearchResult(depot);
+        DepotTourPool depotTours = this.depotToFreightTour.get(depot);
+        VrpPathWithTravelData pathFromCurrTaskToDepot = calcPathToDepotIfReachable(depot, requestLink, vehicle, depotTours, router);
+        if (pathFromCurrTaskToDepot == null) return result;
 
 //            log.info("computed arrival time at depot = " + pathFromCurrTaskToDepot.getArrivalTime());
 //            log.info("latest start is = " + pfavConfigGroup.getFreightTourLatestStart());
-            double waitTimeAtDepot = computeWaitTimeAtDepot(pathFromCurrTaskToDepot);
-
-            while (freightTourIterator.hasNext()) {
-                FreightTourDataPlanned tourData = freightTourIterator.next();
-                if (isEnoughTimeLeftToPerformFreightTour(vehicle, pathFromCurrTaskToDepot, waitTimeAtDepot, tourData, router)) {
-                    freightTourIterator.remove();
-                    matchingFreightTour = tourData;
-                    break;
-                } else {
-                    tourData.incrementAmountOfRejections();
-                }
-            }
-            if (matchingFreightTour != null) {
-                //if no tour at the depot is left, delete depot
-                if (depotToFreightTour.get(depot).isEmpty() && !pfavConfigGroup.isAllowEmptyTourListsForDepots())
-                    depotToFreightTour.remove(depot);
-//                log.info("size of depot to do list after removal: " + this.depotToFreightTour.get(depot).size());
+        double waitTimeAtDepot = computeWaitTimeAtDepot(pathFromCurrTaskToDepot);
+        double maxTourDuration = computeMaxTourDuration(vehicle, pathFromCurrTaskToDepot, waitTimeAtDepot);
+        int candidateIdx = getFirstCandidateIndex(depotTours, pathFromCurrTaskToDepot);
+
+        //only look at the tours that are short enough to fit into the vehicle's free time. those are still visited in the order of their latest arrival
+        while ((candidateIdx = depotTours.getNextCandidate(candidateIdx, maxTourDuration)) >= 0) {
+            FreightTourDataPlanned tourData = depotTours.get(candidateIdx);
+            if (isFreightTourFeasible(vehicle, pathFromCurrTaskToDepot, waitTimeAtDepot, tourData, router)) {
+                result.vehicle = vehicle;
+                result.pathToDepot = pathFromCurrTaskToDepot;
+                result.waitTimeAtDepot = waitTimeAtDepot;
+                result.tourIdx = candidateIdx;
+                break;
+            } else {
+                result.rejectedTours.add(tourData);
+                candidateIdx++;
             }
         }
+        return result;
+    }
+
+    /**
+     * removes the tour that was found by {@link #evaluateDepot(Link, Link, PFAVehicle, LeastCostPathCalculator)} from the depot and prepares it for the vehicle.
+     *
+     * @return the tour or null if no tour at the depot fits
+     */
+    private FreightTourDataPlanned takeTour(DepotSearchResult result) {
+        result.rejectedTours.forEach(FreightTourDataPlanned::incrementAmountOfRejections);
+        if (result.tourIdx < 0) return null;
+        FreightTourDataPlanned matchingFreightTour = this.depotToFreightTour.get(result.depot).remove(result.tourIdx);
+        rememberDispatchedTour(result.vehicle, result.depot, result.tourIdx);
+        accountForWaitTaskAndAccessDrive(result.vehicle, result.pathToDepot, result.waitTimeAtDepot, matchingFreightTour,
+                (StayTask) matchingFreightTour.getTourTasks().get(0));
+        removeDepotIfEmpty(result.depot);
+//                log.info("size of depot to do list after removal: " + this.depotToFreightTour.get(depot).size());
         return matchingFreightTour;
     }
 
+    /**
+     * remembers the tour that was just removed from the depot's pool for the vehicle, so that the vehicle is offered the next tour of the chain
+     * when it returns to the depot. needs to be called for every tour that is dispatched.
+     */
+    void rememberDispatchedTour(PFAVehicle vehicle, Link depot, int tourIdx) {
+        if (pfavConfigGroup.isUseTourChains()) lastTourOfVehicle.put(vehicle, new DispatchedTour(depot, tourIdx));
+    }
+
+    /**
+     * @return the path from the end of the vehicle's current task to the depot, or null if the depot has no tours left, is too far away or
+     * can not be reached before the latest start of freight tours.
+     */
+    VrpPathWithTravelData calcPathToDepotIfReachable(Link depot, Link requestLink, PFAVehicle vehicle, DepotTourPool depotTours, LeastCostPathCalculator router) {
+        metrics.depotRequested(depot);
+        if (depotTours.isEmpty())
+            return null;//only go on if there is a tour left at depot
+        if (DistanceUtils.calculateDistance(depot.getCoord(), requestLink.getCoord()) > pfavConfigGroup.getMaxBeelineDistanceToDepot()) // MAX BEELINE DISTANCE TO DEPOT
+            return null;
+        if (isDepotExcludedByLowerBound(vehicle, requestLink, depot, depotTours)) {
+            metrics.accessPathPruned();
+            return null;
+        }
+        VrpPathWithTravelData pathFromCurrTaskToDepot = calcPathToDepot(vehicle, depot, router);
+        if (pathFromCurrTaskToDepot.getTravelTime() <= pfavConfigGroup.getMaxTravelTimeToDepot()                                    // MAX TRAVEL TIME TO DEPOT
+                && pathFromCurrTaskToDepot.getArrivalTime() < pfavConfigGroup.getFreightTourLatestStart()) {                               // ARRIVAL BEFORE LATEST START
+            return pathFromCurrTaskToDepot;
+        }
+        return null;
+    }
+
+    int getFirstCandidateIndex(DepotTourPool depotTours, VrpPathWithTravelData pathFromCurrTaskToDepot) {
+        //tours with a latest arrival before the arrival at the depot can never be served in time
+        return pfavConfigGroup.isConsiderServiceTimeWindowsForDispatch() ?
+                depotTours.getFirstIndexWithLatestArrivalNotBefore(pathFromCurrTaskToDepot.getArrivalTime()) : 0;
+    }
+
+    /**
+     * checks whether the depot can be excluded without computing the path to it, based on a lower bound for the travel times to the depot and from
+     * the depot back to the owner. that is the case, if even the shortest tour at the depot can not be performed before the owner needs the vehicle
+     * or the vehicle can not be at the depot in time.
+     */
+    private boolean isDepotExcludedByLowerBound(PFAVehicle vehicle, Link requestLink, Link depot, DepotTourPool depotTours) {
+        double currentTaskEndTime = vehicle.getSchedule().getCurrentTask().getEndTime();
+        double accessTimeLowerBound = travelTimeLowerBound.getTravelTimeLowerBound(requestLink, depot);
+        if (accessTimeLowerBound > pfavConfigGroup.getMaxTravelTimeToDepot()
+                || currentTaskEndTime + accessTimeLowerBound >= pfavConfigGroup.getFreightTourLatestStart()) {
+            return true;
+        }
+        PFAVehicle.MustReturnLinkTimePair mustReturnToOwnerLog = vehicle.getMustReturnToOwnerLinkTimePairs().peek();
+        if (mustReturnToOwnerLog.getTime() == Double.POSITIVE_INFINITY) return false;
+        Link returnLink = network.getLinks().get(mustReturnToOwnerLog.getLinkId());
+        if (returnLink == null) return false;
+
+        //a vehicle that arrives before the earliest start waits at the depot
+        double tourStartLowerBound = Math.max(currentTaskEndTime + accessTimeLowerBound, pfavConfigGroup.getFreightTourEarliestStart());
+        double returnTimeLowerBound = travelTimeLowerBound.getTravelTimeLowerBound(depot, returnLink);
+        return tourStartLowerBound + depotTours.getMinPlannedTourDuration() + returnTimeLowerBound + pfavConfigGroup.getTimeBuffer()
+                > mustReturnToOwnerLog.getTime();
+    }
+
+    /**
+     * upper bound for the planned duration of a tour that the vehicle can perform before it needs to be back at it's owner's place.
+     * the drive from the depot back to the owner is not yet known here, so it is assumed to take no time at all.
+     */
+    double computeMaxTourDuration(PFAVehicle vehicle, VrpPathWithTravelData pathFromCurrTaskToDepot, double waitTimeAtDepot) {
+        double timeWhenOwnerNeedsVehicle = vehicle.getMustReturnToOwnerLinkTimePairs().peek().getTime();
+        if (timeWhenOwnerNeedsVehicle == Double.POSITIVE_INFINITY) return Double.POSITIVE_INFINITY;
+        return timeWhenOwnerNeedsVehicle - pfavConfigGroup.getTimeBuffer() - vehicle.getSchedule().getCurrentTask().getEndTime()
+                - pathFromCurrTaskToDepot.getTravelTime() - waitTimeAtDepot;
+    }
 
     private VrpPathWithTravelData calcPathToDepot(PFAVehicle vehicle, Link depotLink, LeastCostPathCalculator router) {
         Task currentTask = vehicle.getSchedule().getCurrentTask();
+        if (stepPathCache != null) return stepPathCache.calcAndCreatePath(Tasks.getEndLink(currentTask), depotLink, currentTask.getEndTime(), router);
         return VrpPaths.calcAndCreatePath(Tasks.getEndLink(currentTask), depotLink, currentTask.getEndTime(), router, travelTime);
     }
 
@@ -266,6 +455,8 @@ class FreightTourManagerListBasedImpl implements FreightTourManagerListBased {
      * the schedule, as travel times / routes for the freight legs might have changed in the mean time (freight contrib runs outside of mobsim and does not use VrpPaths)
      * <p>
      * tschlenther, 20.02.2019
+     * <p>
+     * the travel time back to the owner is taken from the {@link ReturnTravelTimeCache}, see {@link FreightAVConfigGroup#RETURN_PATH_CACHE_TIME_BIN_SIZE}.
      *
      * @param vehicle
      * @param freightTour
@@ -275,6 +466,20 @@ class FreightTourManagerListBasedImpl implements FreightTourManagerListBased {
     @Override
     public boolean isEnoughTimeLeftToPerformFreightTour(PFAVehicle vehicle, VrpPathWithTravelData pathFromCurrTaskToDepot, double waitTimeAtDepot,
                                                         FreightTourDataPlanned freightTour, LeastCostPathCalculator router) {
+        if (!isFreightTourFeasible(vehicle, pathFromCurrTaskToDepot, waitTimeAtDepot, freightTour, router)) return false;
+        log.info("tour duration seems to be okay for vehicle " + vehicle.getId() + " starting at time " + vehicle.getSchedule().getCurrentTask().getEndTime()
+                + ". the owner wants the vehicle back at time " + vehicle.getMustReturnToOwnerLinkTimePairs().peek().getTime());
+        accountForWaitTaskAndAccessDrive(vehicle, pathFromCurrTaskToDepot, waitTimeAtDepot, freightTour, (StayTask) freightTour.getTourTasks().get(0));
+        return true;
+    }
+
+    /**
+     * same check as {@link #isEnoughTimeLeftToPerformFreightTour(PFAVehicle, VrpPathWithTravelData, double, FreightTourDataPlanned, LeastCostPathCalculator)}
+     * but without any side effect on the freight tour. the wait task and the access drive are not inserted.
+     */
+    boolean isFreightTourFeasible(PFAVehicle vehicle, VrpPathWithTravelData pathFromCurrTaskToDepot, double waitTimeAtDepot,
+                                  FreightTourDataPlanned freightTour, LeastCostPathCalculator router) {
+        metrics.candidateEvaluated();
 
         //does the vehicle have the chance to be at the last service in time?
         if (pfavConfigGroup.isConsiderServiceTimeWindowsForDispatch() &&
@@ -285,8 +490,6 @@ class FreightTourManagerListBasedImpl implements FreightTourManagerListBased {
         Double timeWhenOwnerNeedsVehicle = mustReturnToOwnerLog.getTime();
         Link returnLink = network.getLinks().get(mustReturnToOwnerLog.getLinkId());
         Task currentTask = vehicle.getSchedule().getCurrentTask();
-        StayTask start = (StayTask) freightTour.getTourTasks().get(0);
-        StayTask end = (StayTask) freightTour.getTourTasks().get(freightTour.getTourTasks().size() - 1);
 
         if (timeWhenOwnerNeedsVehicle == null) {
             throw new IllegalStateException("could not derive must return time of vehicle " + vehicle.getId() + " out of vehicle specification");
@@ -295,7 +498,6 @@ class FreightTourManagerListBasedImpl implements FreightTourManagerListBased {
             throw new RuntimeException("should not happen !?");
         } else if (timeWhenOwnerNeedsVehicle == Double.POSITIVE_INFINITY) {
 //            log.info("tour duration is irrelevant for vehicle " + vehicle.getId() + " because owner does not need the PFAV anymore for today");
-            accountForWaitTaskAndAccessDrive(vehicle, pathFromCurrTaskToDepot, waitTimeAtDepot, freightTour, start);
             return true;
         }
 
@@ -307,30 +509,32 @@ class FreightTourManagerListBasedImpl implements FreightTourManagerListBased {
         //actually this should not happen in the moment, as the first call of the requestFreightTour() method in the scheduler always is triggered after a passenger dropoff
 //		if (returnLink == null) returnLink = vehicle.getStartLink();
 
-        VrpPathWithTravelData pathFromDepotToOwner = VrpPaths.calcAndCreatePath(freightTour.getDepotLink(), returnLink, end.getEndTime(), router, travelTime);
+        //first check against the lower bound of the travel time back to the owner, only compute the travel time if the lower bound fits
+        double timeNeededWithoutReturn = pathFromCurrTaskToDepot.getTravelTime() + waitTimeAtDepot + tourDuration;
+        if (timeWhenOwnerNeedsVehicle < currentTask.getEndTime() + timeNeededWithoutReturn
+                + travelTimeLowerBound.getTravelTimeLowerBound(freightTour.getDepotLink(), returnLink) + pfavConfigGroup.getTimeBuffer()) {
+            metrics.returnPathPruned();
+            return false;
+        }
+
+        double travelTimeFromDepotToOwner = returnTravelTimeCache.getTravelTime(freightTour.getDepotLink(), returnLink, freightTour.getPlannedEndTime(), router, travelTime,
+                stepPathCache);
 
         double totalTimeNeededToPerformFreightTour = pathFromCurrTaskToDepot.getTravelTime() +
                 waitTimeAtDepot +
                 tourDuration +
-                pathFromDepotToOwner.getTravelTime();
+                travelTimeFromDepotToOwner;
 
         if (totalTimeNeededToPerformFreightTour < 0) throw new IllegalStateException("total time needed for tour must be positive. \n " +
                 "access drive duration = " + pathFromCurrTaskToDepot.getTravelTime() +
                 "\n wait time at depot = " + waitTimeAtDepot +
                 "\n tourDuration = " + tourDuration +
-                "\n pathFromDepotToOwner = " + pathFromDepotToOwner);
+                "\n travelTimeFromDepotToOwner = " + travelTimeFromDepotToOwner);
 
-        if (timeWhenOwnerNeedsVehicle >= currentTask.getEndTime() + totalTimeNeededToPerformFreightTour + pfavConfigGroup.getTimeBuffer()) {
-            log.info("tour duration = " + totalTimeNeededToPerformFreightTour + " seems to be okay for vehicle " + vehicle.getId() + " starting at time " + currentTask.getEndTime());
-            log.info("the owner wants the vehicle back at time " + timeWhenOwnerNeedsVehicle);
-
-            accountForWaitTaskAndAccessDrive(vehicle, pathFromCurrTaskToDepot, waitTimeAtDepot, freightTour, start);
-            return true;
-        }
-        return false;
+        return timeWhenOwnerNeedsVehicle >= currentTask.getEndTime() + totalTimeNeededToPerformFreightTour + pfavConfigGroup.getTimeBuffer();
     }
 
-    private void accountForWaitTaskAndAccessDrive(PFAVehicle vehicle, VrpPathWithTravelData pathFromCurrTaskToDepot, double waitTimeAtDepot, FreightTourDataPlanned freightTour, StayTask start) {
+    void accountForWaitTaskAndAccessDrive(PFAVehicle vehicle, VrpPathWithTravelData pathFromCurrTaskToDepot, double waitTimeAtDepot, FreightTourDataPlanned freightTour, StayTask start) {
         if (waitTimeAtDepot > 0) {
 //            log.info("inserting wait task with duration= " + waitTimeAtDepot + " at the depot link " + freightTour.getDepotLink().getId() + " for vehicle " + vehicle.getId()
 //                    + " in order to be consistent with earliest start time set to " + pfavConfigGroup.getFreightTourEarliestStart());
@@ -339,7 +543,7 @@ class FreightTourManagerListBasedImpl implements FreightTourManagerListBased {
         freightTour.setAccessDriveTask(new TaxiEmptyDriveTask(pathFromCurrTaskToDepot, PFAVTaskTypes.ACCESS_TO_DEPOT));
     }
 
-    private double computeWaitTimeAtDepot(VrpPathWithTravelData pathFromCurrTaskToDepot) {
+    double computeWaitTimeAtDepot(VrpPathWithTravelData pathFromCurrTaskToDepot) {
 //		check if vehicle arrives before earliest start. calculate the waiting time in case.
         double waitTimeAtDepot = 0;
         if (pathFromCurrTaskToDepot.getArrivalTime() < pfavConfigGroup.getFreightTourEarliestStart()) {
@@ -351,63 +555,118 @@ class FreightTourManagerListBasedImpl implements FreightTourManagerListBased {
 
     private void runTourPlanning() {
         //the travel times we hand over contain the travel times of last mobsim iteration as long as we use the OfflineEstimator (set via TaxiConfigGroup)
-        FreightTourPlanning.runTourPlanningForCarriers(this.carriers, this.vehicleTypes, this.network, this.travelTime, PFAVUtils.timeSlice(), pfavConfigGroup.getMaxNrOfJspritIterations());
+        //carriers that are not re-planned keep their selected plan
+        Carriers carriersToPlan = carrierReplanningFilter == null ? this.carriers :
+                carrierReplanningFilter.selectCarriersToReplan(this.carriers, this.network, this.travelTime);
+        long start = System.nanoTime();
+        Map<Id<Carrier>, Double> solveTimes = FreightTourPlanning.runTourPlanningForCarriers(carriersToPlan, this.vehicleTypes, this.network, this.travelTime,
+                PFAVUtils.timeSlice(), pfavConfigGroup.getMaxNrOfJspritIterations(), tourPlanningWarmStart,
+                pfavConfigGroup.getTransportCostsCacheDirectory() == null ? null : Paths.get(pfavConfigGroup.getTransportCostsCacheDirectory()),
+                pfavConfigGroup.getNumberOfTourPlanningThreads());
+        metrics.toursPlanned(System.nanoTime() - start, solveTimes);
+        if (carrierReplanningFilter != null) {
+            carrierReplanningFilter.carriersReplanned(carriersToPlan, solveTimes, this.network, this.travelTime);
+        }
         log.info("overriding list of freight tours...");
         this.freightTours = convertCarrierPlansToTaskList(carriers);
     }
 
-    private void mapDepotLinksToEmptyTourList() {
+    private void mapDepotLinksToEmptyTourList(Map<Link, List<FreightTourDataPlanned>> depotToTourList) {
         for (Carrier carrier : this.carriers.getCarriers().values()) {
             for (CarrierVehicle v : carrier.getCarrierCapabilities().getCarrierVehicles().values()) {
-                this.depotToFreightTour.put(network.getLinks().get(v.getLocation()), new LinkedList<>());
+                depotToTourList.put(network.getLinks().get(v.getLocation()), new LinkedList<>());
             }
         }
     }
 
-    private void sortDepotLists() {
-        Comparator<FreightTourDataPlanned> comparator = Comparator.comparingDouble(FreightTourDataPlanned::getLatestArrivalAtLastService);
-        for (LinkedList<FreightTourDataPlanned> q : this.depotToFreightTour.values()) {
-            Collections.sort(q, comparator);
-        }
-    }
-
 
     @Override
     public void notifyIterationStarts(IterationStartsEvent event) {
-        if (event.getIteration() == 0) {
+        prepareIteration(event.getIteration());
+        //in iteration 0, always write carriers file
+        if (event.getIteration() == 0 || event.getIteration() % pfavConfigGroup.getTourPlanningInterval() == 0) {
+            writeCarriers(event);
+        }
+    }
+
+    /**
+     * plans or converts the freight tours of the iteration and fills the depots. does not write any output, so it can also be used without a controler
+     * (see FreightTourDispatchBenchmark in the tests).
+     */
+    void prepareIteration(int iteration) {
+        if (iteration == 0) {
             if (pfavConfigGroup.isRunTourPlanningBeforeFirstIteration()) {
                 log.info("RUNNING FREIGHT CONTRIB TO CALCULATE FREIGHT TOURS BASED ON CURRENT TRAVEL TIMES");
                 runTourPlanning();
             } else {
                 this.freightTours = convertCarrierPlansToTaskList(this.carriers);
             }
-            //in iteration 0, always write carriers file
-            writeCarriers(event);
-        } else if ((event.getIteration() % pfavConfigGroup.getTourPlanningInterval() == 0)) {
+        } else if ((iteration % pfavConfigGroup.getTourPlanningInterval() == 0)) {
             log.info("RUNNING FREIGHT CONTRIB TO CALCULATE FREIGHT TOURS BASED ON CURRENT TRAVEL TIMES");
             runTourPlanning();
-            writeCarriers(event);
         }
+        //the estimated travel times have changed with the last mobsim
+        returnTravelTimeCache.clear();
+        if (travelTimeLowerBound == null) travelTimeLowerBound = new BeelineTravelTimeLowerBound(network);
         log.info("initialising mapping of freight tours to link id's");
         if(!this.depotToFreightTour.isEmpty()) throw new RuntimeException("the depot2FreightTourMap should be empty at this point..");
 
+        Map<Link, List<FreightTourDataPlanned>> depotToTourList = new HashMap<>();
 //		if we allow empty depots, we need to initialise the manager's map of depot links to tours with empty lists.
-        if (pfavConfigGroup.isAllowEmptyTourListsForDepots()) mapDepotLinksToEmptyTourList();
+        if (pfavConfigGroup.isAllowEmptyTourListsForDepots()) mapDepotLinksToEmptyTourList(depotToTourList);
+
+        //now fill the map with the freightTours that came out of the calculator. the pools sort the tours by latest arrival at last service
+        mapStartLinkOfToursToTour(depotToTourList);
+        depotToTourList.forEach((depot, tours) -> this.depotToFreightTour.put(depot, new DepotTourPool(tours)));
+        if (pfavConfigGroup.isUseTourChains()) linkTourChains();
+        buildDepotIndex();
+    }
+
+    private void linkTourChains() {
+        int numberOfChains = 0;
+        for (DepotTourPool depotTours : this.depotToFreightTour.values()) {
+            numberOfChains += depotTours.linkTourChains(pfavConfigGroup.isConsiderServiceTimeWindowsForDispatch());
+        }
+        log.info("linked the freight tours of " + this.depotToFreightTour.size() + " depots to " + numberOfChains + " chains of at least two tours");
+    }
+
+    private void buildDepotIndex() {
+        if (this.depotIndex == null) this.depotIndex = new DepotSpatialIndex(network);
+        this.depotIndex.clear();
+        this.depotToFreightTour.keySet().forEach(this.depotIndex::add);
+        log.info("number of depots in spatial index = " + this.depotIndex.size());
+    }
+
+    private void removeDepot(Link depot) {
+        this.depotToFreightTour.remove(depot);
+        this.depotIndex.remove(depot);
+    }
 
-        //now fill the map with the freightTours that came out of the calculator
-        mapStartLinkOfToursToTour();
-        sortDepotLists();
+    /**
+     * if no tour at the depot is left, delete depot
+     */
+    void removeDepotIfEmpty(Link depot) {
+        if (this.depotToFreightTour.get(depot).isEmpty() && !pfavConfigGroup.isAllowEmptyTourListsForDepots())
+            removeDepot(depot);
+    }
+
+    DepotTourPool getDepotTours(Link depot) {
+        return this.depotToFreightTour.get(depot);
     }
 
-    private void mapStartLinkOfToursToTour() {
+    List<Link> findNearestDepots(Link requestLink) {
+        return depotIndex.findNearest(requestLink, pfavConfigGroup.getNumberOfDepotsToConsider(), null);
+    }
+
+    private void mapStartLinkOfToursToTour(Map<Link, List<FreightTourDataPlanned>> depotToTourList) {
         for (FreightTourDataPlanned freightTour : this.freightTours) {
             Link start = freightTour.getDepotLink();
-            if (this.depotToFreightTour.containsKey(start)) {
-                this.depotToFreightTour.get(start).add(freightTour);
+            if (depotToTourList.containsKey(start)) {
+                depotToTourList.get(start).add(freightTour);
             } else {
                 LinkedList<FreightTourDataPlanned> allDepotTours = new LinkedList<>();
                 allDepotTours.add(freightTour);
-                this.depotToFreightTour.put(start, allDepotTours);
+                depotToTourList.put(start, allDepotTours);
             }
         }
     }
@@ -421,8 +680,22 @@ class FreightTourManagerListBasedImpl implements FreightTourManagerListBased {
     public void notifyIterationEnds(IterationEndsEvent event) {
         String dir = event.getServices().getConfig().controler().getOutputDirectory() + "/ITERS/it." + event.getIteration() + "/";
         List<FreightTourDataPlanned> unfinishedTours = new ArrayList<>();
-        this.depotToFreightTour.forEach((link, tours) -> unfinishedTours.addAll(tours));
+        this.depotToFreightTour.forEach((link, tours) -> unfinishedTours.addAll(tours.getRemainingTours()));
         this.depotToFreightTour.clear(); // the map should be cleared.
+        log.info("travel times from depot back to owner: requested " + returnTravelTimeCache.getNumberOfRequests()
+                + " times, routed " + returnTravelTimeCache.getNumberOfRouterCalls() + " times");
+        log.info("paths that were not computed because the travel time lower bound was exceeded: to depot = " + metrics.getNumberOfPrunedAccessPaths()
+                + ", back to owner = " + metrics.getNumberOfPrunedReturnPaths());
+        if (this.stepPathCache != null) {
+            log.info("paths computed in the dispatch and the scheduling: requested " + stepPathCache.getNumberOfRequests()
+                    + " times, routed " + stepPathCache.getNumberOfRouterCalls() + " times. hit rate = " + String.format("%.3f", stepPathCache.getHitRate()));
+        }
+        if (this.depotIndex != null) this.depotIndex.clear();
+        //the pool is shut down together with the qsim
+        this.dispatchPool = null;
+        this.dispatchRouters = null;
+        this.stepPathCache = null;
+        this.lastTourOfVehicle.clear();
         new PFAVUnfinishedToursDumper(unfinishedTours).writeStats(dir + "notDispatchedTours_it" + event.getIteration() + ".csv");
     }
 
@@ -434,4 +707,27 @@ class FreightTourManagerListBasedImpl implements FreightTourManagerListBased {
         CarrierPlanXmlWriterV2 planWriter2 = new CarrierPlanXmlWriterV2(this.carriersWithOnlyUsedTours);
         planWriter2.write(dir + "carriersOnlyUsedTours_it" + event.getIteration() + ".xml");
     }
+
+    private static final class DispatchedTour {
+        private final Link depot;
+        private final int tourIdx;
+
+        private DispatchedTour(Link depot, int tourIdx) {
+            this.depot = depot;
+            this.tourIdx = tourIdx;
+        }
+    }
+
+    private static final class DepotSearchResult {
+        private final Link depot;
+        private final List<FreightTourDataPlanned> rejectedTours = new ArrayList<>();
+        private PFAVehicle vehicle;
+        private VrpPathWithTravelData pathToDepot;
+        private double waitTimeAtDepot;
+        private int tourIdx = -1;
+
+        private DepotSearchResult(Link depot) {
+            this.depot = depot;
+        }
+    }
 }
@@ -22,9 +22,11 @@ import com.graphhopper.jsprit.core.algorithm.VehicleRoutingAlgorithm;
 import com.graphhopper.jsprit.core.algorithm.box.SchrimpfFactory;
 import com.graphhopper.jsprit.core.algorithm.termination.VariationCoefficientTermination;
 import com.graphhopper.jsprit.core.problem.VehicleRoutingProblem;
+import com.graphhopper.jsprit.core.problem.cost.VehicleRoutingTransportCosts;
 import com.graphhopper.jsprit.core.problem.solution.VehicleRoutingProblemSolution;
 import com.graphhopper.jsprit.core.util.Solutions;
 import org.apache.log4j.Logger;
+import org.matsim.api.core.v01.Id;
 import org.matsim.api.core.v01.network.Link;
 import org.matsim.api.core.v01.network.Network;
 import org.matsim.contrib.dvrp.path.VrpPathWithTravelData;
@@ -41,10 +43,21 @@ import org.matsim.contrib.taxi.schedule.TaxiEmptyDriveTask;
 import org.matsim.contrib.taxi.schedule.TaxiTaskType;
 import org.matsim.core.population.routes.NetworkRoute;
 import org.matsim.core.router.util.TravelTime;
+import org.matsim.core.trafficmonitoring.FreeSpeedTravelTime;
 
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 
 import static org.matsim.contrib.taxi.schedule.TaxiTaskBaseType.EMPTY_DRIVE;
 
@@ -57,8 +70,49 @@ public final class FreightTourPlanning {
 	private static final Logger log = Logger.getLogger(FreightTourPlanning.class);
 
     /**
+     * creates the lightweight representation of the tour that is needed for the dispatch. only the times are computed here, with the same arithmetic
+     * as in {@link #createTourTasks(ScheduledTour, Network, TravelTime, FreightAVConfigGroup)}. the task list is built when the tour is dispatched.
+     * <p>
+     * this relies on the travel times not changing during the mobsim, which is the case for the offline travel time estimator.
 	 */
     static FreightTourDataPlanned convertToPFAVTourData(ScheduledTour freightTour, Network network, TravelTime travelTime, FreightAVConfigGroup pfavConfigGroup) {
+        double tEnd = ((Tour.Leg) freightTour.getTour().getTourElements().get(0)).getExpectedDepartureTime();
+        double tourStart = tEnd - pfavConfigGroup.getPfavReToolTime();
+        double travelTimeToLastService = Double.NaN;
+        double latestArrivalAtLastService = Double.NaN;
+        boolean lastElementIsService = false;
+        int totalCapacityDemand = 0;
+
+        for (TourElement currentElement : freightTour.getTour().getTourElements()) {
+            if (currentElement instanceof ServiceActivity) {
+                ServiceActivity serviceAct = (ServiceActivity) currentElement;
+                //begin of the last service task, see createTourTasks
+                travelTimeToLastService = tEnd;
+                tEnd = tEnd + serviceAct.getDuration();
+                totalCapacityDemand += serviceAct.getService().getCapacityDemand();
+                latestArrivalAtLastService = serviceAct.getService().getServiceStartTimeWindow().getEnd();
+                lastElementIsService = true;
+            } else if (currentElement instanceof Tour.Leg) {
+                tEnd = tEnd + calcRouteTravelTime((NetworkRoute) ((Tour.Leg) currentElement).getRoute(), tEnd, network, travelTime);
+                lastElementIsService = false;
+            }
+        }
+        if (Double.isNaN(latestArrivalAtLastService) || lastElementIsService) {
+            throw new IllegalStateException("freight tour " + freightTour.getTour() + " must contain at least one service and end with a leg");
+        }
+
+        double plannedEndTime = tEnd + pfavConfigGroup.getPfavReToolTime();
+        double plannedTourDuration = plannedEndTime - tourStart;
+        if (plannedTourDuration < 0) throw new RuntimeException("tour duration must be positive");
+        Link depotLink = network.getLinks().get(freightTour.getTour().getStart().getLocation());
+        return new FreightTourDataPlanned(() -> createTourTasks(freightTour, network, travelTime, pfavConfigGroup), depotLink, plannedTourDuration,
+                travelTimeToLastService, totalCapacityDemand, latestArrivalAtLastService, plannedEndTime);
+    }
+
+    /**
+     * builds the retool, service and drive tasks of the tour
+     */
+    static List<Task> createTourTasks(ScheduledTour freightTour, Network network, TravelTime travelTime, FreightAVConfigGroup pfavConfigGroup) {
         // we only need duration for the service tasks - id we wanted exact planned time points of daytime, we would need to derive them out of the legs (like we do for start and end activity)
         //the Start and End activities are not part of ScheduledTour.getTour.getTourElements();
         List<Task> taskList = new ArrayList<>();
@@ -72,8 +126,6 @@ public final class FreightTourPlanning {
         Link location = depotLink;
         taskList.add(new PFAVRetoolTask(tBegin, tEnd, location));
 
-        int totalCapacityDemand = 0;
-
         int size = freightTour.getTour().getTourElements().size();
         for (int i = 0; i < size; i++) {
             TourElement currentElement = freightTour.getTour().getTourElements().get(i);
@@ -84,7 +136,6 @@ public final class FreightTourPlanning {
                 tBegin = tEnd; //serviceAct.getExpectedArrival() does always return 0. so we work with our own variable
                 tEnd = tBegin + serviceAct.getDuration();
                 location = network.getLinks().get(serviceAct.getLocation());
-                totalCapacityDemand += serviceAct.getService().getCapacityDemand();
                 taskList.add(new PFAVServiceTask(tBegin, tEnd, location, serviceAct.getService()));
             } else if (currentElement instanceof Tour.Leg) {
                 NetworkRoute route = (NetworkRoute) ((Tour.Leg) currentElement).getRoute();
@@ -100,16 +151,11 @@ public final class FreightTourPlanning {
                 tBegin = driveTask.getBeginTime();
             }
         }
-        double travelTimeToLastService = taskList.get(taskList.size() - 2).getBeginTime();
-
         tBegin = taskList.get(taskList.size() - 1).getEndTime();
         tEnd = tBegin + pfavConfigGroup.getPfavReToolTime();
         location = network.getLinks().get(freightTour.getTour().getEnd().getLocation());
         taskList.add(new PFAVRetoolTask(tBegin, tEnd, location));
-
-        double plannedTourDuration = tEnd - taskList.get(0).getBeginTime();
-        if (plannedTourDuration < 0) throw new RuntimeException("tour duration must be positive");
-        return new FreightTourDataPlanned(taskList, depotLink, plannedTourDuration, travelTimeToLastService, totalCapacityDemand);
+        return taskList;
 	}
 
 
@@ -139,45 +185,163 @@ public final class FreightTourPlanning {
         return new VrpPathWithTravelDataImpl(departureTime, totalTT, links, linkTTs);
     }
 
-    public static void runTourPlanningForCarriers(Carriers carriers, CarrierVehicleTypes vehicleTypes, Network network, TravelTime travelTime, int timeSlice, int iterations) {
+    /**
+     * travel time of the path that {@link #createVrpPath(NetworkRoute, double, Network, TravelTime)} would create (or zero for a route that starts
+     * and ends on the same link), without creating it
+     */
+    private static double calcRouteTravelTime(NetworkRoute networkRoute, double departureTime, Network network, TravelTime travelTime) {
+        if (networkRoute.getStartLinkId().equals(networkRoute.getEndLinkId())) return 0;
+        double currentTime = departureTime + 1.0D;
+        for (Id<Link> linkId : networkRoute.getLinkIds()) {
+            currentTime += travelTime.getLinkTravelTime(network.getLinks().get(linkId), currentTime, null, null);
+        }
+        Link lastLink = network.getLinks().get(networkRoute.getEndLinkId());
+        double linkTT = Math.floor(lastLink.getLength() / lastLink.getFreespeed(currentTime));
+        return (currentTime + linkTT) - departureTime;
+    }
+
+    /**
+     * @return the wall clock time in seconds that the tour planning took per carrier
+     */
+    public static Map<Id<Carrier>, Double> runTourPlanningForCarriers(Carriers carriers, CarrierVehicleTypes vehicleTypes, Network network, TravelTime travelTime, int timeSlice, int iterations) {
+        return runTourPlanningForCarriers(carriers, vehicleTypes, network, travelTime, timeSlice, iterations, null, null, 0);
+    }
+
+    /**
+     * @param transportCostsCacheDirectory if not null and the travel times are free speed travel times (travelTime null), the transport costs and paths
+     *                                     are read from and written to a {@link PersistentTransportCostsCache} in this directory
+     * @return the wall clock time in seconds that the tour planning took per carrier
+     */
+    public static Map<Id<Carrier>, Double> runTourPlanningForCarriers(Carriers carriers, CarrierVehicleTypes vehicleTypes, Network network, TravelTime travelTime, int timeSlice,
+                                                                     int iterations, Path transportCostsCacheDirectory) {
+        return runTourPlanningForCarriers(carriers, vehicleTypes, network, travelTime, timeSlice, iterations, null, transportCostsCacheDirectory, 0);
+    }
+
+    /**
+     * the carriers are planned on a dedicated thread pool, largest problem first (longest processing time first). the threads take the next carrier
+     * as soon as they are done, so the big carriers do not end up being planned at the very end while the other threads are idle.
+     *
+     * @param warmStart if not null, carriers that have been planned before start with their last best solution, see {@link TourPlanningWarmStart}
+     * @param transportCostsCacheDirectory if not null and the travel times are free speed travel times, the transport costs and paths are read from and
+     *                                     written to a {@link PersistentTransportCostsCache} in this directory
+     * @param numberOfThreads size of the thread pool. 0 means the number of available processors
+     */
+    static Map<Id<Carrier>, Double> runTourPlanningForCarriers(Carriers carriers, CarrierVehicleTypes vehicleTypes, Network network, TravelTime travelTime, int timeSlice,
+                                                              int iterations, TourPlanningWarmStart warmStart, Path transportCostsCacheDirectory, int numberOfThreads) {
 
         NetworkBasedTransportCosts.Builder netBuilder = NetworkBasedTransportCosts.Builder.newInstance(network, vehicleTypes.getVehicleTypes().values());
         netBuilder.setTimeSliceWidth(timeSlice); // !!!! otherwise it will not do anything.
         if(travelTime != null){
             netBuilder.setTravelTime(travelTime);
         }
-        final NetworkBasedTransportCosts netBasedCosts = netBuilder.build();
+        //the cache can only tell free speed travel times apart. the mobsim based estimates change from iteration to iteration
+        boolean freeSpeed = travelTime == null || travelTime instanceof FreeSpeedTravelTime;
+        if (transportCostsCacheDirectory != null && !freeSpeed) {
+            log.warn("the transport costs cache is only used for free speed travel times. planning the tours without it");
+        }
+        final PersistentTransportCostsCache costsCache = transportCostsCacheDirectory == null || !freeSpeed ? null :
+                PersistentTransportCostsCache.load(transportCostsCacheDirectory, netBuilder, network, PersistentTransportCostsCache.FREE_SPEED_TRAVEL_TIME_ID,
+                        vehicleTypes.getVehicleTypes().values(), timeSlice);
+        //the delegate of the cache routes the carrier plans on the cached paths
+        final NetworkBasedTransportCosts netBasedCosts = costsCache == null ? netBuilder.build() : costsCache.getDelegate();
+        final VehicleRoutingTransportCosts routingCosts = costsCache == null ? netBasedCosts : costsCache;
 
-        carriers.getCarriers().values().parallelStream().forEach(carrier -> {
-            //Build VRP
-            VehicleRoutingProblem.Builder vrpBuilder = MatsimJspritFactory.createRoutingProblemBuilder(carrier, network);
-            vrpBuilder.setRoutingCost(netBasedCosts);
-            VehicleRoutingProblem problem = vrpBuilder.build();
+        List<Carrier> carriersLargestFirst = carriers.getCarriers().values().stream()
+                .sorted(Comparator.comparingInt(FreightTourPlanning::getProblemSize).reversed())
+                .collect(Collectors.toList());
+        int poolSize = numberOfThreads > 0 ? numberOfThreads : Runtime.getRuntime().availableProcessors();
+        poolSize = Math.max(1, Math.min(poolSize, carriersLargestFirst.size()));
 
-            //get the algorithm out-of-the-box, search solution and get the best one.
-            VehicleRoutingAlgorithm algorithm = new SchrimpfFactory().createAlgorithm(problem);
+        AtomicInteger threadCounter = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(poolSize, runnable -> {
+            Thread thread = new Thread(runnable, "PFAV tour planning " + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        Map<Id<Carrier>, Double> solveTimes = new ConcurrentHashMap<>();
+        try {
+            //the pool's queue is first in first out, so the carriers are started in the order of their size
+            List<Future<?>> futures = new ArrayList<>();
+            for (Carrier carrier : carriersLargestFirst) {
+                futures.add(executor.submit(() -> solveTimes.put(carrier.getId(),
+                        planCarrier(carrier, network, routingCosts, netBasedCosts, iterations, warmStart))));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+        logSolveTimes(carriersLargestFirst, solveTimes, poolSize);
+        if (costsCache != null) costsCache.save();
+        return solveTimes;
+    }
+
+    /**
+     * @return the wall clock time in seconds that the tour planning of the carrier took
+     */
+    private static double planCarrier(Carrier carrier, Network network, VehicleRoutingTransportCosts routingCosts, NetworkBasedTransportCosts netBasedCosts,
+                                      int iterations, TourPlanningWarmStart warmStart) {
+        long start = System.nanoTime();
+        //Build VRP
+        VehicleRoutingProblem.Builder vrpBuilder = MatsimJspritFactory.createRoutingProblemBuilder(carrier, network);
+        vrpBuilder.setRoutingCost(routingCosts);
+        VehicleRoutingProblem problem = vrpBuilder.build();
+
+        //get the algorithm out-of-the-box, search solution and get the best one.
+        VehicleRoutingAlgorithm algorithm = new SchrimpfFactory().createAlgorithm(problem);
 
+        //start from the solution of the last run if enabled, see TourPlanningWarmStart and FreightAVConfigGroup.WARM_START_TOUR_PLANNING
+        VehicleRoutingProblemSolution initialSolution = warmStart == null ? null : warmStart.createInitialSolution(carrier, problem);
+        if (initialSolution != null) {
+            algorithm.addInitialSolution(initialSolution);
+            algorithm.setMaxIterations(warmStart.getNumberOfIterations(carrier, initialSolution, routingCosts, iterations));
+        } else {
             algorithm.setMaxIterations(iterations);
+        }
 
-            // variationCoefficient = stdDeviation/mean. so i set the threshold rather soft
-            algorithm.addTerminationCriterion(new VariationCoefficientTermination(50, 0.01));
+        // variationCoefficient = stdDeviation/mean. so i set the threshold rather soft
+        algorithm.addTerminationCriterion(new VariationCoefficientTermination(50, 0.01));
 
-            //TODO: add Initial solution - the one from last run => i tried this but this lead to the FreightReactionToTravelTimesTest failing...
-//			algorithm.addInitialSolution();
+        Collection<VehicleRoutingProblemSolution> solutions = algorithm.searchSolutions();
+        VehicleRoutingProblemSolution bestSolution = Solutions.bestOf(solutions);
+        if (warmStart != null) warmStart.bestSolutionFound(carrier, bestSolution, routingCosts);
 
-            Collection<VehicleRoutingProblemSolution> solutions = algorithm.searchSolutions();
-            VehicleRoutingProblemSolution bestSolution = Solutions.bestOf(solutions);
+        //get the CarrierPlan
+        CarrierPlan carrierPlan = MatsimJspritFactory.createPlan(carrier, bestSolution);
 
-            //get the CarrierPlan
-            CarrierPlan carrierPlan = MatsimJspritFactory.createPlan(carrier, bestSolution);
+        /* calculate the route - we need this because otherwise we only have the duration of the service task and do not have a clue about tour duration
+         */
+        //if we use this default method, FastDijkstraFactory.createLeastCostPathCalculator(network, travelDisutility, travelTime) is called;
+        NetworkRouter.routePlan(carrierPlan, netBasedCosts);
 
-            /* calculate the route - we need this because otherwise we only have the duration of the service task and do not have a clue about tour duration
-             */
-            //if we use this default method, FastDijkstraFactory.createLeastCostPathCalculator(network, travelDisutility, travelTime) is called;
-            NetworkRouter.routePlan(carrierPlan, netBasedCosts);
+        carrier.setSelectedPlan(carrierPlan);
+        return (System.nanoTime() - start) / 1e9;
+    }
 
-            carrier.setSelectedPlan(carrierPlan);
-        });
+    /**
+     * number of services and shipments, which is what the jsprit run time mainly depends on
+     */
+    static int getProblemSize(Carrier carrier) {
+        return carrier.getServices().size() + carrier.getShipments().size();
+    }
+
+    private static void logSolveTimes(List<Carrier> carriersLargestFirst, Map<Id<Carrier>, Double> solveTimes, int poolSize) {
+        double sum = 0;
+        double max = 0;
+        for (Carrier carrier : carriersLargestFirst) {
+            double solveTime = solveTimes.get(carrier.getId());
+            sum += solveTime;
+            max = Math.max(max, solveTime);
+            log.info("tour planning of carrier " + carrier.getId() + " with " + getProblemSize(carrier) + " services/shipments took " + solveTime + " seconds");
+        }
+        log.info("tour planning of " + carriersLargestFirst.size() + " carriers on " + poolSize + " threads: sum of solve times = " + sum
+                + " seconds, longest solve time = " + max + " seconds");
     }
 
 }
@@ -0,0 +1,257 @@
+/* *********************************************************************** *
+ * project: org.matsim.*												   *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2008 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package org.matsim.pfav.privateAV;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.contrib.freight.carrier.Carrier;
+import org.matsim.contrib.util.CSVLineBuilder;
+import org.matsim.contrib.util.CompactCSVWriter;
+import org.matsim.core.controler.events.IterationEndsEvent;
+import org.matsim.core.controler.events.IterationStartsEvent;
+import org.matsim.core.controler.listener.IterationEndsListener;
+import org.matsim.core.controler.listener.IterationStartsListener;
+import org.matsim.core.router.util.LeastCostPathCalculator;
+import org.matsim.core.utils.io.IOUtils;
+import org.matsim.vehicles.Vehicle;
+
+/**
+ * counters of the freight tour dispatch, filled by the {@link FreightTourManagerListBasedImpl} and the {@link PFAVScheduler}.
+ * the counters are reset at iteration start and written next to the output of the {@link FreightTourDispatchAnalyzer} at iteration end.
+ * <p>
+ * all counters are thread safe, as the depots may be evaluated in parallel (see {@link FreightAVConfigGroup#NUMBER_OF_DISPATCH_THREADS}).
+ * the router calls are counted by wrapping the routers with {@link #instrument(LeastCostPathCalculator)}.
+ *
+ * @author tschlenther
+ */
+final class PFAVDispatchMetrics implements IterationStartsListener, IterationEndsListener {
+
+    //upper bounds of the latency histogram buckets are 2^i microseconds
+    private static final int NUMBER_OF_LATENCY_BUCKETS = 32;
+
+    private final LongAdder requests = new LongAdder();
+    private final Map<Id<Link>, LongAdder> requestsPerDepot = new ConcurrentHashMap<>();
+    private final LongAdder evaluatedCandidates = new LongAdder();
+    private final LongAdder prunedAccessPaths = new LongAdder();
+    private final LongAdder prunedReturnPaths = new LongAdder();
+    private final LongAdder chainedTours = new LongAdder();
+    private final LongAdder reRoutedTourDrives = new LongAdder();
+    private final LongAdder keptTourDrives = new LongAdder();
+    private final LongAdder routerCalls = new LongAdder();
+    private final LongAdder routerNanos = new LongAdder();
+    private final LongAdder requestNanos = new LongAdder();
+    private final AtomicLongArray requestLatencyHistogram = new AtomicLongArray(NUMBER_OF_LATENCY_BUCKETS);
+    //the tour planning runs at iteration start, maybe before this is reset. so these counters are reset after they are written
+    private final LongAdder tourPlanningNanos = new LongAdder();
+    private final LongAdder plannedCarriers = new LongAdder();
+    private final DoubleAdder carrierSolveTime = new DoubleAdder();
+
+    /**
+     * a request of a vehicle looked at the depot
+     */
+    void depotRequested(Link depot) {
+        requestsPerDepot.computeIfAbsent(depot.getId(), id -> new LongAdder()).increment();
+    }
+
+    /**
+     * the feasibility of a candidate tour was checked
+     */
+    void candidateEvaluated() {
+        evaluatedCandidates.increment();
+    }
+
+    /**
+     * the path to a depot was not computed because of the travel time lower bound
+     */
+    void accessPathPruned() {
+        prunedAccessPaths.increment();
+    }
+
+    /**
+     * the path from a depot back to the owner was not computed because of the travel time lower bound
+     */
+    void returnPathPruned() {
+        prunedReturnPaths.increment();
+    }
+
+    /**
+     * a tour was dispatched as the next tour of the vehicle's chain, without searching the depot
+     */
+    void chainedTourDispatched() {
+        chainedTours.increment();
+    }
+
+    /**
+     * a drive of a dispatched tour was re-routed, see {@link TourReRouter}
+     */
+    void tourDriveReRouted() {
+        reRoutedTourDrives.increment();
+    }
+
+    /**
+     * a drive of a dispatched tour kept it's stored route, as the travel time did not change by more than the tolerance
+     */
+    void tourDriveKept() {
+        keptTourDrives.increment();
+    }
+
+    /**
+     * @param numberOfRequests number of vehicles that were served by the dispatch call. more than one for batched dispatch.
+     * @param nanos wall clock time the dispatch call took
+     */
+    void requestServed(int numberOfRequests, long nanos) {
+        requests.add(numberOfRequests);
+        requestNanos.add(nanos);
+        long micros = Math.max(1, nanos / 1000);
+        int bucket = Math.min(NUMBER_OF_LATENCY_BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros - 1));
+        requestLatencyHistogram.incrementAndGet(bucket);
+    }
+
+    /**
+     * @param nanos wall clock time of the whole tour planning
+     * @param solveTimes wall clock time in seconds per planned carrier, as returned by the {@link FreightTourPlanning}
+     */
+    void toursPlanned(long nanos, Map<Id<Carrier>, Double> solveTimes) {
+        tourPlanningNanos.add(nanos);
+        plannedCarriers.add(solveTimes.size());
+        solveTimes.values().forEach(carrierSolveTime::add);
+    }
+
+    long getNumberOfPrunedAccessPaths() {
+        return prunedAccessPaths.sum();
+    }
+
+    long getNumberOfPrunedReturnPaths() {
+        return prunedReturnPaths.sum();
+    }
+
+    long getNumberOfReRoutedTourDrives() {
+        return reRoutedTourDrives.sum();
+    }
+
+    long getNumberOfKeptTourDrives() {
+        return keptTourDrives.sum();
+    }
+
+    /**
+     * @return a router that counts it's calls and the time spent in them
+     */
+    LeastCostPathCalculator instrument(LeastCostPathCalculator router) {
+        return new InstrumentedRouter(router);
+    }
+
+    @Override
+    public void notifyIterationStarts(IterationStartsEvent event) {
+        requests.reset();
+        requestsPerDepot.clear();
+        evaluatedCandidates.reset();
+        prunedAccessPaths.reset();
+        prunedReturnPaths.reset();
+        chainedTours.reset();
+        reRoutedTourDrives.reset();
+        keptTourDrives.reset();
+        routerCalls.reset();
+        routerNanos.reset();
+        requestNanos.reset();
+        for (int i = 0; i < NUMBER_OF_LATENCY_BUCKETS; i++) {
+            requestLatencyHistogram.set(i, 0);
+        }
+    }
+
+    @Override
+    public void notifyIterationEnds(IterationEndsEvent event) {
+        String dir = event.getServices().getConfig().controler().getOutputDirectory() + "/ITERS/it." + event.getIteration() + "/";
+        writeMetrics(dir + "FreightTourDispatchMetrics_it" + event.getIteration() + ".csv");
+        writeRequestsPerDepot(dir + "FreightTourRequestsPerDepot_it" + event.getIteration() + ".csv");
+        tourPlanningNanos.reset();
+        plannedCarriers.reset();
+        carrierSolveTime.reset();
+    }
+
+    private void writeMetrics(String file) {
+        long numberOfRequests = requests.sum();
+        try (CompactCSVWriter writer = new CompactCSVWriter(IOUtils.getBufferedWriter(file), ';')) {
+            writer.writeNext(new CSVLineBuilder().add("Metric").add("Value"));
+            writer.writeNext(new CSVLineBuilder().add("Requests").addf("%d", numberOfRequests));
+            writer.writeNext(new CSVLineBuilder().add("EvaluatedCandidates").addf("%d", evaluatedCandidates.sum()));
+            writer.writeNext(new CSVLineBuilder().add("EvaluatedCandidatesPerRequest").addf("%.2f", perRequest(evaluatedCandidates.sum(), numberOfRequests)));
+            writer.writeNext(new CSVLineBuilder().add("PrunedAccessPaths").addf("%d", prunedAccessPaths.sum()));
+            writer.writeNext(new CSVLineBuilder().add("PrunedReturnPaths").addf("%d", prunedReturnPaths.sum()));
+            writer.writeNext(new CSVLineBuilder().add("ChainedTours").addf("%d", chainedTours.sum()));
+            writer.writeNext(new CSVLineBuilder().add("ReRoutedTourDrives").addf("%d", reRoutedTourDrives.sum()));
+            writer.writeNext(new CSVLineBuilder().add("KeptTourDrives").addf("%d", keptTourDrives.sum()));
+            writer.writeNext(new CSVLineBuilder().add("RouterCalls").addf("%d", routerCalls.sum()));
+            writer.writeNext(new CSVLineBuilder().add("RouterTime[s]").addf("%.3f", routerNanos.sum() / 1e9));
+            writer.writeNext(new CSVLineBuilder().add("DispatchTime[s]").addf("%.3f", requestNanos.sum() / 1e9));
+            writer.writeNext(new CSVLineBuilder().add("PlannedCarriers").addf("%d", plannedCarriers.sum()));
+            writer.writeNext(new CSVLineBuilder().add("TourPlanningTime[s]").addf("%.3f", tourPlanningNanos.sum() / 1e9));
+            //more than the tour planning time if the carriers are planned in parallel
+            writer.writeNext(new CSVLineBuilder().add("CarrierSolveTime[s]").addf("%.3f", carrierSolveTime.sum()));
+            writer.writeNextEmpty();
+
+            writer.writeNext(new CSVLineBuilder().add("DispatchLatencyUpTo[micros]").add("NumberOfDispatchCalls"));
+            for (int i = 0; i < NUMBER_OF_LATENCY_BUCKETS; i++) {
+                long count = requestLatencyHistogram.get(i);
+                if (count > 0) writer.writeNext(new CSVLineBuilder().addf("%d", 1L << i).addf("%d", count));
+            }
+        }
+    }
+
+    private void writeRequestsPerDepot(String file) {
+        List<Map.Entry<Id<Link>, LongAdder>> depots = new ArrayList<>(requestsPerDepot.entrySet());
+        depots.sort(Map.Entry.comparingByKey());
+        try (CompactCSVWriter writer = new CompactCSVWriter(IOUtils.getBufferedWriter(file), ';')) {
+            writer.writeNext(new CSVLineBuilder().add("DepotLink").add("Requests"));
+            for (Map.Entry<Id<Link>, LongAdder> depot : depots) {
+                writer.writeNext(new CSVLineBuilder().add(depot.getKey().toString()).addf("%d", depot.getValue().sum()));
+            }
+        }
+    }
+
+    private static double perRequest(long value, long numberOfRequests) {
+        return numberOfRequests == 0 ? 0 : (double) value / numberOfRequests;
+    }
+
+    private final class InstrumentedRouter implements LeastCostPathCalculator {
+        private final LeastCostPathCalculator delegate;
+
+        private InstrumentedRouter(LeastCostPathCalculator delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public Path calcLeastCostPath(Node fromNode, Node toNode, double starttime, Person person, Vehicle vehicle) {
+            long start = System.nanoTime();
+            Path path = delegate.calcLeastCostPath(fromNode, toNode, starttime, person, vehicle);
+            routerNanos.add(System.nanoTime() - start);
+            routerCalls.increment();
+            return path;
+        }
+    }
+}
@@ -5,7 +5,13 @@ import java.util.Collections;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+import org.apache.log4j.Logger;
 
 import org.matsim.api.core.v01.Id;
 import org.matsim.api.core.v01.Scenario;
@@ -21,29 +27,51 @@ import org.matsim.contrib.dvrp.fleet.Fleet;
 import org.matsim.contrib.dvrp.fleet.FleetSpecification;
 import org.matsim.contrib.dvrp.run.QSimScopeObjectListener;
 import org.matsim.contrib.dvrp.util.LinkTimePair;
+import org.matsim.core.config.ConfigUtils;
 import org.matsim.core.controler.events.BeforeMobsimEvent;
 import org.matsim.core.controler.listener.BeforeMobsimListener;
 import org.matsim.core.router.StageActivityTypeIdentifier;
+import org.matsim.core.utils.misc.OptionalTime;
 
+/**
+ * derives the PFAV fleet from the selected plans of the owners before every mobsim.
+ * <p>
+ * in incremental mode (see {@link FreightAVConfigGroup#INCREMENTAL_FLEET_SPECIFICATION_UPDATE}), the specification of a person is only recomputed if
+ * the hash of it's selected plan changed. the hash covers every attribute of the plan that is read in order to compute the specification, so apart from
+ * hash collisions, the resulting fleet is the same as with the full rebuild (see PFAVFleetStatsCalculatorTest). unchanged specifications are neither
+ * rebuilt nor replaced in the {@link FleetSpecification}.
+ */
 final class PFAVFleetStatsCalculator implements QSimScopeObjectListener<Fleet>, BeforeMobsimListener {
 
+    private static final Logger log = Logger.getLogger(PFAVFleetStatsCalculator.class);
+
     private final FleetSpecification fleetSpecification;
     private final Population population;
     private Set<Id<DvrpVehicle>> oldVehicles = new HashSet<Id<DvrpVehicle>>();
     private final String mode;
+    private final boolean incremental;
+
+    //hash of the selected plan and the resulting specification (null if the person does not use a PFAV) per person, only used in incremental mode
+    private final Map<Id<Person>, PlanSpecification> planSpecifications = new ConcurrentHashMap<>();
 
     PFAVFleetStatsCalculator(FleetSpecification fleetSpecification, Scenario scenario, String mode) {
         this.fleetSpecification = fleetSpecification;
         this.population= scenario.getPopulation();
         this.mode = mode;
+        this.incremental = ConfigUtils.addOrGetModule(scenario.getConfig(), FreightAVConfigGroup.class).isIncrementalFleetSpecificationUpdate();
     }
 
     @Override
     public void notifyBeforeMobsim(BeforeMobsimEvent event) {
-        List<PFAVSpecification> vehiclesForIteration = determinePFAVsForIteration();
+        List<PFAVSpecification> vehiclesForIteration = incremental ? determinePFAVsForIterationIncrementally() : determinePFAVsForIteration();
+        int replaced = 0;
         for (PFAVSpecification sp : vehiclesForIteration) {
             if (oldVehicles.contains(sp.getId())) {
-                fleetSpecification.replaceVehicleSpecification(sp);
+                //in incremental mode, unchanged specifications are the very same objects
+                if (fleetSpecification.getVehicleSpecifications().get(sp.getId()) != sp) {
+                    fleetSpecification.replaceVehicleSpecification(sp);
+                    replaced++;
+                }
                 oldVehicles.remove(sp.getId());
             } else {
                 fleetSpecification.addVehicleSpecification(sp);
@@ -53,44 +81,105 @@ final class PFAVFleetStatsCalculator implements QSimScopeObjectListener<Fleet>,
         for (Id<DvrpVehicle> id : oldVehicles) {
             fleetSpecification.removeVehicleSpecification(id);
         }
+        if (incremental) {
+            log.info("PFAV fleet for iteration " + event.getIteration() + ": " + vehiclesForIteration.size() + " vehicles, " + replaced
+                    + " replaced, " + oldVehicles.size() + " removed");
+        }
     }
 
-    private List<PFAVSpecification> determinePFAVsForIteration() {
+    List<PFAVSpecification> determinePFAVsForIteration() {
         List<PFAVSpecification> vehiclesForIteration = new ArrayList<>();
         for(Person p : this.population.getPersons().values()) {
-            Id<Link> vehicleStartLink = null;
-            LinkedList<PFAVehicle.MustReturnLinkTimePair> mustReturnLinkTimePairs = new LinkedList<>();
-            //TODO: test this
-            Plan plan = p.getSelectedPlan();
-            for (int i = 0; i < plan.getPlanElements().size(); i++) {
-                PlanElement pe = plan.getPlanElements().get(i);
-                if (pe instanceof Leg) {
-                    if (((Leg) pe).getMode().equals(mode)) {
-                        if(vehicleStartLink == null) vehicleStartLink = ((Leg) pe).getRoute().getStartLinkId();
-                        mustReturnLinkTimePairs.add(getMustReturnLinkTimePairFromPreviousNonStageActivity(plan, i));
-                    }
+            PFAVSpecification specification = createSpecification(p);
+            if (specification != null) vehiclesForIteration.add(specification);
+        }
+        return vehiclesForIteration;
+    }
+
+    /**
+     * same result as {@link #determinePFAVsForIteration()}, but only the persons whose selected plan changed are looked at in detail.
+     * as nothing else is running before the mobsim, the persons are processed in parallel. the order of the result is the order of the population.
+     */
+    List<PFAVSpecification> determinePFAVsForIterationIncrementally() {
+        planSpecifications.keySet().retainAll(population.getPersons().keySet());
+        return population.getPersons().values().parallelStream()
+                .map(person -> {
+                    long planHash = calcPlanHash(person.getSelectedPlan());
+                    PlanSpecification previous = planSpecifications.get(person.getId());
+                    if (previous != null && previous.planHash == planHash) return previous.specification;
+                    PFAVSpecification specification = createSpecification(person);
+                    planSpecifications.put(person.getId(), new PlanSpecification(planHash, specification));
+                    return specification;
+                })
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * @return null if the person does not use a PFAV in it's selected plan
+     */
+    private PFAVSpecification createSpecification(Person p) {
+        Id<Link> vehicleStartLink = null;
+        LinkedList<PFAVehicle.MustReturnLinkTimePair> mustReturnLinkTimePairs = new LinkedList<>();
+        //TODO: test this
+        Plan plan = p.getSelectedPlan();
+        for (int i = 0; i < plan.getPlanElements().size(); i++) {
+            PlanElement pe = plan.getPlanElements().get(i);
+            if (pe instanceof Leg) {
+                if (((Leg) pe).getMode().equals(mode)) {
+                    if(vehicleStartLink == null) vehicleStartLink = ((Leg) pe).getRoute().getStartLinkId();
+                    mustReturnLinkTimePairs.add(getMustReturnLinkTimePairFromPreviousNonStageActivity(plan, i));
                 }
             }
-            //add a time stamp representing the end of the day after the last taxi leg of the owner.
-            // meaning that the vehicle has time until end of simulation to perform freight tours
-            mustReturnLinkTimePairs.add(new PFAVehicle.MustReturnLinkTimePair(Double.POSITIVE_INFINITY, null));
-            //just to be sure that list really is sorted. as we go through the plan consecutively, this should be unnecessary..
-            Collections.sort(mustReturnLinkTimePairs);
-
-            if (vehicleStartLink != null) {
-                Id<DvrpVehicle> vehicleId = PFAVUtils.generatePFAVIdFromPersonId(p.getId());
-                PFAVSpecification specification = PFAVSpecification.newBuilder()
-                        .serviceBeginTime(0.)
-                        .serviceEndTime(36 * 3600)
-                        .startLinkId(vehicleStartLink)
-                        .id(vehicleId)
-                        .capacity(PFAVUtils.DEFAULT_PFAV_CAPACITY)
-                        .mustReturnToOwnerLinkTimePairs(mustReturnLinkTimePairs)
-                        .build();
-                vehiclesForIteration.add(specification);
+        }
+        //add a time stamp representing the end of the day after the last taxi leg of the owner.
+        // meaning that the vehicle has time until end of simulation to perform freight tours
+        mustReturnLinkTimePairs.add(new PFAVehicle.MustReturnLinkTimePair(Double.POSITIVE_INFINITY, null));
+        //just to be sure that list really is sorted. as we go through the plan consecutively, this should be unnecessary..
+        Collections.sort(mustReturnLinkTimePairs);
+
+        if (vehicleStartLink != null) {
+            Id<DvrpVehicle> vehicleId = PFAVUtils.generatePFAVIdFromPersonId(p.getId());
+            PFAVSpecification specification = PFAVSpecification.newBuilder()
+                    .serviceBeginTime(0.)
+                    .serviceEndTime(36 * 3600)
+                    .startLinkId(vehicleStartLink)
+                    .id(vehicleId)
+                    .capacity(PFAVUtils.DEFAULT_PFAV_CAPACITY)
+                    .mustReturnToOwnerLinkTimePairs(mustReturnLinkTimePairs)
+                    .build();
+            return specification;
+        }
+        return null;
+    }
+
+    /**
+     * hash over all attributes of the plan that {@link #createSpecification(Person)} reads
+     */
+    private static long calcPlanHash(Plan plan) {
+        long hash = 17;
+        for (PlanElement pe : plan.getPlanElements()) {
+            if (pe instanceof Leg) {
+                Leg leg = (Leg) pe;
+                hash = 31 * hash + leg.getMode().hashCode();
+                hash = 31 * hash + hashTime(leg.getDepartureTime());
+                if (leg.getRoute() != null) {
+                    hash = 31 * hash + Objects.hashCode(leg.getRoute().getStartLinkId());
+                    hash = 31 * hash + hashTime(leg.getRoute().getTravelTime());
+                }
+            } else if (pe instanceof Activity) {
+                Activity act = (Activity) pe;
+                hash = 31 * hash + act.getType().hashCode();
+                hash = 31 * hash + Objects.hashCode(act.getLinkId());
+                hash = 31 * hash + hashTime(act.getEndTime());
+                hash = 31 * hash + hashTime(act.getMaximumDuration());
             }
         }
-        return vehiclesForIteration;
+        return hash;
+    }
+
+    private static long hashTime(OptionalTime time) {
+        return time.isDefined() ? Double.doubleToLongBits(time.seconds()) : -1L;
     }
 
     private double getActivityEndTimeOfPreviousNonStageActivity(Plan plan, int startIndex) {
@@ -196,6 +285,16 @@ final class PFAVFleetStatsCalculator implements QSimScopeObjectListener<Fleet>,
         this.oldVehicles.addAll(fleet.getVehicles().keySet());
     }
 
+    private static final class PlanSpecification {
+        private final long planHash;
+        private final PFAVSpecification specification;
+
+        private PlanSpecification(long planHash, PFAVSpecification specification) {
+            this.planHash = planHash;
+            this.specification = specification;
+        }
+    }
+
     class LinkTimePairComparator implements java.util.Comparator<LinkTimePair> {
 
         @Override
@@ -15,12 +15,16 @@ import org.matsim.contrib.freight.carrier.Carriers;
 import org.matsim.contrib.freight.utils.FreightUtils;
 import org.matsim.contrib.taxi.run.TaxiConfigGroup;
 import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.config.groups.TravelTimeCalculatorConfigGroup;
+import org.matsim.core.controler.MatsimServices;
 import org.matsim.core.router.AStarEuclideanFactory;
 import org.matsim.core.router.costcalculators.TravelDisutilityFactory;
 import org.matsim.core.router.util.TravelDisutility;
 import org.matsim.core.router.util.TravelTime;
 import org.matsim.vehicles.VehicleType;
 
+import java.util.Objects;
+
 import com.google.inject.Inject;
 import com.google.inject.Key;
 import com.google.inject.Singleton;
@@ -77,13 +81,40 @@ public final class PFAVModeModule extends AbstractDvrpModeModule {
                     @Named(DvrpTravelTimeModule.DVRP_ESTIMATED)
                     private TravelTime travelTime;
 
+                    @Inject
+                    @Named(DvrpGlobalRoutingNetworkProvider.DVRP_ROUTING)
+                    private Network network;
+
+                    @Inject
+                    private MatsimServices services;
+
+                    //the estimated travel times only change with the mobsim, so all routers of an iteration share one table
+                    private VehTypeLinkCostTable linkCostTable;
+                    private Integer linkCostTableIteration;
+
                     @Override
                     public TravelDisutility get() {
+                        if (pfavConfigGroup.isPrecomputeLinkCosts()) return getLinkCostTable();
                         return new VehTypeVariableTravelDisutility(travelTime, pfavType.getCostInformation());
                     }
+
+                    private synchronized VehTypeLinkCostTable getLinkCostTable() {
+                        Integer iteration = services.getIterationNumber();
+                        if (linkCostTable == null || !Objects.equals(iteration, linkCostTableIteration)) {
+                            TravelTimeCalculatorConfigGroup ttCalcConfig = getConfig().travelTimeCalculator();
+                            linkCostTable = new VehTypeLinkCostTable(network, travelTime, pfavType.getCostInformation(),
+                                    ttCalcConfig.getTraveltimeBinSize(), ttCalcConfig.getMaxTime());
+                            linkCostTableIteration = iteration;
+                        }
+                        return linkCostTable;
+                    }
                 }
         );
-        bind(FreightTourManagerListBased.class).to(FreightTourManagerListBasedImpl.class).in(Singleton.class);
+        if (pfavConfigGroup.isBatchedDispatch()) {
+            bind(FreightTourManagerListBased.class).to(FreightTourManagerListBasedBatchedImpl.class).in(Singleton.class);
+        } else {
+            bind(FreightTourManagerListBased.class).to(FreightTourManagerListBasedImpl.class).in(Singleton.class);
+        }
         addControlerListenerBinding().to(FreightTourManagerListBased.class);
         installQSimModule(new PFAVModuleQSim(taxiConfigGroup.getMode()));
     }
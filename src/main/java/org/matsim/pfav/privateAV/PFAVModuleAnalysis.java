@@ -47,6 +47,10 @@ final class PFAVModuleAnalysis extends AbstractDvrpModeModule {
 
         addEventHandlerBinding().toInstance(analyzer);
 
+        //counters of the dispatch, filled by the tour manager and the scheduler
+        bind(PFAVDispatchMetrics.class).asEagerSingleton();
+        addControlerListenerBinding().to(PFAVDispatchMetrics.class);
+
         OverallTravelTimeAndDistanceListener generalListener = new OverallTravelTimeAndDistanceListener(network);
         addEventHandlerBinding().toInstance(generalListener);
         addControlerListenerBinding().toInstance(generalListener);
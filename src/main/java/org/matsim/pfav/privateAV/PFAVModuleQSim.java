@@ -1,6 +1,7 @@
 package org.matsim.pfav.privateAV;
 
 import org.matsim.api.core.v01.network.Network;
+import org.matsim.contrib.drt.optimizer.QSimScopeForkJoinPoolHolder;
 import org.matsim.contrib.dvrp.fleet.Fleet;
 import org.matsim.contrib.dvrp.optimizer.VrpOptimizer;
 import org.matsim.contrib.dvrp.passenger.DefaultPassengerRequestValidator;
@@ -51,6 +52,11 @@ final class PFAVModuleQSim extends AbstractDvrpModeQSimModule {
 //        bind(FreightTourManagerListBased.class).to(FreightTourManagerListBasedImpl.class).in(Singleton.class);
 
 
+        if (pfavConfigGroup.getNumberOfDispatchThreads() > 1) {
+            addModalComponent(QSimScopeForkJoinPoolHolder.class,
+                    () -> new QSimScopeForkJoinPoolHolder(pfavConfigGroup.getNumberOfDispatchThreads()));
+        }
+
         addModalComponent(TaxiOptimizer.class, new ModalProviders.AbstractProvider<>(taxiCfg.getMode()) {
             @Inject
             private MobsimTimer timer;
@@ -80,15 +86,24 @@ final class PFAVModuleQSim extends AbstractDvrpModeQSimModule {
 			@Inject
 			private EventsManager events;
 
+			@Inject
+			private PFAVDispatchMetrics metrics;
+
 			@Override
 			public PFAVScheduler get() {
 				Fleet fleet = getModalInstance(Fleet.class);
 				Network network = getModalInstance(Network.class);
 				TravelDisutility travelDisutility = getModalInstance(TravelDisutility.class);
-				LeastCostPathCalculator router = new FastAStarLandmarksFactory(
-						getConfig().global()).createPathCalculator(network, travelDisutility, travelTime);
+				FastAStarLandmarksFactory routerFactory = new FastAStarLandmarksFactory(getConfig().global());
+				LeastCostPathCalculator router = routerFactory.createPathCalculator(network, travelDisutility, travelTime);
+				if (pfavConfigGroup.getNumberOfDispatchThreads() > 1) {
+					tourManager.enableParallelDispatch(getModalInstance(QSimScopeForkJoinPoolHolder.class).getPool(),
+							() -> metrics.instrument(routerFactory.createPathCalculator(network, travelDisutility, travelTime)));
+				}
+				StepPathCache stepPathCache = new StepPathCache(pfavConfigGroup.getStepPathCacheTimeBinSize(), travelTime);
+				tourManager.setStepPathCache(stepPathCache);
 				return new PFAVScheduler(taxiCfg, fleet, network, timer, travelTime, router, events, tourManager,
-						pfavConfigGroup);
+						pfavConfigGroup, stepPathCache, metrics);
 			}
 		}).asEagerSingleton();
 
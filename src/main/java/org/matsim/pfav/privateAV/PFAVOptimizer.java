@@ -1,10 +1,16 @@
 package org.matsim.pfav.privateAV;
 
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
 import org.apache.log4j.Logger;
 import org.matsim.api.core.v01.Id;
 import org.matsim.contrib.dvrp.fleet.DvrpVehicle;
 import org.matsim.contrib.dvrp.fleet.Fleet;
 import org.matsim.contrib.dvrp.optimizer.Request;
+import org.matsim.contrib.dvrp.schedule.Schedule;
 import org.matsim.contrib.dvrp.schedule.Task;
 import org.matsim.contrib.taxi.optimizer.AbstractTaxiOptimizerParams;
 import org.matsim.contrib.taxi.optimizer.TaxiOptimizer;
@@ -24,6 +30,9 @@ final class PFAVOptimizer implements TaxiOptimizer {
 	private PFAVScheduler scheduler;
 	private AbstractTaxiOptimizerParams params;
 
+	//the current tasks of all vehicles, ordered by their planned end time. only filled if the timelines are updated
+	private final PriorityQueue<CurrentTask> currentTasksByEndTime = new PriorityQueue<>(Comparator.comparingDouble(t -> t.plannedEndTime));
+
     PFAVOptimizer(TaxiConfigGroup taxiCfg, Fleet fleet, PFAVScheduler scheduler, EventsManager eventsManager,
                   MobsimTimer timer) {
 		
@@ -63,16 +72,53 @@ final class PFAVOptimizer implements TaxiOptimizer {
 	public void nextTask(DvrpVehicle vehicle) {
 		scheduler.updateBeforeNextTask(vehicle);
 		Task newCurrentTask = vehicle.getSchedule().nextTask();
+		if (params.doUpdateTimelines && newCurrentTask != null) {
+			currentTasksByEndTime.add(new CurrentTask(vehicle, newCurrentTask));
+		}
 	}
 
 	@Override
 	public void notifyMobsimBeforeSimStep(MobsimBeforeSimStepEvent e) {
-        // TODO we do not need this !! DELETE this in order to speed up simulation
+		scheduler.clearStepPathCache();
+		scheduler.dispatchCollectedFreightTourRequests();
+
 		// in fact, doUpdateTimelines is currently always false, since we use RuleBasedOptimizerParams, see PFAVProvider and constructor of RuleBasedOptimizerParams
 		if (params.doUpdateTimelines) {
-			for (DvrpVehicle v : fleet.getVehicles().values()) {
-				scheduler.updateTimeline(v);
-			}
+			updateTimelinesOfDelayedVehicles();
+		}
+	}
+
+	/**
+	 * instead of updating the timeline of every vehicle in every time step, only the vehicles whose current task should already have ended are updated.
+	 * vehicles that are ahead of schedule start their next task early, and the timeline is updated in {@link PFAVScheduler#updateBeforeNextTask(DvrpVehicle)}.
+	 * the effort per time step thus depends on the number of delayed vehicles and not on the fleet size.
+	 * <p>
+	 * a delay of a drive is only recognized once the planned end of the drive has passed, and not as soon as the drive's tracker predicts it.
+	 */
+	private void updateTimelinesOfDelayedVehicles() {
+		double now = timer.getTimeOfDay();
+		List<CurrentTask> stillDelayed = new ArrayList<>();
+		while (!currentTasksByEndTime.isEmpty() && currentTasksByEndTime.peek().plannedEndTime < now) {
+			CurrentTask currentTask = currentTasksByEndTime.poll();
+			Schedule schedule = currentTask.vehicle.getSchedule();
+			if (schedule.getStatus() != Schedule.ScheduleStatus.STARTED || schedule.getCurrentTask() != currentTask.task) continue;
+			//otherwise, the scheduler postponed the end of the task in the meantime
+			if (currentTask.task.getEndTime() < now) scheduler.updateTimeline(currentTask.vehicle);
+			//check again as soon as the new end time has passed. this is added after the loop, as it might be in this time step
+			stillDelayed.add(new CurrentTask(currentTask.vehicle, currentTask.task));
+		}
+		currentTasksByEndTime.addAll(stillDelayed);
+	}
+
+	private static final class CurrentTask {
+		private final DvrpVehicle vehicle;
+		private final Task task;
+		private final double plannedEndTime;
+
+		private CurrentTask(DvrpVehicle vehicle, Task task) {
+			this.vehicle = vehicle;
+			this.task = task;
+			this.plannedEndTime = task.getEndTime();
 		}
 	}
 
@@ -1,5 +1,6 @@
 package org.matsim.pfav.privateAV;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -41,6 +42,8 @@ final class PFAVScheduler {
 
 	private final TaxiScheduleInquiry taxiScheduleInquiry;
 	private final LeastCostPathCalculator router;
+	//same router, but the calls are counted in the dispatch metrics
+	private final LeastCostPathCalculator dispatchRouter;
 	private final Network network;
 	private final FreightAVConfigGroup pfavConfigGroup;
 
@@ -49,8 +52,13 @@ final class PFAVScheduler {
 	private final MobsimTimer timer;
 	private final EventsManager eventsManager;
 	private final FreightTourManagerListBased freightManager;
+	private final StepPathCache stepPathCache;
+	private final PFAVDispatchMetrics metrics;
+	private final TourReRouter tourReRouter;
 	private final HashSet<DvrpVehicle> vehiclesOnFreightTour = new HashSet<>();
 	private final Map<Id<DvrpVehicle>, Double> requestedVehicles = new HashMap<>();
+	//vehicles that requested a freight tour after a passenger dropoff and wait at their owner's location for the next batched dispatch
+	private final List<PFAVehicle> vehiclesWaitingForBatchedDispatch = new ArrayList<>();
 
 	/**
 	 *
@@ -58,15 +66,19 @@ final class PFAVScheduler {
 	PFAVScheduler(TaxiConfigGroup taxiCfg, Fleet fleet, Network network, MobsimTimer timer,
 			@Named(DvrpTravelTimeModule.DVRP_ESTIMATED) TravelTime travelTime, LeastCostPathCalculator router,
 			EventsManager eventsManager, FreightTourManagerListBased tourManager,
-			FreightAVConfigGroup pfavConfigGroup) {
+			FreightAVConfigGroup pfavConfigGroup, StepPathCache stepPathCache, PFAVDispatchMetrics metrics) {
 		this.freightManager = tourManager;
+		this.stepPathCache = stepPathCache;
 		this.eventsManager = eventsManager;
 		this.taxiCfg = taxiCfg;
 		this.router = router;
+		this.metrics = metrics;
+		this.dispatchRouter = metrics.instrument(router);
 		this.travelTime = travelTime;
 		this.timer = timer;
 		this.network = network;
 		this.pfavConfigGroup = pfavConfigGroup;
+		this.tourReRouter = new TourReRouter(travelTime, pfavConfigGroup.getReRouteToursTolerance(), metrics);
 		taxiScheduleInquiry = new TaxiScheduleInquiry(taxiCfg, timer);
 
 		//init fleet
@@ -107,7 +119,11 @@ final class PFAVScheduler {
 			case DROPOFF:
 				if (currentTask instanceof TaxiDropoffTask) {
 					if (vehicle instanceof PFAVehicle) {
-						requestFreightTour(vehicle);
+						if (pfavConfigGroup.isBatchedDispatch()) {
+							requestFreightTourInNextBatch((PFAVehicle) vehicle);
+						} else {
+							requestFreightTour(vehicle);
+						}
 					} else {
 						//in future, there could be usecases where we have both, DvrpVehicles (supertype) and PFAVehicles, so we would not throw an exception here and just keep going
 						throw new RuntimeException("currently, all DvrpVehicles should be of type PFAVehicle");
@@ -174,18 +190,79 @@ final class PFAVScheduler {
                 && !(Schedules.getNextTask(schedule) instanceof PFAVRetoolTask)); //no transfer drive to another depot
     }
 
-	private void requestFreightTour(DvrpVehicle vehicle) {
+	private boolean isAllowedToRequestFreightTour(DvrpVehicle vehicle) {
 		if (timer.getTimeOfDay() > pfavConfigGroup.getFreightTourLatestStart()) {
 //			log.info("No freight tour is requested for vehicle "
 //					+ vehicle.getId()
 //					+ " because global freight time window ended already at "
 //					+ pfavConfigGroup.getFreightTourLatestStart());
-			return;
+			return false;
 		}
 		if(timer.getTimeOfDay() > ((PFAVehicle) vehicle).getMustReturnToOwnerLinkTimePairs().peek().getTime()){
 			log.warn("the must return time for vehicle " + vehicle.getId() + " is in the past. Thus, it will not request a freight tour. This means the owner agent is in delay....");
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * drops the routes of the last mobsim step, see {@link StepPathCache}
+	 */
+	void clearStepPathCache() {
+		stepPathCache.clear();
+	}
+
+	/**
+	 * collects the request of the vehicle for the next call of {@link #dispatchCollectedFreightTourRequests()}
+	 */
+	void requestFreightTourInNextBatch(PFAVehicle vehicle) {
+		if (isAllowedToRequestFreightTour(vehicle)) vehiclesWaitingForBatchedDispatch.add(vehicle);
+	}
+
+	/**
+	 * dispatches the freight tour requests that were collected since the last call, if batched dispatch is switched on and the dispatch interval is over.
+	 * the requesting vehicles stay at their owner's location in the meantime. vehicles that got a tour end their stay task now.
+	 */
+	void dispatchCollectedFreightTourRequests() {
+		if (vehiclesWaitingForBatchedDispatch.isEmpty()
+				|| ((long) timer.getTimeOfDay()) % pfavConfigGroup.getBatchedDispatchInterval() != 0) {
 			return;
 		}
+		double now = timer.getTimeOfDay();
+		List<PFAVehicle> requestingVehicles = new ArrayList<>();
+		for (PFAVehicle vehicle : vehiclesWaitingForBatchedDispatch) {
+			Schedule schedule = vehicle.getSchedule();
+			//the owner might have submitted a request in the meantime
+			if (requestedVehicles.containsKey(vehicle.getId())
+					|| !(schedule.getCurrentTask() instanceof TaxiStayTask)
+					|| schedule.getCurrentTask() != Schedules.getLastTask(schedule)
+					|| !isAllowedToRequestFreightTour(vehicle)) {
+				continue;
+			}
+			//the manager computes the access drive from the end of the current task
+			schedule.getCurrentTask().setEndTime(now);
+			requestingVehicles.add(vehicle);
+		}
+		vehiclesWaitingForBatchedDispatch.clear();
+		if (requestingVehicles.isEmpty()) return;
+
+		long dispatchStart = System.nanoTime();
+		Map<PFAVehicle, FreightTourDataPlanned> vehicleToTour = freightManager.vehiclesRequestedFreightTours(requestingVehicles, dispatchRouter);
+		for (PFAVehicle vehicle : requestingVehicles) {
+			FreightTourDataPlanned tourData = vehicleToTour.get(vehicle);
+			if (tourData != null) {
+				scheduleFreightTour(vehicle, tourData);
+			} else {
+				Task stayTask = vehicle.getSchedule().getCurrentTask();
+				stayTask.setEndTime(Math.max(stayTask.getBeginTime(), vehicle.getServiceEndTime()));
+				eventsManager.processEvent(new EventFreightTourRequestRejected(vehicle, Tasks.getEndLink(stayTask).getId(), now));
+			}
+		}
+		metrics.requestServed(requestingVehicles.size(), System.nanoTime() - dispatchStart);
+	}
+
+	private void requestFreightTour(DvrpVehicle vehicle) {
+		if (!isAllowedToRequestFreightTour(vehicle)) return;
 
 //		log.info("Vehicle "
 //				+ vehicle.getId()
@@ -193,17 +270,18 @@ final class PFAVScheduler {
 //				+ timer.getTimeOfDay()
 //				+ " on link "
 //				+ (Tasks.getEndLink(vehicle.getSchedule().getCurrentTask())).getId());
+		long dispatchStart = System.nanoTime();
 		FreightTourDataPlanned tourData;
 
 		Task currentTask = vehicle.getSchedule().getCurrentTask();
 		if (currentTask instanceof TaxiDropoffTask) {
-			tourData = freightManager.vehicleRequestedFreightTour((PFAVehicle) vehicle, router);
+			tourData = freightManager.vehicleRequestedFreightTour((PFAVehicle) vehicle, dispatchRouter);
 		} else {
 			Link depotLink = Tasks.getEndLink(currentTask);
 			if (currentTask instanceof TaxiEmptyDriveTask) {
-				tourData = freightManager.vehicleRequestedFreightTourAtDepot((PFAVehicle) vehicle, depotLink, router);
+				tourData = freightManager.vehicleRequestedFreightTourAtDepot((PFAVehicle) vehicle, depotLink, dispatchRouter);
 			} else if (currentTask instanceof PFAVRetoolTask) {
-				tourData = freightManager.vehicleRequestedFreightTourExcludingDepot((PFAVehicle) vehicle, depotLink, router);
+				tourData = freightManager.vehicleRequestedFreightTourExcludingDepot((PFAVehicle) vehicle, depotLink, dispatchRouter);
 			} else {
 				throw new IllegalStateException();
 			}
@@ -220,6 +298,7 @@ final class PFAVScheduler {
 					timer.getTimeOfDay()));
 //			log.info("request is rejected");
 		}
+		metrics.requestServed(1, System.nanoTime() - dispatchStart);
 	}
 
 	private void endFreightTour(DvrpVehicle vehicle) {
@@ -286,16 +365,7 @@ final class PFAVScheduler {
 		Task previousTask = tourData.getAccessDriveTask();
 		for (Task currentTask : tourActivities) {
 			if (pfavConfigGroup.isReRouteTours() && currentTask instanceof DriveTask) {
-				DriveTask originalDriveTask = (DriveTask) currentTask;
-				VrpPathWithTravelData path = VrpPaths.calcAndCreatePath(originalDriveTask.getPath().getFromLink(), originalDriveTask.getPath().getToLink(),
-						previousTask.getEndTime(), this.router, this.travelTime);
-				if (originalDriveTask instanceof TaxiEmptyDriveTask) {
-					currentTask = new TaxiEmptyDriveTask(path, (TaxiTaskType) originalDriveTask.getTaskType());
-				} else if (originalDriveTask instanceof PFAVServiceDriveTask) {
-					currentTask = new PFAVServiceDriveTask(path);
-				} else {
-					throw new IllegalStateException();
-				}
+				currentTask = tourReRouter.reRoute((DriveTask) currentTask, previousTask.getEndTime(), this.dispatchRouter);
 			} else {
 				setAttributesForTask(vehicle, currentTask, previousTask);
 			}
@@ -306,8 +376,9 @@ final class PFAVScheduler {
 
 	private double scheduleReturnToOwnerAndGetDistance(PFAVehicle vehicle, Schedule schedule, StayTask previousTask) {
 		Link returnLink = getReturnLink(vehicle);
-		VrpPathWithTravelData pathBackToOwner = VrpPaths.calcAndCreatePath(previousTask.getLink(), returnLink,
-				previousTask.getEndTime(), router, travelTime);
+		//the manager might have routed this path already when it checked the tour, see StepPathCache
+		VrpPathWithTravelData pathBackToOwner = stepPathCache.calcAndCreatePath(previousTask.getLink(), returnLink,
+				previousTask.getEndTime(), dispatchRouter);
 		TaxiEmptyDriveTask returnDriveTask = new TaxiEmptyDriveTask(pathBackToOwner, PFAVTaskTypes.EGRESS_FROM_DEPOT);
 		schedule.addTask(returnDriveTask);
 		return VrpPaths.calcDistance(pathBackToOwner);
@@ -344,6 +415,8 @@ final class PFAVScheduler {
 			//vehicle requested freight tour after passenger dropoff
 			//remove the stay task at the owner's activity location
 			schedule.removeLastTask();
+		} else if (currentTask instanceof TaxiStayTask) {
+			//batched dispatch: the vehicle waited at the owner's activity location. the stay task already ends now, so nothing is removed
 		} else if (currentTask instanceof TaxiEmptyDriveTask) {
 			schedule.removeLastTask();    //retool task at depot
 			schedule.removeLastTask();    //empty drive to owner's location
@@ -353,7 +426,7 @@ final class PFAVScheduler {
 			schedule.removeLastTask();    //stay at owner's location
 		} else {
 			throw new IllegalStateException(
-					"if a freight tour shall be inserted the current task has to be DROPOFF, PFAVRetool or EMPTY_DRIVE. That is not the case for vehicle "
+					"if a freight tour shall be inserted the current task has to be DROPOFF, STAY, PFAVRetool or EMPTY_DRIVE. That is not the case for vehicle "
 							+ vehicle.getId()
 							+ " at time "
 							+ timer.getTimeOfDay());
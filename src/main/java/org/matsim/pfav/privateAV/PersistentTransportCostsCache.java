@@ -0,0 +1,545 @@
+/* *********************************************************************** *
+ * project: org.matsim.*												   *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2008 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package org.matsim.pfav.privateAV;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import org.apache.log4j.Logger;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.contrib.freight.jsprit.NetworkBasedTransportCosts;
+import org.matsim.core.network.NetworkChangeEvent;
+import org.matsim.core.network.NetworkUtils;
+import org.matsim.core.router.FastDijkstraFactory;
+import org.matsim.core.router.util.LeastCostPathCalculator;
+import org.matsim.core.router.util.LeastCostPathCalculatorFactory;
+import org.matsim.core.router.util.TravelDisutility;
+import org.matsim.core.router.util.TravelTime;
+import org.matsim.vehicles.VehicleType;
+
+import com.graphhopper.jsprit.core.problem.Location;
+import com.graphhopper.jsprit.core.problem.cost.VehicleRoutingTransportCosts;
+import com.graphhopper.jsprit.core.problem.driver.Driver;
+import com.graphhopper.jsprit.core.problem.vehicle.Vehicle;
+
+/**
+ * drop-in replacement for {@link NetworkBasedTransportCosts} as routing costs of a jsprit {@link com.graphhopper.jsprit.core.problem.VehicleRoutingProblem},
+ * which keeps the travel times, costs and distances between locations on disk. repeated runs on the same network with the same travel times thus
+ * (almost) do not need to route at all.
+ * <p>
+ * the values are stored per location pair, time slice and vehicle type. values that are not in the cache are taken from the delegate (for a
+ * departure at the beginning of the time slice) and written to disk with {@link #save()}. departures after 30 hours share the last time slice.
+ * <p>
+ * the delegate is built by the cache, with a router that looks up the least cost paths in the cache as well (per node pair, time slice and vehicle
+ * type, again computed for a departure at the beginning of the time slice). so {@link org.matsim.contrib.freight.jsprit.NetworkRouter#routePlan}
+ * with {@link #getDelegate()} routes the carrier plans on the cached paths.
+ * <p>
+ * the file name contains a hash of the network, the travel time id, the time slice width and the vehicle types. so, as soon as any of these changes,
+ * a different file is used. the travel times themselves are not evaluated, as that would cost a query per link and time slice in every run. they are
+ * identified by the id that the caller passes instead, see {@link #FREE_SPEED_TRAVEL_TIME_ID}.
+ * <p>
+ * the file is read into memory at once and closed, so {@link #save()} can replace it (a memory mapped file could not be replaced on windows).
+ * the entries are sorted, so that they can be looked up by binary search without building a map of them.
+ *
+ * @author tschlenther
+ */
+public final class PersistentTransportCostsCache implements VehicleRoutingTransportCosts {
+
+    private static final Logger log = Logger.getLogger(PersistentTransportCostsCache.class);
+
+    /**
+     * travel time id of {@link org.matsim.core.trafficmonitoring.FreeSpeedTravelTime}, which follows from the network (incl. it's network change events)
+     */
+    public static final String FREE_SPEED_TRAVEL_TIME_ID = "freespeed";
+
+    private static final int MAGIC = 0x50464156;
+    private static final int VERSION = 2;
+    //later departures share the last time slice. jsprit asks for times up to Integer.MAX_VALUE (open time windows and vehicle latest ends)
+    private static final double MAX_TIME = 30 * 3600;
+    //bits of the time slice and the vehicle type index in EntryKey
+    private static final int MAX_TIME_SLICE = (1 << 16) - 1;
+    private static final int MAX_VEHICLE_TYPE_INDEX = (1 << 15) - 1;
+
+    //long key (from, to), int key (vehicle type, direction, time slice), travel time, costs, distance
+    private static final int ENTRY_SIZE = Long.BYTES + Integer.BYTES + 3 * Double.BYTES;
+    private static final int TIME = 0;
+    private static final int COSTS = 1;
+    private static final int DISTANCE = 2;
+
+    private final Network network;
+    private final NetworkBasedTransportCosts delegate;
+    private final int timeSliceWidth;
+    private final int lastTimeSlice;
+    private final long key;
+    private final Path file;
+
+    //indices of the ids, shared by the file and the entries and paths that were added in this run
+    private final IdIndex locationIndex = new IdIndex();
+    private final IdIndex vehicleTypeIndex = new IdIndex();
+    private final IdIndex nodeIndex = new IdIndex();
+    private final IdIndex linkIndex = new IdIndex();
+    private final ByteBuffer entries;
+    private final int entriesStart;
+    private final int numberOfEntries;
+    private final Map<EntryKey, double[]> newEntries = new ConcurrentHashMap<>();
+    //the paths of the file and the new ones, keyed by node pair, vehicle type and time slice
+    private final Map<EntryKey, LeastCostPathCalculator.Path> paths = new ConcurrentHashMap<>();
+    private final AtomicInteger numberOfNewPaths = new AtomicInteger();
+
+    private PersistentTransportCostsCache(NetworkBasedTransportCosts.Builder delegateBuilder, Network network, int timeSliceWidth, long key, Path file) {
+        if (timeSliceWidth <= 0) throw new IllegalArgumentException("time slice width must be positive");
+        this.lastTimeSlice = (int) (MAX_TIME / timeSliceWidth);
+        if (lastTimeSlice > MAX_TIME_SLICE) throw new IllegalArgumentException("time slice width " + timeSliceWidth + " is too small for the cache");
+        this.network = network;
+        this.timeSliceWidth = timeSliceWidth;
+        this.key = key;
+        this.file = file;
+        if (!Files.exists(file)) {
+            this.entries = null;
+            this.entriesStart = 0;
+            this.numberOfEntries = 0;
+        } else {
+            try {
+                this.entries = ByteBuffer.wrap(Files.readAllBytes(file));
+            } catch (IOException e) {
+                throw new UncheckedIOException("could not read transport costs cache " + file, e);
+            }
+            if (entries.getInt(0) != MAGIC || entries.getInt(4) != VERSION || entries.getLong(8) != key) {
+                throw new IllegalStateException(file + " is not a transport costs cache of version " + VERSION + " with key " + Long.toHexString(key));
+            }
+            int position = locationIndex.read(entries, 16);
+            position = vehicleTypeIndex.read(entries, position);
+            position = nodeIndex.read(entries, position);
+            position = linkIndex.read(entries, position);
+            this.numberOfEntries = entries.getInt(position);
+            this.entriesStart = position + Integer.BYTES;
+            readPaths(entriesStart + numberOfEntries * ENTRY_SIZE);
+            log.info("loaded " + numberOfEntries + " transport cost entries and " + paths.size() + " paths from " + file);
+        }
+        delegateBuilder.setThreadSafeLeastCostPathCalculatorFactory(new CachingPathCalculatorFactory(new FastDijkstraFactory()));
+        this.delegate = delegateBuilder.build();
+    }
+
+    /**
+     * builds the delegate from the given builder, which needs to be configured with the same time slice width and travel time.
+     *
+     * @param cacheDirectory directory that contains the cache files. the file matching the network, travel times and vehicle types is loaded if it exists.
+     * @param travelTimeId identifies the travel times the builder was configured with. the caller is responsible for passing a different id whenever
+     *                     the travel times differ, e.g. {@link #FREE_SPEED_TRAVEL_TIME_ID} for free speed travel times.
+     */
+    public static PersistentTransportCostsCache load(Path cacheDirectory, NetworkBasedTransportCosts.Builder delegateBuilder, Network network,
+                                                     String travelTimeId, Collection<VehicleType> vehicleTypes, int timeSliceWidth) {
+        long key = calcKey(network, travelTimeId, vehicleTypes, timeSliceWidth);
+        return new PersistentTransportCostsCache(delegateBuilder, network, timeSliceWidth, key,
+                cacheDirectory.resolve("transportCosts_" + Long.toHexString(key) + ".bin"));
+    }
+
+    /**
+     * the transport costs that the cache is filled from. it's router takes the paths from the cache, so it can be passed to
+     * {@link org.matsim.contrib.freight.jsprit.NetworkRouter#routePlan}.
+     */
+    public NetworkBasedTransportCosts getDelegate() {
+        return delegate;
+    }
+
+    @Override
+    public double getTransportTime(Location from, Location to, double departureTime, Driver driver, Vehicle vehicle) {
+        return getEntry(from, to, departureTime, vehicle, false)[TIME];
+    }
+
+    @Override
+    public double getBackwardTransportTime(Location from, Location to, double arrivalTime, Driver driver, Vehicle vehicle) {
+        return getEntry(from, to, arrivalTime, vehicle, true)[TIME];
+    }
+
+    @Override
+    public double getTransportCost(Location from, Location to, double departureTime, Driver driver, Vehicle vehicle) {
+        return getEntry(from, to, departureTime, vehicle, false)[COSTS];
+    }
+
+    @Override
+    public double getBackwardTransportCost(Location from, Location to, double arrivalTime, Driver driver, Vehicle vehicle) {
+        return getEntry(from, to, arrivalTime, vehicle, true)[COSTS];
+    }
+
+    @Override
+    public double getDistance(Location from, Location to, double departureTime, Vehicle vehicle) {
+        return getEntry(from, to, departureTime, vehicle, false)[DISTANCE];
+    }
+
+    private double[] getEntry(Location from, Location to, double time, Vehicle vehicle, boolean backward) {
+        int timeSlice = getTimeSlice(time);
+        EntryKey key = new EntryKey(locationIndex.getIndex(from.getId()), locationIndex.getIndex(to.getId()),
+                vehicleTypeIndex.getIndex(vehicle.getType().getTypeId()), backward, timeSlice);
+        double[] values = findInFile(key);
+        if (values != null) return values;
+        return newEntries.computeIfAbsent(key, k -> {
+            double sliceStart = (double) timeSlice * timeSliceWidth;
+            if (backward) {
+                return new double[]{delegate.getBackwardTransportTime(from, to, sliceStart, null, vehicle),
+                        delegate.getBackwardTransportCost(from, to, sliceStart, null, vehicle),
+                        delegate.getDistance(from, to, sliceStart, vehicle)};
+            }
+            return new double[]{delegate.getTransportTime(from, to, sliceStart, null, vehicle),
+                    delegate.getTransportCost(from, to, sliceStart, null, vehicle),
+                    delegate.getDistance(from, to, sliceStart, vehicle)};
+        });
+    }
+
+    /**
+     * the time slice of the given time, clamped to [0, MAX_TIME / timeSliceWidth], so that it fits into the 16 bits of the {@link EntryKey}
+     */
+    int getTimeSlice(double time) {
+        if (!(time > 0)) return 0;
+        return (int) Math.min(time / timeSliceWidth, lastTimeSlice);
+    }
+
+    private double[] findInFile(EntryKey key) {
+        int low = 0;
+        int high = numberOfEntries - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int position = entriesStart + mid * ENTRY_SIZE;
+            int comparison = Long.compare(entries.getLong(position), key.locations);
+            if (comparison == 0) comparison = Integer.compare(entries.getInt(position + Long.BYTES), key.slice);
+            if (comparison < 0) {
+                low = mid + 1;
+            } else if (comparison > 0) {
+                high = mid - 1;
+            } else {
+                int valuesPosition = position + Long.BYTES + Integer.BYTES;
+                return new double[]{entries.getDouble(valuesPosition),
+                        entries.getDouble(valuesPosition + Double.BYTES),
+                        entries.getDouble(valuesPosition + 2 * Double.BYTES)};
+            }
+        }
+        return null;
+    }
+
+    private LeastCostPathCalculator.Path getPath(Node fromNode, Node toNode, double time, org.matsim.vehicles.Vehicle vehicle, LeastCostPathCalculator router) {
+        int timeSlice = getTimeSlice(time);
+        String vehicleTypeId = vehicle == null ? "" : vehicle.getType().getId().toString();
+        EntryKey key = new EntryKey(nodeIndex.getIndex(fromNode.getId().toString()), nodeIndex.getIndex(toNode.getId().toString()),
+                vehicleTypeIndex.getIndex(vehicleTypeId), false, timeSlice);
+        LeastCostPathCalculator.Path path = paths.computeIfAbsent(key, k -> {
+            numberOfNewPaths.incrementAndGet();
+            LeastCostPathCalculator.Path newPath = router.calcLeastCostPath(fromNode, toNode, (double) timeSlice * timeSliceWidth, null, vehicle);
+            return new LeastCostPathCalculator.Path(Collections.unmodifiableList(new ArrayList<>(newPath.nodes)), Collections.unmodifiableList(new ArrayList<>(newPath.links)),
+                    newPath.travelTime, newPath.travelCost);
+        });
+        //the callers may modify the path object, but not it's lists
+        return new LeastCostPathCalculator.Path(path.nodes, path.links, path.travelTime, path.travelCost);
+    }
+
+    /**
+     * per path: long key (from node, to node), int key (vehicle type, time slice), travel time, travel cost, number of links, link indices
+     */
+    private void readPaths(int position) {
+        List<String> nodeIds = nodeIndex.getIds();
+        List<String> linkIds = linkIndex.getIds();
+        int numberOfPaths = entries.getInt(position);
+        position += Integer.BYTES;
+        for (int i = 0; i < numberOfPaths; i++) {
+            EntryKey key = new EntryKey(entries.getLong(position), entries.getInt(position + Long.BYTES));
+            position += Long.BYTES + Integer.BYTES;
+            double travelTime = entries.getDouble(position);
+            double travelCost = entries.getDouble(position + Double.BYTES);
+            int numberOfLinks = entries.getInt(position + 2 * Double.BYTES);
+            position += 2 * Double.BYTES + Integer.BYTES;
+            List<Link> links = new ArrayList<>(numberOfLinks);
+            for (int j = 0; j < numberOfLinks; j++) {
+                links.add(network.getLinks().get(Id.createLinkId(linkIds.get(entries.getInt(position)))));
+                position += Integer.BYTES;
+            }
+            List<Node> nodes = new ArrayList<>(numberOfLinks + 1);
+            if (links.isEmpty()) {
+                nodes.add(network.getNodes().get(Id.createNodeId(nodeIds.get((int) (key.locations >>> 32)))));
+            } else {
+                nodes.add(links.get(0).getFromNode());
+                for (Link link : links) {
+                    nodes.add(link.getToNode());
+                }
+            }
+            paths.put(key, new LeastCostPathCalculator.Path(Collections.unmodifiableList(nodes), Collections.unmodifiableList(links), travelTime, travelCost));
+        }
+    }
+
+    /**
+     * writes the entries and paths of the file together with the new ones of this run into the cache file. does nothing if there are no new ones.
+     */
+    public void save() {
+        if (newEntries.isEmpty() && numberOfNewPaths.get() == 0) return;
+        Map<EntryKey, double[]> allEntries = new HashMap<>(newEntries);
+        for (int i = 0; i < numberOfEntries; i++) {
+            int position = entriesStart + i * ENTRY_SIZE;
+            int valuesPosition = position + Long.BYTES + Integer.BYTES;
+            allEntries.put(new EntryKey(entries.getLong(position), entries.getInt(position + Long.BYTES)),
+                    new double[]{entries.getDouble(valuesPosition),
+                            entries.getDouble(valuesPosition + Double.BYTES),
+                            entries.getDouble(valuesPosition + 2 * Double.BYTES)});
+        }
+        Comparator<EntryKey> keyOrder = Comparator.comparingLong((EntryKey k) -> k.locations).thenComparingInt(k -> k.slice);
+        List<EntryKey> sortedKeys = allEntries.keySet().stream().sorted(keyOrder).collect(Collectors.toList());
+        List<EntryKey> sortedPathKeys = paths.keySet().stream().sorted(keyOrder).collect(Collectors.toList());
+        //the link indices need to be assigned before the index is written
+        Map<EntryKey, int[]> pathLinks = new HashMap<>();
+        for (EntryKey key : sortedPathKeys) {
+            pathLinks.put(key, paths.get(key).links.stream().mapToInt(link -> linkIndex.getIndex(link.getId().toString())).toArray());
+        }
+        try {
+            Files.createDirectories(file.getParent());
+            Path tmpFile = Files.createTempFile(file.getParent(), "transportCosts", ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmpFile)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(key);
+                locationIndex.write(out);
+                vehicleTypeIndex.write(out);
+                nodeIndex.write(out);
+                linkIndex.write(out);
+                out.writeInt(sortedKeys.size());
+                for (EntryKey key : sortedKeys) {
+                    double[] values = allEntries.get(key);
+                    out.writeLong(key.locations);
+                    out.writeInt(key.slice);
+                    out.writeDouble(values[TIME]);
+                    out.writeDouble(values[COSTS]);
+                    out.writeDouble(values[DISTANCE]);
+                }
+                out.writeInt(sortedPathKeys.size());
+                for (EntryKey key : sortedPathKeys) {
+                    LeastCostPathCalculator.Path path = paths.get(key);
+                    int[] links = pathLinks.get(key);
+                    out.writeLong(key.locations);
+                    out.writeInt(key.slice);
+                    out.writeDouble(path.travelTime);
+                    out.writeDouble(path.travelCost);
+                    out.writeInt(links.length);
+                    for (int link : links) {
+                        out.writeInt(link);
+                    }
+                }
+            }
+            try {
+                Files.move(tmpFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmpFile, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("could not write transport costs cache " + file, e);
+        }
+        log.info("wrote " + sortedKeys.size() + " transport cost entries (" + newEntries.size() + " new ones) and " + sortedPathKeys.size() + " paths ("
+                + numberOfNewPaths.get() + " new ones) to " + file);
+    }
+
+    /**
+     * FNV-1a hash over the network, the travel time id and the vehicle types. the network is hashed with one pass over it's links and it's
+     * network change events, which is cheap compared to a single route search.
+     */
+    private static long calcKey(Network network, String travelTimeId, Collection<VehicleType> vehicleTypes, int timeSliceWidth) {
+        Hash hash = new Hash();
+        hash.add(timeSliceWidth);
+        hash.add(travelTimeId);
+        List<Link> links = network.getLinks().values().stream()
+                .sorted(Comparator.comparing(link -> link.getId().toString()))
+                .collect(Collectors.toList());
+        for (Link link : links) {
+            hash.add(link.getId().toString());
+            hash.add(link.getFromNode().getId().toString());
+            hash.add(link.getToNode().getId().toString());
+            hash.add(link.getLength());
+            hash.add(link.getFreespeed());
+        }
+        for (NetworkChangeEvent event : NetworkUtils.getNetworkChangeEvents(network)) {
+            if (event.getFreespeedChange() == null) continue;
+            hash.add(event.getStartTime());
+            hash.add(event.getFreespeedChange().getType().toString());
+            hash.add(event.getFreespeedChange().getValue());
+            for (Link link : event.getLinks()) {
+                hash.add(link.getId().toString());
+            }
+        }
+        List<VehicleType> types = vehicleTypes.stream()
+                .sorted(Comparator.comparing(type -> type.getId().toString()))
+                .collect(Collectors.toList());
+        for (VehicleType type : types) {
+            hash.add(type.getId().toString());
+            hash.add(type.getMaximumVelocity());
+            hash.add(type.getCostInformation().getFixedCosts());
+            hash.add(type.getCostInformation().getCostsPerMeter());
+            hash.add(type.getCostInformation().getCostsPerSecond());
+        }
+        return hash.value;
+    }
+
+    /**
+     * creates the routers of the delegate. they look the paths up in the cache and only search the missing ones.
+     */
+    private final class CachingPathCalculatorFactory implements LeastCostPathCalculatorFactory {
+        private final LeastCostPathCalculatorFactory routerFactory;
+
+        private CachingPathCalculatorFactory(LeastCostPathCalculatorFactory routerFactory) {
+            this.routerFactory = routerFactory;
+        }
+
+        @Override
+        public LeastCostPathCalculator createPathCalculator(Network network, TravelDisutility travelCosts, TravelTime travelTimes) {
+            LeastCostPathCalculator router = routerFactory.createPathCalculator(network, travelCosts, travelTimes);
+            return new LeastCostPathCalculator() {
+                @Override
+                public LeastCostPathCalculator.Path calcLeastCostPath(Node fromNode, Node toNode, double starttime, Person person, org.matsim.vehicles.Vehicle vehicle) {
+                    return getPath(fromNode, toNode, starttime, vehicle, router);
+                }
+            };
+        }
+    }
+
+    private static final class Hash {
+        private long value = 0xcbf29ce484222325L;
+
+        private void add(long bits) {
+            for (int i = 0; i < Long.BYTES; i++) {
+                value ^= (bits >>> (8 * i)) & 0xff;
+                value *= 0x100000001b3L;
+            }
+        }
+
+        private void add(double number) {
+            add(Double.doubleToLongBits(number));
+        }
+
+        private void add(Double number) {
+            add(number == null ? Double.NaN : number);
+        }
+
+        private void add(String string) {
+            for (byte b : string.getBytes(StandardCharsets.UTF_8)) {
+                value ^= b & 0xff;
+                value *= 0x100000001b3L;
+            }
+            add(string.length());
+        }
+    }
+
+    private static final class IdIndex {
+        private final Map<String, Integer> idToIndex = new ConcurrentHashMap<>();
+
+        private int getIndex(String id) {
+            //indices of new ids are assigned in the order of their first occurrence. the synchronization is only needed for those
+            Integer index = idToIndex.get(id);
+            if (index != null) return index;
+            synchronized (idToIndex) {
+                return idToIndex.computeIfAbsent(id, i -> idToIndex.size());
+            }
+        }
+
+        /**
+         * @return the position after the ids
+         */
+        private int read(ByteBuffer buffer, int position) {
+            int numberOfIds = buffer.getInt(position);
+            position += Integer.BYTES;
+            for (int i = 0; i < numberOfIds; i++) {
+                int length = buffer.getInt(position);
+                byte[] bytes = new byte[length];
+                ByteBuffer slice = buffer.duplicate();
+                slice.position(position + Integer.BYTES);
+                slice.get(bytes);
+                idToIndex.put(new String(bytes, StandardCharsets.UTF_8), i);
+                position += Integer.BYTES + length;
+            }
+            return position;
+        }
+
+        /**
+         * @return the ids in the order of their indices
+         */
+        private List<String> getIds() {
+            List<String> ids = new ArrayList<>(idToIndex.keySet());
+            ids.sort(Comparator.comparingInt(idToIndex::get));
+            return ids;
+        }
+
+        private void write(DataOutputStream out) throws IOException {
+            List<String> ids = getIds();
+            out.writeInt(ids.size());
+            for (String id : ids) {
+                byte[] bytes = id.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+        }
+    }
+
+    private static final class EntryKey {
+        private final long locations;
+        //vehicle type index (15 bits), backward flag (1 bit) and time slice (16 bits)
+        private final int slice;
+
+        private EntryKey(int fromIndex, int toIndex, int vehicleTypeIndex, boolean backward, int timeSlice) {
+            this(((long) fromIndex << 32) | (toIndex & 0xffffffffL), packSlice(vehicleTypeIndex, backward, timeSlice));
+        }
+
+        private static int packSlice(int vehicleTypeIndex, boolean backward, int timeSlice) {
+            if (vehicleTypeIndex > MAX_VEHICLE_TYPE_INDEX) throw new IllegalStateException("too many vehicle types for the cache");
+            if (timeSlice < 0 || timeSlice > MAX_TIME_SLICE) throw new IllegalArgumentException("time slice " + timeSlice + " out of range");
+            return (vehicleTypeIndex << 17) | ((backward ? 1 : 0) << 16) | timeSlice;
+        }
+
+        private EntryKey(long locations, int slice) {
+            this.locations = locations;
+            this.slice = slice;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof EntryKey)) return false;
+            EntryKey other = (EntryKey) o;
+            return locations == other.locations && slice == other.slice;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Long.hashCode(locations) + slice;
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/* *********************************************************************** *
+ * project: org.matsim.*												   *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2008 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package org.matsim.pfav.privateAV;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.contrib.dvrp.path.VrpPaths;
+import org.matsim.core.router.util.LeastCostPathCalculator;
+import org.matsim.core.router.util.TravelTime;
+
+/**
+ * caches the travel time from a depot back to a PFAV owner's location, per departure time bin. the feasibility check in the
+ * {@link FreightTourManagerListBasedImpl} needs this travel time for every candidate tour, and as the tours of one depot mostly
+ * end in the same time bin, the same shortest path problem would otherwise be solved over and over again.
+ * <p>
+ * the cached value is the travel time for a departure at the beginning of the time bin, so the result does not depend on the
+ * order of the requests. with rising congestion, that underestimates the travel time, so the binning is off by default
+ * (see {@link FreightAVConfigGroup#RETURN_PATH_CACHE_TIME_BIN_SIZE}). the cache needs to be cleared whenever the estimated travel times change,
+ * i.e. at iteration start.
+ * <p>
+ * the cache may be used by several threads at once, each with it's own router. two threads might then route the same entry, but as the result does
+ * not depend on the order, it does not matter which one ends up in the cache.
+ *
+ * @author tschlenther
+ */
+final class ReturnTravelTimeCache {
+
+    private final int timeBinSize;
+    private final Map<Key, Double> travelTimes = new ConcurrentHashMap<>();
+
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder routerCalls = new LongAdder();
+
+    /**
+     * @param timeBinSize width of the departure time bins in seconds. a value <= 0 disables caching, the travel time is then computed for every request.
+     */
+    ReturnTravelTimeCache(int timeBinSize) {
+        this.timeBinSize = timeBinSize;
+    }
+
+    /**
+     * @param stepPathCache if not null, the travel time is routed via this cache, so that the scheduler can reuse the route. may be null.
+     */
+    double getTravelTime(Link depotLink, Link ownerLink, double departureTime, LeastCostPathCalculator router, TravelTime travelTime,
+                         StepPathCache stepPathCache) {
+        requests.increment();
+        if (timeBinSize <= 0) {
+            routerCalls.increment();
+            return calcTravelTime(depotLink, ownerLink, departureTime, router, travelTime, stepPathCache);
+        }
+        int timeBin = (int) (departureTime / timeBinSize);
+        Key key = new Key(depotLink.getId(), ownerLink.getId(), timeBin);
+        //no computeIfAbsent, as that would block other threads while routing
+        Double cachedTravelTime = travelTimes.get(key);
+        if (cachedTravelTime != null) return cachedTravelTime;
+        routerCalls.increment();
+        double routedTravelTime = calcTravelTime(depotLink, ownerLink, (double) timeBin * timeBinSize, router, travelTime, stepPathCache);
+        travelTimes.putIfAbsent(key, routedTravelTime);
+        return routedTravelTime;
+    }
+
+    private static double calcTravelTime(Link depotLink, Link ownerLink, double departureTime, LeastCostPathCalculator router, TravelTime travelTime,
+                                         StepPathCache stepPathCache) {
+        if (stepPathCache != null) return stepPathCache.calcAndCreatePath(depotLink, ownerLink, departureTime, router).getTravelTime();
+        return VrpPaths.calcAndCreatePath(depotLink, ownerLink, departureTime, router, travelTime).getTravelTime();
+    }
+
+    void clear() {
+        travelTimes.clear();
+        requests.reset();
+        routerCalls.reset();
+    }
+
+    long getNumberOfRequests() {
+        return requests.sum();
+    }
+
+    long getNumberOfRouterCalls() {
+        return routerCalls.sum();
+    }
+
+    private static final class Key {
+        private final Id<Link> depotLinkId;
+        private final Id<Link> ownerLinkId;
+        private final int timeBin;
+
+        private Key(Id<Link> depotLinkId, Id<Link> ownerLinkId, int timeBin) {
+            this.depotLinkId = depotLinkId;
+            this.ownerLinkId = ownerLinkId;
+            this.timeBin = timeBin;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key other = (Key) o;
+            return timeBin == other.timeBin && depotLinkId.equals(other.depotLinkId) && ownerLinkId.equals(other.ownerLinkId);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(depotLinkId, ownerLinkId, timeBin);
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/* *********************************************************************** *
+ * project: org.matsim.*												   *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2008 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package org.matsim.pfav.privateAV;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.contrib.dvrp.path.VrpPathWithTravelData;
+import org.matsim.contrib.dvrp.path.VrpPaths;
+import org.matsim.core.router.util.LeastCostPathCalculator;
+import org.matsim.core.router.util.LeastCostPathCalculator.Path;
+import org.matsim.core.router.util.TravelTime;
+
+/**
+ * routes that were computed within the current mobsim step, shared by the {@link FreightTourManagerListBasedImpl} and the {@link PFAVScheduler}.
+ * the manager routes the path back to the owner in order to check whether a tour fits, departing at the planned end of the tour. the scheduler
+ * routes the same origin destination pair again when it builds the schedule of the accepted tour, departing at the end of the scheduled tour.
+ * the route is shared only if both departures map to the same key, which is the case if the vehicle starts the tour as planned. the travel
+ * times that the manager takes from the bins of the {@link ReturnTravelTimeCache} are not routed here at all, so the scheduler does not find
+ * those. the number of requests and router calls are logged at iteration end, so the actual share can be seen there.
+ * <p>
+ * routes are cached per from link, to link and departure time. with the default time bin size of 0 (see
+ * {@link FreightAVConfigGroup#STEP_PATH_CACHE_TIME_BIN_SIZE}), the departure needs to match exactly, so the schedule contains the same paths as
+ * without this cache. with a positive bin size, routes are computed for a departure at the beginning of the bin and the travel times of the
+ * returned path are computed for the actual departure time along that route.
+ * <p>
+ * the cache needs to be cleared at every mobsim step. it may be used by several threads at once, each with it's own router.
+ *
+ * @author tschlenther
+ */
+final class StepPathCache {
+
+    private final int timeBinSize;
+    private final TravelTime travelTime;
+    private final Map<Key, Path> routes = new ConcurrentHashMap<>();
+
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder routerCalls = new LongAdder();
+
+    StepPathCache(int timeBinSize, TravelTime travelTime) {
+        this.timeBinSize = timeBinSize;
+        this.travelTime = travelTime;
+    }
+
+    /**
+     * same as {@link VrpPaths#calcAndCreatePath(Link, Link, double, LeastCostPathCalculator, TravelTime)}, but the route is taken from the cache if possible
+     */
+    VrpPathWithTravelData calcAndCreatePath(Link fromLink, Link toLink, double departureTime, LeastCostPathCalculator router) {
+        if (fromLink == toLink) return VrpPaths.calcAndCreatePath(fromLink, toLink, departureTime, router, travelTime);
+        requests.increment();
+        double binStart = timeBinSize <= 0 ? departureTime : Math.floor(departureTime / timeBinSize) * timeBinSize;
+        Key key = new Key(fromLink.getId(), toLink.getId(), binStart);
+        //no computeIfAbsent, as that would block other threads while routing
+        Path route = routes.get(key);
+        if (route == null) {
+            routerCalls.increment();
+            route = router.calcLeastCostPath(fromLink.getToNode(), toLink.getFromNode(), binStart + VrpPaths.FIRST_LINK_TT, null, null);
+            routes.putIfAbsent(key, route);
+        }
+        return VrpPaths.createPath(fromLink, toLink, departureTime, route, travelTime);
+    }
+
+    void clear() {
+        routes.clear();
+    }
+
+    long getNumberOfRequests() {
+        return requests.sum();
+    }
+
+    long getNumberOfRouterCalls() {
+        return routerCalls.sum();
+    }
+
+    /**
+     * @return the share of requests that were served without routing, or 0 if there was no request
+     */
+    double getHitRate() {
+        long numberOfRequests = requests.sum();
+        return numberOfRequests == 0 ? 0 : (numberOfRequests - routerCalls.sum()) / (double) numberOfRequests;
+    }
+
+    private static final class Key {
+        private final Id<Link> fromLinkId;
+        private final Id<Link> toLinkId;
+        private final double binStart;
+
+        private Key(Id<Link> fromLinkId, Id<Link> toLinkId, double binStart) {
+            this.fromLinkId = fromLinkId;
+            this.toLinkId = toLinkId;
+            this.binStart = binStart;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key other = (Key) o;
+            return binStart == other.binStart && fromLinkId.equals(other.fromLinkId) && toLinkId.equals(other.toLinkId);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(fromLinkId, toLinkId, binStart);
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/* *********************************************************************** *
+ * project: org.matsim.*												   *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2008 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package org.matsim.pfav.privateAV;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.log4j.Logger;
+import org.matsim.api.core.v01.Id;
+import org.matsim.contrib.freight.carrier.Carrier;
+import org.matsim.contrib.freight.jsprit.MatsimJspritFactory;
+
+import com.graphhopper.jsprit.core.problem.Location;
+import com.graphhopper.jsprit.core.problem.VehicleRoutingProblem;
+import com.graphhopper.jsprit.core.problem.cost.VehicleRoutingTransportCosts;
+import com.graphhopper.jsprit.core.problem.solution.VehicleRoutingProblemSolution;
+import com.graphhopper.jsprit.core.problem.solution.route.VehicleRoute;
+import com.graphhopper.jsprit.core.problem.solution.route.activity.TourActivity;
+import com.graphhopper.jsprit.core.problem.vehicle.Vehicle;
+
+/**
+ * warm start of the tour planning in {@link FreightTourPlanning}. the selected plan of a carrier is the best solution of the last tour planning,
+ * so it is handed to jsprit as initial solution instead of starting from scratch.
+ * <p>
+ * in addition, the transport costs of that solution are remembered. if they hardly changed with the new travel times, the optimal tours will hardly
+ * change either, and jsprit only gets a reduced number of iterations.
+ * <p>
+ * only carriers that have been planned by this instance before are warm started, as the selected plan of a carrier read from file might
+ * not match the carrier's services.
+ *
+ * @author tschlenther
+ */
+final class TourPlanningWarmStart {
+
+    private static final Logger log = Logger.getLogger(TourPlanningWarmStart.class);
+
+    private final double maxRelativeCostChange;
+    private final double reducedIterationsShare;
+
+    //transport costs of the best solution of each carrier, evaluated with the travel times it was planned with
+    private final Map<Id<Carrier>, Double> bestSolutionCosts = new ConcurrentHashMap<>();
+
+    TourPlanningWarmStart(FreightAVConfigGroup pfavConfigGroup) {
+        this.maxRelativeCostChange = pfavConfigGroup.getWarmStartMaxRelativeCostChange();
+        this.reducedIterationsShare = pfavConfigGroup.getWarmStartIterationShare();
+    }
+
+    /**
+     * @return the previous best solution of the carrier, converted to the given problem, or null if the carrier has not been planned before
+     */
+    VehicleRoutingProblemSolution createInitialSolution(Carrier carrier, VehicleRoutingProblem problem) {
+        if (!bestSolutionCosts.containsKey(carrier.getId()) || carrier.getSelectedPlan() == null) return null;
+        return MatsimJspritFactory.createSolution(carrier.getSelectedPlan(), problem);
+    }
+
+    /**
+     * @return the number of jsprit iterations for the carrier. this is the reduced budget if the transport costs of the initial solution changed
+     * by no more than the configured share since the last planning.
+     */
+    int getNumberOfIterations(Carrier carrier, VehicleRoutingProblemSolution initialSolution, VehicleRoutingTransportCosts transportCosts, int maxIterations) {
+        if (initialSolution == null) return maxIterations;
+        double previousCosts = bestSolutionCosts.get(carrier.getId());
+        double currentCosts = calcTransportCosts(initialSolution, transportCosts);
+        double relativeChange = previousCosts == 0 ? Double.POSITIVE_INFINITY : Math.abs(currentCosts - previousCosts) / previousCosts;
+        if (relativeChange <= maxRelativeCostChange) {
+            int iterations = Math.max(1, (int) Math.round(maxIterations * reducedIterationsShare));
+            log.info("transport costs of carrier " + carrier.getId() + " changed by " + relativeChange + ". running only " + iterations + " iterations");
+            return iterations;
+        }
+        return maxIterations;
+    }
+
+    void bestSolutionFound(Carrier carrier, VehicleRoutingProblemSolution bestSolution, VehicleRoutingTransportCosts transportCosts) {
+        bestSolutionCosts.put(carrier.getId(), calcTransportCosts(bestSolution, transportCosts));
+    }
+
+    /**
+     * sum of the fixed vehicle costs and the transport costs along the routes. waiting times due to time windows are neglected, as this is only used
+     * to compare the same routes under different travel times.
+     */
+    static double calcTransportCosts(VehicleRoutingProblemSolution solution, VehicleRoutingTransportCosts transportCosts) {
+        double costs = 0;
+        for (VehicleRoute route : solution.getRoutes()) {
+            Vehicle vehicle = route.getVehicle();
+            double time = vehicle.getEarliestDeparture();
+            Location previousLocation = vehicle.getStartLocation();
+            for (TourActivity activity : route.getActivities()) {
+                costs += transportCosts.getTransportCost(previousLocation, activity.getLocation(), time, route.getDriver(), vehicle);
+                time += transportCosts.getTransportTime(previousLocation, activity.getLocation(), time, route.getDriver(), vehicle) + activity.getOperationTime();
+                previousLocation = activity.getLocation();
+            }
+            if (vehicle.isReturnToDepot()) {
+                costs += transportCosts.getTransportCost(previousLocation, vehicle.getEndLocation(), time, route.getDriver(), vehicle);
+            }
+            costs += vehicle.getType().getVehicleCostParams().fix;
+        }
+        return costs;
+    }
+}
@@ -0,0 +1,119 @@
+/* *********************************************************************** *
+ * project: org.matsim.*												   *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2008 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package org.matsim.pfav.privateAV;
+
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.contrib.dvrp.path.VrpPathWithTravelData;
+import org.matsim.contrib.dvrp.path.VrpPathWithTravelDataImpl;
+import org.matsim.contrib.dvrp.path.VrpPaths;
+import org.matsim.contrib.dvrp.schedule.DriveTask;
+import org.matsim.contrib.taxi.schedule.TaxiEmptyDriveTask;
+import org.matsim.contrib.taxi.schedule.TaxiTaskType;
+import org.matsim.core.router.util.LeastCostPathCalculator;
+import org.matsim.core.router.util.TravelTime;
+
+/**
+ * re-routes the drives of a freight tour when the tour is dispatched, see {@link FreightAVConfigGroup#RE_ROUTE_TOURS}.
+ * <p>
+ * the route that the tour planning stored for a drive is first evaluated with the current travel times for the actual departure time. only if the
+ * resulting travel time differs from the one that was planned by more than the tolerance (see {@link FreightAVConfigGroup#RE_ROUTE_TOURS_TOLERANCE}),
+ * a new least cost path is searched for the exact departure time. with a negative tolerance, every drive is re-routed.
+ * <p>
+ * the drives of a tour are re-routed one by one. a search tree shared by drives that start at the same link would only be exact for one departure
+ * time, and within a tour such drives depart at different times anyway.
+ *
+ * @author tschlenther
+ */
+final class TourReRouter {
+
+    private final TravelTime travelTime;
+    private final double tolerance;
+    private final PFAVDispatchMetrics metrics;
+
+    TourReRouter(TravelTime travelTime, double tolerance, PFAVDispatchMetrics metrics) {
+        this.travelTime = travelTime;
+        this.tolerance = tolerance;
+        this.metrics = metrics;
+    }
+
+    /**
+     * @return a copy of the drive that departs at the given time, either on the stored route or on a new one
+     */
+    DriveTask reRoute(DriveTask originalDriveTask, double departureTime, LeastCostPathCalculator router) {
+        VrpPathWithTravelData originalPath = originalDriveTask.getPath();
+        VrpPathWithTravelData path = null;
+        if (tolerance >= 0) {
+            path = retimePath(originalPath, departureTime, travelTime);
+            if (Math.abs(path.getTravelTime() - getPlannedTravelTime(originalPath)) > tolerance) path = null;
+        }
+        if (path == null) {
+            path = VrpPaths.calcAndCreatePath(originalPath.getFromLink(), originalPath.getToLink(), departureTime, router, travelTime);
+            metrics.tourDriveReRouted();
+        } else {
+            metrics.tourDriveKept();
+        }
+
+        if (originalDriveTask instanceof TaxiEmptyDriveTask) {
+            return new TaxiEmptyDriveTask(path, (TaxiTaskType) originalDriveTask.getTaskType());
+        } else if (originalDriveTask instanceof PFAVServiceDriveTask) {
+            return new PFAVServiceDriveTask(path);
+        } else {
+            throw new IllegalStateException("can not re-route drive task of type " + originalDriveTask.getTaskType());
+        }
+    }
+
+    /**
+     * @return the travel time of the stored path, with the last link timed like in {@link #retimePath(VrpPathWithTravelData, double, TravelTime)}.
+     * the tour planning floors the travel time of the last link (see {@link FreightTourPlanning}), so an unchanged route would otherwise differ by up
+     * to a second from it's retimed copy.
+     */
+    static double getPlannedTravelTime(VrpPathWithTravelData path) {
+        int lastIndex = path.getLinkCount() - 1;
+        if (lastIndex == 0) return path.getTravelTime();
+        double lastLinkTT = path.getLinkTravelTime(lastIndex);
+        return path.getTravelTime() - lastLinkTT + VrpPaths.getLastLinkTT(path.getToLink(), path.getArrivalTime() - lastLinkTT);
+    }
+
+    /**
+     * @return the same route, with the link travel times of the given travel time for the given departure. the first and the last link are handled
+     * like in {@link VrpPaths#createPath(Link, Link, double, org.matsim.core.router.util.LeastCostPathCalculator.Path, TravelTime)}, so the result
+     * can be compared with the path of a new search.
+     */
+    static VrpPathWithTravelData retimePath(VrpPathWithTravelData path, double departureTime, TravelTime travelTime) {
+        int count = path.getLinkCount();
+        if (count == 1) return VrpPaths.createZeroLengthPath(path.getFromLink(), departureTime);
+
+        Link[] links = new Link[count];
+        double[] linkTTs = new double[count];
+        links[0] = path.getFromLink();
+        linkTTs[0] = VrpPaths.FIRST_LINK_TT;
+        double currentTime = departureTime + VrpPaths.FIRST_LINK_TT;
+        for (int i = 1; i < count - 1; i++) {
+            Link link = path.getLink(i);
+            links[i] = link;
+            linkTTs[i] = travelTime.getLinkTravelTime(link, currentTime, null, null);
+            currentTime += linkTTs[i];
+        }
+        Link lastLink = path.getToLink();
+        links[count - 1] = lastLink;
+        linkTTs[count - 1] = VrpPaths.getLastLinkTT(lastLink, currentTime);
+        double totalTT = (currentTime + linkTTs[count - 1]) - departureTime;
+        return new VrpPathWithTravelDataImpl(departureTime, totalTT, links, linkTTs);
+    }
+}
@@ -0,0 +1,83 @@
+/* *********************************************************************** *
+ * project: org.matsim.*												   *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2008 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package org.matsim.pfav.privateAV;
+
+import org.apache.log4j.Logger;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.core.router.util.TravelDisutility;
+import org.matsim.core.router.util.TravelTime;
+import org.matsim.vehicles.CostInformation;
+import org.matsim.vehicles.Vehicle;
+
+/**
+ * same costs as {@link VehTypeVariableTravelDisutility}, but computed beforehand for every link and time bin and stored in one array, indexed by
+ * link index and time bin. the travel time is evaluated at the beginning of each bin. for the offline travel time estimator of dvrp, which is
+ * constant within the bins of the travelTimeCalculator config group, this yields the same costs as {@link VehTypeVariableTravelDisutility}.
+ * departures after the last bin get the costs of the last bin.
+ * <p>
+ * the table is not modified after construction, so one instance can be shared by all routers and threads. as the estimated travel times change
+ * with every mobsim, the table needs to be rebuilt once per iteration (see {@link PFAVModeModule}).
+ * see {@link FreightAVConfigGroup#PRECOMPUTE_LINK_COSTS}.
+ *
+ * @author tschlenther
+ */
+final class VehTypeLinkCostTable implements TravelDisutility {
+
+    private static final Logger log = Logger.getLogger(VehTypeLinkCostTable.class);
+
+    private final CostInformation costInformation;
+    private final int timeBinSize;
+    private final int numberOfTimeBins;
+    //costs[linkIndex * numberOfTimeBins + timeBin]
+    private final double[] costs;
+
+    VehTypeLinkCostTable(Network network, TravelTime travelTime, CostInformation costInformation, int timeBinSize, double maxTime) {
+        this.costInformation = costInformation;
+        this.timeBinSize = timeBinSize;
+        this.numberOfTimeBins = (int) (maxTime / timeBinSize) + 1;
+        this.costs = new double[Math.multiplyExact(Id.getNumberOfIds(Link.class), numberOfTimeBins)];
+
+        long start = System.currentTimeMillis();
+        for (Link link : network.getLinks().values()) {
+            int offset = link.getId().index() * numberOfTimeBins;
+            double distanceCosts = costInformation.getCostsPerMeter() * link.getLength();
+            for (int bin = 0; bin < numberOfTimeBins; bin++) {
+                double tt = travelTime.getLinkTravelTime(link, bin * timeBinSize, null, null);
+                costs[offset + bin] = distanceCosts + costInformation.getCostsPerSecond() * tt;
+            }
+        }
+        log.info("computed link costs for " + network.getLinks().size() + " links and " + numberOfTimeBins + " time bins in "
+                + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    @Override
+    public double getLinkTravelDisutility(Link link, double time, Person person, Vehicle vehicle) {
+        int bin = Math.min(Math.max(0, (int) (time / timeBinSize)), numberOfTimeBins - 1);
+        return costs[link.getId().index() * numberOfTimeBins + bin];
+    }
+
+    @Override
+    public double getLinkMinimumTravelDisutility(Link link) {
+        double free_tt = link.getLength() / link.getFreespeed();
+        return costInformation.getCostsPerMeter() * link.getLength() + costInformation.getCostsPerSecond() * free_tt;
+    }
+}
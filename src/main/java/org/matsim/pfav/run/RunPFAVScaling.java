@@ -0,0 +1,183 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2018 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+package org.matsim.pfav.run;
+
+import org.apache.log4j.Logger;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.contrib.dvrp.run.DvrpConfigGroup;
+import org.matsim.contrib.dvrp.run.DvrpModule;
+import org.matsim.contrib.dvrp.run.DvrpQSimComponents;
+import org.matsim.contrib.freight.utils.FreightUtils;
+import org.matsim.contrib.taxi.run.MultiModeTaxiConfigGroup;
+import org.matsim.contrib.taxi.run.TaxiConfigGroup;
+import org.matsim.contrib.util.CSVLineBuilder;
+import org.matsim.contrib.util.CompactCSVWriter;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.controler.AbstractModule;
+import org.matsim.core.controler.Controler;
+import org.matsim.core.scenario.ScenarioUtils;
+import org.matsim.core.utils.io.IOUtils;
+import org.matsim.pfav.privateAV.FreightAVConfigGroup;
+import org.matsim.pfav.privateAV.PFAVModeModule;
+import org.matsim.pfav.scenarioCreation.SyntheticPFAVScenarioGenerator;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * runs PFAV scenarios of increasing size, created by the {@link SyntheticPFAVScenarioGenerator}, and records per scale point
+ * <ul>
+ * <li>the wall clock time of the whole run (tour planning, mobsim and analysis of 1 iteration),</li>
+ * <li>the wall clock time of the tour planning and the sum of the solve times of the carriers,</li>
+ * <li>the number of router calls and the time spent in the freight tour dispatch. the router calls of the tour planning are not counted.</li>
+ * <li>the peak heap usage.</li>
+ * </ul>
+ * all but the wall clock time and the peak heap are read from the dispatch metrics of iteration 0. the results are written to scaling.csv in the
+ * output directory, after each scale point. run every scale point in a fresh jvm (via the arguments) if the peak heap of the larger scale points
+ * should not be influenced by the smaller ones.
+ *
+ * @author tschlenther
+ */
+public class RunPFAVScaling {
+
+    private static final Logger log = Logger.getLogger(RunPFAVScaling.class);
+
+    private static final String OUTPUT_DIR = "output/pfavScaling/";
+
+    //grid size, number of owners, number of depots, number of services
+    private static final int[][] SCALE_POINTS = {
+            {20, 100, 5, 200},
+            {50, 1000, 20, 2000},
+            {100, 10000, 100, 20000},
+            {200, 50000, 400, 100000}
+    };
+
+    /**
+     * @param args either nothing, or the output directory, or the output directory followed by grid size, number of owners, number of depots and
+     *             number of services of a single scale point
+     */
+    public static void main(String[] args) {
+        String output = args.length > 0 ? args[0] : OUTPUT_DIR;
+        int[][] scalePoints = SCALE_POINTS;
+        if (args.length == 5) {
+            scalePoints = new int[][]{{Integer.parseInt(args[1]), Integer.parseInt(args[2]), Integer.parseInt(args[3]), Integer.parseInt(args[4])}};
+        } else if (args.length > 1) {
+            throw new IllegalArgumentException("arguments: [outputDirectory [gridSize numberOfOwners numberOfDepots numberOfServices]]");
+        }
+        output = output.endsWith("/") ? output : output + "/";
+
+        List<String[]> results = new ArrayList<>();
+        for (int[] scalePoint : scalePoints) {
+            results.add(runScalePoint(output, scalePoint[0], scalePoint[1], scalePoint[2], scalePoint[3]));
+            writeResults(output + "scaling.csv", results);
+        }
+    }
+
+    private static String[] runScalePoint(String output, int gridSize, int numberOfOwners, int numberOfDepots, int numberOfServices) {
+        String dir = output + "grid" + gridSize + "_owners" + numberOfOwners + "_depots" + numberOfDepots + "_services" + numberOfServices + "/";
+        String configFile = new SyntheticPFAVScenarioGenerator(gridSize, numberOfOwners, numberOfDepots, numberOfServices, 4711).writeScenario(dir);
+
+        Config config = ConfigUtils.loadConfig(configFile, new DvrpConfigGroup(), new MultiModeTaxiConfigGroup());
+        ConfigUtils.addOrGetModule(config, FreightAVConfigGroup.class);
+        String mode = TaxiConfigGroup.getSingleModeTaxiConfig(config).getMode();
+
+        resetPeakHeapUsage();
+        long start = System.nanoTime();
+
+        Scenario scenario = ScenarioUtils.loadScenario(config);
+        FreightUtils.loadCarriersAccordingToFreightConfig(scenario);
+        Controler controler = new Controler(scenario);
+        controler.addOverridingModule(new DvrpModule());
+        controler.addOverridingModule(new AbstractModule() {
+            @Override
+            public void install() {
+                install(new PFAVModeModule(mode, scenario));
+            }
+        });
+        controler.configureQSimComponents(DvrpQSimComponents.activateModes(mode));
+        controler.run();
+
+        double wallClockTime = (System.nanoTime() - start) / 1e9;
+        long peakHeapUsage = getPeakHeapUsage();
+        String metricsFile = config.controler().getOutputDirectory() + "/ITERS/it.0/FreightTourDispatchMetrics_it0.csv";
+        log.info("scale point " + dir + " took " + wallClockTime + " seconds, peak heap usage was " + peakHeapUsage / (1024 * 1024) + " MB");
+
+        return new String[]{
+                String.valueOf(gridSize),
+                String.valueOf(numberOfOwners),
+                String.valueOf(numberOfDepots),
+                String.valueOf(numberOfServices),
+                String.format("%.1f", wallClockTime),
+                readMetric(metricsFile, "TourPlanningTime[s]"),
+                readMetric(metricsFile, "CarrierSolveTime[s]"),
+                readMetric(metricsFile, "RouterCalls"),
+                readMetric(metricsFile, "DispatchTime[s]"),
+                String.valueOf(peakHeapUsage / (1024 * 1024))
+        };
+    }
+
+    private static void resetPeakHeapUsage() {
+        System.gc();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) pool.resetPeakUsage();
+        }
+    }
+
+    /**
+     * @return sum of the peak usages of all heap pools in bytes. this is an upper bound, as the pools do not reach their peaks at the same time
+     */
+    private static long getPeakHeapUsage() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) peak += pool.getPeakUsage().getUsed();
+        }
+        return peak;
+    }
+
+    private static String readMetric(String metricsFile, String metric) {
+        try (BufferedReader reader = IOUtils.getBufferedReader(metricsFile)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] columns = line.split(";");
+                if (columns.length == 2 && columns[0].equals(metric)) return columns[1];
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        throw new IllegalStateException("metric " + metric + " not found in " + metricsFile);
+    }
+
+    private static void writeResults(String file, List<String[]> results) {
+        try (CompactCSVWriter writer = new CompactCSVWriter(IOUtils.getBufferedWriter(file), ';')) {
+            writer.writeNext(new CSVLineBuilder().add("GridSize").add("Owners").add("Depots").add("Services")
+                    .add("WallClockTime[s]").add("TourPlanningTime[s]").add("CarrierSolveTime[s]").add("DispatchRouterCalls").add("DispatchTime[s]")
+                    .add("PeakHeap[MB]"));
+            for (String[] result : results) {
+                writer.writeNext(result);
+            }
+        }
+    }
+}
@@ -0,0 +1,311 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2018 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+package org.matsim.pfav.scenarioCreation;
+
+import org.apache.log4j.Logger;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.TransportMode;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.NetworkWriter;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.api.core.v01.population.*;
+import org.matsim.contrib.dvrp.run.DvrpConfigGroup;
+import org.matsim.contrib.freight.FreightConfigGroup;
+import org.matsim.contrib.freight.carrier.*;
+import org.matsim.contrib.taxi.optimizer.rules.RuleBasedTaxiOptimizerParams;
+import org.matsim.contrib.taxi.run.MultiModeTaxiConfigGroup;
+import org.matsim.contrib.taxi.run.TaxiConfigGroup;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.config.ConfigWriter;
+import org.matsim.core.config.groups.PlanCalcScoreConfigGroup;
+import org.matsim.core.config.groups.QSimConfigGroup;
+import org.matsim.core.config.groups.StrategyConfigGroup;
+import org.matsim.core.controler.OutputDirectoryHierarchy;
+import org.matsim.core.network.NetworkUtils;
+import org.matsim.core.population.io.PopulationWriter;
+import org.matsim.core.scenario.ScenarioUtils;
+import org.matsim.core.utils.geometry.CoordUtils;
+import org.matsim.pfav.privateAV.FreightAVConfigGroup;
+import org.matsim.vehicles.VehicleType;
+import org.matsim.vehicles.VehicleUtils;
+
+import java.io.File;
+import java.util.*;
+
+/**
+ * generates a ready-to-run PFAV scenario of configurable size, in order to test how the dispatch and the tour planning scale without the external
+ * berlin inputs. the scenario consists of
+ * <ul>
+ * <li>a grid network with bidirectional links of {@link #LINK_LENGTH} meters,</li>
+ * <li>PFAV owners with a home - work - home plan, using the taxi mode,</li>
+ * <li>depots that are placed like in the {@link PostOfficeCreator}: random points are mapped to the nearest link and only one depot per link is kept,</li>
+ * <li>one carrier per depot, that gets all services that are closest to it's depot. the carriers have no plans yet, so the tour planning is run
+ * before the first iteration.</li>
+ * </ul>
+ * all files are written into one directory, next to a config that refers to them (see {@link #writeScenario(String)}).
+ * the scenario runs for 1 iteration, the output is written into the sub directory "output". see {@link org.matsim.pfav.run.RunPFAVScaling}.
+ *
+ * @author tschlenther
+ */
+public class SyntheticPFAVScenarioGenerator {
+
+    private static final Logger log = Logger.getLogger(SyntheticPFAVScenarioGenerator.class);
+
+    public static final String CONFIG_FILE = "config.xml";
+    public static final String NETWORK_FILE = "network.xml.gz";
+    public static final String POPULATION_FILE = "plans.xml.gz";
+    public static final String CARRIERS_FILE = "carriers.xml";
+    public static final String VEHICLE_TYPES_FILE = "vehicleTypes.xml";
+    public static final String OUTPUT_DIR = "output";
+
+    private static final double LINK_LENGTH = 200;
+    private static final double FREE_SPEED = 50 / 3.6;
+    private static final double SERVICE_DURATION = 3 * 60;
+    private static final String TAXI_MODE = TransportMode.taxi;
+
+    private final int gridSize;
+    private final int numberOfOwners;
+    private final int numberOfDepots;
+    private final int numberOfServices;
+    private final Random random;
+
+    /**
+     * @param gridSize number of nodes per side of the grid
+     * @param numberOfOwners number of persons that own a PFAV
+     * @param numberOfDepots number of depots, one carrier each
+     * @param numberOfServices number of services of all carriers together
+     * @param seed for the random placement of the activities, depots and services
+     */
+    public SyntheticPFAVScenarioGenerator(int gridSize, int numberOfOwners, int numberOfDepots, int numberOfServices, long seed) {
+        if (gridSize < 2) throw new IllegalArgumentException("the grid needs at least 2 nodes per side");
+        if (numberOfDepots > 4 * gridSize * (gridSize - 1)) throw new IllegalArgumentException("there are more depots than links");
+        this.gridSize = gridSize;
+        this.numberOfOwners = numberOfOwners;
+        this.numberOfDepots = numberOfDepots;
+        this.numberOfServices = numberOfServices;
+        this.random = new Random(seed);
+    }
+
+    public static void main(String[] args) {
+        if (args.length != 5) {
+            throw new IllegalArgumentException("arguments: gridSize numberOfOwners numberOfDepots numberOfServices outputDirectory");
+        }
+        new SyntheticPFAVScenarioGenerator(Integer.parseInt(args[0]), Integer.parseInt(args[1]), Integer.parseInt(args[2]), Integer.parseInt(args[3]), 4711)
+                .writeScenario(args[4]);
+    }
+
+    /**
+     * @return the path of the config file
+     */
+    public String writeScenario(String directory) {
+        new File(directory).mkdirs();
+        String dir = directory.endsWith("/") ? directory : directory + "/";
+
+        Network network = createGridNetwork();
+        new NetworkWriter(network).write(dir + NETWORK_FILE);
+
+        new PopulationWriter(createOwners(network)).write(dir + POPULATION_FILE);
+
+        CarrierVehicleTypes vehicleTypes = new CarrierVehicleTypes();
+        VehicleType vehicleType = createPFAVType();
+        vehicleTypes.getVehicleTypes().put(vehicleType.getId(), vehicleType);
+        new CarrierVehicleTypeWriter(vehicleTypes).write(dir + VEHICLE_TYPES_FILE);
+        new CarrierPlanXmlWriterV2(createCarriers(network, placeDepots(network), vehicleType)).write(dir + CARRIERS_FILE);
+
+        new ConfigWriter(createConfig(dir)).write(dir + CONFIG_FILE);
+        log.info("wrote scenario with " + network.getLinks().size() + " links, " + numberOfOwners + " PFAV owners, " + numberOfDepots + " depots and "
+                + numberOfServices + " services to " + dir);
+        return dir + CONFIG_FILE;
+    }
+
+    private Network createGridNetwork() {
+        Network network = NetworkUtils.createNetwork();
+        Node[][] nodes = new Node[gridSize][gridSize];
+        for (int x = 0; x < gridSize; x++) {
+            for (int y = 0; y < gridSize; y++) {
+                nodes[x][y] = NetworkUtils.createAndAddNode(network, Id.createNodeId(x + "_" + y), new Coord(x * LINK_LENGTH, y * LINK_LENGTH));
+            }
+        }
+        for (int x = 0; x < gridSize; x++) {
+            for (int y = 0; y < gridSize; y++) {
+                if (x + 1 < gridSize) addLinks(network, nodes[x][y], nodes[x + 1][y]);
+                if (y + 1 < gridSize) addLinks(network, nodes[x][y], nodes[x][y + 1]);
+            }
+        }
+        return network;
+    }
+
+    private static void addLinks(Network network, Node node1, Node node2) {
+        NetworkUtils.createAndAddLink(network, Id.createLinkId(node1.getId() + "-" + node2.getId()), node1, node2, LINK_LENGTH, FREE_SPEED, 1000, 1);
+        NetworkUtils.createAndAddLink(network, Id.createLinkId(node2.getId() + "-" + node1.getId()), node2, node1, LINK_LENGTH, FREE_SPEED, 1000, 1);
+    }
+
+    /**
+     * every owner leaves home between 6 and 9 a.m. and leaves work between 3 and 7 p.m., so the vehicle is free for freight tours in between
+     */
+    private Population createOwners(Network network) {
+        Population population = ScenarioUtils.createScenario(ConfigUtils.createConfig()).getPopulation();
+        PopulationFactory factory = population.getFactory();
+        List<Link> links = new ArrayList<>(network.getLinks().values());
+        for (int i = 0; i < numberOfOwners; i++) {
+            Link homeLink = links.get(random.nextInt(links.size()));
+            Link workLink;
+            do {
+                workLink = links.get(random.nextInt(links.size()));
+            } while (workLink == homeLink);
+
+            Plan plan = factory.createPlan();
+            Activity home = factory.createActivityFromLinkId("home", homeLink.getId());
+            home.setEndTime(6 * 3600 + random.nextInt(3 * 3600));
+            plan.addActivity(home);
+            plan.addLeg(factory.createLeg(TAXI_MODE));
+            Activity work = factory.createActivityFromLinkId("work", workLink.getId());
+            work.setEndTime(15 * 3600 + random.nextInt(4 * 3600));
+            plan.addActivity(work);
+            plan.addLeg(factory.createLeg(TAXI_MODE));
+            plan.addActivity(factory.createActivityFromLinkId("home", homeLink.getId()));
+
+            Person person = factory.createPerson(Id.createPersonId("owner_" + i));
+            person.addPlan(plan);
+            population.addPerson(person);
+        }
+        return population;
+    }
+
+    /**
+     * random points within the grid are mapped to the nearest link. as in the {@link PostOfficeCreator}, a link is only used for one depot.
+     */
+    private List<Link> placeDepots(Network network) {
+        double extent = (gridSize - 1) * LINK_LENGTH;
+        Set<Link> depotLinks = new LinkedHashSet<>();
+        int pointsOnSameLink = 0;
+        while (depotLinks.size() < numberOfDepots) {
+            Link link = NetworkUtils.getNearestLink(network, new Coord(random.nextDouble() * extent, random.nextDouble() * extent));
+            if (!depotLinks.add(link)) pointsOnSameLink++;
+        }
+        log.info(pointsOnSameLink + " depot locations were dropped, because they were mapped to a link with another depot");
+        return new ArrayList<>(depotLinks);
+    }
+
+    private Carriers createCarriers(Network network, List<Link> depots, VehicleType vehicleType) {
+        Carriers carriers = new Carriers();
+        List<Carrier> depotCarriers = new ArrayList<>();
+        for (int i = 0; i < depots.size(); i++) {
+            Carrier carrier = CarrierUtils.createCarrier(Id.create("carrier_" + i, Carrier.class));
+            carrier.getCarrierCapabilities().setFleetSize(CarrierCapabilities.FleetSize.INFINITE);
+            carrier.getCarrierCapabilities().getVehicleTypes().add(vehicleType);
+            CarrierUtils.addCarrierVehicle(carrier, CarrierVehicle.Builder.newInstance(Id.createVehicleId("PFAV_" + i), depots.get(i).getId())
+                    .setType(vehicleType)
+                    .setEarliestStart(0)
+                    .setLatestEnd(24 * 3600)
+                    .build());
+            carriers.addCarrier(carrier);
+            depotCarriers.add(carrier);
+        }
+
+        List<Link> links = new ArrayList<>(network.getLinks().values());
+        for (int i = 0; i < numberOfServices; i++) {
+            Link serviceLink = links.get(random.nextInt(links.size()));
+            CarrierService service = CarrierService.Builder.newInstance(Id.create(i, CarrierService.class), serviceLink.getId())
+                    .setCapacityDemand(1)
+                    .setServiceDuration(SERVICE_DURATION)
+                    .setServiceStartTimeWindow(TimeWindow.newInstance(0, 24 * 3600))
+                    .build();
+            CarrierUtils.addService(depotCarriers.get(findNearestDepot(serviceLink, depots)), service);
+        }
+        return carriers;
+    }
+
+    private static int findNearestDepot(Link link, List<Link> depots) {
+        int nearest = 0;
+        double minDistance = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < depots.size(); i++) {
+            double distance = CoordUtils.calcEuclideanDistance(link.getCoord(), depots.get(i).getCoord());
+            if (distance < minDistance) {
+                minDistance = distance;
+                nearest = i;
+            }
+        }
+        return nearest;
+    }
+
+    /**
+     * same attributes as the PFAV type of the mielec scenario
+     */
+    private static VehicleType createPFAVType() {
+        VehicleType vehicleType = VehicleUtils.createVehicleType(Id.create("PFAV", VehicleType.class));
+        vehicleType.getCapacity().setOther(4.);
+        vehicleType.getCostInformation().setCostsPerMeter(0.0001);
+        vehicleType.getCostInformation().setCostsPerSecond(0.001);
+        vehicleType.getCostInformation().setFixedCost(130.);
+        return vehicleType;
+    }
+
+    private Config createConfig(String dir) {
+        Config config = ConfigUtils.createConfig(new DvrpConfigGroup());
+
+        FreightAVConfigGroup pfavCfg = ConfigUtils.addOrGetModule(config, FreightAVConfigGroup.class);
+        pfavCfg.setRunTourPlanningBeforeFirstIteration(true);
+
+        TaxiConfigGroup taxiCfg = new TaxiConfigGroup();
+        taxiCfg.setDestinationKnown(true);
+        taxiCfg.setPickupDuration(60);
+        taxiCfg.setDropoffDuration(60);
+        taxiCfg.setBreakSimulationIfNotAllRequestsServed(false);
+        taxiCfg.addParameterSet(new RuleBasedTaxiOptimizerParams());
+        //the fleet is derived from the population by the PFAVFleetStatsCalculator
+        taxiCfg.setTaxisFile("something");
+        MultiModeTaxiConfigGroup multiTaxiCfg = new MultiModeTaxiConfigGroup();
+        multiTaxiCfg.addParameterSet(taxiCfg);
+        config.addModule(multiTaxiCfg);
+
+        FreightConfigGroup freightCfg = ConfigUtils.addOrGetModule(config, FreightConfigGroup.class);
+        freightCfg.setCarriersFile(CARRIERS_FILE);
+        freightCfg.setCarriersVehicleTypesFile(VEHICLE_TYPES_FILE);
+
+        config.network().setInputFile(NETWORK_FILE);
+        config.plans().setInputFile(POPULATION_FILE);
+
+        config.controler().setOutputDirectory(dir + OUTPUT_DIR);
+        config.controler().setOverwriteFileSetting(OutputDirectoryHierarchy.OverwriteFileSetting.deleteDirectoryIfExists);
+        config.controler().setLastIteration(0);
+
+        config.qsim().setSimStarttimeInterpretation(QSimConfigGroup.StarttimeInterpretation.onlyUseStarttime);
+        config.qsim().setEndTime(30 * 3600);
+
+        PlanCalcScoreConfigGroup.ActivityParams home = new PlanCalcScoreConfigGroup.ActivityParams("home");
+        home.setTypicalDuration(14 * 3600);
+        config.planCalcScore().addActivityParams(home);
+        PlanCalcScoreConfigGroup.ActivityParams work = new PlanCalcScoreConfigGroup.ActivityParams("work");
+        work.setTypicalDuration(8 * 3600);
+        config.planCalcScore().addActivityParams(work);
+        config.planCalcScore().addModeParams(new PlanCalcScoreConfigGroup.ModeParams(TAXI_MODE));
+
+        //the owners do not change their behaviour
+        config.strategy().setMaxAgentPlanMemorySize(1);
+        StrategyConfigGroup.StrategySettings keepLastSelected = new StrategyConfigGroup.StrategySettings();
+        keepLastSelected.setStrategyName("KeepLastSelected");
+        keepLastSelected.setWeight(1.0);
+        config.strategy().addStrategySettings(keepLastSelected);
+        return config;
+    }
+}
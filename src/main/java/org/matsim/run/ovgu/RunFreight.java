@@ -21,6 +21,7 @@ package org.matsim.run.ovgu;
 import com.graphhopper.jsprit.core.algorithm.VehicleRoutingAlgorithm;
 import com.graphhopper.jsprit.core.algorithm.box.SchrimpfFactory;
 import com.graphhopper.jsprit.core.problem.VehicleRoutingProblem;
+import com.graphhopper.jsprit.core.problem.cost.VehicleRoutingTransportCosts;
 import com.graphhopper.jsprit.core.problem.solution.VehicleRoutingProblemSolution;
 import com.graphhopper.jsprit.core.util.Solutions;
 import com.graphhopper.jsprit.io.problem.VrpXMLWriter;
@@ -53,6 +54,7 @@ import org.matsim.core.controler.OutputDirectoryHierarchy.OverwriteFileSetting;
 import org.matsim.core.controler.OutputDirectoryLogging;
 import org.matsim.core.scenario.ScenarioUtils;
 import org.matsim.examples.ExamplesUtils;
+import org.matsim.pfav.privateAV.PersistentTransportCostsCache;
 import org.matsim.vehicles.VehicleType;
 
 import org.matsim.vehicles.VehicleUtils;
@@ -62,6 +64,7 @@ import ovgu.pave.model.solution.Solution;
 
 import java.io.IOException;
 import java.net.URL;
+import java.nio.file.Paths;
 import java.util.*;
 
 class RunFreight {
@@ -132,11 +135,16 @@ class RunFreight {
 		Network network = scenario.getNetwork();
 		Builder netBuilder = NetworkBasedTransportCosts.Builder.newInstance(network,
 				vehicleTypes.getVehicleTypes().values());
-		final NetworkBasedTransportCosts netBasedCosts = netBuilder.build();
 
-		// time dependent network (1800 = 30 min) --> (option live request)
+		// time dependent network (1800 = 30 min) --> (option live request). needs to be set before the costs are built
 		netBuilder.setTimeSliceWidth(1800);
 
+		// optional directory of a persistent cache of the (free speed) transport costs and paths
+		final PersistentTransportCostsCache costsCache = args == null || args.length == 0 ? null : PersistentTransportCostsCache.load(Paths.get(args[0]), netBuilder,
+				network, PersistentTransportCostsCache.FREE_SPEED_TRAVEL_TIME_ID, vehicleTypes.getVehicleTypes().values(), 1800);
+		final NetworkBasedTransportCosts netBasedCosts = costsCache == null ? netBuilder.build() : costsCache.getDelegate();
+		final VehicleRoutingTransportCosts routingCosts = costsCache == null ? netBasedCosts : costsCache;
+
 		switch (optim) {
 		case jsprit:
 			log.info("Starting with jsprit algorithm");
@@ -148,7 +156,7 @@ class RunFreight {
 				// Build VRP for jsprit
 				VehicleRoutingProblem.Builder vrpBuilder = MatsimJspritFactory.createRoutingProblemBuilder(carrier,
 						network);
-				vrpBuilder.setRoutingCost(netBasedCosts);
+				vrpBuilder.setRoutingCost(routingCosts);
 				VehicleRoutingProblem problem = vrpBuilder.build();
 
 				// get the algorithm out-of-the-box, search solution with jsprit and get the
@@ -193,6 +201,8 @@ class RunFreight {
 			} // carrier
 		} // ovgu
 
+		if (costsCache != null) costsCache.save();
+
 		new CarrierPlanXmlWriterV2(carriers)
 				.write(config.controler().getOutputDirectory() + "/servicesAndShipments_plannedCarriers.xml");
 
@@ -14,6 +14,7 @@ import org.matsim.core.scenario.ScenarioUtils;
 import org.matsim.pfav.privateAV.FreightTourPlanning;
 import org.matsim.pfav.privateAV.PFAVUtils;
 
+import java.nio.file.Paths;
 import java.util.concurrent.ExecutionException;
 
 class RunTourPlanning {
@@ -26,6 +27,8 @@ class RunTourPlanning {
         String carrierVehtypes = "C:/Users/simon/tubCloud/Shared/MA-Meinhardt/InputDRT/CarrierCreationInput/carrier_vehicleTypes.xml";
         String networkFile = "https://svn.vsp.tu-berlin.de/repos/public-svn/matsim/scenarios/countries/de/berlin/berlin-v5.5-10pct/input/berlin-v5.5-network.xml.gz\n";
         String changeEventsFile = "C:/Users/simon/tubCloud/Shared/MA-Meinhardt/10pct/p2-23/p2-23.networkChangeEvents.xml.gz";
+        //optional. the transport costs and paths are cached in this directory, so planning the same carriers again skips most of the routing
+        String transportCostsCacheDirectory = null;
 
         if(args.length != 0){
             inputDir = args[0];
@@ -34,6 +37,7 @@ class RunTourPlanning {
             carrierVehtypes = args[3];
             networkFile = args[4];
             changeEventsFile = args[5];
+            if (args.length > 6) transportCostsCacheDirectory = args[6];
         }
 
         Config config = ConfigUtils.createConfig(new FreightConfigGroup());
@@ -64,10 +68,16 @@ class RunTourPlanning {
         Carriers carriers = FreightUtils.getCarriers(scenario);
         carriers.getCarriers().values().forEach(carrier -> CarrierUtils.setJspritIterations(carrier, 50));
 
-        try {
-            FreightUtils.runJsprit(scenario, freightConfig);
-        } catch (Exception e) {
-            e.printStackTrace();
+        if (transportCostsCacheDirectory != null) {
+            //free speed travel times (incl. the network change events), like FreightUtils.runJsprit
+            FreightTourPlanning.runTourPlanningForCarriers(carriers, FreightUtils.getCarrierVehicleTypes(scenario), scenario.getNetwork(), null,
+                    (int) freightConfig.getTravelTimeSliceWidth(), 50, Paths.get(transportCostsCacheDirectory));
+        } else {
+            try {
+                FreightUtils.runJsprit(scenario, freightConfig);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
         }
         new CarrierPlanXmlWriterV2(carriers).write(carriersOutput);
     }
@@ -0,0 +1,195 @@
+/* *********************************************************************** *
+ * project: org.matsim.*												   *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2008 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package org.matsim.util;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.PriorityQueue;
+
+/**
+ * assignment of rows to columns, based on a sparse list of candidate pairs. every row is assigned to at most one column and every column to at
+ * most one row, such that first the number of assigned rows is maximal and then the sum of the costs of the assigned pairs is minimal.
+ * <p>
+ * solved with successive shortest augmenting paths (dijkstra with potentials) on the bipartite graph of the candidates. each augmentation assigns
+ * one more row, so the matching after k augmentations is the cheapest one of k pairs. runs in O(k * e * log(n + m)) for k assigned rows and e
+ * candidates. rows and columns without any candidate do not cost anything, so there is no need for a dense cost matrix.
+ * <p>
+ * used for the batched dispatch of freight tours to private AVs (org.matsim.pfav.privateAV.FreightTourManagerListBasedBatchedImpl) and for the
+ * batch matching of drt blocking requests (org.matsim.drtBlockings.AdaptiveBlockingOptimizer).
+ *
+ * @author tschlenther
+ */
+public final class MinCostAssignment {
+
+    private final int numberOfRows;
+    private final int numberOfColumns;
+
+    private int[] candidateRows = new int[16];
+    private int[] candidateColumns = new int[16];
+    private double[] candidateCosts = new double[16];
+    private int numberOfCandidates = 0;
+
+    public MinCostAssignment(int numberOfRows, int numberOfColumns) {
+        if (numberOfRows < 0 || numberOfColumns < 0) throw new IllegalArgumentException("number of rows and columns must not be negative");
+        this.numberOfRows = numberOfRows;
+        this.numberOfColumns = numberOfColumns;
+    }
+
+    /**
+     * @param cost must be finite and not negative
+     */
+    public void addCandidate(int row, int column, double cost) {
+        Objects.checkIndex(row, numberOfRows);
+        Objects.checkIndex(column, numberOfColumns);
+        if (!(cost >= 0) || Double.isInfinite(cost)) throw new IllegalArgumentException("cost of a candidate must be finite and not negative, but is " + cost);
+        if (numberOfCandidates == candidateRows.length) {
+            candidateRows = Arrays.copyOf(candidateRows, 2 * numberOfCandidates);
+            candidateColumns = Arrays.copyOf(candidateColumns, 2 * numberOfCandidates);
+            candidateCosts = Arrays.copyOf(candidateCosts, 2 * numberOfCandidates);
+        }
+        candidateRows[numberOfCandidates] = row;
+        candidateColumns[numberOfCandidates] = column;
+        candidateCosts[numberOfCandidates] = cost;
+        numberOfCandidates++;
+    }
+
+    public int getNumberOfCandidates() {
+        return numberOfCandidates;
+    }
+
+    /**
+     * @return for each row the index of the column it is assigned to, or -1 if the row is not assigned
+     */
+    public int[] solve() {
+        //candidates grouped by row. the candidates of row r are at the indices firstCandidate[r] to firstCandidate[r + 1] - 1
+        int[] firstCandidate = new int[numberOfRows + 1];
+        for (int i = 0; i < numberOfCandidates; i++) {
+            firstCandidate[candidateRows[i] + 1]++;
+        }
+        for (int row = 0; row < numberOfRows; row++) {
+            firstCandidate[row + 1] += firstCandidate[row];
+        }
+        int[] columns = new int[numberOfCandidates];
+        double[] costs = new double[numberOfCandidates];
+        int[] nextCandidate = Arrays.copyOf(firstCandidate, numberOfRows);
+        for (int i = 0; i < numberOfCandidates; i++) {
+            int k = nextCandidate[candidateRows[i]]++;
+            columns[k] = candidateColumns[i];
+            costs[k] = candidateCosts[i];
+        }
+
+        int[] columnOfRow = new int[numberOfRows];
+        int[] rowOfColumn = new int[numberOfColumns];
+        //cost of the pair that the column is assigned to
+        double[] assignedCost = new double[numberOfColumns];
+        Arrays.fill(columnOfRow, -1);
+        Arrays.fill(rowOfColumn, -1);
+
+        //nodes are the rows (0 to n - 1) and the columns (n to n + m - 1). the costs are not negative, so potentials of 0 are valid at the start
+        int numberOfNodes = numberOfRows + numberOfColumns;
+        double[] potential = new double[numberOfNodes];
+        double[] distance = new double[numberOfNodes];
+        int[] predecessorRow = new int[numberOfColumns];
+        double[] predecessorCost = new double[numberOfColumns];
+        PriorityQueue<NodeEntry> queue = new PriorityQueue<>();
+
+        while (true) {
+            Arrays.fill(distance, Double.POSITIVE_INFINITY);
+            for (int row = 0; row < numberOfRows; row++) {
+                if (columnOfRow[row] < 0 && firstCandidate[row] < firstCandidate[row + 1]) {
+                    distance[row] = 0;
+                    queue.add(new NodeEntry(row, 0));
+                }
+            }
+            if (queue.isEmpty()) break;
+
+            //search from all unassigned rows at once. unassigned columns end a path, assigned columns lead back to their row
+            int bestColumn = -1;
+            double bestPathCost = Double.POSITIVE_INFINITY;
+            while (!queue.isEmpty()) {
+                NodeEntry entry = queue.poll();
+                if (entry.distance > distance[entry.node]) continue;
+                if (entry.node < numberOfRows) {
+                    int row = entry.node;
+                    for (int k = firstCandidate[row]; k < firstCandidate[row + 1]; k++) {
+                        int column = columns[k];
+                        if (columnOfRow[row] == column) continue;
+                        int node = numberOfRows + column;
+                        double reducedDistance = entry.distance + costs[k] + potential[row] - potential[node];
+                        if (reducedDistance < distance[node]) {
+                            distance[node] = reducedDistance;
+                            predecessorRow[column] = row;
+                            predecessorCost[column] = costs[k];
+                            queue.add(new NodeEntry(node, reducedDistance));
+                        }
+                    }
+                } else {
+                    int column = entry.node - numberOfRows;
+                    int row = rowOfColumn[column];
+                    if (row < 0) {
+                        //the potential of the unassigned rows is always 0, so this is the actual cost of the path
+                        double pathCost = entry.distance + potential[entry.node];
+                        if (pathCost < bestPathCost) {
+                            bestPathCost = pathCost;
+                            bestColumn = column;
+                        }
+                    } else {
+                        double reducedDistance = entry.distance - assignedCost[column] + potential[entry.node] - potential[row];
+                        if (reducedDistance < distance[row]) {
+                            distance[row] = reducedDistance;
+                            queue.add(new NodeEntry(row, reducedDistance));
+                        }
+                    }
+                }
+            }
+            //no augmenting path left, the number of assigned rows is maximal
+            if (bestColumn < 0) break;
+
+            for (int node = 0; node < numberOfNodes; node++) {
+                if (distance[node] < Double.POSITIVE_INFINITY) potential[node] += distance[node];
+            }
+            //augment along the path. a row on the path is reached via the column it was assigned to before
+            int column = bestColumn;
+            while (column >= 0) {
+                int row = predecessorRow[column];
+                int previousColumn = columnOfRow[row];
+                columnOfRow[row] = column;
+                rowOfColumn[column] = row;
+                assignedCost[column] = predecessorCost[column];
+                column = previousColumn;
+            }
+        }
+        return columnOfRow;
+    }
+
+    private static final class NodeEntry implements Comparable<NodeEntry> {
+        private final int node;
+        private final double distance;
+
+        private NodeEntry(int node, double distance) {
+            this.node = node;
+            this.distance = distance;
+        }
+
+        @Override
+        public int compareTo(NodeEntry other) {
+            return Double.compare(this.distance, other.distance);
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package org.matsim.drtBlockings;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.contrib.dvrp.fleet.DvrpVehicle;
+import org.matsim.core.network.NetworkUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.matsim.drtBlockings.DispatcherTestUtils.createIdleVehicle;
+import static org.matsim.drtBlockings.DispatcherTestUtils.createRequest;
+
+public class AdaptiveBlockingOptimizerTest {
+
+    private final Network network = NetworkUtils.createNetwork();
+
+    /**
+     * vehicle 1 is the nearest one for both requests. dispatched one after another, the first request takes it and the second one gets the far
+     * vehicle 2 (400 + 1600 m). the batch gives vehicle 2 to the first request instead (600 + 600 m).
+     */
+    @Test
+    public void testBatchHasShorterAccessThanGreedy() {
+        DvrpVehicle vehicle1 = createIdleVehicle("batch_v1", createLinkAt("batch_v1", 400, 0), 30 * 3600);
+        DvrpVehicle vehicle2 = createIdleVehicle("batch_v2", createLinkAt("batch_v2", -600, 0), 30 * 3600);
+        Set<DvrpVehicle> available = new HashSet<>(Arrays.asList(vehicle1, vehicle2));
+        List<DrtBlockingRequest> requests = Arrays.asList(
+                createRequest("batch_r1", createLinkAt("batch_r1", 0, 0), 0),
+                createRequest("batch_r2", createLinkAt("batch_r2", 1000, 0), 0));
+
+        SpatialGridBlockingDispatcher dispatcher = new SpatialGridBlockingDispatcher();
+        available.forEach(dispatcher::vehicleBecameIdle);
+
+        //what the optimizer does without batch matching
+        Set<DvrpVehicle> remaining = new HashSet<>(available);
+        DvrpVehicle greedy1 = dispatcher.findDispatchForBlockingRequest(remaining, requests.get(0));
+        remaining.remove(greedy1);
+        DvrpVehicle greedy2 = dispatcher.findDispatchForBlockingRequest(remaining, requests.get(1));
+        Assert.assertSame(vehicle1, greedy1);
+        Assert.assertSame(vehicle2, greedy2);
+
+        List<DvrpVehicle> batch = AdaptiveBlockingOptimizer.matchRequests(requests, request -> available, dispatcher);
+        Assert.assertEquals(Arrays.asList(vehicle2, vehicle1), batch);
+    }
+
+    /**
+     * the second request can only be served by vehicle 1, as vehicle 2 ends it's service too early. the batch leaves vehicle 1 to it, although
+     * vehicle 1 is nearer to the first request.
+     */
+    @Test
+    public void testBatchMatchesAsManyRequestsAsPossible() {
+        DvrpVehicle vehicle1 = createIdleVehicle("batch_count_v1", createLinkAt("batch_count_v1", 100, 0), 30 * 3600);
+        DvrpVehicle vehicle2 = createIdleVehicle("batch_count_v2", createLinkAt("batch_count_v2", 5000, 0), 10 * 3600);
+        DrtBlockingRequest request1 = createRequest("batch_count_r1", createLinkAt("batch_count_r1", 0, 0), 0);
+        DrtBlockingRequest request2 = createRequest("batch_count_r2", createLinkAt("batch_count_r2", 0, 100), 0);
+
+        SpatialGridBlockingDispatcher dispatcher = new SpatialGridBlockingDispatcher();
+        dispatcher.vehicleBecameIdle(vehicle1);
+        dispatcher.vehicleBecameIdle(vehicle2);
+        Collection<DvrpVehicle> all = Arrays.asList(vehicle1, vehicle2);
+        Collection<DvrpVehicle> longServiceOnly = Collections.singletonList(vehicle1);
+
+        List<DvrpVehicle> batch = AdaptiveBlockingOptimizer.matchRequests(Arrays.asList(request1, request2),
+                request -> request == request2 ? longServiceOnly : all, dispatcher);
+        Assert.assertEquals(Arrays.asList(vehicle2, vehicle1), batch);
+
+        //both requests compete for vehicle 1
+        batch = AdaptiveBlockingOptimizer.matchRequests(Arrays.asList(request1, request2), request -> longServiceOnly, dispatcher);
+        Assert.assertEquals(1, batch.stream().filter(v -> v != null).count());
+    }
+
+    /**
+     * the batch matching runs at every interval, and in between only in the last time step before the most urgent request is rejected
+     */
+    @Test
+    public void testBatchMatchingBeforeExpiry() {
+        Link link = createLinkAt("due", 0, 0);
+        NavigableSet<DrtBlockingRequest> pending = new TreeSet<>(AdaptiveBlockingOptimizer.DEADLINE_ORDER);
+        Assert.assertTrue(AdaptiveBlockingOptimizer.isBatchMatchingDue(600, 1, 300, pending));
+        Assert.assertFalse(AdaptiveBlockingOptimizer.isBatchMatchingDue(601, 1, 300, pending));
+
+        pending.add(createRequest("due_r1", link, 700));
+        Assert.assertFalse(AdaptiveBlockingOptimizer.isBatchMatchingDue(601, 1, 300, pending));
+        Assert.assertFalse(AdaptiveBlockingOptimizer.isBatchMatchingDue(699, 1, 300, pending));
+        //rejected in the next step, as 701 > 700
+        Assert.assertTrue(AdaptiveBlockingOptimizer.isBatchMatchingDue(700, 1, 300, pending));
+        Assert.assertTrue(AdaptiveBlockingOptimizer.isBatchMatchingDue(695, 10, 300, pending));
+    }
+
+    /**
+     * the requests are rejected in the order of their deadline, and only as long as the head of the queue is expired
+     */
+    @Test
+    public void testExpiredRequestsArePolledFromTheHead() {
+        Link link = createLinkAt("expiry", 0, 0);
+        DrtBlockingRequest early = createRequest("expiry_r1", link, 100);
+        DrtBlockingRequest middle = createRequest("expiry_r2", link, 200);
+        DrtBlockingRequest late = createRequest("expiry_r3", link, 300);
+        NavigableSet<DrtBlockingRequest> pending = new TreeSet<>(AdaptiveBlockingOptimizer.DEADLINE_ORDER);
+        pending.addAll(Arrays.asList(late, early, middle));
+
+        Assert.assertEquals(Collections.emptyList(), AdaptiveBlockingOptimizer.pollExpiredRequests(pending, 100));
+        Assert.assertEquals(Arrays.asList(early, middle), AdaptiveBlockingOptimizer.pollExpiredRequests(pending, 250));
+        Assert.assertEquals(Collections.singletonList(late), new ArrayList<>(pending));
+        //the start time itself is not expired yet
+        Assert.assertEquals(Collections.emptyList(), AdaptiveBlockingOptimizer.pollExpiredRequests(pending, 300));
+        Assert.assertEquals(Collections.singletonList(late), AdaptiveBlockingOptimizer.pollExpiredRequests(pending, 301));
+        Assert.assertTrue(pending.isEmpty());
+        Assert.assertEquals(Collections.emptyList(), AdaptiveBlockingOptimizer.pollExpiredRequests(pending, 1000));
+    }
+
+    /**
+     * requests with the same deadline are all kept, and ordered by id
+     */
+    @Test
+    public void testSameDeadlineIsOrderedById() {
+        Link link = createLinkAt("tie", 0, 0);
+        DrtBlockingRequest b = createRequest("tie_b", link, 100);
+        DrtBlockingRequest a = createRequest("tie_a", link, 100);
+        DrtBlockingRequest c = createRequest("tie_c", link, 100);
+        NavigableSet<DrtBlockingRequest> pending = new TreeSet<>(AdaptiveBlockingOptimizer.DEADLINE_ORDER);
+        pending.addAll(Arrays.asList(b, c, a));
+
+        Assert.assertEquals(3, pending.size());
+        Assert.assertEquals(Arrays.asList(a, b, c), AdaptiveBlockingOptimizer.pollExpiredRequests(pending, 101));
+    }
+
+    /**
+     * a vehicle may be blocked as long as (idle - assigned) / fleet size stays above the minimum idle ratio
+     */
+    @Test
+    public void testNumberOfAssignableRequests() {
+        Assert.assertEquals(5, AdaptiveBlockingOptimizer.getNumberOfAssignableRequests(10, 10, 0.5));
+        Assert.assertEquals(1, AdaptiveBlockingOptimizer.getNumberOfAssignableRequests(6, 10, 0.5));
+        //5 / 10 is not above 0.5
+        Assert.assertEquals(0, AdaptiveBlockingOptimizer.getNumberOfAssignableRequests(5, 10, 0.5));
+        Assert.assertEquals(0, AdaptiveBlockingOptimizer.getNumberOfAssignableRequests(2, 10, 0.5));
+        Assert.assertEquals(2, AdaptiveBlockingOptimizer.getNumberOfAssignableRequests(2, 10, 0.05));
+        //no more than the idle vehicles, even without a minimum ratio
+        Assert.assertEquals(3, AdaptiveBlockingOptimizer.getNumberOfAssignableRequests(3, 4, 0));
+        Assert.assertEquals(0, AdaptiveBlockingOptimizer.getNumberOfAssignableRequests(0, 4, 0));
+
+        //the same as checking the ratio before each assignment, like the optimizer did
+        for (int fleetSize = 1; fleetSize <= 20; fleetSize++) {
+            for (int idle = 0; idle <= fleetSize; idle++) {
+                for (double minRatio : new double[]{0, 0.1, 0.25, 0.5, 0.75, 1}) {
+                    int expected = 0;
+                    while (idle - expected > 0 && (double) (idle - expected) / fleetSize > minRatio) expected++;
+                    Assert.assertEquals("idle=" + idle + ", fleet=" + fleetSize + ", minRatio=" + minRatio, expected,
+                            AdaptiveBlockingOptimizer.getNumberOfAssignableRequests(idle, fleetSize, minRatio));
+                }
+            }
+        }
+    }
+
+    /**
+     * the most urgent requests are dispatched first. once the capacity is exhausted, the dispatcher is not asked anymore and the remaining
+     * requests stay in the queue. a request without a vehicle does not use up capacity.
+     */
+    @Test
+    public void testDispatchStopsOnceCapacityIsExhausted() {
+        Link link = createLinkAt("stop", 0, 0);
+        DvrpVehicle vehicle = createIdleVehicle("stop_v", link, 30 * 3600);
+        List<DrtBlockingRequest> requests = Arrays.asList(
+                createRequest("stop_r1", link, 100),
+                createRequest("stop_r2", link, 200),
+                createRequest("stop_r3", link, 300),
+                createRequest("stop_r4", link, 400),
+                createRequest("stop_r5", link, 500));
+        NavigableSet<DrtBlockingRequest> pending = new TreeSet<>(AdaptiveBlockingOptimizer.DEADLINE_ORDER);
+        pending.addAll(requests);
+
+        //no vehicle for the second request
+        List<DrtBlockingRequest> asked = new ArrayList<>();
+        DrtBlockingRequestDispatcher dispatcher = (availableVehicles, request) -> {
+            asked.add(request);
+            return request == requests.get(1) ? null : vehicle;
+        };
+        List<DrtBlockingRequest> assigned = new ArrayList<>();
+
+        int numberOfAssignments = AdaptiveBlockingOptimizer.dispatchOneAfterAnother(pending, 2, request -> Collections.singletonList(vehicle),
+                dispatcher, (request, v) -> assigned.add(request));
+        Assert.assertEquals(2, numberOfAssignments);
+        Assert.assertEquals(requests.subList(0, 3), asked);
+        Assert.assertEquals(Arrays.asList(requests.get(0), requests.get(2)), assigned);
+        Assert.assertEquals(Arrays.asList(requests.get(1), requests.get(3), requests.get(4)), new ArrayList<>(pending));
+
+        //no capacity left, e.g. as the minimum idle ratio is reached
+        AtomicInteger calls = new AtomicInteger();
+        numberOfAssignments = AdaptiveBlockingOptimizer.dispatchOneAfterAnother(pending, 0, request -> Collections.singletonList(vehicle),
+                (availableVehicles, request) -> {
+                    calls.incrementAndGet();
+                    return vehicle;
+                }, (request, v) -> assigned.add(request));
+        Assert.assertEquals(0, numberOfAssignments);
+        Assert.assertEquals(0, calls.get());
+        Assert.assertEquals(3, pending.size());
+    }
+
+    /**
+     * @return a short link whose coordinate (the center) is (x,y)
+     */
+    private Link createLinkAt(String id, double x, double y) {
+        Node from = NetworkUtils.createAndAddNode(network, Id.createNodeId(id + "_from"), new Coord(x - 1, y));
+        Node to = NetworkUtils.createAndAddNode(network, Id.createNodeId(id + "_to"), new Coord(x + 1, y));
+        return NetworkUtils.createAndAddLink(network, Id.createLinkId(id), from, to, 2, 10, 1000, 1);
+    }
+}
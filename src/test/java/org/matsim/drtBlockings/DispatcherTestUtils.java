@@ -0,0 +1,47 @@
+package org.matsim.drtBlockings;
+
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.TransportMode;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.contrib.drt.schedule.DrtStayTask;
+import org.matsim.contrib.dvrp.fleet.DvrpVehicle;
+import org.matsim.contrib.dvrp.fleet.DvrpVehicleImpl;
+import org.matsim.contrib.dvrp.fleet.ImmutableDvrpVehicleSpecification;
+import org.matsim.contrib.dvrp.optimizer.Request;
+
+import java.util.Collections;
+
+/**
+ * creates the idle vehicles and blocking requests for the tests of the {@link DrtBlockingRequestDispatcher}s, without running a qsim
+ */
+final class DispatcherTestUtils {
+
+    private DispatcherTestUtils() {
+    }
+
+    /**
+     * @return a vehicle whose schedule consists of a single stay task on the given link
+     */
+    static DvrpVehicle createIdleVehicle(String id, Link link, double serviceEndTime) {
+        DvrpVehicle vehicle = new DvrpVehicleImpl(ImmutableDvrpVehicleSpecification.newBuilder()
+                .id(Id.create(id, DvrpVehicle.class))
+                .startLinkId(link.getId())
+                .capacity(1)
+                .serviceBeginTime(0)
+                .serviceEndTime(serviceEndTime)
+                .build(), link);
+        vehicle.getSchedule().addTask(new DrtStayTask(0, serviceEndTime, link));
+        return vehicle;
+    }
+
+    static DrtBlockingRequest createRequest(String id, Link startLink, double startTime) {
+        return DrtBlockingRequest.newBuilder()
+                .id(Id.create(id, Request.class))
+                .mode(TransportMode.drt)
+                .submissionTime(0.)
+                .startTime(startTime)
+                .duration(3600.)
+                .tasks(Collections.singletonList(new DrtStayTask(startTime, startTime + 3600, startLink)))
+                .build();
+    }
+}
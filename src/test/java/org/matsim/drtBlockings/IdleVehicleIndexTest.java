@@ -0,0 +1,120 @@
+package org.matsim.drtBlockings;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.contrib.dvrp.fleet.DvrpVehicle;
+import org.matsim.core.network.NetworkUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import static org.matsim.drtBlockings.DispatcherTestUtils.createIdleVehicle;
+
+public class IdleVehicleIndexTest {
+
+    private DvrpVehicle early;
+    private DvrpVehicle lateA;
+    private DvrpVehicle lateB;
+    private IdleVehicleIndex index;
+
+    @Before
+    public void setUp() {
+        Network network = NetworkUtils.createNetwork();
+        Node from = NetworkUtils.createAndAddNode(network, Id.createNodeId("idle_0"), new Coord(0, 0));
+        Node to = NetworkUtils.createAndAddNode(network, Id.createNodeId("idle_1"), new Coord(100, 0));
+        Link link = NetworkUtils.createAndAddLink(network, Id.createLinkId("idle_0_1"), from, to, 100, 10, 1000, 1);
+        early = createIdleVehicle("idle_early", link, 10 * 3600);
+        lateA = createIdleVehicle("idle_lateA", link, 20 * 3600);
+        lateB = createIdleVehicle("idle_lateB", link, 20 * 3600);
+        index = new IdleVehicleIndex();
+    }
+
+    @Test
+    public void testAddAndRemove() {
+        Assert.assertTrue(index.isEmpty());
+        Assert.assertTrue(index.add(lateA));
+        Assert.assertTrue(index.add(early));
+        Assert.assertTrue(index.add(lateB));
+        Assert.assertFalse("a vehicle must only be contained once", index.add(lateA));
+        Assert.assertEquals(3, index.size());
+
+        //ordered by service end time, within the same service end time in the order they became idle
+        Assert.assertEquals(Arrays.asList(early, lateA, lateB), toList(index.getVehiclesWithServiceEndAfter(0, v -> true)));
+
+        Assert.assertTrue(index.remove(lateA));
+        Assert.assertFalse(index.remove(lateA));
+        Assert.assertEquals(Arrays.asList(early, lateB), toList(index.getVehiclesWithServiceEndAfter(0, v -> true)));
+
+        //the bucket of the late vehicles is dropped when it is empty, adding the vehicle again creates it anew
+        Assert.assertTrue(index.remove(lateB));
+        Assert.assertEquals(Collections.singletonList(early), toList(index.getVehiclesWithServiceEndAfter(0, v -> true)));
+        Assert.assertTrue(index.add(lateB));
+        Assert.assertEquals(Arrays.asList(early, lateB), toList(index.getVehiclesWithServiceEndAfter(0, v -> true)));
+
+        index.clear();
+        Assert.assertTrue(index.isEmpty());
+        Assert.assertTrue(index.getVehiclesWithServiceEndAfter(0, v -> true).isEmpty());
+    }
+
+    @Test
+    public void testRetainIdle() {
+        index.add(early);
+        index.add(lateA);
+        index.add(lateB);
+        Set<DvrpVehicle> notIdle = Set.of(early, lateB);
+
+        List<DvrpVehicle> removed = index.retainIdle(v -> !notIdle.contains(v));
+        Assert.assertEquals(Arrays.asList(early, lateB), removed);
+        Assert.assertEquals(1, index.size());
+        Assert.assertEquals(Collections.singletonList(lateA), toList(index.getVehiclesWithServiceEndAfter(0, v -> true)));
+        //the removed vehicles are gone from the bookkeeping as well, so they can be added again
+        Assert.assertFalse(index.remove(early));
+        Assert.assertTrue(index.add(early));
+
+        Assert.assertEquals(Arrays.asList(early, lateA), index.retainIdle(v -> false));
+        Assert.assertTrue(index.isEmpty());
+        Assert.assertTrue(index.getVehiclesWithServiceEndAfter(0, v -> true).isEmpty());
+    }
+
+    @Test
+    public void testServiceEndBoundary() {
+        index.add(early);
+        index.add(lateA);
+        index.add(lateB);
+
+        //a vehicle whose service ends exactly at the given time is not contained
+        Collection<DvrpVehicle> vehicles = index.getVehiclesWithServiceEndAfter(10 * 3600, v -> true);
+        Assert.assertEquals(Arrays.asList(lateA, lateB), toList(vehicles));
+        Assert.assertEquals(2, vehicles.size());
+        Assert.assertFalse(vehicles.contains(early));
+        Assert.assertTrue(vehicles.contains(lateA));
+
+        vehicles = index.getVehiclesWithServiceEndAfter(10 * 3600 - 1, v -> true);
+        Assert.assertEquals(Arrays.asList(early, lateA, lateB), toList(vehicles));
+        Assert.assertTrue(vehicles.contains(early));
+
+        vehicles = index.getVehiclesWithServiceEndAfter(20 * 3600, v -> true);
+        Assert.assertTrue(vehicles.isEmpty());
+        Assert.assertFalse(vehicles.contains(lateA));
+
+        //the filter applies to iteration, size and contains
+        vehicles = index.getVehiclesWithServiceEndAfter(0, v -> v != lateA);
+        Assert.assertEquals(Arrays.asList(early, lateB), toList(vehicles));
+        Assert.assertEquals(2, vehicles.size());
+        Assert.assertFalse(vehicles.contains(lateA));
+    }
+
+    private static List<DvrpVehicle> toList(Collection<DvrpVehicle> vehicles) {
+        return new ArrayList<>(vehicles);
+    }
+}
@@ -0,0 +1,167 @@
+package org.matsim.drtBlockings;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.contrib.dvrp.fleet.DvrpVehicle;
+import org.matsim.contrib.dvrp.path.VrpPathWithTravelData;
+import org.matsim.contrib.dvrp.path.VrpPaths;
+import org.matsim.core.mobsim.framework.MobsimTimer;
+import org.matsim.core.network.NetworkUtils;
+import org.matsim.core.trafficmonitoring.FreeSpeedTravelTime;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.matsim.drtBlockings.DispatcherTestUtils.createIdleVehicle;
+import static org.matsim.drtBlockings.DispatcherTestUtils.createRequest;
+
+public class NetworkTravelTimeBlockingDispatcherTest {
+
+    private static final double NOW = 8 * 3600;
+
+    private Link startLink;
+    private Link slowLink;
+    private Link fastLink;
+    private MobsimTimer timer;
+
+    /**
+     * the request starts on the link s (0,0) -> (1000,0). the slow vehicle stands 600 m (beeline) away, but needs 1000 s to the start link.
+     * the fast vehicle stands 3000 m away, but only needs 100 s.
+     */
+    @Before
+    public void setUp() {
+        Network network = NetworkUtils.createNetwork();
+        Node n0 = createNode(network, "n0", 0, 0);
+        Node n1 = createNode(network, "n1", 1000, 0);
+        Node n3 = createNode(network, "n3", 500, 800);
+        Node n4 = createNode(network, "n4", 500, 400);
+        Node n5 = createNode(network, "n5", 4000, 0);
+        Node n6 = createNode(network, "n6", 3000, 0);
+        startLink = createLink(network, "s", n0, n1, 1000, 10);
+        slowLink = createLink(network, "slow", n3, n4, 400, 10);
+        createLink(network, "slowAccess", n4, n0, 1000, 1);
+        fastLink = createLink(network, "fast", n5, n6, 1000, 10);
+        createLink(network, "fastAccess", n6, n0, 3000, 30);
+        timer = new MobsimTimer();
+        timer.setTime(NOW);
+    }
+
+    @Test
+    public void testNearestVehicleByTravelTime() {
+        DvrpVehicle slowVehicle = createIdleVehicle("nw_slow", slowLink, 30 * 3600);
+        DvrpVehicle fastVehicle = createIdleVehicle("nw_fast", fastLink, 30 * 3600);
+        Collection<DvrpVehicle> available = new HashSet<>(Arrays.asList(slowVehicle, fastVehicle));
+        DrtBlockingRequest request = createRequest("nw_request", startLink, NOW);
+
+        Assert.assertSame("the beeline dispatcher should take the nearer vehicle", slowVehicle,
+                new StraightLineKnnBlockingDispatcher().findDispatchForBlockingRequest(available, request));
+
+        NetworkTravelTimeBlockingDispatcher dispatcher = createDispatcher(NetworkTravelTimeBlockingDispatcher.DEFAULT_MAX_ACCESS_TRAVEL_TIME, available);
+        Assert.assertSame(fastVehicle, dispatcher.findDispatchForBlockingRequest(available, request));
+
+        VrpPathWithTravelData path = dispatcher.getAccessPathOfLastDispatch();
+        Assert.assertNotNull(path);
+        Assert.assertEquals(3, path.getLinkCount());
+        Assert.assertSame(fastLink, path.getFromLink());
+        Assert.assertEquals(Id.createLinkId("fastAccess"), path.getLink(1).getId());
+        Assert.assertSame(startLink, path.getToLink());
+        Assert.assertEquals(NOW, path.getDepartureTime(), 0);
+        Assert.assertEquals(VrpPaths.FIRST_LINK_TT + 100 + VrpPaths.getLastLinkTT(startLink, NOW + VrpPaths.FIRST_LINK_TT + 100),
+                path.getTravelTime(), 1e-9);
+
+        //a vehicle that is not available anymore is skipped by the search
+        available.remove(fastVehicle);
+        Assert.assertSame(slowVehicle, dispatcher.findDispatchForBlockingRequest(available, request));
+        Assert.assertEquals(Id.createLinkId("slowAccess"), dispatcher.getAccessPathOfLastDispatch().getLink(1).getId());
+    }
+
+    @Test
+    public void testFallbackToBeelineBeyondMaxAccessTravelTime() {
+        DvrpVehicle slowVehicle = createIdleVehicle("nw_slow_cutoff", slowLink, 30 * 3600);
+        DvrpVehicle fastVehicle = createIdleVehicle("nw_fast_cutoff", fastLink, 30 * 3600);
+        Collection<DvrpVehicle> available = new HashSet<>(Arrays.asList(slowVehicle, fastVehicle));
+        DrtBlockingRequest request = createRequest("nw_request_cutoff", startLink, NOW);
+
+        //neither vehicle is reached within 50 s, so the request is handed to the beeline search
+        NetworkTravelTimeBlockingDispatcher dispatcher = createDispatcher(50, available);
+        Assert.assertSame(slowVehicle, dispatcher.findDispatchForBlockingRequest(available, request));
+        Assert.assertNull(dispatcher.getAccessPathOfLastDispatch());
+
+        //the fast vehicle is reached within 500 s, the slow one is not
+        dispatcher = createDispatcher(500, available);
+        Assert.assertSame(fastVehicle, dispatcher.findDispatchForBlockingRequest(available, request));
+        Assert.assertNotNull(dispatcher.getAccessPathOfLastDispatch());
+        Assert.assertSame(slowVehicle, dispatcher.findDispatchForBlockingRequest(Collections.singleton(slowVehicle), request));
+        Assert.assertNull(dispatcher.getAccessPathOfLastDispatch());
+    }
+
+    @Test
+    public void testVehicleOnStartLink() {
+        DvrpVehicle fastVehicle = createIdleVehicle("nw_fast_start", fastLink, 30 * 3600);
+        DvrpVehicle startVehicle = createIdleVehicle("nw_start", startLink, 30 * 3600);
+        Collection<DvrpVehicle> available = new HashSet<>(Arrays.asList(fastVehicle, startVehicle));
+
+        NetworkTravelTimeBlockingDispatcher dispatcher = createDispatcher(NetworkTravelTimeBlockingDispatcher.DEFAULT_MAX_ACCESS_TRAVEL_TIME, available);
+        Assert.assertSame(startVehicle, dispatcher.findDispatchForBlockingRequest(available, createRequest("nw_request_start", startLink, NOW)));
+        VrpPathWithTravelData path = dispatcher.getAccessPathOfLastDispatch();
+        Assert.assertEquals(1, path.getLinkCount());
+        Assert.assertEquals(0, path.getTravelTime(), 0);
+    }
+
+    /**
+     * the candidates for the batch matching are ordered by their travel time. beyond the max access travel time, the beeline candidates are taken
+     * and get the max access travel time on top of their distance.
+     */
+    @Test
+    public void testCandidatesForBatchMatching() {
+        DvrpVehicle slowVehicle = createIdleVehicle("nw_slow_candidates", slowLink, 30 * 3600);
+        DvrpVehicle fastVehicle = createIdleVehicle("nw_fast_candidates", fastLink, 30 * 3600);
+        DvrpVehicle startVehicle = createIdleVehicle("nw_start_candidates", startLink, 30 * 3600);
+        Collection<DvrpVehicle> available = new HashSet<>(Arrays.asList(slowVehicle, fastVehicle, startVehicle));
+        DrtBlockingRequest request = createRequest("nw_request_candidates", startLink, NOW);
+
+        NetworkTravelTimeBlockingDispatcher dispatcher = createDispatcher(NetworkTravelTimeBlockingDispatcher.DEFAULT_MAX_ACCESS_TRAVEL_TIME, available);
+        List<DrtBlockingRequestDispatcher.Candidate> candidates = dispatcher.findCandidatesForBlockingRequest(available, request, 10);
+        Assert.assertEquals(3, candidates.size());
+        Assert.assertSame(startVehicle, candidates.get(0).getVehicle());
+        Assert.assertEquals(0, candidates.get(0).getCost(), 0);
+        Assert.assertSame(fastVehicle, candidates.get(1).getVehicle());
+        Assert.assertEquals(100, candidates.get(1).getCost(), 1e-9);
+        Assert.assertSame(slowVehicle, candidates.get(2).getVehicle());
+        Assert.assertEquals(1000, candidates.get(2).getCost(), 1e-9);
+        Assert.assertEquals(2, dispatcher.findCandidatesForBlockingRequest(available, request, 2).size());
+
+        //neither of the two is reached within 50 s
+        available.remove(startVehicle);
+        dispatcher = createDispatcher(50, available);
+        candidates = dispatcher.findCandidatesForBlockingRequest(available, request, 10);
+        Assert.assertEquals(2, candidates.size());
+        Assert.assertSame(slowVehicle, candidates.get(0).getVehicle());
+        Assert.assertEquals(50 + 600, candidates.get(0).getCost(), 1e-9);
+        Assert.assertSame(fastVehicle, candidates.get(1).getVehicle());
+        Assert.assertEquals(50 + 3000, candidates.get(1).getCost(), 1e-9);
+    }
+
+    private NetworkTravelTimeBlockingDispatcher createDispatcher(double maxAccessTravelTime, Collection<DvrpVehicle> idleVehicles) {
+        NetworkTravelTimeBlockingDispatcher dispatcher = new NetworkTravelTimeBlockingDispatcher(new FreeSpeedTravelTime(), timer, maxAccessTravelTime);
+        idleVehicles.forEach(dispatcher::vehicleBecameIdle);
+        return dispatcher;
+    }
+
+    private static Node createNode(Network network, String id, double x, double y) {
+        return NetworkUtils.createAndAddNode(network, Id.createNodeId("nw_" + id), new Coord(x, y));
+    }
+
+    private static Link createLink(Network network, String id, Node from, Node to, double length, double freespeed) {
+        return NetworkUtils.createAndAddLink(network, Id.createLinkId(id), from, to, length, freespeed, 1000, 1);
+    }
+}
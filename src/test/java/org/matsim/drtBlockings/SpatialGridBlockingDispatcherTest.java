@@ -0,0 +1,119 @@
+package org.matsim.drtBlockings;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.contrib.dvrp.fleet.DvrpVehicle;
+import org.matsim.contrib.dvrp.schedule.Schedules;
+import org.matsim.core.network.NetworkUtils;
+import org.matsim.core.utils.geometry.CoordUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.matsim.drtBlockings.DispatcherTestUtils.createIdleVehicle;
+import static org.matsim.drtBlockings.DispatcherTestUtils.createRequest;
+
+public class SpatialGridBlockingDispatcherTest {
+
+    private final Network network = NetworkUtils.createNetwork();
+
+    /**
+     * the nearest vehicle lies in the middle column of the second ring (which is only visited at it's upper and lower row), while the first ring
+     * already contains a vehicle. the search must not stop after the first ring.
+     */
+    @Test
+    public void testNearestVehicleInOuterRing() {
+        Link start = createLinkAt("grid_start", 500, 500);
+        DvrpVehicle outer = createIdleVehicle("grid_outer", createLinkAt("grid_outer", 500, 2600), 30 * 3600);
+        DvrpVehicle corner = createIdleVehicle("grid_corner", createLinkAt("grid_corner", 1999, 1999), 30 * 3600);
+        Set<DvrpVehicle> available = new HashSet<>(Arrays.asList(outer, corner));
+
+        SpatialGridBlockingDispatcher dispatcher = new SpatialGridBlockingDispatcher(1000);
+        available.forEach(dispatcher::vehicleBecameIdle);
+        Assert.assertSame(outer, dispatcher.findDispatchForBlockingRequest(available, createRequest("grid_outer_request", start, 0)));
+
+        //a vehicle in the neighbouring cell with negative coordinates is nearer than both
+        DvrpVehicle negative = createIdleVehicle("grid_negative", createLinkAt("grid_negative", -1, 500), 30 * 3600);
+        dispatcher.vehicleBecameIdle(negative);
+        available.add(negative);
+        Assert.assertSame(negative, dispatcher.findDispatchForBlockingRequest(available, createRequest("grid_negative_request", start, 0)));
+    }
+
+    /**
+     * the grid search needs to find a vehicle (and candidates) at the same distance as the search over all available vehicles, for vehicles and requests all over
+     * the coordinate range (including negative coordinates) and with vehicles that are in the grid but not available.
+     */
+    @Test
+    public void testSameResultAsStraightLineKnn() {
+        Random random = new Random(4711);
+        List<Link> links = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            links.add(createLinkAt("grid_random_" + i, -5000 + random.nextDouble() * 8000, -3000 + random.nextDouble() * 6000));
+        }
+
+        for (double cellSize : new double[]{100, 1000, 20000}) {
+            SpatialGridBlockingDispatcher gridDispatcher = new SpatialGridBlockingDispatcher(cellSize);
+            StraightLineKnnBlockingDispatcher knnDispatcher = new StraightLineKnnBlockingDispatcher();
+            List<DvrpVehicle> idleVehicles = new ArrayList<>();
+            for (int v = 0; v < 200; v++) {
+                DvrpVehicle vehicle = createIdleVehicle("grid_random_" + cellSize + "_" + v, links.get(random.nextInt(links.size())), 30 * 3600);
+                idleVehicles.add(vehicle);
+                gridDispatcher.vehicleBecameIdle(vehicle);
+            }
+
+            for (int r = 0; r < 500; r++) {
+                //some of the vehicles stop being idle, others are idle but not available to the request
+                if (r % 10 == 0 && idleVehicles.size() > 1) {
+                    gridDispatcher.vehicleNoLongerIdle(idleVehicles.remove(random.nextInt(idleVehicles.size())));
+                }
+                Set<DvrpVehicle> available = new HashSet<>();
+                for (DvrpVehicle vehicle : idleVehicles) {
+                    if (random.nextDouble() < 0.7) available.add(vehicle);
+                }
+                Link startLink = links.get(random.nextInt(links.size()));
+                DrtBlockingRequest request = createRequest("grid_random_request_" + cellSize + "_" + r, startLink, 0);
+
+                DvrpVehicle expected = knnDispatcher.findDispatchForBlockingRequest(available, request);
+                DvrpVehicle actual = gridDispatcher.findDispatchForBlockingRequest(available, request);
+                if (expected == null) {
+                    Assert.assertNull(actual);
+                } else {
+                    Assert.assertTrue(available.contains(actual));
+                    Assert.assertEquals("cell size " + cellSize + ", request " + r, distance(startLink, expected), distance(startLink, actual), 1e-9);
+                }
+
+                //the candidates for the batch matching need to be the k nearest ones as well
+                List<DrtBlockingRequestDispatcher.Candidate> expectedCandidates = knnDispatcher.findCandidatesForBlockingRequest(available, request, 5);
+                List<DrtBlockingRequestDispatcher.Candidate> actualCandidates = gridDispatcher.findCandidatesForBlockingRequest(available, request, 5);
+                Assert.assertEquals(expectedCandidates.size(), actualCandidates.size());
+                for (int i = 0; i < expectedCandidates.size(); i++) {
+                    Assert.assertTrue(available.contains(actualCandidates.get(i).getVehicle()));
+                    Assert.assertEquals(distance(startLink, actualCandidates.get(i).getVehicle()), actualCandidates.get(i).getCost(), 1e-9);
+                    Assert.assertEquals("cell size " + cellSize + ", request " + r, expectedCandidates.get(i).getCost(), actualCandidates.get(i).getCost(), 1e-9);
+                }
+            }
+        }
+    }
+
+    private static double distance(Link startLink, DvrpVehicle vehicle) {
+        return CoordUtils.calcEuclideanDistance(startLink.getCoord(), Schedules.getLastLinkInSchedule(vehicle).getCoord());
+    }
+
+    /**
+     * @return a short link whose coordinate (the center) is (x,y)
+     */
+    private Link createLinkAt(String id, double x, double y) {
+        Node from = NetworkUtils.createAndAddNode(network, Id.createNodeId(id + "_from"), new Coord(x - 1, y));
+        Node to = NetworkUtils.createAndAddNode(network, Id.createNodeId(id + "_to"), new Coord(x + 1, y));
+        return NetworkUtils.createAndAddLink(network, Id.createLinkId(id), from, to, 2, 10, 1000, 1);
+    }
+}
@@ -0,0 +1,70 @@
+package org.matsim.pfav.privateAV;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.core.network.NetworkUtils;
+
+import java.util.List;
+
+public class DepotSpatialIndexTest {
+
+	private Network network;
+	private Link[] links;
+
+	/**
+	 * creates a row of 10 links with a length of 100 meters each along the x axis
+	 */
+	@Before
+	public void createNetwork() {
+		network = NetworkUtils.createNetwork();
+		links = new Link[10];
+		Node from = NetworkUtils.createAndAddNode(network, Id.createNodeId(0), new Coord(0, 0));
+		for (int i = 1; i <= 10; i++) {
+			Node to = NetworkUtils.createAndAddNode(network, Id.createNodeId(i), new Coord(i * 100, 0));
+			links[i - 1] = NetworkUtils.createAndAddLink(network, Id.createLinkId(i), from, to, 100, 10, 1000, 1);
+			from = to;
+		}
+	}
+
+	@Test
+	public final void testFindNearest() {
+		DepotSpatialIndex index = new DepotSpatialIndex(network);
+		index.add(links[0]);
+		index.add(links[4]);
+		index.add(links[5]);
+		index.add(links[9]);
+
+		List<Link> nearest = index.findNearest(links[3], 3, null);
+		Assert.assertEquals(3, nearest.size());
+		Assert.assertEquals(links[4], nearest.get(0));
+		Assert.assertEquals(links[5], nearest.get(1));
+		Assert.assertEquals(links[0], nearest.get(2));
+
+		nearest = index.findNearest(links[3], 3, links[4]);
+		Assert.assertEquals(3, nearest.size());
+		Assert.assertEquals(links[5], nearest.get(0));
+		Assert.assertEquals(links[0], nearest.get(1));
+		Assert.assertEquals(links[9], nearest.get(2));
+	}
+
+	@Test
+	public final void testRemovedDepotsAreNotReturned() {
+		DepotSpatialIndex index = new DepotSpatialIndex(network);
+		index.add(links[0]);
+		index.add(links[9]);
+
+		index.remove(links[0]);
+		List<Link> nearest = index.findNearest(links[1], 3, null);
+		Assert.assertEquals(1, nearest.size());
+		Assert.assertEquals(links[9], nearest.get(0));
+
+		index.remove(links[9]);
+		Assert.assertTrue(index.findNearest(links[1], 3, null).isEmpty());
+	}
+}
@@ -0,0 +1,76 @@
+package org.matsim.pfav.privateAV;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.core.network.NetworkUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+public class DepotTourChainsTest {
+
+	@Test
+	public final void testChainsRespectLatestArrival() {
+		Link depot = createDepot();
+		//pool order is by latest arrival: 0 = [8-10] latest 11, 1 = [8-9] latest 12, 2 = [10-12] latest 14, 3 = [9-13] latest 16
+		List<FreightTourDataPlanned> tours = Arrays.asList(
+				createTour(depot, 8, 10, 11),
+				createTour(depot, 8, 9, 12),
+				createTour(depot, 10, 12, 14),
+				createTour(depot, 9, 13, 16));
+		DepotTourPool pool = new DepotTourPool(tours);
+
+		Assert.assertEquals(1, pool.linkTourChains(true));
+		//tour 1 ends first and takes tour 0 which can still be served in time. tour 0 then takes tour 2, tour 2 takes tour 3
+		Assert.assertEquals(0, pool.getChainSuccessor(1));
+		Assert.assertEquals(2, pool.getChainSuccessor(0));
+		Assert.assertEquals(3, pool.getChainSuccessor(2));
+		Assert.assertEquals(-1, pool.getChainSuccessor(3));
+
+		//removed tours are not offered as successors
+		pool.remove(2);
+		Assert.assertEquals(-1, pool.getChainSuccessor(0));
+	}
+
+	@Test
+	public final void testChainsAreDisjointAndAcyclic() {
+		Link depot = createDepot();
+		List<FreightTourDataPlanned> tours = new ArrayList<>();
+		for (int i = 0; i < 50; i++) {
+			tours.add(createTour(depot, 6 + (i % 7), 7 + (i % 7), 20));
+		}
+		DepotTourPool pool = new DepotTourPool(tours);
+		pool.linkTourChains(false);
+
+		Set<Integer> successors = new HashSet<>();
+		for (int i = 0; i < pool.size(); i++) {
+			int successor = pool.getChainSuccessor(i);
+			if (successor < 0) continue;
+			Assert.assertTrue("tour " + successor + " is the successor of more than one tour", successors.add(successor));
+			int steps = 0;
+			for (int j = successor; j >= 0; j = pool.getChainSuccessor(j)) {
+				Assert.assertNotEquals("the chain of tour " + i + " is a cycle", i, j);
+				Assert.assertTrue(++steps <= pool.size());
+			}
+		}
+	}
+
+	private static Link createDepot() {
+		Network network = NetworkUtils.createNetwork();
+		Node from = NetworkUtils.createAndAddNode(network, Id.createNodeId("chains_0"), new Coord(0, 0));
+		Node to = NetworkUtils.createAndAddNode(network, Id.createNodeId("chains_1"), new Coord(100, 0));
+		return NetworkUtils.createAndAddLink(network, Id.createLinkId("chains_0_1"), from, to, 100, 10, 1000, 1);
+	}
+
+	private static FreightTourDataPlanned createTour(Link depot, double startHour, double endHour, double latestArrivalHour) {
+		return new FreightTourDataPlanned(ArrayList::new, depot, (endHour - startHour) * 3600, 1800, 1, latestArrivalHour * 3600, endHour * 3600);
+	}
+}
@@ -0,0 +1,174 @@
+package org.matsim.pfav.privateAV;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.core.network.NetworkUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+public class DepotTourPoolTest {
+
+	private final Link depot = createDepot();
+
+	@Test
+	public final void testEmptyPool() {
+		DepotTourPool pool = new DepotTourPool(Collections.emptyList());
+		Assert.assertTrue(pool.isEmpty());
+		Assert.assertEquals(0, pool.size());
+		Assert.assertEquals(Double.POSITIVE_INFINITY, pool.getMinPlannedTourDuration(), 0);
+		Assert.assertEquals(0, pool.getFirstIndexWithLatestArrivalNotBefore(0));
+		Assert.assertEquals(-1, pool.getNextCandidate(0, Double.MAX_VALUE));
+		Assert.assertTrue(pool.getRemainingTours().isEmpty());
+	}
+
+	@Test
+	public final void testSingleTour() {
+		FreightTourDataPlanned tour = createTour(3600, 10 * 3600);
+		DepotTourPool pool = new DepotTourPool(Collections.singletonList(tour));
+		Assert.assertEquals(3600, pool.getMinPlannedTourDuration(), 0);
+		Assert.assertEquals(0, pool.getFirstIndexWithLatestArrivalNotBefore(10 * 3600));
+		Assert.assertEquals(1, pool.getFirstIndexWithLatestArrivalNotBefore(10 * 3600 + 1));
+		Assert.assertEquals(0, pool.getNextCandidate(0, 3600));
+		Assert.assertEquals(-1, pool.getNextCandidate(0, 3599));
+		Assert.assertEquals(-1, pool.getNextCandidate(1, 3600));
+
+		Assert.assertSame(tour, pool.remove(0));
+		Assert.assertTrue(pool.isEmpty());
+		Assert.assertEquals(Double.POSITIVE_INFINITY, pool.getMinPlannedTourDuration(), 0);
+		Assert.assertEquals(-1, pool.getNextCandidate(0, Double.MAX_VALUE));
+		try {
+			pool.remove(0);
+			Assert.fail("the tour has already been removed");
+		} catch (IllegalStateException e) {
+			//expected
+		}
+	}
+
+	@Test
+	public final void testDuplicateDurationsAndRemovalOfTheMinimum() {
+		//the same latest arrival everywhere, so the pool keeps this order
+		List<FreightTourDataPlanned> tours = new ArrayList<>();
+		for (double duration : new double[]{7200, 3600, 5400, 3600, 3600, 7200}) {
+			tours.add(createTour(duration, 12 * 3600));
+		}
+		DepotTourPool pool = new DepotTourPool(tours);
+		Assert.assertEquals(tours, pool.getRemainingTours());
+
+		Assert.assertEquals(3600, pool.getMinPlannedTourDuration(), 0);
+		Assert.assertEquals(1, pool.getNextCandidate(0, 3600));
+		Assert.assertEquals(3, pool.getNextCandidate(2, 3600));
+
+		//removing one of the minima keeps the minimum
+		pool.remove(1);
+		Assert.assertEquals(3600, pool.getMinPlannedTourDuration(), 0);
+		Assert.assertEquals(3, pool.getNextCandidate(0, 3600));
+		pool.remove(3);
+		Assert.assertEquals(4, pool.getNextCandidate(0, 3600));
+		pool.remove(4);
+		Assert.assertEquals(5400, pool.getMinPlannedTourDuration(), 0);
+		Assert.assertEquals(-1, pool.getNextCandidate(0, 3600));
+		Assert.assertEquals(2, pool.getNextCandidate(0, 5400));
+		Assert.assertEquals(0, pool.getNextCandidate(0, 7200));
+		Assert.assertEquals(3, pool.size());
+	}
+
+	/**
+	 * random pools of all sizes up to 40, with many duplicate durations and latest arrivals, against a linear scan
+	 */
+	@Test
+	public final void testAgainstBruteForce() {
+		Random random = new Random(4711);
+		for (int n = 0; n <= 40; n++) {
+			List<FreightTourDataPlanned> tours = new ArrayList<>();
+			for (int i = 0; i < n; i++) {
+				tours.add(createTour((1 + random.nextInt(4)) * 1800, (8 + random.nextInt(6)) * 3600));
+			}
+			DepotTourPool pool = new DepotTourPool(tours);
+
+			//the sort is stable
+			List<FreightTourDataPlanned> expectedOrder = new ArrayList<>(tours);
+			expectedOrder.sort(Comparator.comparingDouble(FreightTourDataPlanned::getLatestArrivalAtLastService));
+			Assert.assertEquals(expectedOrder, pool.getRemainingTours());
+
+			double[] durations = new double[n];
+			double[] latestArrivals = new double[n];
+			boolean[] removed = new boolean[n];
+			for (int i = 0; i < n; i++) {
+				durations[i] = pool.get(i).getPlannedTourDuration();
+				latestArrivals[i] = pool.get(i).getLatestArrivalAtLastService();
+			}
+
+			for (int time = 7 * 3600; time <= 15 * 3600; time += 900) {
+				Assert.assertEquals(bruteForceFirstIndexNotBefore(latestArrivals, time), pool.getFirstIndexWithLatestArrivalNotBefore(time));
+			}
+
+			for (int remaining = n; remaining >= 0; remaining--) {
+				Assert.assertEquals(remaining, pool.size());
+				Assert.assertEquals(bruteForceMinDuration(durations, removed), pool.getMinPlannedTourDuration(), 0);
+				for (int fromIndex = 0; fromIndex <= n + 1; fromIndex++) {
+					for (double maxDuration = 0; maxDuration <= 9000; maxDuration += 900) {
+						Assert.assertEquals("n=" + n + ", from=" + fromIndex + ", max=" + maxDuration,
+								bruteForceNextCandidate(durations, removed, fromIndex, maxDuration), pool.getNextCandidate(fromIndex, maxDuration));
+					}
+				}
+				if (remaining == 0) break;
+
+				//every other time, the (first) tour with the minimum duration is removed
+				int index = remaining % 2 == 0 ? bruteForceNextCandidate(durations, removed, 0, bruteForceMinDuration(durations, removed))
+						: randomRemainingIndex(removed, random);
+				pool.remove(index);
+				removed[index] = true;
+			}
+		}
+	}
+
+	private static int bruteForceFirstIndexNotBefore(double[] latestArrivals, double time) {
+		for (int i = 0; i < latestArrivals.length; i++) {
+			if (latestArrivals[i] >= time) return i;
+		}
+		return latestArrivals.length;
+	}
+
+	private static int bruteForceNextCandidate(double[] durations, boolean[] removed, int fromIndex, double maxDuration) {
+		for (int i = fromIndex; i < durations.length; i++) {
+			if (!removed[i] && durations[i] <= maxDuration) return i;
+		}
+		return -1;
+	}
+
+	private static double bruteForceMinDuration(double[] durations, boolean[] removed) {
+		double min = Double.POSITIVE_INFINITY;
+		for (int i = 0; i < durations.length; i++) {
+			if (!removed[i]) min = Math.min(min, durations[i]);
+		}
+		return min;
+	}
+
+	private static int randomRemainingIndex(boolean[] removed, Random random) {
+		int index;
+		do {
+			index = random.nextInt(removed.length);
+		} while (removed[index]);
+		return index;
+	}
+
+	private FreightTourDataPlanned createTour(double duration, double latestArrival) {
+		return new FreightTourDataPlanned(ArrayList::new, depot, duration, 1800, 1, latestArrival, latestArrival);
+	}
+
+	private static Link createDepot() {
+		Network network = NetworkUtils.createNetwork();
+		Node from = NetworkUtils.createAndAddNode(network, Id.createNodeId("pool_0"), new Coord(0, 0));
+		Node to = NetworkUtils.createAndAddNode(network, Id.createNodeId("pool_1"), new Coord(100, 0));
+		return NetworkUtils.createAndAddLink(network, Id.createLinkId("pool_0_1"), from, to, 100, 10, 1000, 1);
+	}
+}
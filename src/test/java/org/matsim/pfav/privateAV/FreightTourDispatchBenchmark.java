@@ -0,0 +1,379 @@
+/* *********************************************************************** *
+ * project: org.matsim.*												   *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2008 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package org.matsim.pfav.privateAV;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.contrib.dvrp.fleet.DvrpVehicle;
+import org.matsim.contrib.dvrp.path.VrpPathWithTravelData;
+import org.matsim.contrib.dvrp.path.VrpPaths;
+import org.matsim.contrib.dvrp.router.DvrpGlobalRoutingNetworkProvider;
+import org.matsim.contrib.dvrp.router.TimeAsTravelDisutility;
+import org.matsim.contrib.dvrp.trafficmonitoring.DvrpTravelTimeModule;
+import org.matsim.contrib.freight.carrier.Carrier;
+import org.matsim.contrib.freight.carrier.CarrierPlan;
+import org.matsim.contrib.freight.carrier.CarrierService;
+import org.matsim.contrib.freight.carrier.CarrierUtils;
+import org.matsim.contrib.freight.carrier.CarrierVehicle;
+import org.matsim.contrib.freight.carrier.CarrierVehicleTypeReader;
+import org.matsim.contrib.freight.carrier.CarrierVehicleTypes;
+import org.matsim.contrib.freight.carrier.Carriers;
+import org.matsim.contrib.freight.carrier.ScheduledTour;
+import org.matsim.contrib.freight.carrier.TimeWindow;
+import org.matsim.contrib.freight.carrier.Tour;
+import org.matsim.contrib.taxi.schedule.TaxiStayTask;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.network.NetworkUtils;
+import org.matsim.core.network.io.MatsimNetworkReader;
+import org.matsim.core.population.routes.NetworkRoute;
+import org.matsim.core.population.routes.RouteUtils;
+import org.matsim.core.router.FastAStarLandmarksFactory;
+import org.matsim.core.router.util.LeastCostPathCalculator;
+import org.matsim.core.router.util.TravelTime;
+import org.matsim.core.trafficmonitoring.FreeSpeedTravelTime;
+import org.matsim.vehicles.VehicleType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.Guice;
+import com.google.inject.name.Names;
+
+/**
+ * JMH benchmarks of the freight tour dispatch of {@link FreightTourManagerListBasedImpl}, to get regression numbers before and after changes
+ * of the dispatch. this is not a JUnit test and is not run by the build.
+ * <p>
+ * the benchmarks use the mielec network and vehicle types (see scenarios/mielec) with synthetic carriers, so that the number of depots and the number of
+ * tours per depot can be varied. every depot gets a carrier with tours of {@link #SERVICES_PER_TOUR} services on random links, routed with free speed
+ * travel times. the mielec carriers file itself is not used, as it only contains the 5 depots of the mielec scenario.
+ * <p>
+ * run {@link #main(String[])} from the project directory, with the test classpath. the gc profiler is always added, so the allocation rate
+ * is reported next to the throughput. the usual JMH command line options can be handed over, e.g. -p numberOfDepots=50 or -f 3.
+ * <p>
+ * as dispatched tours are removed from the depots, {@link #vehicleRequestedFreightTour(DispatchState)} can not run an arbitrary number of
+ * invocations on the same state. it is measured in batches of {@link #REQUESTS_PER_ITERATION} requests on fresh depots instead, so the score is the
+ * time per batch and not the throughput.
+ *
+ * @author tschlenther
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+public class FreightTourDispatchBenchmark {
+
+    private static final String NETWORK = "scenarios/mielec/network.xml";
+    private static final String VEHICLE_TYPES = "scenarios/mielec/PFAVvehicleTypes.xml";
+    private static final Id<VehicleType> VEHICLE_TYPE = Id.create("PFAV", VehicleType.class);
+
+    private static final int SERVICES_PER_TOUR = 5;
+    private static final double SERVICE_DURATION = 5 * 60;
+    private static final int REQUESTS_PER_ITERATION = 200;
+    private static final int FEASIBILITY_CHECKS = 1000;
+    private static final long SEED = 4711;
+
+    /**
+     * network, carriers and config. the same for all benchmarks of a parameter combination.
+     */
+    @State(Scope.Benchmark)
+    public static class ScenarioState {
+
+        @Param({"5", "50", "200"})
+        public int numberOfDepots;
+
+        @Param({"10", "100"})
+        public int toursPerDepot;
+
+        Config config;
+        FreightAVConfigGroup pfavConfigGroup;
+        Network network;
+        TravelTime travelTime;
+        LeastCostPathCalculator router;
+        CarrierVehicleTypes vehicleTypes;
+        Carriers carriers;
+        List<ScheduledTour> scheduledTours;
+        List<Link> links;
+        int nextTourIdx;
+
+        @Setup
+        public void setup() {
+            //the manager logs every dispatched tour, which would dominate the numbers
+            Logger.getRootLogger().setLevel(Level.WARN);
+
+            pfavConfigGroup = new FreightAVConfigGroup();
+            pfavConfigGroup.setRunTourPlanningBeforeFirstIteration(false);
+            pfavConfigGroup.setFreightDemandSampleSize(1.);
+            config = ConfigUtils.createConfig(pfavConfigGroup);
+
+            network = NetworkUtils.createNetwork();
+            new MatsimNetworkReader(network).readFile(NETWORK);
+            links = new ArrayList<>(network.getLinks().values());
+            travelTime = new FreeSpeedTravelTime();
+            router = new FastAStarLandmarksFactory(config.global()).createPathCalculator(network, new TimeAsTravelDisutility(travelTime), travelTime);
+
+            vehicleTypes = new CarrierVehicleTypes();
+            new CarrierVehicleTypeReader(vehicleTypes).readFile(VEHICLE_TYPES);
+            createCarriers(new Random(SEED));
+        }
+
+        private void createCarriers(Random random) {
+            carriers = new Carriers();
+            scheduledTours = new ArrayList<>();
+            VehicleType vehicleType = vehicleTypes.getVehicleTypes().get(VEHICLE_TYPE);
+            for (int depot = 0; depot < numberOfDepots; depot++) {
+                Link depotLink = links.get(random.nextInt(links.size()));
+                Carrier carrier = CarrierUtils.createCarrier(Id.create("carrier_" + depot, Carrier.class));
+                CarrierVehicle vehicle = CarrierVehicle.Builder.newInstance(Id.createVehicleId("PFAV_" + depot), depotLink.getId())
+                        .setType(vehicleType)
+                        .setEarliestStart(0)
+                        .setLatestEnd(30 * 3600)
+                        .build();
+                CarrierUtils.addCarrierVehicle(carrier, vehicle);
+
+                List<ScheduledTour> tours = new ArrayList<>();
+                for (int tour = 0; tour < toursPerDepot; tour++) {
+                    tours.add(createTour(carrier, vehicle, depotLink, tour, random));
+                }
+                carrier.setSelectedPlan(new CarrierPlan(carrier, tours));
+                carriers.addCarrier(carrier);
+                scheduledTours.addAll(tours);
+            }
+        }
+
+        private ScheduledTour createTour(Carrier carrier, CarrierVehicle vehicle, Link depotLink, int tourIdx, Random random) {
+            double departureTime = pfavConfigGroup.getFreightTourEarliestStart()
+                    + random.nextDouble() * (pfavConfigGroup.getFreightTourLatestStart() - pfavConfigGroup.getFreightTourEarliestStart());
+            //the latest arrivals are spread, so that the dispatch skips some of the tours because of their time windows
+            double latestArrival = departureTime + 3600 + random.nextDouble() * 6 * 3600;
+
+            Tour.Builder tourBuilder = Tour.Builder.newInstance();
+            tourBuilder.scheduleStart(depotLink.getId());
+            double time = departureTime;
+            Link previousLink = depotLink;
+            for (int s = 0; s < SERVICES_PER_TOUR; s++) {
+                Link serviceLink = links.get(random.nextInt(links.size()));
+                CarrierService service = CarrierService.Builder.newInstance(Id.create(carrier.getId() + "_" + tourIdx + "_" + s, CarrierService.class), serviceLink.getId())
+                        .setCapacityDemand(1)
+                        .setServiceDuration(SERVICE_DURATION)
+                        .setServiceStartTimeWindow(TimeWindow.newInstance(0, latestArrival))
+                        .build();
+                CarrierUtils.addService(carrier, service);
+                time = addLeg(tourBuilder, previousLink, serviceLink, time);
+                tourBuilder.scheduleService(service);
+                time += SERVICE_DURATION;
+                previousLink = serviceLink;
+            }
+            addLeg(tourBuilder, previousLink, depotLink, time);
+            tourBuilder.scheduleEnd(depotLink.getId());
+            return ScheduledTour.newInstance(tourBuilder.build(), vehicle, departureTime);
+        }
+
+        /**
+         * @return the arrival time
+         */
+        private double addLeg(Tour.Builder tourBuilder, Link fromLink, Link toLink, double departureTime) {
+            NetworkRoute route;
+            double travelTime = 0;
+            if (fromLink == toLink) {
+                route = RouteUtils.createLinkNetworkRouteImpl(fromLink.getId(), new ArrayList<>(), toLink.getId());
+            } else {
+                LeastCostPathCalculator.Path path = router.calcLeastCostPath(fromLink.getToNode(), toLink.getFromNode(), departureTime, null, null);
+                route = RouteUtils.createLinkNetworkRouteImpl(fromLink.getId(), NetworkUtils.getLinkIds(path.links), toLink.getId());
+                travelTime = path.travelTime;
+            }
+            tourBuilder.addLeg(tourBuilder.createLeg(route, departureTime, travelTime));
+            return departureTime + travelTime;
+        }
+
+        int nextTour() {
+            int i = nextTourIdx;
+            nextTourIdx = (i + 1) % scheduledTours.size();
+            return i;
+        }
+
+        /**
+         * @return a manager with all tours of the carriers at their depots, as at the start of iteration 0
+         */
+        FreightTourManagerListBasedImpl createManager() {
+            FreightTourManagerListBasedImpl manager = Guice.createInjector(new AbstractModule() {
+                @Override
+                protected void configure() {
+                    bind(Config.class).toInstance(config);
+                    bind(PFAVDispatchMetrics.class).toInstance(new PFAVDispatchMetrics());
+                    bind(Network.class).annotatedWith(Names.named(DvrpGlobalRoutingNetworkProvider.DVRP_ROUTING)).toInstance(network);
+                    bind(TravelTime.class).annotatedWith(Names.named(DvrpTravelTimeModule.DVRP_ESTIMATED)).toInstance(travelTime);
+                    bind(Carriers.class).annotatedWith(Names.named(FreightAVConfigGroup.GROUP_NAME)).toInstance(carriers);
+                    bind(CarrierVehicleTypes.class).annotatedWith(Names.named(FreightAVConfigGroup.GROUP_NAME)).toInstance(vehicleTypes);
+                }
+            }).getInstance(FreightTourManagerListBasedImpl.class);
+            manager.prepareIteration(0);
+            return manager;
+        }
+
+        /**
+         * @return a vehicle that requests a tour on a random link between the earliest and the latest start of freight tours and that needs to be back
+         * at a random link 2 to 10 hours later
+         */
+        PFAVehicle createVehicle(int idx, Random random) {
+            Link requestLink = links.get(random.nextInt(links.size()));
+            double requestTime = pfavConfigGroup.getFreightTourEarliestStart()
+                    + random.nextDouble() * (pfavConfigGroup.getFreightTourLatestStart() - pfavConfigGroup.getFreightTourEarliestStart());
+            LinkedList<PFAVehicle.MustReturnLinkTimePair> mustReturnToOwnerLinkTimePairs = new LinkedList<>();
+            mustReturnToOwnerLinkTimePairs.add(new PFAVehicle.MustReturnLinkTimePair(requestTime + 2 * 3600 + random.nextDouble() * 8 * 3600,
+                    links.get(random.nextInt(links.size())).getId()));
+
+            PFAVSpecification specification = PFAVSpecification.newBuilder()
+                    .id(Id.create("pfav_" + idx, DvrpVehicle.class))
+                    .startLinkId(requestLink.getId())
+                    .capacity(4)
+                    .serviceBeginTime(requestTime - 60)
+                    .serviceEndTime(30 * 3600)
+                    .mustReturnToOwnerLinkTimePairs(mustReturnToOwnerLinkTimePairs)
+                    .build();
+            PFAVehicle vehicle = (PFAVehicle) PFAVehicle.createWithLinkProvider(specification, requestLink);
+            //the request is made at the end of the current task, just like after a passenger drop off
+            vehicle.getSchedule().addTask(new TaxiStayTask(requestTime - 60, requestTime, requestLink));
+            vehicle.getSchedule().nextTask();
+            return vehicle;
+        }
+    }
+
+    /**
+     * fresh depots and requesting vehicles for every iteration, as the dispatch removes the tours from the depots
+     */
+    @State(Scope.Benchmark)
+    public static class DispatchState {
+        FreightTourManagerListBasedImpl manager;
+        LeastCostPathCalculator router;
+        List<PFAVehicle> vehicles;
+        int nextVehicle;
+
+        @Setup(org.openjdk.jmh.annotations.Level.Iteration)
+        public void setup(ScenarioState scenario) {
+            manager = scenario.createManager();
+            router = scenario.router;
+            Random random = new Random(SEED);
+            vehicles = new ArrayList<>(REQUESTS_PER_ITERATION);
+            for (int i = 0; i < REQUESTS_PER_ITERATION; i++) {
+                vehicles.add(scenario.createVehicle(i, random));
+            }
+            nextVehicle = 0;
+        }
+    }
+
+    /**
+     * pairs of vehicles and tours, with the path of the vehicle to the tour's depot
+     */
+    @State(Scope.Benchmark)
+    public static class FeasibilityState {
+        FreightTourManagerListBasedImpl manager;
+        LeastCostPathCalculator router;
+        PFAVehicle[] vehicles = new PFAVehicle[FEASIBILITY_CHECKS];
+        VrpPathWithTravelData[] pathsToDepot = new VrpPathWithTravelData[FEASIBILITY_CHECKS];
+        double[] waitTimesAtDepot = new double[FEASIBILITY_CHECKS];
+        FreightTourDataPlanned[] tours = new FreightTourDataPlanned[FEASIBILITY_CHECKS];
+        int nextCheck;
+
+        @Setup
+        public void setup(ScenarioState scenario) {
+            manager = scenario.createManager();
+            router = scenario.router;
+            Random random = new Random(SEED);
+            List<FreightTourDataPlanned> allTours = manager.getPFAVTours();
+            for (int i = 0; i < FEASIBILITY_CHECKS; i++) {
+                vehicles[i] = scenario.createVehicle(i, random);
+                tours[i] = allTours.get(random.nextInt(allTours.size()));
+                Link requestLink = vehicles[i].getStartLink();
+                double requestTime = vehicles[i].getSchedule().getCurrentTask().getEndTime();
+                pathsToDepot[i] = VrpPaths.calcAndCreatePath(requestLink, tours[i].getDepotLink(), requestTime, router, scenario.travelTime);
+                //the vehicles request after the earliest start, so they never wait. otherwise, every feasible check would insert another wait task into the tour
+                waitTimesAtDepot[i] = manager.computeWaitTimeAtDepot(pathsToDepot[i]);
+            }
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 5, batchSize = REQUESTS_PER_ITERATION)
+    @Measurement(iterations = 10, batchSize = REQUESTS_PER_ITERATION)
+    public Object vehicleRequestedFreightTour(DispatchState state) {
+        PFAVehicle vehicle = state.vehicles.get(state.nextVehicle++);
+        return state.manager.vehicleRequestedFreightTour(vehicle, state.router);
+    }
+
+    @Benchmark
+    public boolean isEnoughTimeLeftToPerformFreightTour(FeasibilityState state) {
+        int i = state.nextCheck;
+        state.nextCheck = (i + 1) % FEASIBILITY_CHECKS;
+        return state.manager.isEnoughTimeLeftToPerformFreightTour(state.vehicles[i], state.pathsToDepot[i], state.waitTimesAtDepot[i], state.tours[i],
+                state.router);
+    }
+
+    @Benchmark
+    public Object convertToPFAVTourData(ScenarioState scenario) {
+        ScheduledTour tour = scenario.scheduledTours.get(scenario.nextTour());
+        return FreightTourPlanning.convertToPFAVTourData(tour, scenario.network, scenario.travelTime, scenario.pfavConfigGroup);
+    }
+
+    /**
+     * for comparison with {@link #convertToPFAVTourData(ScenarioState)}: the task list that is only built once the tour is dispatched
+     */
+    @Benchmark
+    public Object createTourTasks(ScenarioState scenario) {
+        ScheduledTour tour = scenario.scheduledTours.get(scenario.nextTour());
+        return FreightTourPlanning.createTourTasks(tour, scenario.network, scenario.travelTime, scenario.pfavConfigGroup);
+    }
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        Options options = new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .include(FreightTourDispatchBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
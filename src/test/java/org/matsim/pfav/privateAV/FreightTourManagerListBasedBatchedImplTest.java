@@ -0,0 +1,237 @@
+package org.matsim.pfav.privateAV;
+
+import com.google.inject.AbstractModule;
+import com.google.inject.Guice;
+import com.google.inject.name.Names;
+import org.junit.Assert;
+import org.junit.Test;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.contrib.dvrp.fleet.DvrpVehicle;
+import org.matsim.contrib.dvrp.fleet.FleetSpecificationImpl;
+import org.matsim.contrib.dvrp.fleet.Fleets;
+import org.matsim.contrib.dvrp.router.DvrpGlobalRoutingNetworkProvider;
+import org.matsim.contrib.dvrp.router.TimeAsTravelDisutility;
+import org.matsim.contrib.dvrp.schedule.Task;
+import org.matsim.contrib.dvrp.trafficmonitoring.DvrpTravelTimeModule;
+import org.matsim.contrib.freight.carrier.Carrier;
+import org.matsim.contrib.freight.carrier.CarrierPlan;
+import org.matsim.contrib.freight.carrier.CarrierService;
+import org.matsim.contrib.freight.carrier.CarrierUtils;
+import org.matsim.contrib.freight.carrier.CarrierVehicle;
+import org.matsim.contrib.freight.carrier.CarrierVehicleTypes;
+import org.matsim.contrib.freight.carrier.Carriers;
+import org.matsim.contrib.freight.carrier.ScheduledTour;
+import org.matsim.contrib.freight.carrier.TimeWindow;
+import org.matsim.contrib.freight.carrier.Tour;
+import org.matsim.contrib.taxi.run.TaxiConfigGroup;
+import org.matsim.contrib.taxi.schedule.TaxiStayTask;
+import org.matsim.core.api.experimental.events.EventsManager;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.events.EventsUtils;
+import org.matsim.core.mobsim.framework.MobsimTimer;
+import org.matsim.core.network.NetworkUtils;
+import org.matsim.core.population.routes.RouteUtils;
+import org.matsim.core.router.DijkstraFactory;
+import org.matsim.core.router.util.LeastCostPathCalculator;
+import org.matsim.core.router.util.TravelTime;
+import org.matsim.core.trafficmonitoring.FreeSpeedTravelTime;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+public class FreightTourManagerListBasedBatchedImplTest {
+
+	private static final double REQUEST_TIME = 8 * 3600;
+	private static final Id<Link> DEPOT = Id.createLinkId("batched_1_2");
+	private static final Id<Link> OWNER = Id.createLinkId("batched_0_1");
+
+	private static final double SHORT_SERVICE_DURATION = 600;
+	private static final double LONG_SERVICE_DURATION = 3600;
+	//a retool task before and after the service, no driving as the service is at the depot
+	private static final double SHORT_TOUR_DURATION = 2 * 900 + SHORT_SERVICE_DURATION;
+	private static final double LONG_TOUR_DURATION = 2 * 900 + LONG_SERVICE_DURATION;
+
+	private final Network network = createNetwork();
+	private final TravelTime travelTime = new FreeSpeedTravelTime();
+	private final LeastCostPathCalculator router = new DijkstraFactory().createPathCalculator(network, new TimeAsTravelDisutility(travelTime), travelTime);
+
+	/**
+	 * vehicle a can perform both tours, vehicle b only the short one. served one after another, a takes the short tour (it has the earlier latest
+	 * arrival) and b gets nothing. the batch gives the long tour to a and the short one to b.
+	 */
+	@Test
+	public final void testBatchServesMoreVehiclesThanSequentialDispatch() {
+		FreightAVConfigGroup pfavConfigGroup = createConfigGroup();
+		PFAVehicle a = createVehicle("a", REQUEST_TIME + 20000);
+		PFAVehicle b = createVehicle("b", REQUEST_TIME + 4000);
+
+		FreightTourManagerListBasedImpl sequentialManager = createManager(pfavConfigGroup, FreightTourManagerListBasedImpl.class);
+		Map<PFAVehicle, FreightTourDataPlanned> sequential = sequentialManager.vehiclesRequestedFreightTours(Arrays.asList(a, b), router);
+		Assert.assertEquals(1, sequential.size());
+		Assert.assertEquals(SHORT_TOUR_DURATION, sequential.get(a).getPlannedTourDuration(), 0);
+		Assert.assertEquals(1, sequentialManager.getDepotTours(getDepot()).size());
+
+		a = createVehicle("a", REQUEST_TIME + 20000);
+		b = createVehicle("b", REQUEST_TIME + 4000);
+		FreightTourManagerListBasedImpl batchedManager = createManager(pfavConfigGroup, FreightTourManagerListBasedBatchedImpl.class);
+		Map<PFAVehicle, FreightTourDataPlanned> batched = batchedManager.vehiclesRequestedFreightTours(Arrays.asList(a, b), router);
+		Assert.assertEquals(2, batched.size());
+		Assert.assertEquals(LONG_TOUR_DURATION, batched.get(a).getPlannedTourDuration(), 0);
+		Assert.assertEquals(SHORT_TOUR_DURATION, batched.get(b).getPlannedTourDuration(), 0);
+		for (FreightTourDataPlanned tour : batched.values()) {
+			Assert.assertNotNull("the access drive needs to be set for the scheduler", tour.getAccessDriveTask());
+			Assert.assertEquals(getDepot(), tour.getAccessDriveTask().getPath().getToLink());
+		}
+		//empty depots are kept by default
+		Assert.assertTrue(batchedManager.getDepotTours(getDepot()).isEmpty());
+	}
+
+	@Test
+	public final void testEmptyDepotIsRemoved() {
+		FreightAVConfigGroup pfavConfigGroup = createConfigGroup();
+		pfavConfigGroup.setAllowEmptyTourListsForDepots(false);
+		FreightTourManagerListBasedImpl manager = createManager(pfavConfigGroup, FreightTourManagerListBasedBatchedImpl.class);
+		Map<PFAVehicle, FreightTourDataPlanned> batched = manager.vehiclesRequestedFreightTours(
+				Arrays.asList(createVehicle("a", REQUEST_TIME + 20000), createVehicle("b", REQUEST_TIME + 4000)), router);
+		Assert.assertEquals(2, batched.size());
+		Assert.assertNull(manager.getDepotTours(getDepot()));
+		Assert.assertTrue(manager.findNearestDepots(network.getLinks().get(OWNER)).isEmpty());
+	}
+
+	/**
+	 * the stay task of a vehicle that did not get a tour in the batch needs to last until the end of service again
+	 */
+	@Test
+	public final void testRejectedVehiclesStayUntilServiceEnd() {
+		FreightAVConfigGroup pfavConfigGroup = createConfigGroup();
+		pfavConfigGroup.setBatchedDispatch(true);
+		FreightTourManagerListBasedImpl manager = createManager(pfavConfigGroup, FreightTourManagerListBasedBatchedImpl.class);
+		MobsimTimer timer = new MobsimTimer();
+		timer.setTime(REQUEST_TIME);
+		EventsManager events = EventsUtils.createEventsManager();
+		PFAVScheduler scheduler = new PFAVScheduler(new TaxiConfigGroup(), Fleets.createCustomFleet(new FleetSpecificationImpl(), s -> null), network,
+				timer, travelTime, router, events, manager, pfavConfigGroup, new StepPathCache(0, travelTime), new PFAVDispatchMetrics());
+
+		//both need to be back before even the short tour could be finished
+		List<PFAVehicle> vehicles = Arrays.asList(createVehicle("c", REQUEST_TIME + 1000), createVehicle("d", REQUEST_TIME + 1000));
+		events.initProcessing();
+		vehicles.forEach(scheduler::requestFreightTourInNextBatch);
+		scheduler.dispatchCollectedFreightTourRequests();
+		events.finishProcessing();
+
+		for (PFAVehicle vehicle : vehicles) {
+			Task stayTask = vehicle.getSchedule().getCurrentTask();
+			Assert.assertTrue(stayTask instanceof TaxiStayTask);
+			Assert.assertEquals(1, vehicle.getSchedule().getTaskCount());
+			Assert.assertEquals(vehicle.getServiceEndTime(), stayTask.getEndTime(), 0);
+		}
+		Assert.assertEquals(2, manager.getDepotTours(getDepot()).size());
+	}
+
+	private static FreightAVConfigGroup createConfigGroup() {
+		FreightAVConfigGroup pfavConfigGroup = new FreightAVConfigGroup();
+		pfavConfigGroup.setRunTourPlanningBeforeFirstIteration(false);
+		pfavConfigGroup.setFreightDemandSampleSize(1.);
+		return pfavConfigGroup;
+	}
+
+	/**
+	 * @return a manager with the short tour (latest arrival at 20:00) and the long tour (latest arrival at 22:00) at the depot
+	 */
+	private <T extends FreightTourManagerListBasedImpl> T createManager(FreightAVConfigGroup pfavConfigGroup, Class<T> managerClass) {
+		Config config = ConfigUtils.createConfig(pfavConfigGroup);
+		Carriers carriers = new Carriers();
+		Carrier carrier = CarrierUtils.createCarrier(Id.create("batched", Carrier.class));
+		CarrierVehicle carrierVehicle = CarrierVehicle.newInstance(Id.createVehicleId("batched"), DEPOT);
+		CarrierUtils.addCarrierVehicle(carrier, carrierVehicle);
+		List<ScheduledTour> tours = Arrays.asList(
+				createTour(carrier, carrierVehicle, "short", SHORT_SERVICE_DURATION, 20 * 3600),
+				createTour(carrier, carrierVehicle, "long", LONG_SERVICE_DURATION, 22 * 3600));
+		carrier.setSelectedPlan(new CarrierPlan(carrier, tours));
+		carriers.addCarrier(carrier);
+
+		T manager = Guice.createInjector(new AbstractModule() {
+			@Override
+			protected void configure() {
+				bind(Config.class).toInstance(config);
+				bind(PFAVDispatchMetrics.class).toInstance(new PFAVDispatchMetrics());
+				bind(Network.class).annotatedWith(Names.named(DvrpGlobalRoutingNetworkProvider.DVRP_ROUTING)).toInstance(network);
+				bind(TravelTime.class).annotatedWith(Names.named(DvrpTravelTimeModule.DVRP_ESTIMATED)).toInstance(travelTime);
+				bind(Carriers.class).annotatedWith(Names.named(FreightAVConfigGroup.GROUP_NAME)).toInstance(carriers);
+				bind(CarrierVehicleTypes.class).annotatedWith(Names.named(FreightAVConfigGroup.GROUP_NAME)).toInstance(new CarrierVehicleTypes());
+			}
+		}).getInstance(managerClass);
+		manager.prepareIteration(0);
+		return manager;
+	}
+
+	/**
+	 * a single service on the depot link
+	 */
+	private static ScheduledTour createTour(Carrier carrier, CarrierVehicle carrierVehicle, String id, double serviceDuration, double latestArrival) {
+		CarrierService service = CarrierService.Builder.newInstance(Id.create(id, CarrierService.class), DEPOT)
+				.setCapacityDemand(1)
+				.setServiceDuration(serviceDuration)
+				.setServiceStartTimeWindow(TimeWindow.newInstance(0, latestArrival))
+				.build();
+		CarrierUtils.addService(carrier, service);
+		Tour.Builder tourBuilder = Tour.Builder.newInstance();
+		tourBuilder.scheduleStart(DEPOT);
+		tourBuilder.addLeg(tourBuilder.createLeg(RouteUtils.createLinkNetworkRouteImpl(DEPOT, Collections.emptyList(), DEPOT), REQUEST_TIME, 0));
+		tourBuilder.scheduleService(service);
+		tourBuilder.addLeg(tourBuilder.createLeg(RouteUtils.createLinkNetworkRouteImpl(DEPOT, Collections.emptyList(), DEPOT),
+				REQUEST_TIME + serviceDuration, 0));
+		tourBuilder.scheduleEnd(DEPOT);
+		return ScheduledTour.newInstance(tourBuilder.build(), carrierVehicle, REQUEST_TIME);
+	}
+
+	/**
+	 * a vehicle that requests a tour on the owner link, a few minutes away from the depot, and needs to be back there at the given time
+	 */
+	private PFAVehicle createVehicle(String id, double mustReturnTime) {
+		Link requestLink = network.getLinks().get(OWNER);
+		LinkedList<PFAVehicle.MustReturnLinkTimePair> mustReturnToOwnerLinkTimePairs = new LinkedList<>();
+		mustReturnToOwnerLinkTimePairs.add(new PFAVehicle.MustReturnLinkTimePair(mustReturnTime, OWNER));
+		PFAVSpecification specification = PFAVSpecification.newBuilder()
+				.id(Id.create("batched_" + id, DvrpVehicle.class))
+				.startLinkId(OWNER)
+				.capacity(4)
+				.serviceBeginTime(0)
+				.serviceEndTime(30 * 3600)
+				.mustReturnToOwnerLinkTimePairs(mustReturnToOwnerLinkTimePairs)
+				.build();
+		PFAVehicle vehicle = (PFAVehicle) PFAVehicle.createWithLinkProvider(specification, requestLink);
+		//the request is made at the end of the current task, just like after a passenger drop off
+		vehicle.getSchedule().addTask(new TaxiStayTask(REQUEST_TIME - 60, REQUEST_TIME, requestLink));
+		vehicle.getSchedule().nextTask();
+		return vehicle;
+	}
+
+	private Link getDepot() {
+		return network.getLinks().get(DEPOT);
+	}
+
+	/**
+	 * nodes 0, 1 and 2, links of 1 km links in both directions with 10 m/s
+	 */
+	private static Network createNetwork() {
+		Network network = NetworkUtils.createNetwork();
+		Node[] nodes = new Node[3];
+		for (int i = 0; i < nodes.length; i++) {
+			nodes[i] = NetworkUtils.createAndAddNode(network, Id.createNodeId("batched_" + i), new Coord(i * 1000, i * 100));
+		}
+		for (int i = 0; i < nodes.length - 1; i++) {
+			NetworkUtils.createAndAddLink(network, Id.createLinkId("batched_" + i + "_" + (i + 1)), nodes[i], nodes[i + 1], 1000, 10, 1000, 1);
+			NetworkUtils.createAndAddLink(network, Id.createLinkId("batched_" + (i + 1) + "_" + i), nodes[i + 1], nodes[i], 1000, 10, 1000, 1);
+		}
+		return network;
+	}
+}
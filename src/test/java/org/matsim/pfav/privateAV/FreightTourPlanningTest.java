@@ -0,0 +1,113 @@
+package org.matsim.pfav.privateAV;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.contrib.dvrp.schedule.Task;
+import org.matsim.contrib.freight.carrier.CarrierService;
+import org.matsim.contrib.freight.carrier.CarrierVehicle;
+import org.matsim.contrib.freight.carrier.ScheduledTour;
+import org.matsim.contrib.freight.carrier.TimeWindow;
+import org.matsim.contrib.freight.carrier.Tour;
+import org.matsim.core.network.NetworkUtils;
+import org.matsim.core.population.routes.RouteUtils;
+import org.matsim.core.router.util.TravelTime;
+import org.matsim.core.trafficmonitoring.FreeSpeedTravelTime;
+
+import java.util.Collections;
+import java.util.List;
+
+public class FreightTourPlanningTest {
+
+	private static final double DEPARTURE = 8 * 3600;
+
+	/**
+	 * the times of the lazily converted tour need to be the same as the ones of the task list that is built on dispatch
+	 */
+	@Test
+	public final void testConversionMatchesTourTasks() {
+		Network network = createRingNetwork();
+		TravelTime travelTime = new FreeSpeedTravelTime();
+		FreightAVConfigGroup pfavConfigGroup = new FreightAVConfigGroup();
+		ScheduledTour tour = createTour(network);
+
+		FreightTourDataPlanned data = FreightTourPlanning.convertToPFAVTourData(tour, network, travelTime, pfavConfigGroup);
+		List<Task> tasks = FreightTourPlanning.createTourTasks(tour, network, travelTime, pfavConfigGroup);
+
+		//retool, drive, service, drive, service, drive, service, return drive, retool
+		Assert.assertEquals(9, tasks.size());
+		Task lastService = tasks.get(tasks.size() - 3);
+		Assert.assertTrue(lastService instanceof PFAVServiceTask);
+		Assert.assertEquals(lastService.getBeginTime(), data.getTravelTimeToLastService(), 0);
+		Assert.assertEquals(tasks.get(tasks.size() - 1).getEndTime(), data.getPlannedEndTime(), 0);
+		Assert.assertEquals(tasks.get(tasks.size() - 1).getEndTime() - tasks.get(0).getBeginTime(), data.getPlannedTourDuration(), 0);
+		Assert.assertEquals(DEPARTURE - pfavConfigGroup.getPfavReToolTime(), tasks.get(0).getBeginTime(), 0);
+		Assert.assertEquals(6, data.getPlannedTotalCapacityDemand());
+		Assert.assertEquals(14 * 3600, data.getLatestArrivalAtLastService(), 0);
+		Assert.assertEquals(network.getLinks().get(Id.createLinkId("0_1")), data.getDepotLink());
+
+		List<Task> dispatchedTasks = data.getTourTasks();
+		Assert.assertEquals(tasks.size(), dispatchedTasks.size());
+		for (int i = 0; i < tasks.size(); i++) {
+			Assert.assertEquals(tasks.get(i).getBeginTime(), dispatchedTasks.get(i).getBeginTime(), 0);
+			Assert.assertEquals(tasks.get(i).getEndTime(), dispatchedTasks.get(i).getEndTime(), 0);
+		}
+	}
+
+	private static Network createRingNetwork() {
+		Network network = NetworkUtils.createNetwork();
+		Node[] nodes = new Node[4];
+		for (int i = 0; i < nodes.length; i++) {
+			nodes[i] = NetworkUtils.createAndAddNode(network, Id.createNodeId("planning_" + i), new Coord(i == 1 || i == 2 ? 1000 : 0, i >= 2 ? 1000 : 0));
+		}
+		for (int i = 0; i < nodes.length; i++) {
+			int next = (i + 1) % nodes.length;
+			NetworkUtils.createAndAddLink(network, Id.createLinkId(i + "_" + next), nodes[i], nodes[next], 1000, 7.5, 1000, 1);
+		}
+		return network;
+	}
+
+	/**
+	 * depot 0_1, services on 2_3 and twice on 3_0 (so one of the legs starts and ends on the same link)
+	 */
+	private static ScheduledTour createTour(Network network) {
+		Id<Link> depot = Id.createLinkId("0_1");
+		Tour.Builder tourBuilder = Tour.Builder.newInstance();
+		tourBuilder.scheduleStart(depot);
+		double time = DEPARTURE;
+		time = addLeg(tourBuilder, network, depot, Collections.singletonList(Id.createLinkId("1_2")), Id.createLinkId("2_3"), time);
+		tourBuilder.scheduleService(createService("s1", "2_3", 10 * 3600, 1));
+		time += 600;
+		time = addLeg(tourBuilder, network, Id.createLinkId("2_3"), Collections.emptyList(), Id.createLinkId("3_0"), time);
+		tourBuilder.scheduleService(createService("s2", "3_0", 12 * 3600, 2));
+		time += 600;
+		time = addLeg(tourBuilder, network, Id.createLinkId("3_0"), Collections.emptyList(), Id.createLinkId("3_0"), time);
+		tourBuilder.scheduleService(createService("s3", "3_0", 14 * 3600, 3));
+		time += 600;
+		addLeg(tourBuilder, network, Id.createLinkId("3_0"), Collections.emptyList(), depot, time);
+		tourBuilder.scheduleEnd(depot);
+		CarrierVehicle vehicle = CarrierVehicle.newInstance(Id.createVehicleId("planning"), depot);
+		return ScheduledTour.newInstance(tourBuilder.build(), vehicle, DEPARTURE);
+	}
+
+	private static double addLeg(Tour.Builder tourBuilder, Network network, Id<Link> from, List<Id<Link>> links, Id<Link> to, double departureTime) {
+		double travelTime = 0;
+		for (Id<Link> link : links) {
+			travelTime += NetworkUtils.getFreespeedTravelTime(network.getLinks().get(link));
+		}
+		tourBuilder.addLeg(tourBuilder.createLeg(RouteUtils.createLinkNetworkRouteImpl(from, links, to), departureTime, travelTime));
+		return departureTime + travelTime;
+	}
+
+	private static CarrierService createService(String id, String linkId, double latestArrival, int capacityDemand) {
+		return CarrierService.Builder.newInstance(Id.create(id, CarrierService.class), Id.createLinkId(linkId))
+				.setCapacityDemand(capacityDemand)
+				.setServiceDuration(600)
+				.setServiceStartTimeWindow(TimeWindow.newInstance(0, latestArrival))
+				.build();
+	}
+}
@@ -0,0 +1,168 @@
+package org.matsim.pfav.privateAV;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.population.Activity;
+import org.matsim.api.core.v01.population.Leg;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.api.core.v01.population.Plan;
+import org.matsim.api.core.v01.population.Population;
+import org.matsim.api.core.v01.population.PopulationFactory;
+import org.matsim.contrib.dvrp.fleet.DvrpVehicle;
+import org.matsim.contrib.dvrp.fleet.FleetSpecificationImpl;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.population.routes.RouteUtils;
+import org.matsim.core.scenario.ScenarioUtils;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+public class PFAVFleetStatsCalculatorTest {
+
+	private static final String MODE = "taxi";
+	private static final int NUMBER_OF_PERSONS = 50;
+
+	private final Scenario scenario = ScenarioUtils.createScenario(ConfigUtils.createConfig(new FreightAVConfigGroup()));
+	private final Population population = scenario.getPopulation();
+	private final PFAVFleetStatsCalculator calculator;
+
+	public PFAVFleetStatsCalculatorTest() {
+		Assert.assertTrue(ConfigUtils.addOrGetModule(scenario.getConfig(), FreightAVConfigGroup.class).isIncrementalFleetSpecificationUpdate());
+		for (int i = 0; i < NUMBER_OF_PERSONS; i++) {
+			Person person = population.getFactory().createPerson(Id.createPersonId(i));
+			person.addPlan(createPlan(i % 3 == 0 ? "car" : MODE, "link_" + i, "link_" + (i + 1), 6 * 3600 + i * 60));
+			population.addPerson(person);
+		}
+		calculator = new PFAVFleetStatsCalculator(new FleetSpecificationImpl(), scenario, MODE);
+	}
+
+	@Test
+	public final void testIncrementalUpdateEqualsFullRebuild() {
+		assertSameFleet();
+
+		Person person = getPerson(1);
+		getActivity(person, 2).setEndTime(19 * 3600);
+		assertSameFleet();
+
+		//from PFAV to car and back
+		getLeg(person, 1).setMode("car");
+		getLeg(person, 3).setMode("car");
+		assertSameFleet();
+		getLeg(person, 1).setMode(MODE);
+		getLeg(person, 3).setMode(MODE);
+		assertSameFleet();
+
+		//from car to PFAV
+		person = getPerson(3);
+		getLeg(person, 1).setMode(MODE);
+		getLeg(person, 3).setMode(MODE);
+		assertSameFleet();
+
+		person = getPerson(2);
+		getLeg(person, 1).setRoute(RouteUtils.createLinkNetworkRouteImpl(Id.createLinkId("other"), Collections.emptyList(), Id.createLinkId("link_3")));
+		assertSameFleet();
+
+		person = getPerson(4);
+		getActivity(person, 2).setLinkId(Id.createLinkId("other"));
+		assertSameFleet();
+
+		//the work activity has no end time anymore, so the departure time of the leg after it is read
+		person = getPerson(5);
+		getActivity(person, 2).setEndTimeUndefined();
+		getLeg(person, 3).setDepartureTime(17 * 3600);
+		assertSameFleet();
+		getLeg(person, 3).setDepartureTime(16 * 3600);
+		assertSameFleet();
+
+		//selection of another plan
+		person = getPerson(7);
+		Plan otherPlan = createPlan(MODE, "link_20", "link_21", 5 * 3600);
+		person.addPlan(otherPlan);
+		person.setSelectedPlan(otherPlan);
+		assertSameFleet();
+
+		population.removePerson(Id.createPersonId(8));
+		Person newPerson = population.getFactory().createPerson(Id.createPersonId("new"));
+		newPerson.addPlan(createPlan(MODE, "link_0", "link_1", 7 * 3600));
+		population.addPerson(newPerson);
+		assertSameFleet();
+	}
+
+	@Test
+	public final void testUnchangedSpecificationsAreKept() {
+		List<PFAVSpecification> first = calculator.determinePFAVsForIterationIncrementally();
+		getActivity(getPerson(1), 2).setEndTime(19 * 3600);
+		List<PFAVSpecification> second = calculator.determinePFAVsForIterationIncrementally();
+
+		Assert.assertEquals(first.size(), second.size());
+		Id<DvrpVehicle> changed = PFAVUtils.generatePFAVIdFromPersonId(Id.createPersonId(1));
+		for (int i = 0; i < first.size(); i++) {
+			Assert.assertEquals(first.get(i).getId(), second.get(i).getId());
+			if (first.get(i).getId().equals(changed)) {
+				Assert.assertNotSame(first.get(i), second.get(i));
+				Assert.assertEquals(19 * 3600, second.get(i).getMustReturnToOwnerLinkTimePairs().get(1).getTime(), 0);
+			} else {
+				Assert.assertSame(first.get(i), second.get(i));
+			}
+		}
+	}
+
+	private void assertSameFleet() {
+		Map<Id<DvrpVehicle>, String> incremental = toMap(calculator.determinePFAVsForIterationIncrementally());
+		Map<Id<DvrpVehicle>, String> full = toMap(calculator.determinePFAVsForIteration());
+		Assert.assertFalse(full.isEmpty());
+		Assert.assertEquals(full, incremental);
+	}
+
+	private static Map<Id<DvrpVehicle>, String> toMap(List<PFAVSpecification> specifications) {
+		Map<Id<DvrpVehicle>, String> map = new TreeMap<>();
+		//toString contains all fields, including the must return times
+		specifications.forEach(specification -> Assert.assertNull("duplicate vehicle " + specification.getId(),
+				map.put(specification.getId(), specification.toString())));
+		return map;
+	}
+
+	private Person getPerson(int i) {
+		return population.getPersons().get(Id.createPersonId(i));
+	}
+
+	private static Activity getActivity(Person person, int index) {
+		return (Activity) person.getSelectedPlan().getPlanElements().get(index);
+	}
+
+	private static Leg getLeg(Person person, int index) {
+		return (Leg) person.getSelectedPlan().getPlanElements().get(index);
+	}
+
+	/**
+	 * home - work - home
+	 */
+	private Plan createPlan(String mode, String homeLink, String workLink, double homeEndTime) {
+		PopulationFactory factory = population.getFactory();
+		Id<Link> home = Id.createLinkId(homeLink);
+		Id<Link> work = Id.createLinkId(workLink);
+		Plan plan = factory.createPlan();
+
+		Activity homeActivity = factory.createActivityFromLinkId("home", home);
+		homeActivity.setEndTime(homeEndTime);
+		plan.addActivity(homeActivity);
+		Leg leg = factory.createLeg(mode);
+		leg.setRoute(RouteUtils.createLinkNetworkRouteImpl(home, Collections.emptyList(), work));
+		plan.addLeg(leg);
+
+		Activity workActivity = factory.createActivityFromLinkId("work", work);
+		workActivity.setEndTime(homeEndTime + 9 * 3600);
+		plan.addActivity(workActivity);
+		leg = factory.createLeg(mode);
+		leg.setRoute(RouteUtils.createLinkNetworkRouteImpl(work, Collections.emptyList(), home));
+		plan.addLeg(leg);
+
+		plan.addActivity(factory.createActivityFromLinkId("home", home));
+		return plan;
+	}
+}
@@ -0,0 +1,134 @@
+package org.matsim.pfav.privateAV;
+
+import com.graphhopper.jsprit.core.problem.Location;
+import com.graphhopper.jsprit.core.problem.vehicle.Vehicle;
+import com.graphhopper.jsprit.core.problem.vehicle.VehicleImpl;
+import com.graphhopper.jsprit.core.problem.vehicle.VehicleTypeImpl;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.contrib.freight.jsprit.NetworkBasedTransportCosts;
+import org.matsim.core.network.NetworkUtils;
+import org.matsim.testcases.MatsimTestUtils;
+import org.matsim.vehicles.VehicleType;
+import org.matsim.vehicles.VehicleUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+public class PersistentTransportCostsCacheTest {
+
+	private static final int TIME_SLICE = 1800;
+	private static final double LAST_SLICE_START = 30 * 3600;
+
+	@Rule
+	public MatsimTestUtils utils = new MatsimTestUtils();
+
+	private final Network network = createNetwork();
+	private final List<VehicleType> vehicleTypes = Arrays.asList(createVehicleType("cheap", 0.001), createVehicleType("expensive", 0.01));
+	private final Vehicle cheap = createVehicle("cheap");
+	private final Vehicle expensive = createVehicle("expensive");
+	private final Location from = Location.newInstance("cache_0_1");
+	private final Location to = Location.newInstance("cache_2_3");
+
+	@Test
+	public final void testSaveAndLoad() throws IOException {
+		Path directory = Paths.get(utils.getOutputDirectory());
+		PersistentTransportCostsCache cache = load(directory);
+		double[] values = query(cache);
+		double delegateTime = cache.getDelegate().getTransportTime(to, from, 8 * 3600, null, cheap);
+		cache.save();
+
+		Path file = getCacheFile(directory);
+		FileTime written = Files.getLastModifiedTime(file);
+
+		PersistentTransportCostsCache loaded = load(directory);
+		Assert.assertArrayEquals(values, query(loaded), 0);
+		//the delegate of the loaded cache has not routed anything yet, so it's router is asked for the path, which is in the file
+		Assert.assertEquals(delegateTime, loaded.getDelegate().getTransportTime(to, from, 8 * 3600, null, cheap), 0);
+
+		loaded.save();
+		Assert.assertEquals("all values and paths should have been read from the file", written, Files.getLastModifiedTime(file));
+	}
+
+	@Test
+	public final void testLateDeparturesShareTheLastTimeSlice() {
+		PersistentTransportCostsCache cache = load(Paths.get(utils.getOutputDirectory()));
+		Assert.assertEquals(0, cache.getTimeSlice(-10));
+		Assert.assertEquals(1, cache.getTimeSlice(TIME_SLICE));
+		Assert.assertEquals(60, cache.getTimeSlice(LAST_SLICE_START + TIME_SLICE));
+		Assert.assertEquals(60, cache.getTimeSlice(Integer.MAX_VALUE));
+
+		//forward and backward entries of both vehicle types must not share a key
+		double cheapCost = cache.getTransportCost(from, to, Integer.MAX_VALUE, null, cheap);
+		double expensiveCost = cache.getTransportCost(from, to, Integer.MAX_VALUE, null, expensive);
+		double expensiveBackwardCost = cache.getBackwardTransportCost(from, to, Integer.MAX_VALUE, null, expensive);
+		Assert.assertTrue(cheapCost < expensiveCost);
+		Assert.assertEquals(cache.getTransportCost(from, to, LAST_SLICE_START, null, cheap), cheapCost, 0);
+		Assert.assertEquals(cache.getTransportCost(from, to, LAST_SLICE_START, null, expensive), expensiveCost, 0);
+		Assert.assertEquals(cache.getBackwardTransportCost(from, to, LAST_SLICE_START, null, expensive), expensiveBackwardCost, 0);
+	}
+
+	private double[] query(PersistentTransportCostsCache cache) {
+		return new double[]{
+				cache.getTransportTime(from, to, 8 * 3600, null, cheap),
+				cache.getTransportCost(from, to, 8 * 3600, null, expensive),
+				cache.getBackwardTransportTime(from, to, 9 * 3600, null, cheap),
+				cache.getBackwardTransportCost(from, to, Integer.MAX_VALUE, null, expensive),
+				cache.getDistance(from, to, 8 * 3600, cheap)};
+	}
+
+	private PersistentTransportCostsCache load(Path directory) {
+		NetworkBasedTransportCosts.Builder builder = NetworkBasedTransportCosts.Builder.newInstance(network, vehicleTypes);
+		builder.setTimeSliceWidth(TIME_SLICE);
+		return PersistentTransportCostsCache.load(directory, builder, network, PersistentTransportCostsCache.FREE_SPEED_TRAVEL_TIME_ID, vehicleTypes, TIME_SLICE);
+	}
+
+	private static Path getCacheFile(Path directory) throws IOException {
+		try (Stream<Path> files = Files.list(directory)) {
+			List<Path> cacheFiles = files.filter(file -> file.getFileName().toString().endsWith(".bin")).collect(Collectors.toList());
+			Assert.assertEquals(1, cacheFiles.size());
+			return cacheFiles.get(0);
+		}
+	}
+
+	private static Network createNetwork() {
+		Network network = NetworkUtils.createNetwork();
+		Node[] nodes = new Node[4];
+		for (int i = 0; i < nodes.length; i++) {
+			nodes[i] = NetworkUtils.createAndAddNode(network, Id.createNodeId("cache_" + i), new Coord(i * 1000, 0));
+		}
+		for (int i = 0; i < nodes.length - 1; i++) {
+			NetworkUtils.createAndAddLink(network, Id.createLinkId("cache_" + i + "_" + (i + 1)), nodes[i], nodes[i + 1], 1000, 10, 1000, 1);
+			NetworkUtils.createAndAddLink(network, Id.createLinkId("cache_" + (i + 1) + "_" + i), nodes[i + 1], nodes[i], 1000, 10, 1000, 1);
+		}
+		return network;
+	}
+
+	private static VehicleType createVehicleType(String id, double costsPerMeter) {
+		VehicleType vehicleType = VehicleUtils.createVehicleType(Id.create(id, VehicleType.class));
+		vehicleType.setMaximumVelocity(20);
+		vehicleType.getCostInformation().setFixedCost(0.);
+		vehicleType.getCostInformation().setCostsPerMeter(costsPerMeter);
+		vehicleType.getCostInformation().setCostsPerSecond(0.01);
+		return vehicleType;
+	}
+
+	private static Vehicle createVehicle(String typeId) {
+		return VehicleImpl.Builder.newInstance(typeId)
+				.setStartLocation(Location.newInstance("cache_0_1"))
+				.setType(VehicleTypeImpl.Builder.newInstance(typeId).build())
+				.build();
+	}
+}
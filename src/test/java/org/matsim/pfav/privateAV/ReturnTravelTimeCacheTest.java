@@ -0,0 +1,88 @@
+package org.matsim.pfav.privateAV;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.contrib.dvrp.path.VrpPaths;
+import org.matsim.contrib.dvrp.router.TimeAsTravelDisutility;
+import org.matsim.core.network.NetworkUtils;
+import org.matsim.core.router.DijkstraFactory;
+import org.matsim.core.router.util.LeastCostPathCalculator;
+import org.matsim.core.router.util.TravelTime;
+
+public class ReturnTravelTimeCacheTest {
+
+	private static final double DEPARTURE = 8 * 3600;
+	private static final int TIME_BIN_SIZE = 900;
+
+	private final Network network = createNetwork();
+	private final Link depot = network.getLinks().get(Id.createLinkId("return_0_1"));
+	private final Link owner = network.getLinks().get(Id.createLinkId("return_2_3"));
+	private final Link otherOwner = network.getLinks().get(Id.createLinkId("return_1_2"));
+
+	//the congestion rises over the day, so every departure time has it's own travel time
+	private double congestionFactor = 1;
+	private final TravelTime travelTime = (link, time, person, vehicle) -> congestionFactor * link.getLength() / link.getFreespeed() * (1 + time / (24 * 3600));
+	private final LeastCostPathCalculator router = new DijkstraFactory().createPathCalculator(network, new TimeAsTravelDisutility(travelTime), travelTime);
+
+	@Test
+	public final void testExactByDefault() {
+		ReturnTravelTimeCache cache = new ReturnTravelTimeCache(new FreightAVConfigGroup().getReturnPathCacheTimeBinSize());
+		Assert.assertEquals(exactTravelTime(DEPARTURE + 100), cache.getTravelTime(depot, owner, DEPARTURE + 100, router, travelTime, null), 1e-9);
+		Assert.assertEquals(exactTravelTime(DEPARTURE + 800), cache.getTravelTime(depot, owner, DEPARTURE + 800, router, travelTime, null), 1e-9);
+		Assert.assertEquals(2, cache.getNumberOfRouterCalls());
+	}
+
+	@Test
+	public final void testBinnedLookup() {
+		ReturnTravelTimeCache cache = new ReturnTravelTimeCache(TIME_BIN_SIZE);
+		//both departures are in the bin that starts at DEPARTURE, and get the travel time for a departure at the beginning of the bin
+		Assert.assertEquals(exactTravelTime(DEPARTURE), cache.getTravelTime(depot, owner, DEPARTURE + 100, router, travelTime, null), 1e-9);
+		Assert.assertEquals(exactTravelTime(DEPARTURE), cache.getTravelTime(depot, owner, DEPARTURE + 800, router, travelTime, null), 1e-9);
+		Assert.assertEquals(1, cache.getNumberOfRouterCalls());
+
+		Assert.assertEquals(exactTravelTime(DEPARTURE + TIME_BIN_SIZE),
+				cache.getTravelTime(depot, owner, DEPARTURE + TIME_BIN_SIZE, router, travelTime, null), 1e-9);
+		cache.getTravelTime(depot, otherOwner, DEPARTURE + 100, router, travelTime, null);
+		Assert.assertEquals(3, cache.getNumberOfRouterCalls());
+		Assert.assertEquals(4, cache.getNumberOfRequests());
+	}
+
+	@Test
+	public final void testClear() {
+		ReturnTravelTimeCache cache = new ReturnTravelTimeCache(TIME_BIN_SIZE);
+		double travelTimeBefore = cache.getTravelTime(depot, owner, DEPARTURE, router, travelTime, null);
+
+		congestionFactor = 2;
+		Assert.assertEquals("the cached value is kept until the cache is cleared",
+				travelTimeBefore, cache.getTravelTime(depot, owner, DEPARTURE, router, travelTime, null), 0);
+
+		cache.clear();
+		Assert.assertEquals(0, cache.getNumberOfRequests());
+		Assert.assertEquals(0, cache.getNumberOfRouterCalls());
+		double travelTimeAfter = cache.getTravelTime(depot, owner, DEPARTURE, router, travelTime, null);
+		Assert.assertEquals(exactTravelTime(DEPARTURE), travelTimeAfter, 1e-9);
+		Assert.assertTrue(travelTimeAfter > travelTimeBefore);
+		Assert.assertEquals(1, cache.getNumberOfRouterCalls());
+	}
+
+	private double exactTravelTime(double departureTime) {
+		return VrpPaths.calcAndCreatePath(depot, owner, departureTime, router, travelTime).getTravelTime();
+	}
+
+	private static Network createNetwork() {
+		Network network = NetworkUtils.createNetwork();
+		Node[] nodes = new Node[4];
+		for (int i = 0; i < nodes.length; i++) {
+			nodes[i] = NetworkUtils.createAndAddNode(network, Id.createNodeId("return_" + i), new Coord(i * 1000, 0));
+		}
+		for (int i = 0; i < nodes.length - 1; i++) {
+			NetworkUtils.createAndAddLink(network, Id.createLinkId("return_" + i + "_" + (i + 1)), nodes[i], nodes[i + 1], 1000, 10, 1000, 1);
+		}
+		return network;
+	}
+}
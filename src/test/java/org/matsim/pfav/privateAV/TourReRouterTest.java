@@ -0,0 +1,117 @@
+package org.matsim.pfav.privateAV;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.contrib.dvrp.path.VrpPathWithTravelData;
+import org.matsim.contrib.dvrp.path.VrpPathWithTravelDataImpl;
+import org.matsim.contrib.dvrp.path.VrpPaths;
+import org.matsim.contrib.dvrp.router.TimeAsTravelDisutility;
+import org.matsim.contrib.dvrp.schedule.DriveTask;
+import org.matsim.core.network.NetworkUtils;
+import org.matsim.core.router.DijkstraFactory;
+import org.matsim.core.router.util.LeastCostPathCalculator;
+import org.matsim.core.router.util.TravelTime;
+
+public class TourReRouterTest {
+
+	private static final double DEPARTURE = 8 * 3600;
+	//length / freespeed = 100.5 s, so the tour planning floors the last link to 100 s
+	private static final double LINK_TT = 100.5;
+
+	private final Network network = createNetwork();
+	private final Link from = network.getLinks().get(Id.createLinkId("reroute_0_1"));
+	private final Link congested = network.getLinks().get(Id.createLinkId("reroute_1_2"));
+	private final Link to = network.getLinks().get(Id.createLinkId("reroute_2_3"));
+
+	private double delay = 0;
+	private final TravelTime travelTime = (link, time, person, vehicle) -> link.getLength() / link.getFreespeed() + (link == congested ? delay : 0);
+	private final LeastCostPathCalculator router = new DijkstraFactory().createPathCalculator(network, new TimeAsTravelDisutility(travelTime), travelTime);
+	private final PFAVDispatchMetrics metrics = new PFAVDispatchMetrics();
+
+	@Test
+	public final void testUnchangedRouteIsKeptWithoutTolerance() {
+		DriveTask drive = new TourReRouter(travelTime, 0, metrics).reRoute(createPlannedDrive(), DEPARTURE, router);
+
+		Assert.assertEquals(1, metrics.getNumberOfKeptTourDrives());
+		Assert.assertEquals(0, metrics.getNumberOfReRoutedTourDrives());
+		//the retimed last link is not floored, like on a path of the router
+		Assert.assertEquals(VrpPaths.FIRST_LINK_TT + 2 * LINK_TT, drive.getPath().getTravelTime(), 1e-9);
+		Assert.assertEquals(VrpPaths.getLastLinkTT(to, DEPARTURE + VrpPaths.FIRST_LINK_TT + LINK_TT),
+				drive.getPath().getLinkTravelTime(drive.getPath().getLinkCount() - 1), 1e-9);
+	}
+
+	@Test
+	public final void testRouteIsKeptWithinTolerance() {
+		delay = 50;
+		DriveTask drive = new TourReRouter(travelTime, 60, metrics).reRoute(createPlannedDrive(), DEPARTURE + 600, router);
+
+		Assert.assertEquals(1, metrics.getNumberOfKeptTourDrives());
+		Assert.assertEquals(congested, drive.getPath().getLink(1));
+		Assert.assertEquals(DEPARTURE + 600, drive.getPath().getDepartureTime(), 0);
+		Assert.assertEquals(VrpPaths.FIRST_LINK_TT + 2 * LINK_TT + delay, drive.getPath().getTravelTime(), 1e-9);
+	}
+
+	@Test
+	public final void testRouteIsReRoutedBeyondTolerance() {
+		delay = 1000;
+		DriveTask drive = new TourReRouter(travelTime, 60, metrics).reRoute(createPlannedDrive(), DEPARTURE, router);
+
+		Assert.assertEquals(0, metrics.getNumberOfKeptTourDrives());
+		Assert.assertEquals(1, metrics.getNumberOfReRoutedTourDrives());
+		Assert.assertTrue(drive instanceof PFAVServiceDriveTask);
+		Assert.assertEquals("the new route should take the bypass", Id.createLinkId("reroute_1_4"), drive.getPath().getLink(1).getId());
+		VrpPathWithTravelData expected = VrpPaths.calcAndCreatePath(from, to, DEPARTURE, router, travelTime);
+		Assert.assertEquals(expected.getTravelTime(), drive.getPath().getTravelTime(), 1e-9);
+	}
+
+	@Test
+	public final void testNegativeToleranceAlwaysReRoutes() {
+		new TourReRouter(travelTime, -1, metrics).reRoute(createPlannedDrive(), DEPARTURE, router);
+		Assert.assertEquals(0, metrics.getNumberOfKeptTourDrives());
+		Assert.assertEquals(1, metrics.getNumberOfReRoutedTourDrives());
+	}
+
+	@Test
+	public final void testZeroLengthPath() {
+		VrpPathWithTravelData path = TourReRouter.retimePath(VrpPaths.createZeroLengthPath(from, DEPARTURE), DEPARTURE + 3600, travelTime);
+		Assert.assertEquals(1, path.getLinkCount());
+		Assert.assertEquals(from, path.getFromLink());
+		Assert.assertEquals(DEPARTURE + 3600, path.getDepartureTime(), 0);
+		Assert.assertEquals(0, path.getTravelTime(), 0);
+
+		DriveTask drive = new TourReRouter(travelTime, 0, metrics).reRoute(new PFAVServiceDriveTask(VrpPaths.createZeroLengthPath(from, DEPARTURE)),
+				DEPARTURE + 3600, router);
+		Assert.assertEquals(1, metrics.getNumberOfKeptTourDrives());
+		Assert.assertEquals(0, drive.getPath().getTravelTime(), 0);
+	}
+
+	/**
+	 * the drive the way FreightTourPlanning.createVrpPath creates it from the carrier plan, i.e. with a floored last link
+	 */
+	private PFAVServiceDriveTask createPlannedDrive() {
+		Link[] links = {from, congested, to};
+		double[] linkTTs = {VrpPaths.FIRST_LINK_TT, LINK_TT, Math.floor(to.getLength() / to.getFreespeed())};
+		double totalTT = linkTTs[0] + linkTTs[1] + linkTTs[2];
+		return new PFAVServiceDriveTask(new VrpPathWithTravelDataImpl(DEPARTURE, totalTT, links, linkTTs));
+	}
+
+	private static Network createNetwork() {
+		Network network = NetworkUtils.createNetwork();
+		Node[] nodes = new Node[5];
+		for (int i = 0; i < 4; i++) {
+			nodes[i] = NetworkUtils.createAndAddNode(network, Id.createNodeId("reroute_" + i), new Coord(i * 1000, 0));
+		}
+		nodes[4] = NetworkUtils.createAndAddNode(network, Id.createNodeId("reroute_4"), new Coord(1500, 1000));
+		for (int i = 0; i < 3; i++) {
+			NetworkUtils.createAndAddLink(network, Id.createLinkId("reroute_" + i + "_" + (i + 1)), nodes[i], nodes[i + 1], 1005, 10, 1000, 1);
+		}
+		NetworkUtils.createAndAddLink(network, Id.createLinkId("reroute_1_4"), nodes[1], nodes[4], 1500, 10, 1000, 1);
+		NetworkUtils.createAndAddLink(network, Id.createLinkId("reroute_4_2"), nodes[4], nodes[2], 1500, 10, 1000, 1);
+		return network;
+	}
+}
@@ -0,0 +1,51 @@
+package org.matsim.pfav.privateAV;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.core.network.NetworkUtils;
+import org.matsim.core.router.util.TravelTime;
+import org.matsim.vehicles.CostInformation;
+import org.matsim.vehicles.VehicleType;
+import org.matsim.vehicles.VehicleUtils;
+
+public class VehTypeLinkCostTableTest {
+
+	private static final int TIME_BIN_SIZE = 900;
+	private static final double MAX_TIME = 3 * 3600;
+
+	@Test
+	public final void testSameCostsAsVehTypeVariableTravelDisutility() {
+		Network network = NetworkUtils.createNetwork();
+		Node from = NetworkUtils.createAndAddNode(network, Id.createNodeId("table_0"), new Coord(0, 0));
+		Node to = NetworkUtils.createAndAddNode(network, Id.createNodeId("table_1"), new Coord(100, 0));
+		Link link = NetworkUtils.createAndAddLink(network, Id.createLinkId("table_0_1"), from, to, 100, 10, 1000, 1);
+		NetworkUtils.createAndAddLink(network, Id.createLinkId("table_1_0"), to, from, 250, 20, 1000, 1);
+
+		//constant within the time bins, just like the offline travel time estimator
+		TravelTime travelTime = (l, time, person, vehicle) -> l.getLength() / l.getFreespeed() + Math.floor(time / TIME_BIN_SIZE) * 10;
+
+		VehicleType vehicleType = VehicleUtils.createVehicleType(Id.create("PFAV", VehicleType.class));
+		CostInformation costInformation = vehicleType.getCostInformation();
+		costInformation.setCostsPerMeter(0.0001);
+		costInformation.setCostsPerSecond(0.001);
+
+		VehTypeVariableTravelDisutility disutility = new VehTypeVariableTravelDisutility(travelTime, costInformation);
+		VehTypeLinkCostTable table = new VehTypeLinkCostTable(network, travelTime, costInformation, TIME_BIN_SIZE, MAX_TIME);
+
+		for (Link l : network.getLinks().values()) {
+			for (double time = 0; time <= MAX_TIME; time += 300) {
+				Assert.assertEquals(disutility.getLinkTravelDisutility(l, time, null, null), table.getLinkTravelDisutility(l, time, null, null), 1e-9);
+			}
+			Assert.assertEquals(disutility.getLinkMinimumTravelDisutility(l), table.getLinkMinimumTravelDisutility(l), 1e-9);
+		}
+
+		//departures after the max time get the costs of the last bin
+		Assert.assertEquals(disutility.getLinkTravelDisutility(link, MAX_TIME, null, null),
+				table.getLinkTravelDisutility(link, MAX_TIME + 5 * TIME_BIN_SIZE, null, null), 1e-9);
+	}
+}
@@ -0,0 +1,123 @@
+package org.matsim.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Random;
+
+public class MinCostAssignmentTest {
+
+	@Test
+	public final void testSquareMatrix() {
+		double[][] cost = {
+				{4, 1, 3},
+				{2, 0, 5},
+				{3, 2, 2}};
+		//greedy would assign row 1 to column 1 first and end up with 0 + 2 + 4 = 6 instead of 5
+		int[] assignment = createDense(cost).solve();
+		Assert.assertArrayEquals(new int[]{1, 0, 2}, assignment);
+	}
+
+	@Test
+	public final void testMoreColumnsThanRows() {
+		double[][] cost = {
+				{10, 1, 7, 3},
+				{10, 2, 9, 8}};
+		int[] assignment = createDense(cost).solve();
+		Assert.assertArrayEquals(new int[]{3, 1}, assignment);
+	}
+
+	@Test
+	public final void testMoreRowsThanColumns() {
+		int[] assignment = createDense(new double[][]{{2}, {1}}).solve();
+		Assert.assertArrayEquals(new int[]{-1, 0}, assignment);
+	}
+
+	@Test
+	public final void testNumberOfAssignedRowsIsMaximizedFirst() {
+		MinCostAssignment assignment = new MinCostAssignment(2, 2);
+		assignment.addCandidate(0, 0, 1);
+		assignment.addCandidate(0, 1, 100);
+		assignment.addCandidate(1, 0, 1);
+		//row 0 takes the expensive column, so that row 1 can be assigned at all
+		Assert.assertArrayEquals(new int[]{1, 0}, assignment.solve());
+	}
+
+	@Test
+	public final void testRowsWithoutCandidates() {
+		MinCostAssignment assignment = new MinCostAssignment(3, 5);
+		assignment.addCandidate(1, 4, 0);
+		Assert.assertArrayEquals(new int[]{-1, 4, -1}, assignment.solve());
+		Assert.assertArrayEquals(new int[0], new MinCostAssignment(0, 0).solve());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public final void testNegativeCost() {
+		new MinCostAssignment(1, 1).addCandidate(0, 0, -1);
+	}
+
+	/**
+	 * compares the number of assigned rows and the total cost with all possible assignments of small random instances
+	 */
+	@Test
+	public final void testRandomInstancesAgainstBruteForce() {
+		Random random = new Random(4711);
+		for (int instance = 0; instance < 500; instance++) {
+			int rows = 1 + random.nextInt(5);
+			int columns = 1 + random.nextInt(5);
+			double[][] cost = new double[rows][columns];
+			MinCostAssignment assignment = new MinCostAssignment(rows, columns);
+			for (int r = 0; r < rows; r++) {
+				for (int c = 0; c < columns; c++) {
+					//NaN marks a pair without candidate
+					cost[r][c] = random.nextDouble() < 0.5 ? random.nextInt(20) : Double.NaN;
+					if (!Double.isNaN(cost[r][c])) assignment.addCandidate(r, c, cost[r][c]);
+				}
+			}
+			int[] result = assignment.solve();
+
+			boolean[] usedColumns = new boolean[columns];
+			int assignedRows = 0;
+			double totalCost = 0;
+			for (int r = 0; r < rows; r++) {
+				if (result[r] < 0) continue;
+				Assert.assertFalse("column " + result[r] + " is assigned twice", usedColumns[result[r]]);
+				Assert.assertFalse(Double.isNaN(cost[r][result[r]]));
+				usedColumns[result[r]] = true;
+				assignedRows++;
+				totalCost += cost[r][result[r]];
+			}
+			double[] best = bruteForce(cost, 0, new boolean[columns]);
+			Assert.assertEquals("instance " + instance, best[0], assignedRows, 0);
+			Assert.assertEquals("instance " + instance, best[1], totalCost, 1e-9);
+		}
+	}
+
+	/**
+	 * @return the maximum number of assigned rows and the minimum cost for that number, for the rows from {@code row} on
+	 */
+	private static double[] bruteForce(double[][] cost, int row, boolean[] usedColumns) {
+		if (row == cost.length) return new double[]{0, 0};
+		double[] best = bruteForce(cost, row + 1, usedColumns);
+		for (int c = 0; c < usedColumns.length; c++) {
+			if (usedColumns[c] || Double.isNaN(cost[row][c])) continue;
+			usedColumns[c] = true;
+			double[] rest = bruteForce(cost, row + 1, usedColumns);
+			usedColumns[c] = false;
+			double assigned = rest[0] + 1;
+			double total = rest[1] + cost[row][c];
+			if (assigned > best[0] || (assigned == best[0] && total < best[1])) best = new double[]{assigned, total};
+		}
+		return best;
+	}
+
+	private static MinCostAssignment createDense(double[][] cost) {
+		MinCostAssignment assignment = new MinCostAssignment(cost.length, cost[0].length);
+		for (int r = 0; r < cost.length; r++) {
+			for (int c = 0; c < cost[r].length; c++) {
+				assignment.addCandidate(r, c, cost[r][c]);
+			}
+		}
+		return assignment;
+	}
+}